@@ -0,0 +1,86 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compiling a child query plan and constructing its IN clause queries - which replaced constructing each
+ * query on every batch - and executing the child query for a batch of parents and merging the child rows into them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChildQueryBenchmark {
+
+	@Param({"100"})
+	public int parents;
+
+	@Param({"10"})
+	public int childrenPerParent;
+
+	@Param({"10", "50"})
+	public int width;
+
+	@Param({"IN_CLAUSE", "TEMP_TABLE"})
+	public String joinStrategy;
+
+	private EmbeddedDatabase database;
+	private TableQuery parentQuery;
+	private ChildQueryPlan plan;
+	private ChildQueryExecutor executor;
+	private List<Map<String, Object>> parentRows;
+
+	@Setup
+	public void setup() throws SQLException {
+		database = new EmbeddedDatabase("child_query_" + width, width, parents, childrenPerParent);
+		parentQuery = newParentQuery();
+		executor = new ChildQueryExecutor();
+		plan = executor.compile(parentQuery);
+		parentRows = new SyntheticData(width, 0, 0).newRows(parents);
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	protected TableQuery newParentQuery() {
+		TableQuery parent = new TableQuery("select * from parent", "id", null, null);
+		TableQuery child = new TableQuery("select * from child", null, "parent_id", "children");
+		child.setJoinStrategy(ChildJoinStrategy.valueOf(joinStrategy));
+		child.setKeyType("INT");
+		parent.addChildQuery(child);
+		return parent;
+	}
+
+	@Benchmark
+	public ChildQueryPlan compilePlan() {
+		return executor.compile(parentQuery);
+	}
+
+	@Benchmark
+	public String constructInClauseQuery() {
+		// An uneven number of keys isn't precomputed, so this measures the fallback as well
+		return plan.getChildPlans().get(0).getInClauseQuery(parents - 1);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> executeAndMergeChildRows() {
+		// The child rows are added to the parents, so each invocation needs its own copy of the parents
+		List<Map<String, Object>> rows = new ArrayList<>(parentRows.size());
+		for (Map<String, Object> parentRow : parentRows) {
+			ColumnRow row = (ColumnRow) parentRow;
+			rows.add(new ColumnRow(row.getColumnIndex(), row.values().toArray()));
+		}
+		executor.executeChildQueries(database.getConnection(), plan, rows);
+		return rows;
+	}
+}
@@ -0,0 +1,82 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a batch of column maps via ColumnMapsWriter, and reading it back the same way that
+ * AbstractColumnMapProcessor.deserializeColumnMapList does, in both the binary format and Java serialization, with
+ * each compression, and with and without column dictionaries, which only apply to the binary format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColumnMapsCodecBenchmark {
+
+	@Param({"100"})
+	public int rows;
+
+	@Param({"10", "50"})
+	public int width;
+
+	@Param({"0", "2"})
+	public int depth;
+
+	@Param({"Binary", "Java serialization"})
+	public String format;
+
+	@Param({"None", "LZ", "Deflate"})
+	public String compression;
+
+	@Param({"0", "1000"})
+	public int dictionarySize;
+
+	private List<Map<String, Object>> columnMaps;
+	private ColumnMapsFormat columnMapsFormat;
+	private ColumnMapsCompression columnMapsCompression;
+	private byte[] content;
+
+	@Setup
+	public void setup() throws IOException {
+		columnMaps = new SyntheticData(width, depth, 5).newRows(rows);
+		columnMapsFormat = ColumnMapsFormat.fromDisplayName(format);
+		columnMapsCompression = ColumnMapsCompression.fromDisplayName(compression);
+		content = write();
+	}
+
+	@Benchmark
+	public byte[] write() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnMapsWriter(columnMaps, columnMapsFormat, columnMapsCompression, dictionarySize).process(out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> read() throws IOException, ClassNotFoundException {
+		return read(content);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> roundTrip() throws IOException, ClassNotFoundException {
+		return read(write());
+	}
+
+	protected List<Map<String, Object>> read(byte[] bytes) throws IOException, ClassNotFoundException {
+		BufferedInputStream in = new BufferedInputStream(columnMapsCompression.decompress(new ByteArrayInputStream(bytes)));
+		if (ColumnMapsFormat.BINARY.equals(columnMapsFormat)) {
+			return new ColumnMapsDecoder(in).readColumnMaps();
+		}
+		return (List<Map<String, Object>>) new ObjectInputStream(in).readObject();
+	}
+}
@@ -0,0 +1,88 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory H2 database for the benchmarks that read from JDBC. Creates a "parent" table and a "child" table - with a
+ * parent_id foreign key - that each have the shape of the rows generated by SyntheticData.
+ */
+public class EmbeddedDatabase implements AutoCloseable {
+
+	private final Connection connection;
+
+	/**
+	 * @param name           unique name of the in-memory database
+	 * @param width          the number of columns in each table, not counting parent_id
+	 * @param parentCount    the number of rows in the parent table
+	 * @param childrenPerRow the number of rows in the child table for each parent
+	 * @throws SQLException
+	 */
+	public EmbeddedDatabase(String name, int width, int parentCount, int childrenPerRow) throws SQLException {
+		connection = DriverManager.getConnection("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		SyntheticData data = new SyntheticData(width, 0, 0);
+		createTable("parent", width, false);
+		insertRows("parent", data.newRows(parentCount), width, 0);
+		createTable("child", width, true);
+		for (int i = 1; i <= parentCount; i++) {
+			insertRows("child", data.newRows(childrenPerRow), width, i);
+		}
+	}
+
+	protected void createTable(String table, int width, boolean hasParent) throws SQLException {
+		StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table).append(" (");
+		for (int i = 0; i < width; i++) {
+			if (i > 0) {
+				ddl.append(", ");
+			}
+			ddl.append(SyntheticData.columnName(i)).append(" ").append(SyntheticData.sqlType(i));
+		}
+		if (hasParent) {
+			ddl.append(", parent_id INT");
+		}
+		ddl.append(")");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(ddl.toString());
+			if (hasParent) {
+				statement.execute("CREATE INDEX " + table + "_parent_id ON " + table + " (parent_id)");
+			}
+		}
+	}
+
+	protected void insertRows(String table, List<Map<String, Object>> rows, int width, int parentId) throws SQLException {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" VALUES (");
+		for (int i = 0; i < width; i++) {
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		sql.append(parentId > 0 ? ", ?)" : ")");
+		try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+			for (Map<String, Object> row : rows) {
+				for (int i = 0; i < width; i++) {
+					statement.setObject(i + 1, row.get(SyntheticData.columnName(i)));
+				}
+				if (parentId > 0) {
+					statement.setInt(width + 1, parentId);
+				}
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+		connection.close();
+	}
+}
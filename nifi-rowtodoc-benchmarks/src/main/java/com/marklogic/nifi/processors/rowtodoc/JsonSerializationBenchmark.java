@@ -0,0 +1,86 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing column maps as JSON documents with the ObjectMapper that ConvertColumnMapsToJSON uses, both as a
+ * String - as serializeColumnMap does - and directly to an OutputStream - as writeColumnMap does. When a SQL date
+ * format is set, each java.sql.Date is written via SqlDateSerializer. The same documents are also written by the
+ * ColumnMapJsonWriter that both processors now use, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+	@Param({"100"})
+	public int rows;
+
+	@Param({"10", "50"})
+	public int width;
+
+	@Param({"0", "2"})
+	public int depth;
+
+	@Param({"", "yyyy-MM-dd"})
+	public String sqlDateFormat;
+
+	private List<Map<String, Object>> columnMaps;
+	private ObjectWriter objectWriter;
+	private ColumnMapJsonWriter jsonWriter;
+	private ByteArrayOutputStream out;
+
+	@Setup
+	public void setup() {
+		columnMaps = new SyntheticData(width, depth, 5).newRows(rows);
+		String format = sqlDateFormat.isEmpty() ? null : sqlDateFormat;
+		ObjectMapper objectMapper = ConvertColumnMapsToJSON.newObjectMapper(format);
+		objectWriter = objectMapper.writer();
+		jsonWriter = new ColumnMapJsonWriter(objectMapper, format, null, null);
+		out = new ByteArrayOutputStream(1024 * 1024);
+	}
+
+	@Benchmark
+	public void serializeToString(Blackhole blackhole) throws IOException {
+		for (Map<String, Object> columnMap : columnMaps) {
+			blackhole.consume(objectWriter.writeValueAsString(columnMap));
+		}
+	}
+
+	@Benchmark
+	public int writeToOutputStream() throws IOException {
+		out.reset();
+		for (Map<String, Object> columnMap : columnMaps) {
+			objectWriter.writeValue(out, columnMap);
+		}
+		return out.size();
+	}
+
+	@Benchmark
+	public void serializeToStringWithColumnWriters(Blackhole blackhole) throws IOException {
+		for (Map<String, Object> columnMap : columnMaps) {
+			blackhole.consume(jsonWriter.writeValueAsString(columnMap));
+		}
+	}
+
+	@Benchmark
+	public int writeToOutputStreamWithColumnWriters() throws IOException {
+		out.reset();
+		for (Map<String, Object> columnMap : columnMaps) {
+			jsonWriter.write(columnMap, out);
+		}
+		return out.size();
+	}
+}
@@ -0,0 +1,63 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping every row of a table into column maps via ColumnRowMapper, compared to Spring's ColumnMapRowMapper,
+ * which ColumnRowMapper replaced. The cost of the query itself is included in both, as it is when the processors run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowMapperBenchmark {
+
+	@Param({"1000"})
+	public int rows;
+
+	@Param({"10", "50"})
+	public int width;
+
+	private EmbeddedDatabase database;
+
+	@Setup
+	public void setup() throws SQLException {
+		database = new EmbeddedDatabase("row_mapper_" + width, width, rows, 0);
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	@Benchmark
+	public void columnRowMapper(Blackhole blackhole) throws SQLException {
+		mapRows(new ColumnRowMapper(), blackhole);
+	}
+
+	@Benchmark
+	public void springColumnMapRowMapper(Blackhole blackhole) throws SQLException {
+		mapRows(new ColumnMapRowMapper(), blackhole);
+	}
+
+	protected void mapRows(RowMapper<Map<String, Object>> rowMapper, Blackhole blackhole) throws SQLException {
+		try (PreparedStatement statement = database.getConnection().prepareStatement("select * from parent");
+		     ResultSet resultSet = statement.executeQuery()) {
+			int rowNumber = 0;
+			while (resultSet.next()) {
+				blackhole.consume(rowMapper.mapRow(resultSet, rowNumber++));
+			}
+		}
+	}
+}
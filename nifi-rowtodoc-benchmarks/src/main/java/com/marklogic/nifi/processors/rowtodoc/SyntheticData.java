@@ -0,0 +1,126 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates column maps for the benchmarks. Each row has the given number of columns, cycling through the types that
+ * ColumnRowMapper commonly returns, and - for each level of nesting - a list of child rows that has the same shape.
+ * A fixed seed is used so that every run of a benchmark works with the same data.
+ */
+public class SyntheticData {
+
+	private static final String[] STATUSES = {"ACTIVE", "INACTIVE", "PENDING", "CLOSED"};
+
+	private final Random random = new Random(42);
+	private final int width;
+	private final int depth;
+	private final int childrenPerRow;
+
+	/**
+	 * @param width          the number of columns in each row, not counting the child row lists
+	 * @param depth          the number of levels of child rows below each top-level row
+	 * @param childrenPerRow the number of child rows in each list of child rows
+	 */
+	public SyntheticData(int width, int depth, int childrenPerRow) {
+		this.width = width;
+		this.depth = depth;
+		this.childrenPerRow = childrenPerRow;
+	}
+
+	public List<Map<String, Object>> newRows(int count) {
+		return newRows(count, depth);
+	}
+
+	protected List<Map<String, Object>> newRows(int count, int remainingDepth) {
+		final boolean hasChildren = remainingDepth > 0;
+		String[] columnNames = new String[hasChildren ? width + 1 : width];
+		for (int i = 0; i < width; i++) {
+			columnNames[i] = columnName(i);
+		}
+		if (hasChildren) {
+			columnNames[width] = "children";
+		}
+		ColumnIndex columnIndex = new ColumnIndex(columnNames);
+
+		List<Map<String, Object>> rows = new ArrayList<>(count);
+		for (int r = 0; r < count; r++) {
+			Object[] values = new Object[columnNames.length];
+			for (int i = 0; i < width; i++) {
+				values[i] = newValue(i, r);
+			}
+			if (hasChildren) {
+				values[width] = newRows(childrenPerRow, remainingDepth - 1);
+			}
+			rows.add(new ColumnRow(columnIndex, values));
+		}
+		return rows;
+	}
+
+	/**
+	 * The first column is always an integer ID, so that the rows can be used as parents.
+	 *
+	 * @param column
+	 * @param row
+	 * @return
+	 */
+	protected Object newValue(int column, int row) {
+		if (column == 0) {
+			return row + 1;
+		}
+		switch (column % 8) {
+			case 1:
+				return "value " + random.nextInt(100000);
+			case 2:
+				return STATUSES[random.nextInt(STATUSES.length)];
+			case 3:
+				return random.nextLong();
+			case 4:
+				return BigDecimal.valueOf(random.nextInt(1000000), 2);
+			case 5:
+				return new Timestamp(1500000000000L + random.nextInt(1000000000));
+			case 6:
+				return new Date(1500000000000L + random.nextInt(1000000000));
+			case 7:
+				return random.nextBoolean();
+			default:
+				return random.nextInt(10) == 0 ? null : random.nextInt();
+		}
+	}
+
+	/**
+	 * @param column
+	 * @return the SQL type of the column that newValue returns values for, for creating tables with the same shape
+	 */
+	public static String sqlType(int column) {
+		if (column == 0) {
+			return "INT";
+		}
+		switch (column % 8) {
+			case 1:
+			case 2:
+				return "VARCHAR(64)";
+			case 3:
+				return "BIGINT";
+			case 4:
+				return "DECIMAL(12,2)";
+			case 5:
+				return "TIMESTAMP";
+			case 6:
+				return "DATE";
+			case 7:
+				return "BOOLEAN";
+			default:
+				return "INT";
+		}
+	}
+
+	public static String columnName(int column) {
+		return column == 0 ? "id" : "col_" + column;
+	}
+}
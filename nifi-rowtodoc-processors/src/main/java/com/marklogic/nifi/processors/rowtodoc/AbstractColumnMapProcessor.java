@@ -1,21 +1,77 @@
 package com.marklogic.nifi.processors.rowtodoc;
 
+import org.apache.nifi.annotation.lifecycle.OnRemoved;
+import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.stream.io.StreamUtils;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractColumnMapProcessor extends AbstractProcessor {
 
+	public static final String PASS_THROUGH = "Pass through";
+	public static final String REWRITE = "Rewrite";
+
+	public static final PropertyDescriptor COLUMN_MAPS_FORMAT = new PropertyDescriptor.Builder()
+		.name("Column maps format")
+		.description("Format for writing the list of column maps that is sent to the next processor. Either format " +
+			"can be read by the processors in this bundle; Java serialization is only needed if a processor from an " +
+			"earlier version of this bundle must read the output.")
+		.required(true)
+		.allowableValues(ColumnMapsFormat.BINARY.getDisplayName(), ColumnMapsFormat.JAVA_SERIALIZATION.getDisplayName())
+		.defaultValue(ColumnMapsFormat.BINARY.getDisplayName())
+		.build();
+
+	public static final PropertyDescriptor COLUMN_MAPS_COMPRESSION = new PropertyDescriptor.Builder()
+		.name("Column maps compression")
+		.description("Compression for writing the list of column maps that is sent to the next processor. The list " +
+			"repeats the same columns and often the same values in every row, so it compresses well. \"" +
+			ColumnMapsCompression.LZ.getDisplayName() + "\" is a fast codec that costs little CPU; \"" +
+			ColumnMapsCompression.DEFLATE.getDisplayName() + "\" compresses further at a higher CPU cost. The " +
+			"compression is recorded in the \"" + ColumnMapsCompression.ATTRIBUTE + "\" attribute, which the " +
+			"processors in this bundle use to decompress the list.")
+		.required(true)
+		.allowableValues(ColumnMapsCompression.NONE.getDisplayName(), ColumnMapsCompression.LZ.getDisplayName(),
+			ColumnMapsCompression.DEFLATE.getDisplayName())
+		.defaultValue(ColumnMapsCompression.NONE.getDisplayName())
+		.build();
+
+	public static final PropertyDescriptor COLUMN_DICTIONARY_SIZE = new PropertyDescriptor.Builder()
+		.name("Column dictionary size")
+		.description("Maximum number of distinct values per column to dictionary-encode. If greater than zero, a " +
+			"String, number, or date value that repeats in a column - e.g. a status code in thousands of child rows - " +
+			"is read into memory once and shared by every row, and written in the binary column maps format as a " +
+			"reference to its first occurrence. A column with more distinct values than this stops being " +
+			"dictionary-encoded, as it would gain little. Column maps written with dictionaries can only be read by " +
+			"this version of these processors or later. If not set, or set to zero, no dictionaries are used.")
+		.required(false)
+		.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor SUCCESS_CONTENT = new PropertyDescriptor.Builder()
+		.name("SUCCESS content")
+		.description("\"" + PASS_THROUGH + "\" sends the incoming FlowFile to the SUCCESS relationship unchanged; \"" +
+			REWRITE + "\" rewrites the list of column maps in the configured column maps format, which is only needed " +
+			"to convert the list from one format to the other")
+		.required(true)
+		.allowableValues(PASS_THROUGH, REWRITE)
+		.defaultValue(PASS_THROUGH)
+		.build();
+
 	/**
-	 * This processor expects the contents of the FlowFile to be a List<Map<String Object>> that was serialized via
+	 * This processor expects the contents of the FlowFile to be a List<Map<String Object>> that was written either
+	 * via ColumnMapsEncoder or, for FlowFiles written by an earlier version of these processors, via
 	 * ObjectOutputStream.
 	 *
 	 * @param session
@@ -23,25 +79,178 @@ public abstract class AbstractColumnMapProcessor extends AbstractProcessor {
 	 * @return
 	 */
 	protected List<Map<String, Object>> deserializeColumnMapList(ProcessSession session, FlowFile flowFile) {
-		final byte[] content = new byte[(int) flowFile.getSize()];
-		session.read(flowFile, inputStream -> StreamUtils.fillBuffer(inputStream, content));
-		ByteArrayInputStream bais = new ByteArrayInputStream(content);
-		ObjectInputStream ois = null;
+		return deserializeColumnMapList(session, flowFile, null);
+	}
+
+	/**
+	 * @param session
+	 * @param flowFile
+	 * @param spill    optional; if set, lists of child rows in the binary format are read into lists created by it
+	 * @return
+	 */
+	protected List<Map<String, Object>> deserializeColumnMapList(ProcessSession session, FlowFile flowFile, ChildRowSpill spill) {
+		return deserializeColumnMapList(session, flowFile, spill, null);
+	}
+
+	/**
+	 * @param session
+	 * @param flowFile
+	 * @param spill        optional
+	 * @param largeObjects optional; if set, large values in the binary format are read into it as LargeObjects
+	 * @return
+	 */
+	protected List<Map<String, Object>> deserializeColumnMapList(ProcessSession session, FlowFile flowFile, ChildRowSpill spill,
+	                                                             LargeObjectStore largeObjects) {
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		readColumnMaps(session, flowFile, spill, largeObjects, columnMaps::add);
+		return columnMaps;
+	}
+
+	/**
+	 * Reads each column map from the FlowFile and passes it to the given consumer. For the binary format, each column
+	 * map is decoded directly from the FlowFile's InputStream, so the content of the FlowFile is never held in memory
+	 * as a byte array. The binary format and Java serialization are distinguished by the magic number at the start of
+	 * the binary format. If the FlowFile has a compression attribute, the content is decompressed as it's read.
+	 *
+	 * @param session
+	 * @param flowFile
+	 * @param consumer
+	 */
+	protected void readColumnMaps(ProcessSession session, FlowFile flowFile, ColumnMapConsumer consumer) {
+		readColumnMaps(session, flowFile, null, consumer);
+	}
+
+	/**
+	 * Same as readColumnMaps, but with lists of child rows in the binary format read into lists created by the given
+	 * spill, so that they can be moved to disk if they're large.
+	 *
+	 * @param session
+	 * @param flowFile
+	 * @param spill    optional
+	 * @param consumer
+	 */
+	protected void readColumnMaps(ProcessSession session, FlowFile flowFile, ChildRowSpill spill, ColumnMapConsumer consumer) {
+		readColumnMaps(session, flowFile, spill, null, consumer);
+	}
+
+	/**
+	 * Same as readColumnMaps, but with byte array and String values in the binary format that are larger than the
+	 * threshold of the given store copied into it and read as LargeObjects.
+	 *
+	 * @param session
+	 * @param flowFile
+	 * @param spill        optional
+	 * @param largeObjects optional
+	 * @param consumer
+	 */
+	protected void readColumnMaps(ProcessSession session, FlowFile flowFile, ChildRowSpill spill, LargeObjectStore largeObjects,
+	                              ColumnMapConsumer consumer) {
+		final ColumnMapsCompression compression;
 		try {
-			ois = new ObjectInputStream(bais);
-			return (List<Map<String, Object>>) ois.readObject();
-		} catch (Exception ex) {
+			compression = ColumnMapsCompression.fromAttribute(flowFile.getAttribute(ColumnMapsCompression.ATTRIBUTE));
+		} catch (IllegalArgumentException ex) {
 			throw new ProcessException("Unable to read list of column maps from flow file, cause: " + ex.getMessage(), ex);
-		} finally {
-			if (ois != null) {
-				try {
-					ois.close();
-				} catch (IOException e) {
-					// ignore
+		}
+		try {
+			session.read(flowFile, inputStream -> {
+				try (InputStream decompressedIn = compression.decompress(inputStream)) {
+					BufferedInputStream in = new BufferedInputStream(decompressedIn);
+					in.mark(ColumnMapsFormat.MAGIC.length);
+					byte[] header = new byte[ColumnMapsFormat.MAGIC.length];
+					final int length = StreamUtils.fillBuffer(in, header, false);
+					in.reset();
+
+					if (ColumnMapsFormat.isBinary(header, length)) {
+						new ColumnMapsDecoder(in, spill, largeObjects).readColumnMaps(consumer);
+					} else {
+						ObjectInputStream ois = new ObjectInputStream(in);
+						List<Map<String, Object>> columnMaps;
+						try {
+							columnMaps = (List<Map<String, Object>>) ois.readObject();
+						} catch (ClassNotFoundException e) {
+							throw new IOException(e);
+						}
+						for (Map<String, Object> columnMap : columnMaps) {
+							consumer.accept(columnMap);
+						}
+					}
 				}
-			}
+			});
+		} catch (ProcessException ex) {
+			throw new ProcessException("Unable to read list of column maps from flow file, cause: " + ex.getMessage(), ex);
 		}
 	}
 
+	/**
+	 * Writes the given metrics as attributes on the given FlowFile, adds them to the NiFi counters, and adds them to
+	 * the cumulative metrics of this processor.
+	 *
+	 * @param session
+	 * @param flowFile
+	 * @param metrics
+	 * @return the FlowFile with the metrics attributes
+	 */
+	protected FlowFile recordMetrics(ProcessSession session, FlowFile flowFile, RowToDocMetrics metrics) {
+		recordMetrics(session, metrics);
+		return session.putAllAttributes(flowFile, metrics.toAttributes());
+	}
+
+	/**
+	 * Adds the given metrics to the NiFi counters and to the cumulative metrics of this processor, for metrics that
+	 * don't belong to a single FlowFile.
+	 *
+	 * @param session
+	 * @param metrics
+	 */
+	protected void recordMetrics(ProcessSession session, RowToDocMetrics metrics) {
+		metrics.adjustCounters(session);
+		metrics.addTo(RowToDocMetrics.forComponent(getIdentifier()));
+	}
+
+	/**
+	 * @return a snapshot of the metrics recorded by this processor since it was added to the flow or NiFi was started
+	 */
+	public Map<String, StageMetrics.Snapshot> getMetricsSnapshot() {
+		return RowToDocMetrics.forComponent(getIdentifier()).snapshot();
+	}
+
+	@OnRemoved
+	public void unregisterMetrics() {
+		RowToDocMetrics.unregister(getIdentifier());
+	}
+
+	protected ColumnMapsWriter newColumnMapsWriter(ProcessContext context, List<Map<String, Object>> columnMaps) {
+		ColumnMapsFormat format = ColumnMapsFormat.fromDisplayName(context.getProperty(COLUMN_MAPS_FORMAT).getValue());
+		ColumnMapsCompression compression = ColumnMapsCompression.fromDisplayName(context.getProperty(COLUMN_MAPS_COMPRESSION).getValue());
+		return new ColumnMapsWriter(columnMaps, format, compression, getColumnDictionarySize(context));
+	}
+
+	/**
+	 * @param context
+	 * @return the configured column dictionary size, or zero if dictionaries aren't used
+	 */
+	protected static int getColumnDictionarySize(ProcessContext context) {
+		final Integer dictionarySize = context.getProperty(COLUMN_DICTIONARY_SIZE).asInteger();
+		return dictionarySize != null ? dictionarySize : 0;
+	}
+
+	/**
+	 * Writes the given column maps as the content of the given FlowFile, in the configured format and compression, and
+	 * records the compression in the compression attribute.
+	 *
+	 * @param context
+	 * @param session
+	 * @param flowFile
+	 * @param columnMaps
+	 * @return the updated FlowFile
+	 */
+	protected FlowFile writeColumnMaps(ProcessContext context, ProcessSession session, FlowFile flowFile, List<Map<String, Object>> columnMaps) {
+		ColumnMapsWriter writer = newColumnMapsWriter(context, columnMaps);
+		flowFile = session.write(flowFile, writer);
+		if (ColumnMapsCompression.NONE.equals(writer.getCompression())) {
+			return session.removeAttribute(flowFile, ColumnMapsCompression.ATTRIBUTE);
+		}
+		return session.putAttribute(flowFile, ColumnMapsCompression.ATTRIBUTE, writer.getCompression().getDisplayName());
+	}
 
 }
@@ -0,0 +1,246 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.logging.ComponentLog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The rows of a single {@link LookupTable}, indexed by primary key, as held by {@link StandardLookupTableCache}.
+ * <p>
+ * At most maxRows rows are held. A table with no more rows than that is loaded as a whole, and a key that isn't found
+ * has no row. For a larger table, the first maxRows rows are loaded, the least recently used rows are evicted as
+ * others are added, and the keys that aren't found are queried - all in one query per lookup, constrained via an "IN"
+ * clause on the primary key the same way that a child query is - and then held.
+ * <p>
+ * If a refresh interval is set, the first lookup after the interval has passed since the table was loaded reloads it,
+ * while lookups on other threads continue to use the rows that were loaded previously. If the reload fails, the rows
+ * that were loaded previously continue to be used until the next interval has passed. This is thread-safe.
+ */
+public class CachedLookupTable {
+
+	private final LookupTable table;
+	private final int maxRows;
+	private final long refreshIntervalNanos;
+	private final Supplier<Connection> connectionSupplier;
+	private final ChildQueryExecutor keyQueryExecutor = new ChildQueryExecutor();
+	private final ChildQueryPlan keyQueryPlan;
+	private final AtomicBoolean loading = new AtomicBoolean();
+	private final ComponentLog logger;
+
+	// Guarded by this, as an access-ordered map is modified by every get
+	private Map<Object, Map<String, Object>> rows;
+	private boolean complete;
+	private volatile long loadedAt;
+
+	/**
+	 * @param table
+	 * @param maxRows              the maximum number of rows to hold
+	 * @param refreshIntervalNanos the time after which the table is reloaded; zero if it's only loaded once
+	 * @param connectionSupplier   each connection is closed once the table, or the missing keys, have been queried
+	 */
+	public CachedLookupTable(LookupTable table, int maxRows, long refreshIntervalNanos, Supplier<Connection> connectionSupplier) {
+		this(table, maxRows, refreshIntervalNanos, connectionSupplier, null);
+	}
+
+	/**
+	 * @param table
+	 * @param maxRows              the maximum number of rows to hold
+	 * @param refreshIntervalNanos the time after which the table is reloaded; zero if it's only loaded once
+	 * @param connectionSupplier   each connection is closed once the table, or the missing keys, have been queried
+	 * @param logger               optional; a failed reload is logged as a warning
+	 */
+	public CachedLookupTable(LookupTable table, int maxRows, long refreshIntervalNanos, Supplier<Connection> connectionSupplier,
+	                         ComponentLog logger) {
+		this.table = table;
+		this.maxRows = maxRows;
+		this.refreshIntervalNanos = refreshIntervalNanos;
+		this.connectionSupplier = connectionSupplier;
+		this.logger = logger;
+		this.rows = newRowMap(0);
+
+		TableQuery keyQuery = new TableQuery(table.getQuery(), null, null, table.getName());
+		keyQuery.setForeignKeyColumnNames(Arrays.asList(table.getPrimaryKeyColumns()));
+		this.keyQueryPlan = keyQueryExecutor.compile(keyQuery);
+	}
+
+	/**
+	 * Loads the table, or as many rows of it as can be held, replacing any rows that were loaded previously.
+	 */
+	public void load() {
+		// One more row than can be held shows whether the table was loaded as a whole
+		List<Map<String, Object>> loadedRows = queryTable(maxRows < Integer.MAX_VALUE ? maxRows + 1 : maxRows);
+		final boolean loadedAll = loadedRows.size() <= maxRows;
+		Map<Object, Map<String, Object>> newRows = newRowMap(maxRows);
+		for (Map<String, Object> row : loadedAll ? loadedRows : loadedRows.subList(0, maxRows)) {
+			putRow(newRows, row);
+		}
+		synchronized (this) {
+			rows = newRows;
+			complete = loadedAll;
+		}
+		loadedAt = System.nanoTime();
+	}
+
+	/**
+	 * @param keys
+	 * @return the row for each of the given keys, or null for a key that the table has no row for
+	 * @see LookupTableCache#lookup(String, List)
+	 */
+	public List<Map<String, Object>> lookup(List<Object> keys) {
+		refreshIfExpired();
+
+		List<Map<String, Object>> result = new ArrayList<>(keys.size());
+		Set<Object> missingKeys = null;
+		synchronized (this) {
+			for (Object key : keys) {
+				final Object rowKey = toRowKey(key);
+				Map<String, Object> row = rowKey != null ? rows.get(rowKey) : null;
+				result.add(row);
+				if (row == null && rowKey != null && !complete) {
+					if (missingKeys == null) {
+						missingKeys = new LinkedHashSet<>();
+					}
+					missingKeys.add(rowKey);
+				}
+			}
+		}
+
+		if (missingKeys != null) {
+			Map<Object, Map<String, Object>> missingRows = new LinkedHashMap<>();
+			for (Map<String, Object> row : queryKeys(new ArrayList<>(missingKeys))) {
+				putRow(missingRows, row);
+			}
+			synchronized (this) {
+				rows.putAll(missingRows);
+			}
+			for (int i = 0; i < result.size(); i++) {
+				if (result.get(i) == null) {
+					final Object rowKey = toRowKey(keys.get(i));
+					result.set(i, rowKey != null ? missingRows.get(rowKey) : null);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void refreshIfExpired() {
+		if (refreshIntervalNanos > 0 && System.nanoTime() - loadedAt > refreshIntervalNanos && loading.compareAndSet(false, true)) {
+			try {
+				load();
+			} catch (RuntimeException e) {
+				// A lookup shouldn't fail because the table couldn't be reloaded, nor should every lookup retry it
+				loadedAt = System.nanoTime();
+				if (logger != null) {
+					logger.warn("Unable to reload lookup table " + table.getName() + "; continuing to use the rows that " +
+						"were loaded previously, cause: " + e.getMessage(), e);
+				}
+			} finally {
+				loading.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Executes the query of the lookup table.
+	 *
+	 * @param limit the maximum number of rows to read
+	 * @return
+	 */
+	protected List<Map<String, Object>> queryTable(int limit) {
+		Connection connection = connectionSupplier.get();
+		try (PreparedStatement preparedStatement = connection.prepareStatement(table.getQuery())) {
+			preparedStatement.setMaxRows(limit);
+			ColumnRowMapper rowMapper = new ColumnRowMapper();
+			List<Map<String, Object>> loadedRows = new ArrayList<>();
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (loadedRows.size() < limit && resultSet.next()) {
+					loadedRows.add(rowMapper.mapRow(resultSet, loadedRows.size()));
+				}
+			}
+			return loadedRows;
+		} catch (SQLException ex) {
+			throw new RuntimeException("Unable to load lookup table " + table.getName() + ", cause: " + ex.getMessage(), ex);
+		} finally {
+			closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Executes the query of the lookup table, constrained to the given keys.
+	 *
+	 * @param keys
+	 * @return
+	 */
+	protected List<Map<String, Object>> queryKeys(List<Object> keys) {
+		Connection connection = connectionSupplier.get();
+		try {
+			return keyQueryExecutor.executeChildQuery(connection, keyQueryPlan, keys);
+		} finally {
+			closeConnection(connection);
+		}
+	}
+
+	private void putRow(Map<Object, Map<String, Object>> rowMap, Map<String, Object> row) {
+		final Object rowKey = toRowKey(ParentIndex.getKey(row, table.getPrimaryKeyColumns()));
+		if (rowKey != null) {
+			rowMap.put(rowKey, row);
+		}
+	}
+
+	/**
+	 * Integral keys are compared by value regardless of their type, the same way as by {@link CompoundKey}, so that
+	 * e.g. an Integer foreign key finds a row with a Long primary key.
+	 */
+	private static Object toRowKey(Object key) {
+		return KeyComparator.isIntegral(key) ? (Object) ((Number) key).longValue() : key;
+	}
+
+	private Map<Object, Map<String, Object>> newRowMap(int expectedSize) {
+		return new LinkedHashMap<Object, Map<String, Object>>(Math.max(16, expectedSize * 4 / 3 + 1), 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Map<String, Object>> eldest) {
+				return size() > maxRows;
+			}
+		};
+	}
+
+	private static void closeConnection(Connection connection) {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+	}
+
+	public LookupTable getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the number of rows that are held
+	 */
+	public synchronized int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * @return true if every row of the table was loaded, so that a key that isn't found has no row
+	 */
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+}
@@ -0,0 +1,24 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+/**
+ * Defines how a child query is constrained to the keys of its parent rows.
+ */
+public enum ChildJoinStrategy {
+
+	/**
+	 * Appends an "IN" clause with one bound parameter per parent key, split into chunks when there are many parents.
+	 */
+	IN_CLAUSE,
+
+	/**
+	 * Inserts the parent keys into a temporary table and appends an "IN" clause with a subquery against that table.
+	 * Intended for batches with thousands of parents, where a long list of parameters performs poorly.
+	 */
+	TEMP_TABLE,
+
+	/**
+	 * Binds every parent key as a single SQL array parameter via "= ANY (?)". Only supported by databases that
+	 * support array parameters, such as PostgreSQL and H2.
+	 */
+	ARRAY
+}
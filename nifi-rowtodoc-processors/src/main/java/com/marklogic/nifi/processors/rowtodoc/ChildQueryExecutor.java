@@ -1,124 +1,552 @@
 package com.marklogic.nifi.processors.rowtodoc;
 
-import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.RowMapper;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 public class ChildQueryExecutor {
 
-	private RowMapper<Map<String, Object>> columnMapRowMapper;
+	// Called once per ResultSet, as sibling child queries running in parallel would otherwise keep replacing the
+	// ResultSet mapping that a shared ColumnRowMapper caches
+	private Supplier<RowMapper<Map<String, Object>>> rowMapperSupplier;
+	private JdbcStreamingOptions streamingOptions = JdbcStreamingOptions.DEFAULT;
+	private int inClauseSize = 1000;
+
+	// Only set when sibling child queries are allowed to run in parallel
+	private ExecutorService executorService;
+	private Semaphore permits;
+	private Supplier<Connection> connectionSupplier;
+
+	// Only set when child queries can be resolved from lookup tables
+	private LookupTableCache lookupTableCache;
 
 	public ChildQueryExecutor() {
-		this(new ColumnMapRowMapper());
+		this.rowMapperSupplier = ColumnRowMapper::new;
 	}
 
+	/**
+	 * @param columnMapRowMapper used for every child query; it must be safe to use from multiple threads if sibling
+	 *                           child queries run in parallel
+	 */
 	public ChildQueryExecutor(RowMapper<Map<String, Object>> columnMapRowMapper) {
-		this.columnMapRowMapper = columnMapRowMapper;
+		this.rowMapperSupplier = () -> columnMapRowMapper;
 	}
 
 	/**
+	 * @param largeObjects   optional
+	 * @param dictionarySize zero if values aren't interned
+	 * @return a copy of this executor - sharing its settings and any parallel execution - that reads child rows with a
+	 * ColumnRowMapper that streams large LOB values into the given store and interns repeated values; this executor is
+	 * returned if there is no store and no dictionary size
+	 */
+	public ChildQueryExecutor withRowMapper(LargeObjectStore largeObjects, int dictionarySize) {
+		if (largeObjects == null && dictionarySize <= 0) {
+			return this;
+		}
+		ChildQueryExecutor executor = new ChildQueryExecutor();
+		executor.rowMapperSupplier = () -> new ColumnRowMapper(largeObjects, dictionarySize);
+		executor.streamingOptions = streamingOptions;
+		executor.inClauseSize = inClauseSize;
+		executor.executorService = executorService;
+		executor.permits = permits;
+		executor.connectionSupplier = connectionSupplier;
+		executor.lookupTableCache = lookupTableCache;
+		return executor;
+	}
+
+	/**
+	 * Compiles the given tree of table queries into a plan, using this executor's IN clause size.
+	 *
+	 * @param tableQuery
+	 * @return
+	 */
+	public ChildQueryPlan compile(TableQuery tableQuery) {
+		return ChildQueryPlan.compile(tableQuery, inClauseSize);
+	}
+
+	/**
+	 * Convenience method for compiling the given parent query into a plan and then executing it. Prefer compiling
+	 * the plan once and calling executeChildQueries with the plan when the same queries are executed repeatedly.
+	 *
 	 * @param connection
 	 * @param parentTableQuery
 	 * @param parentRows
 	 */
 	public void executeChildQueries(Connection connection, TableQuery parentTableQuery, List<? extends Map<String, Object>> parentRows) {
-		// Construct a map based on primary key so we can easily get the primary keys and populate the maps with kids later
-		Map<Object, Map<String, Object>> parentMap = new LinkedHashMap<>();
-		for (Map<String, Object> parentRow : parentRows) {
-			Object parentId = parentRow.get(parentTableQuery.getPrimaryKeyColumnName());
-			parentMap.put(parentId, parentRow);
-		}
-
-		for (TableQuery childTableQuery : parentTableQuery.getChildQueries()) {
-			// This is provided by user; can contain a where clause
-			String childQuery = constructQuery(childTableQuery, parentMap);
-
-			//logger.info("Child query: " + childQuery);
-			List<Map<String, Object>> childRows = executeChildQuery(connection, childQuery);
-
-			// Now add each child map to the correct parent map
-			// Note that for one-many relationships, there's no column in the parent object
-			// TODO many-to-one are different, there is a column that we may want to replace, but can always transform it away
-			for (Map<String, Object> childRow : childRows) {
-				Object parentId = childRow.get(childTableQuery.getForeignKeyColumnName());
-				Map<String, Object> parentRow = parentMap.get(parentId);
-				List<Map<String, Object>> kids;
-				final String childElementName = childTableQuery.getPropertyName();
-				if (parentRow.containsKey(childElementName)) {
-					kids = (List<Map<String, Object>>) parentRow.get(childElementName);
-				} else {
-					kids = new ArrayList<>();
-					parentRow.put(childElementName, kids);
-				}
-				kids.add(childRow);
+		executeChildQueries(connection, compile(parentTableQuery), parentRows);
+	}
+
+	/**
+	 * Executes each child query of the given parent plan, along with its own child queries, and adds the child rows
+	 * to the given parent rows. If parallel execution has been enabled, sibling child queries - and the subtree of
+	 * child queries under each one - run concurrently, each with its own connection. The child rows are added to the
+	 * parent rows only after every sibling has finished, and only on the calling thread.
+	 *
+	 * @param connection
+	 * @param parentPlan
+	 * @param parentRows
+	 */
+	public void executeChildQueries(Connection connection, ChildQueryPlan parentPlan, List<? extends Map<String, Object>> parentRows) {
+		executeChildQueries(connection, parentPlan, parentRows, null);
+	}
+
+	/**
+	 * Same as executeChildQueries, while also recording the time and number of rows of each child query in the given
+	 * metrics, under the stage name "child." plus the child query's property name.
+	 *
+	 * @param connection
+	 * @param parentPlan
+	 * @param parentRows
+	 * @param metrics optional
+	 */
+	public void executeChildQueries(Connection connection, ChildQueryPlan parentPlan, List<? extends Map<String, Object>> parentRows,
+	                                RowToDocMetrics metrics) {
+		executeChildQueries(connection, parentPlan, parentRows, metrics, null);
+	}
+
+	/**
+	 * Same as executeChildQueries, while also bounding the memory used by child rows via the given spill. The rows
+	 * of each child query without child queries of its own are collected in a list created by the spill, as is each
+	 * parent's list of child rows, so that the largest of those lists are moved to disk once the spill's memory budget
+	 * is exceeded. Rows of child queries that have child queries of their own are always held in memory, as they're
+	 * the parents of the next level of child queries.
+	 * <p>
+	 * The caller must close the spill once the parent rows have been written.
+	 *
+	 * @param connection
+	 * @param parentPlan
+	 * @param parentRows
+	 * @param metrics    optional
+	 * @param spill      optional
+	 */
+	public void executeChildQueries(Connection connection, ChildQueryPlan parentPlan, List<? extends Map<String, Object>> parentRows,
+	                                RowToDocMetrics metrics, ChildRowSpill spill) {
+		final List<ChildQueryPlan> childPlans = new ArrayList<>();
+		for (ChildQueryPlan childPlan : parentPlan.getChildPlans()) {
+			if (childPlan.getLookupTable() != null) {
+				addLookupRowsToParents(childPlan, parentRows, metrics);
+			} else {
+				childPlans.add(childPlan);
 			}
+		}
+		if (childPlans.isEmpty()) {
+			return;
+		}
 
-			executeChildQueries(connection, childTableQuery, childRows);
+		// Index the parents by primary key so we can easily get the primary keys and populate the maps with kids later
+		final ParentIndex parentIndex = ParentIndex.build(parentRows, parentPlan.getPrimaryKeyColumns());
+		final List<Object> parentIds = parentIndex.getKeys();
+		List<Future<List<Map<String, Object>>>> futures = new ArrayList<>();
+		List<List<Map<String, Object>>> childRowLists = new ArrayList<>();
+		for (int i = 0; i < childPlans.size(); i++) {
+			final ChildQueryPlan childPlan = childPlans.get(i);
+			// The last sibling always runs on this thread, as this thread would otherwise just be waiting
+			Future<List<Map<String, Object>>> future = null;
+			if (executorService != null && i < childPlans.size() - 1 && permits.tryAcquire()) {
+				try {
+					future = executorService.submit(() -> executeChildQueryTreeWithNewConnection(childPlan, parentIds, metrics, spill));
+				} catch (RejectedExecutionException e) {
+					// Only a task that runs releases its permit, so release it here and run the query on this thread
+					permits.release();
+				}
+			}
+			futures.add(future);
+			childRowLists.add(future != null ? null : executeChildQueryTree(connection, childPlan, parentIds, metrics, spill));
 		}
-	}
 
-	protected String constructQuery(TableQuery childTableQuery, Map<Object, Map<String, Object>> parentMap) {
-		StringBuilder childInClause = new StringBuilder(childTableQuery.getForeignKeyColumnName() + " IN (");
-		boolean firstOne = true;
-		for (Object parentId : parentMap.keySet()) {
-			if (!firstOne) {
-				childInClause.append(",");
+		for (int i = 0; i < childPlans.size(); i++) {
+			if (futures.get(i) != null) {
+				childRowLists.set(i, waitForChildRows(futures.get(i)));
 			}
-			// TODO Need to know whether to quote this or not
-			childInClause.append(parentId);
-			firstOne = false;
+			addChildRowsToParents(childPlans.get(i), childRowLists.get(i), parentIndex, spill);
 		}
-		childInClause.append(")");
+	}
 
-		// This is provided by user; can contain a where clause
-		String childQuery = childTableQuery.getQuery();
-		String lowerCaseQuery = childQuery.toLowerCase();
-		if (!lowerCaseQuery.contains(" where ")) {
-			childQuery += " WHERE ";
+	protected List<Map<String, Object>> executeChildQueryTree(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds,
+	                                                          RowToDocMetrics metrics, ChildRowSpill spill) {
+		final long start = System.nanoTime();
+		List<Map<String, Object>> childRows;
+		if (spill != null && childPlan.getChildPlans().isEmpty()) {
+			childRows = executeChildQuery(connection, childPlan, new ArrayList<>(parentIds), spill.newList());
 		} else {
-			childQuery += " AND ";
+			childRows = executeChildQuery(connection, childPlan, new ArrayList<>(parentIds));
 		}
-		childQuery += childInClause;
-		return childQuery;
+		if (metrics != null) {
+			metrics.record(RowToDocMetrics.CHILD_PREFIX + childPlan.getPropertyName(), start, childRows.size(), 0);
+		}
+		executeChildQueries(connection, childPlan, childRows, metrics, spill);
+		return childRows;
 	}
 
-	protected List<Map<String, Object>> executeChildQuery(Connection connection, String childQuery) {
-		PreparedStatement preparedStatement = null;
-		ResultSet resultSet = null;
+	private List<Map<String, Object>> executeChildQueryTreeWithNewConnection(ChildQueryPlan childPlan, List<Object> parentIds,
+	                                                                         RowToDocMetrics metrics, ChildRowSpill spill) throws SQLException {
+		Connection connection = null;
+		boolean originalAutoCommit = true;
 		try {
-			preparedStatement = connection.prepareStatement(childQuery);
-			resultSet = preparedStatement.executeQuery();
-			List<Map<String, Object>> childRows = new ArrayList<>();
-			while (resultSet.next()) {
-				childRows.add(columnMapRowMapper.mapRow(resultSet, 0));
-			}
-			return childRows;
-		} catch (SQLException ex) {
-			throw new RuntimeException(ex);
+			connection = connectionSupplier.get();
+			originalAutoCommit = streamingOptions.prepareConnection(connection);
+			return executeChildQueryTree(connection, childPlan, parentIds, metrics, spill);
 		} finally {
-			if (resultSet != null) {
+			permits.release();
+			if (connection != null) {
+				streamingOptions.restoreConnection(connection, originalAutoCommit);
 				try {
-					resultSet.close();
+					connection.close();
 				} catch (SQLException e) {
 					// ignore
 				}
 			}
-			if (preparedStatement != null) {
-				try {
-					preparedStatement.close();
-				} catch (SQLException e) {
-					// ignore
+		}
+	}
+
+	private List<Map<String, Object>> waitForChildRows(Future<List<Map<String, Object>>> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for child query to finish", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Resolves a many-to-one relationship from the lookup table cache. Each parent row holds the key of a lookup table
+	 * row in the plan's foreign key columns, and that row - shared by every parent with the same key - is added to the
+	 * parent row as a single column map. A parent row without a matching lookup table row is left as is.
+	 *
+	 * @param lookupPlan
+	 * @param parentRows
+	 * @param metrics    optional
+	 */
+	protected void addLookupRowsToParents(ChildQueryPlan lookupPlan, List<? extends Map<String, Object>> parentRows,
+	                                      RowToDocMetrics metrics) {
+		if (lookupTableCache == null) {
+			throw new IllegalStateException("No lookup table cache is configured for lookup table: " + lookupPlan.getLookupTable());
+		}
+		final long start = System.nanoTime();
+		final String[] foreignKeyColumns = lookupPlan.getForeignKeyColumns();
+		List<Object> keys = new ArrayList<>(parentRows.size());
+		for (Map<String, Object> parentRow : parentRows) {
+			keys.add(ParentIndex.getKey(parentRow, foreignKeyColumns));
+		}
+		List<Map<String, Object>> lookupRows = lookupTableCache.lookup(lookupPlan.getLookupTable(), keys);
+		int count = 0;
+		for (int i = 0; i < parentRows.size(); i++) {
+			Map<String, Object> lookupRow = lookupRows.get(i);
+			if (lookupRow != null) {
+				parentRows.get(i).put(lookupPlan.getPropertyName(), lookupRow);
+				count++;
+			}
+		}
+		if (metrics != null) {
+			metrics.record(RowToDocMetrics.CHILD_PREFIX + lookupPlan.getPropertyName(), start, count, 0);
+		}
+	}
+
+	/**
+	 * Note that for one-many relationships, there's no column in the parent object; many-to-one relationships are
+	 * instead resolved from lookup tables by addLookupRowsToParents.
+	 *
+	 * @param childPlan
+	 * @param childRows
+	 * @param parentIndex
+	 * @param spill       optional; if set, each parent's list of child rows is created by it
+	 */
+	private void addChildRowsToParents(ChildQueryPlan childPlan, List<Map<String, Object>> childRows, ParentIndex parentIndex,
+	                                   ChildRowSpill spill) {
+		final String childElementName = childPlan.getPropertyName();
+		final String[] foreignKeyColumns = childPlan.getForeignKeyColumns();
+		for (Map<String, Object> childRow : childRows) {
+			Map<String, Object> parentRow = parentIndex.findParent(childRow, foreignKeyColumns);
+			if (parentRow == null) {
+				continue;
+			}
+			List<Map<String, Object>> kids;
+			if (parentRow.containsKey(childElementName)) {
+				kids = (List<Map<String, Object>>) parentRow.get(childElementName);
+			} else {
+				kids = spill != null ? spill.newList() : new ArrayList<>();
+				parentRow.put(childElementName, kids);
+			}
+			kids.add(childRow);
+		}
+		if (childRows instanceof SpillableColumnMapList) {
+			// Every row has been moved to its parent, so the collected rows - and their temporary file - can be released
+			((SpillableColumnMapList) childRows).close();
+		}
+	}
+
+	/**
+	 * Executes the child query, constrained to the given parent IDs via the child query's join strategy.
+	 *
+	 * @param connection
+	 * @param childPlan
+	 * @param parentIds
+	 * @return
+	 */
+	protected List<Map<String, Object>> executeChildQuery(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds) {
+		return executeChildQuery(connection, childPlan, parentIds, new ArrayList<>());
+	}
+
+	/**
+	 * Same as executeChildQuery, but adds the child rows to the given list, which is then returned.
+	 *
+	 * @param connection
+	 * @param childPlan
+	 * @param parentIds
+	 * @param childRows
+	 * @return
+	 */
+	protected List<Map<String, Object>> executeChildQuery(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds,
+	                                                      List<Map<String, Object>> childRows) {
+		parentIds.removeIf(parentId -> parentId == null);
+		if (parentIds.isEmpty()) {
+			return childRows;
+		}
+		try {
+			switch (childPlan.getJoinStrategy()) {
+				case TEMP_TABLE:
+					return executeChildQueryWithKeyTable(connection, childPlan, parentIds, childRows);
+				case ARRAY:
+					return executeChildQueryWithKeyArray(connection, childPlan, parentIds, childRows);
+				default:
+					return executeChildQueryWithInClause(connection, childPlan, parentIds, childRows);
+			}
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Databases limit the number of values in an "IN" clause - e.g. 1000 for Oracle, and 2100 parameters for SQL
+	 * Server - so the parent IDs are split into chunks of at most the IN clause size in parameters; an ID of a compound
+	 * key is bound as one parameter per column, so its chunks hold fewer IDs. Each chunk is then padded, by
+	 * repeating its last ID, to the next size in a small set of fixed sizes, so that only a handful of distinct
+	 * queries are ever prepared.
+	 *
+	 * @param connection
+	 * @param childPlan
+	 * @param parentIds
+	 * @param childRows
+	 * @return
+	 */
+	protected List<Map<String, Object>> executeChildQueryWithInClause(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds,
+	                                                                  List<Map<String, Object>> childRows) throws SQLException {
+		PreparedStatement preparedStatement = null;
+		String preparedQuery = null;
+		try {
+			final int maxKeyCount = childPlan.getMaxKeyCount(inClauseSize);
+			for (int start = 0; start < parentIds.size(); start += maxKeyCount) {
+				final int end = Math.min(start + maxKeyCount, parentIds.size());
+				final int keyCount = getPaddedParameterCount(end - start, maxKeyCount);
+				final String childQuery = childPlan.getInClauseQuery(keyCount);
+				if (!childQuery.equals(preparedQuery)) {
+					closeStatement(preparedStatement);
+					preparedStatement = streamingOptions.prepareStatement(connection, childQuery);
+					preparedQuery = childQuery;
+				}
+
+				int parameterIndex = 1;
+				for (int i = 0; i < keyCount; i++) {
+					Object parentId = parentIds.get(Math.min(start + i, end - 1));
+					if (parentId instanceof CompoundKey) {
+						for (Object value : ((CompoundKey) parentId).getValues()) {
+							preparedStatement.setObject(parameterIndex++, value);
+						}
+					} else {
+						preparedStatement.setObject(parameterIndex++, parentId);
+					}
+				}
+				readChildRows(preparedStatement, childRows);
+			}
+			return childRows;
+		} finally {
+			closeStatement(preparedStatement);
+		}
+	}
+
+	/**
+	 * Creates the temporary key table, inserts every parent ID into it in batches, and then executes the child query
+	 * with a subquery against the key table. The key table is dropped afterwards so that the next batch on the same
+	 * pooled connection can create it again; if that fails, so does the batch, rather than every later batch failing
+	 * to create the table. If the child query fails, that failure is thrown with the drop failure suppressed.
+	 *
+	 * @param connection
+	 * @param childPlan
+	 * @param parentIds
+	 * @param childRows
+	 * @return
+	 * @throws SQLException
+	 */
+	protected List<Map<String, Object>> executeChildQueryWithKeyTable(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds,
+	                                                                  List<Map<String, Object>> childRows) throws SQLException {
+		final String keyTable = childPlan.getKeyTable();
+		executeUpdate(connection, childPlan.getKeyTableDdl());
+		try {
+			PreparedStatement insertStatement = connection.prepareStatement("INSERT INTO " + keyTable + " (parent_key) VALUES (?)");
+			try {
+				for (int i = 0; i < parentIds.size(); i++) {
+					insertStatement.setObject(1, parentIds.get(i));
+					insertStatement.addBatch();
+					if ((i + 1) % inClauseSize == 0) {
+						insertStatement.executeBatch();
+					}
 				}
+				insertStatement.executeBatch();
+			} finally {
+				closeStatement(insertStatement);
+			}
+
+			PreparedStatement preparedStatement = streamingOptions.prepareStatement(connection, childPlan.getKeyQuery());
+			try {
+				readChildRows(preparedStatement, childRows);
+			} finally {
+				closeStatement(preparedStatement);
 			}
+		} catch (SQLException | RuntimeException e) {
+			try {
+				dropKeyTable(connection, keyTable);
+			} catch (SQLException ex) {
+				e.addSuppressed(ex);
+			}
+			throw e;
 		}
+		dropKeyTable(connection, keyTable);
+		return childRows;
 	}
 
+	private void dropKeyTable(Connection connection, String keyTable) throws SQLException {
+		try {
+			executeUpdate(connection, "DROP TABLE " + keyTable);
+		} catch (SQLException e) {
+			throw new SQLException("Unable to drop key table " + keyTable + ", cause: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Executes the child query with every parent ID bound as a single array parameter.
+	 *
+	 * @param connection
+	 * @param childPlan
+	 * @param parentIds
+	 * @param childRows
+	 * @return
+	 * @throws SQLException
+	 */
+	protected List<Map<String, Object>> executeChildQueryWithKeyArray(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds,
+	                                                                  List<Map<String, Object>> childRows) throws SQLException {
+		PreparedStatement preparedStatement = streamingOptions.prepareStatement(connection, childPlan.getKeyQuery());
+		try {
+			preparedStatement.setArray(1, connection.createArrayOf(childPlan.getKeyType(), parentIds.toArray()));
+			readChildRows(preparedStatement, childRows);
+			return childRows;
+		} finally {
+			closeStatement(preparedStatement);
+		}
+	}
+
+	private void executeUpdate(Connection connection, String sql) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.executeUpdate(sql);
+		} finally {
+			closeStatement(statement);
+		}
+	}
+
+	/**
+	 * @param idCount
+	 * @return the smallest power of two that is at least the given count, capped at the IN clause size
+	 */
+	protected int getPaddedParameterCount(int idCount) {
+		return getPaddedParameterCount(idCount, inClauseSize);
+	}
+
+	/**
+	 * @param idCount
+	 * @param maxCount
+	 * @return the smallest power of two that is at least the given count, capped at the given maximum
+	 */
+	protected int getPaddedParameterCount(int idCount, int maxCount) {
+		int parameterCount = 1;
+		while (parameterCount < idCount) {
+			parameterCount <<= 1;
+		}
+		return Math.min(parameterCount, maxCount);
+	}
+
+	private void readChildRows(PreparedStatement preparedStatement, List<Map<String, Object>> childRows) throws SQLException {
+		ResultSet resultSet = preparedStatement.executeQuery();
+		try {
+			final RowMapper<Map<String, Object>> rowMapper = rowMapperSupplier.get();
+			while (resultSet.next()) {
+				childRows.add(rowMapper.mapRow(resultSet, 0));
+			}
+		} finally {
+			try {
+				resultSet.close();
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+	}
+
+	private void closeStatement(Statement statement) {
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Allows sibling child queries to run in parallel on the given executor. At most maxConcurrentQueries child
+	 * queries run at once, counting the child query that runs on the calling thread; when that limit is reached, a
+	 * child query runs on the calling thread instead.
+	 *
+	 * @param executorService must have at least maxConcurrentQueries - 1 threads
+	 * @param maxConcurrentQueries
+	 * @param connectionSupplier provides a new connection for each child query that runs on the executor
+	 */
+	public void enableParallelExecution(ExecutorService executorService, int maxConcurrentQueries, Supplier<Connection> connectionSupplier) {
+		this.executorService = executorService;
+		this.permits = new Semaphore(maxConcurrentQueries - 1);
+		this.connectionSupplier = connectionSupplier;
+	}
+
+	/**
+	 * @param inClauseSize the maximum number of parameters to bind in the "IN" clause of a single child query; with a
+	 *                     compound key, that's one per column of each parent ID
+	 */
+	public void setInClauseSize(int inClauseSize) {
+		this.inClauseSize = inClauseSize;
+	}
+
+	public void setStreamingOptions(JdbcStreamingOptions streamingOptions) {
+		this.streamingOptions = streamingOptions;
+	}
+
+	/**
+	 * @param lookupTableCache resolves the child queries that have a lookup table
+	 */
+	public void setLookupTableCache(LookupTableCache lookupTableCache) {
+		this.lookupTableCache = lookupTableCache;
+	}
 }
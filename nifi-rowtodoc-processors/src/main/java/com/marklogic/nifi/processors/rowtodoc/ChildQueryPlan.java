@@ -0,0 +1,314 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable, validated form of a {@link TableQuery} tree. Compiling a plan resolves the key columns and join strategy
+ * of each child query and builds its SQL up front, so that executing the plan only requires binding parameters.
+ * A plan is compiled once - e.g. when a processor is scheduled - and can then be shared by every thread.
+ */
+public class ChildQueryPlan {
+
+	private final String query;
+	private final String propertyName;
+	private final String[] primaryKeyColumns;
+	private final String[] foreignKeyColumns;
+	private final ChildJoinStrategy joinStrategy;
+	private final String keyTable;
+	private final String keyTableDdl;
+	private final String keyType;
+	private final String lookupTable;
+	private final List<ChildQueryPlan> childPlans;
+
+	// The child query with its condition, for each padded number of keys that the IN_CLAUSE strategy binds
+	private final Map<Integer, String> inClauseQueries;
+	// The child query with its condition, for the TEMP_TABLE or ARRAY strategy
+	private final String keyQuery;
+	// The child query followed by " WHERE " or " AND ", depending on whether it already has a where clause
+	private final String queryPrefix;
+
+	private ChildQueryPlan(TableQuery tableQuery, List<ChildQueryPlan> childPlans, int inClauseSize) {
+		this.query = tableQuery.getQuery();
+		this.propertyName = tableQuery.getPropertyName();
+		this.primaryKeyColumns = tableQuery.getPrimaryKeyColumns();
+		this.foreignKeyColumns = tableQuery.getForeignKeyColumns();
+		this.joinStrategy = tableQuery.getJoinStrategy();
+		this.keyTable = tableQuery.getKeyTable();
+		this.keyTableDdl = tableQuery.getKeyTableDdl();
+		this.keyType = tableQuery.getKeyType();
+		this.lookupTable = tableQuery.getLookupTable();
+		this.childPlans = Collections.unmodifiableList(childPlans);
+
+		if (query == null || foreignKeyColumns.length == 0 || lookupTable != null) {
+			// The root of the tree, which only supplies the primary key of the parent rows, or a lookup table
+			this.queryPrefix = null;
+			this.keyQuery = null;
+			this.inClauseQueries = Collections.emptyMap();
+			return;
+		}
+
+		// This is provided by user; can contain a where clause
+		this.queryPrefix = query + (query.toLowerCase(Locale.ROOT).contains(" where ") ? " AND " : " WHERE ");
+		switch (joinStrategy) {
+			case TEMP_TABLE:
+				this.keyQuery = queryPrefix + foreignKeyColumns[0] + " IN (SELECT parent_key FROM " + keyTable + ")";
+				this.inClauseQueries = Collections.emptyMap();
+				break;
+			case ARRAY:
+				this.keyQuery = queryPrefix + foreignKeyColumns[0] + " = ANY (?)";
+				this.inClauseQueries = Collections.emptyMap();
+				break;
+			default:
+				this.keyQuery = null;
+				final int maxKeyCount = getMaxKeyCount(inClauseSize);
+				Map<Integer, String> queries = new HashMap<>();
+				for (int keyCount = 1; keyCount < maxKeyCount; keyCount <<= 1) {
+					queries.put(keyCount, constructInClauseQuery(keyCount));
+				}
+				queries.put(maxKeyCount, constructInClauseQuery(maxKeyCount));
+				this.inClauseQueries = Collections.unmodifiableMap(queries);
+		}
+	}
+
+	/**
+	 * Validates the given tree of table queries and compiles it into a plan.
+	 *
+	 * @param tableQuery
+	 * @param inClauseSize the maximum number of parameters bound in a single child query with the IN_CLAUSE strategy
+	 * @return
+	 * @throws IllegalArgumentException if any table query in the tree is invalid
+	 */
+	public static ChildQueryPlan compile(TableQuery tableQuery, int inClauseSize) {
+		if (tableQuery == null) {
+			throw new IllegalArgumentException("No table query was defined");
+		}
+		return compile(tableQuery, null, inClauseSize);
+	}
+
+	private static ChildQueryPlan compile(TableQuery tableQuery, TableQuery parentTableQuery, int inClauseSize) {
+		if (parentTableQuery != null) {
+			validateChildQuery(tableQuery, parentTableQuery);
+		}
+		if (hasQueryChildren(tableQuery) && tableQuery.getPrimaryKeyColumns().length == 0) {
+			throw new IllegalArgumentException("A primary key column must be defined for a query with child queries; query: " + tableQuery.getQuery());
+		}
+		List<ChildQueryPlan> childPlans = new ArrayList<>();
+		for (TableQuery childTableQuery : tableQuery.getChildQueries()) {
+			childPlans.add(compile(childTableQuery, tableQuery, inClauseSize));
+		}
+		return new ChildQueryPlan(tableQuery, childPlans, inClauseSize);
+	}
+
+	/**
+	 * Lookups don't need the primary key of the parent, as they're resolved via columns of the parent row.
+	 */
+	private static boolean hasQueryChildren(TableQuery tableQuery) {
+		for (TableQuery childTableQuery : tableQuery.getChildQueries()) {
+			if (childTableQuery.getLookupTable() == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void validateChildQuery(TableQuery childTableQuery, TableQuery parentTableQuery) {
+		if (childTableQuery.getLookupTable() != null) {
+			validateLookup(childTableQuery);
+			return;
+		}
+		final String query = childTableQuery.getQuery();
+		if (query == null || query.trim().isEmpty()) {
+			throw new IllegalArgumentException("A query must be defined for every child query");
+		}
+		if (childTableQuery.getPropertyName() == null || childTableQuery.getPropertyName().trim().isEmpty()) {
+			throw new IllegalArgumentException("A property name must be defined for child query: " + query);
+		}
+		final int foreignKeyCount = childTableQuery.getForeignKeyColumns().length;
+		if (foreignKeyCount == 0) {
+			throw new IllegalArgumentException("A foreign key column must be defined for child query: " + query);
+		}
+		if (foreignKeyCount != parentTableQuery.getPrimaryKeyColumns().length) {
+			throw new IllegalArgumentException("The number of foreign key columns does not match the number of " +
+				"primary key columns of the parent query; child query: " + query);
+		}
+		if (childTableQuery.getJoinStrategy() == null) {
+			throw new IllegalArgumentException("A join strategy must be defined for child query: " + query);
+		}
+		if (foreignKeyCount > 1 && !ChildJoinStrategy.IN_CLAUSE.equals(childTableQuery.getJoinStrategy())) {
+			throw new IllegalArgumentException("Only the IN_CLAUSE join strategy supports compound keys; child query: " + query);
+		}
+	}
+
+	/**
+	 * A lookup has no query of its own; its foreign key columns are columns of the parent row, so their number doesn't
+	 * depend on the parent's primary key.
+	 */
+	private static void validateLookup(TableQuery lookupTableQuery) {
+		final String lookupTable = lookupTableQuery.getLookupTable();
+		if (lookupTableQuery.getPropertyName() == null || lookupTableQuery.getPropertyName().trim().isEmpty()) {
+			throw new IllegalArgumentException("A property name must be defined for lookup table: " + lookupTable);
+		}
+		if (lookupTableQuery.getForeignKeyColumns().length == 0) {
+			throw new IllegalArgumentException("A foreign key column must be defined for lookup table: " + lookupTable);
+		}
+		if (!lookupTableQuery.getChildQueries().isEmpty()) {
+			throw new IllegalArgumentException("A lookup table cannot have child queries; lookup table: " + lookupTable);
+		}
+	}
+
+	/**
+	 * @param inClauseSize the maximum number of parameters bound in a single child query
+	 * @return the maximum number of keys bound in a single child query with the IN_CLAUSE strategy; each key of a
+	 * compound foreign key is bound as one parameter per column, so fewer keys fit in the same number of parameters
+	 */
+	public int getMaxKeyCount(int inClauseSize) {
+		return Math.max(1, inClauseSize / foreignKeyColumns.length);
+	}
+
+	/**
+	 * @param keyCount
+	 * @return the child query constrained to the given number of keys via an "IN" clause, or via an "OR" of each key
+	 * for a compound key
+	 */
+	public String getInClauseQuery(int keyCount) {
+		String inClauseQuery = inClauseQueries.get(keyCount);
+		// Only a plan compiled with a smaller IN clause size than the executor's would need to construct a query here
+		return inClauseQuery != null ? inClauseQuery : constructInClauseQuery(keyCount);
+	}
+
+	/**
+	 * Constructs the child query with the given number of parameter placeholders. For a compound foreign key, row value
+	 * constructors - "(a, b) IN ((?, ?))" - are not supported by every database, so the condition is instead an "OR"
+	 * of each key - "(a = ? AND b = ?) OR (a = ? AND b = ?)".
+	 */
+	private String constructInClauseQuery(int keyCount) {
+		StringBuilder sb = new StringBuilder(queryPrefix);
+		if (foreignKeyColumns.length > 1) {
+			sb.append("(");
+			for (int i = 0; i < keyCount; i++) {
+				sb.append(i > 0 ? " OR (" : "(");
+				for (int j = 0; j < foreignKeyColumns.length; j++) {
+					if (j > 0) {
+						sb.append(" AND ");
+					}
+					sb.append(foreignKeyColumns[j]).append(" = ?");
+				}
+				sb.append(")");
+			}
+			return sb.append(")").toString();
+		}
+
+		sb.append(foreignKeyColumns[0]).append(" IN (");
+		for (int i = 0; i < keyCount; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("?");
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * @return the child query constrained via the key table for the TEMP_TABLE strategy, or via an array parameter
+	 * for the ARRAY strategy
+	 */
+	public String getKeyQuery() {
+		return keyQuery;
+	}
+
+	/**
+	 * @return a readable, indented summary of the plan, with one line per child query
+	 */
+	public String describe() {
+		StringBuilder sb = new StringBuilder("Parent key: ").append(String.join(", ", primaryKeyColumns));
+		for (ChildQueryPlan childPlan : childPlans) {
+			childPlan.describe(sb, 1);
+		}
+		return sb.toString();
+	}
+
+	private void describe(StringBuilder sb, int depth) {
+		sb.append("\n");
+		for (int i = 0; i < depth; i++) {
+			sb.append("  ");
+		}
+		if (lookupTable != null) {
+			sb.append(propertyName).append(": lookup table ").append(lookupTable)
+				.append(" [on ").append(String.join(", ", foreignKeyColumns)).append("]");
+			return;
+		}
+		sb.append(propertyName).append(": ").append(query)
+			.append(" [").append(joinStrategy).append(" on ").append(String.join(", ", foreignKeyColumns)).append("]");
+		for (ChildQueryPlan childPlan : childPlans) {
+			childPlan.describe(sb, depth + 1);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return describe();
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public String getPropertyName() {
+		return propertyName;
+	}
+
+	public String[] getPrimaryKeyColumns() {
+		return primaryKeyColumns;
+	}
+
+	public String[] getForeignKeyColumns() {
+		return foreignKeyColumns;
+	}
+
+	public ChildJoinStrategy getJoinStrategy() {
+		return joinStrategy;
+	}
+
+	public String getKeyTable() {
+		return keyTable;
+	}
+
+	public String getKeyTableDdl() {
+		return keyTableDdl;
+	}
+
+	public String getKeyType() {
+		return keyType;
+	}
+
+	/**
+	 * @return the name of the lookup table in the lookup table cache, or null if this is a query
+	 */
+	public String getLookupTable() {
+		return lookupTable;
+	}
+
+	/**
+	 * @return true if this plan, or any plan under it, is resolved from a lookup table
+	 */
+	public boolean usesLookupTables() {
+		if (lookupTable != null) {
+			return true;
+		}
+		for (ChildQueryPlan childPlan : childPlans) {
+			if (childPlan.usesLookupTables()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<ChildQueryPlan> getChildPlans() {
+		return childPlans;
+	}
+}
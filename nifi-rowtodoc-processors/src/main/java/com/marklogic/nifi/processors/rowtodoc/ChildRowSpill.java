@@ -0,0 +1,124 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the memory used by lists of child rows, for relationships where one parent can have far more children than
+ * the rest - e.g. a wholesale customer with millions of payments. Each list created by newList is held in memory until
+ * the estimated size of every list created by this spill exceeds the memory budget; from then on, any list that is
+ * itself larger than a fraction of the budget is written to a temporary file, and every row that is later added to it
+ * is appended to that file. Small lists stay in memory, so a batch of evenly-sized lists never spills.
+ * <p>
+ * A spilled list reads its rows back from the file whenever it's iterated - e.g. when it's written as column maps or
+ * as a JSON or XML document - so it's never held in memory as a whole again. The temporary files are deleted by close,
+ * which must be called once the rows have been written.
+ * <p>
+ * This is thread-safe, so that sibling child queries running in parallel can share one spill; each list is not.
+ */
+public class ChildRowSpill implements Closeable {
+
+	public static final PropertyDescriptor MEMORY_BUDGET = new PropertyDescriptor.Builder()
+		.name("Child row memory budget")
+		.description("Approximate amount of memory - e.g. \"256 MB\" - that the child rows of a single FlowFile - or batch " +
+			"of rows - may use before the largest lists of child rows are moved to temporary files and read back from disk as the " +
+			"column maps are written. This bounds the memory used when a few parents have far more children than the " +
+			"rest. If not set, child rows are always held in memory.")
+		.required(false)
+		.addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+		.build();
+
+	/**
+	 * A list may only spill once its own estimated size is at least this fraction of the memory budget; a list that
+	 * has spilled also writes its unwritten rows to disk once they reach this size.
+	 */
+	private static final int CHUNK_FRACTION = 16;
+
+	private final long memoryBudget;
+	private final File directory;
+	private final AtomicLong memoryBytes = new AtomicLong();
+	private final List<SpillableColumnMapList> spilledLists = new ArrayList<>();
+
+	/**
+	 * @param memoryBudget the estimated number of bytes of child rows to hold in memory before lists start to spill
+	 * @param directory    optional directory for the temporary files; defaults to java.io.tmpdir
+	 */
+	public ChildRowSpill(long memoryBudget, File directory) {
+		this.memoryBudget = memoryBudget;
+		this.directory = directory;
+	}
+
+	/**
+	 * @param context
+	 * @return a spill with the configured memory budget, or null if no budget is configured
+	 */
+	public static ChildRowSpill fromContext(ProcessContext context) {
+		final Double budget = context.getProperty(MEMORY_BUDGET).asDataSize(DataUnit.B);
+		return budget != null ? new ChildRowSpill(budget.longValue(), null) : null;
+	}
+
+	public SpillableColumnMapList newList() {
+		return new SpillableColumnMapList(this);
+	}
+
+	protected void allocate(long bytes) {
+		memoryBytes.addAndGet(bytes);
+	}
+
+	protected void release(long bytes) {
+		memoryBytes.addAndGet(-bytes);
+	}
+
+	/**
+	 * @param listBytes the estimated size of the list that is asking
+	 * @return true if the list should spill to disk
+	 */
+	protected boolean shouldSpill(long listBytes) {
+		return memoryBytes.get() > memoryBudget && listBytes >= getChunkBytes();
+	}
+
+	protected long getChunkBytes() {
+		return memoryBudget / CHUNK_FRACTION;
+	}
+
+	protected File createTempFile() throws IOException {
+		return File.createTempFile("rowtodoc-children-", ".spill", directory);
+	}
+
+	protected synchronized void registerSpilledList(SpillableColumnMapList list) {
+		spilledLists.add(list);
+	}
+
+	/**
+	 * @return the number of lists that have spilled to disk and not been closed yet
+	 */
+	public synchronized int getSpilledListCount() {
+		return spilledLists.size();
+	}
+
+	public long getMemoryBytes() {
+		return memoryBytes.get();
+	}
+
+	/**
+	 * Deletes the temporary file of every list that spilled, and resets the estimated memory usage, so that this can
+	 * be reused for the next set of lists. Lists that spilled can no longer be read afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		for (SpillableColumnMapList list : spilledLists) {
+			list.close();
+		}
+		spilledLists.clear();
+		memoryBytes.set(0);
+	}
+}
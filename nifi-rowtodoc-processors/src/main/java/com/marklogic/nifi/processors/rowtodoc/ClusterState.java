@@ -0,0 +1,37 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Saves cluster-scoped state for the classes that update it in a read-modify-replace loop.
+ * <p>
+ * StateManager.replace only succeeds if the state has been set before - with the ZooKeeper provider, replacing state
+ * whose version is -1 always fails - so state that has never been set is saved via setState instead, the same way as
+ * NiFi's own stateful processors. Unlike replace, that first save doesn't detect a concurrent update.
+ */
+public abstract class ClusterState {
+
+	private ClusterState() {
+	}
+
+	/**
+	 * @param stateManager
+	 * @param stateMap     the state that the new state was derived from
+	 * @param state        the new state
+	 * @return true if the state was saved; false if the state was changed since the given StateMap was read, in which
+	 * case the caller should read it again and retry
+	 * @throws IOException
+	 */
+	public static boolean save(StateManager stateManager, StateMap stateMap, Map<String, String> state) throws IOException {
+		if (stateMap.getVersion() == -1) {
+			stateManager.setState(state, Scope.CLUSTER);
+			return true;
+		}
+		return stateManager.replace(stateMap, state, Scope.CLUSTER);
+	}
+}
@@ -0,0 +1,142 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct values of a single column, each identified by the order in which it was added. This is used by
+ * {@link ColumnMapsEncoder} and {@link ColumnMapsDecoder} to write each repeated value as a reference to its first
+ * occurrence, and by {@link ColumnRowMapper} to return one instance for every occurrence of a repeated value, so that
+ * e.g. a status code that appears in thousands of child rows is held in memory once.
+ * <p>
+ * Only Strings, BigDecimals, BigIntegers, and dates are eligible; other values are either small enough already or
+ * not worth the lookup. Every value in a dictionary must be of the same class as the first one, as equals isn't
+ * symmetric between e.g. a Date and a Timestamp. Once the number of distinct values reaches the maximum size, the
+ * column is assumed to have too many distinct values to benefit, and no more values are looked up or added.
+ * <p>
+ * Each column that holds lists of column maps - i.e. the rows of a child query - has a child dictionary for each of
+ * the child query's columns, so that the child rows of every parent share the same dictionaries. Likewise, the
+ * dictionaries of the columns of a list of column maps are the children of a root dictionary that holds no values.
+ */
+public class ColumnDictionary {
+
+	private final int maxSize;
+	private final List<Object> values = new ArrayList<>();
+	private Map<Object, Integer> indexes = new HashMap<>();
+	private Class<?> valueClass;
+	private Map<String, ColumnDictionary> children;
+
+	/**
+	 * @param maxSize the maximum number of distinct values; must be greater than zero
+	 */
+	public ColumnDictionary(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param value
+	 * @return true if the value is of a class that can be added to a dictionary
+	 */
+	public static boolean isEligible(Object value) {
+		return value instanceof String || value instanceof BigDecimal || value instanceof BigInteger || value instanceof Date;
+	}
+
+	/**
+	 * @param value
+	 * @return the index of the given value, or -1 if it hasn't been added
+	 */
+	public int indexOf(Object value) {
+		if (indexes == null || value == null || value.getClass() != valueClass) {
+			return -1;
+		}
+		Integer index = indexes.get(value);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * Adds the given value, which must not already have been added.
+	 *
+	 * @param value
+	 * @return true if the value was added; false if it isn't eligible, is of a different class than the values already
+	 * added, or if the dictionary is full
+	 */
+	public boolean add(Object value) {
+		if (indexes == null || !isEligible(value)) {
+			return false;
+		}
+		if (valueClass == null) {
+			valueClass = value.getClass();
+		} else if (value.getClass() != valueClass) {
+			return false;
+		}
+		if (values.size() >= maxSize) {
+			// Too many distinct values; stop looking values up, and let go of the lookup table
+			indexes = null;
+			return false;
+		}
+		indexes.put(value, values.size());
+		values.add(value);
+		return true;
+	}
+
+	/**
+	 * Adds a value that was read by the decoder as a new dictionary entry. The encoder has already decided that the
+	 * value belongs in the dictionary, so the value is only recorded so that later references to it can be resolved.
+	 *
+	 * @param value
+	 */
+	protected void append(Object value) {
+		values.add(value);
+	}
+
+	/**
+	 * @param index
+	 * @return the value with the given index
+	 * @throws IndexOutOfBoundsException if no value has the given index
+	 */
+	public Object get(int index) {
+		return values.get(index);
+	}
+
+	/**
+	 * @param value
+	 * @return the instance of the given value that was added first if the value has already been added; otherwise,
+	 * the given value, which is added if possible
+	 */
+	public Object intern(Object value) {
+		final int index = indexOf(value);
+		if (index >= 0) {
+			return values.get(index);
+		}
+		add(value);
+		return value;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * @return true if the dictionary has reached its maximum size, and thus is no longer used
+	 */
+	public boolean isFull() {
+		return indexes == null;
+	}
+
+	/**
+	 * @param columnName
+	 * @return the dictionary, with the same maximum size as this one, for the given column of the column maps held by
+	 * this column, which is created if necessary
+	 */
+	public ColumnDictionary getChild(String columnName) {
+		if (children == null) {
+			children = new HashMap<>();
+		}
+		return children.computeIfAbsent(columnName, name -> new ColumnDictionary(maxSize));
+	}
+}
@@ -0,0 +1,56 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps column names to positions in the value array of a {@link ColumnRow}. A single instance is shared by every row
+ * that is read from the same ResultSet. Column names are matched without regard to case, consistent with the
+ * LinkedCaseInsensitiveMap that Spring's ColumnMapRowMapper produces.
+ */
+public class ColumnIndex implements Serializable {
+
+	private final String[] columnNames;
+	private final Map<String, Integer> exactIndexes;
+	private final Map<String, Integer> lowerCaseIndexes;
+
+	public ColumnIndex(String[] columnNames) {
+		this.columnNames = columnNames;
+		this.exactIndexes = new HashMap<>(columnNames.length * 2);
+		this.lowerCaseIndexes = new HashMap<>(columnNames.length * 2);
+		for (int i = 0; i < columnNames.length; i++) {
+			exactIndexes.put(columnNames[i], i);
+			lowerCaseIndexes.put(toLowerCase(columnNames[i]), i);
+		}
+	}
+
+	/**
+	 * @param columnName
+	 * @return the position of the given column, or -1 if this index does not contain the column
+	 */
+	public int indexOf(Object columnName) {
+		if (!(columnName instanceof String)) {
+			return -1;
+		}
+		// Most lookups use the same case as the column label, so try that before allocating a lower-case key
+		Integer index = exactIndexes.get(columnName);
+		if (index == null) {
+			index = lowerCaseIndexes.get(toLowerCase((String) columnName));
+		}
+		return index != null ? index : -1;
+	}
+
+	public String getColumnName(int index) {
+		return columnNames[index];
+	}
+
+	public int size() {
+		return columnNames.length;
+	}
+
+	private static String toLowerCase(String columnName) {
+		return columnName.toLowerCase(Locale.getDefault());
+	}
+}
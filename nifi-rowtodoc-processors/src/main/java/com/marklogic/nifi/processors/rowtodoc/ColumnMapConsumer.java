@@ -0,0 +1,14 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Callback for processing each column map as it is read from a FlowFile, so that the full list of column maps does not
+ * need to be held in memory unless the caller chooses to collect it.
+ */
+public interface ColumnMapConsumer {
+
+	void accept(Map<String, Object> columnMap) throws IOException;
+
+}
@@ -0,0 +1,329 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes a column map as a JSON document by calling the JsonGenerator directly for each value, instead of handing the
+ * map to an ObjectMapper, which looks up a serializer by the runtime class of every value.
+ * <p>
+ * Each column - identified by its name and the column that contains it, for nested column maps - gets a ColumnWriter
+ * the first time it's written. The ColumnWriter binds the writer for the class of the column's first non-null value,
+ * so that each later value only needs its class compared to the bound class before it's written. A value of another
+ * class rebinds the column. The columns of a query can also be bound up front from its ResultSetMetaData.
+ * <p>
+ * Values are written the same way as by the ObjectMapper from ConvertColumnMapsToJSON.newObjectMapper, except that
+ * java.sql.Timestamp and java.sql.Time values can be formatted with their own patterns. Formatted dates and times are
+ * cached in a small memo per pattern, as the same dates tend to be repeated across rows. Any class without a dedicated
+ * writer is written via the ObjectMapper. A {@link LargeObject} is streamed from its temporary file.
+ * <p>
+ * This is thread-safe, so a single instance can be shared by every concurrent task of a processor.
+ */
+public class ColumnMapJsonWriter {
+
+	private final ObjectWriter fallbackWriter;
+	private final JsonFactory jsonFactory;
+	private final ValueWriter sqlDateWriter;
+	private final ValueWriter timestampWriter;
+	private final ValueWriter timeWriter;
+
+	private final ConcurrentMap<Class<?>, ValueWriter> valueWriters = new ConcurrentHashMap<>();
+	private final RowWriter rootWriter = new RowWriter();
+
+	/**
+	 * @param objectMapper    used for creating generators and for writing values without a dedicated writer; its
+	 *                        JsonFactory must not auto-close the target
+	 * @param sqlDateFormat   optional pattern for java.sql.Date; if not set, dates are written as by the ObjectMapper
+	 * @param timestampFormat optional pattern for java.sql.Timestamp; if not set, timestamps are written as epoch
+	 *                        milliseconds
+	 * @param timeFormat      optional pattern for java.sql.Time; if not set, times are written as "HH:mm:ss"
+	 */
+	public ColumnMapJsonWriter(ObjectMapper objectMapper, String sqlDateFormat, String timestampFormat, String timeFormat) {
+		this.fallbackWriter = objectMapper.writer();
+		this.jsonFactory = objectMapper.getFactory();
+
+		if (sqlDateFormat != null) {
+			final DateFormatMemo memo = new DateFormatMemo(sqlDateFormat, date -> ((java.sql.Date) date).toLocalDate());
+			sqlDateWriter = (gen, value, column) -> gen.writeString(memo.format((java.sql.Date) value, 0));
+		} else {
+			sqlDateWriter = this::writeWithObjectMapper;
+		}
+
+		if (timestampFormat != null) {
+			final DateFormatMemo memo = new DateFormatMemo(timestampFormat, timestamp -> ((Timestamp) timestamp).toLocalDateTime());
+			timestampWriter = (gen, value, column) -> gen.writeString(memo.format((Timestamp) value, ((Timestamp) value).getNanos()));
+		} else {
+			timestampWriter = (gen, value, column) -> gen.writeNumber(((Timestamp) value).getTime());
+		}
+
+		if (timeFormat != null) {
+			final DateFormatMemo memo = new DateFormatMemo(timeFormat, time -> ((Time) time).toLocalTime());
+			timeWriter = (gen, value, column) -> gen.writeString(memo.format((Time) value, 0));
+		} else {
+			timeWriter = (gen, value, column) -> gen.writeString(value.toString());
+		}
+	}
+
+	/**
+	 * Writes the given column map as a UTF-8 JSON document to the given OutputStream, which is not closed.
+	 *
+	 * @param columnMap
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Map<String, Object> columnMap, OutputStream out) throws IOException {
+		JsonGenerator gen = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+		rootWriter.write(gen, columnMap);
+		// Flushes the generator, but does not close the OutputStream
+		gen.close();
+	}
+
+	public String writeValueAsString(Map<String, Object> columnMap) throws IOException {
+		StringWriter writer = new StringWriter();
+		JsonGenerator gen = jsonFactory.createGenerator(writer);
+		rootWriter.write(gen, columnMap);
+		gen.close();
+		return writer.toString();
+	}
+
+	/**
+	 * Binds each top-level column to the writer for the class of the values that the given ResultSet will produce
+	 * when its rows are mapped by ColumnRowMapper, so that the first row doesn't have to determine the writers.
+	 *
+	 * @param metaData
+	 * @throws SQLException
+	 */
+	public void bind(ResultSetMetaData metaData) throws SQLException {
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			Class<?> valueClass = getValueClass(metaData, i);
+			if (valueClass != null) {
+				rootWriter.getColumnWriter(JdbcUtils.lookupColumnName(metaData, i)).bind(valueClass);
+			}
+		}
+	}
+
+	/**
+	 * @param metaData
+	 * @param column
+	 * @return the class of the values that ColumnRowMapper reads for the given column, or null if it can't be
+	 * determined
+	 * @throws SQLException
+	 */
+	protected Class<?> getValueClass(ResultSetMetaData metaData, int column) throws SQLException {
+		switch (metaData.getColumnType(column)) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+			case Types.CLOB:
+			case Types.NCLOB:
+				return String.class;
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.LONGVARBINARY:
+			case Types.BLOB:
+				return byte[].class;
+			default:
+				try {
+					return Class.forName(metaData.getColumnClassName(column), false, getClass().getClassLoader());
+				} catch (ClassNotFoundException | RuntimeException e) {
+					return null;
+				}
+		}
+	}
+
+	protected ValueWriter getValueWriter(Class<?> valueClass) {
+		ValueWriter valueWriter = valueWriters.get(valueClass);
+		return valueWriter != null ? valueWriter : valueWriters.computeIfAbsent(valueClass, this::newValueWriter);
+	}
+
+	/**
+	 * Called once per class. Integral types narrower than int are written as ints, and byte arrays as Base64, as
+	 * Jackson does.
+	 */
+	protected ValueWriter newValueWriter(Class<?> valueClass) {
+		if (valueClass == String.class) {
+			return (gen, value, column) -> gen.writeString((String) value);
+		} else if (valueClass == Integer.class || valueClass == Short.class || valueClass == Byte.class) {
+			return (gen, value, column) -> gen.writeNumber(((Number) value).intValue());
+		} else if (valueClass == Long.class) {
+			return (gen, value, column) -> gen.writeNumber((Long) value);
+		} else if (valueClass == Double.class) {
+			return (gen, value, column) -> gen.writeNumber((Double) value);
+		} else if (valueClass == Float.class) {
+			return (gen, value, column) -> gen.writeNumber((Float) value);
+		} else if (valueClass == BigDecimal.class) {
+			return (gen, value, column) -> gen.writeNumber((BigDecimal) value);
+		} else if (valueClass == BigInteger.class) {
+			return (gen, value, column) -> gen.writeNumber((BigInteger) value);
+		} else if (valueClass == Boolean.class) {
+			return (gen, value, column) -> gen.writeBoolean((Boolean) value);
+		} else if (valueClass == byte[].class) {
+			return (gen, value, column) -> gen.writeBinary((byte[]) value);
+		} else if (valueClass == java.sql.Date.class) {
+			return sqlDateWriter;
+		} else if (valueClass == Timestamp.class) {
+			return timestampWriter;
+		} else if (valueClass == Time.class) {
+			return timeWriter;
+		} else if (valueClass == java.util.Date.class) {
+			return (gen, value, column) -> gen.writeNumber(((java.util.Date) value).getTime());
+		} else if (Map.class.isAssignableFrom(valueClass)) {
+			return (gen, value, column) -> column.getChildWriter().write(gen, (Map<String, Object>) value);
+		} else if (List.class.isAssignableFrom(valueClass)) {
+			return this::writeList;
+		} else if (valueClass == LargeObject.class) {
+			return (gen, value, column) -> writeLargeObject(gen, (LargeObject) value);
+		}
+		return this::writeWithObjectMapper;
+	}
+
+	/**
+	 * Column maps in a list - i.e. child rows - are written by the child RowWriter of the column containing the list,
+	 * so that they get their own column writers.
+	 */
+	private void writeList(JsonGenerator gen, Object value, ColumnWriter column) throws IOException {
+		gen.writeStartArray();
+		Class<?> itemClass = null;
+		ValueWriter itemWriter = null;
+		for (Object item : (List<?>) value) {
+			if (item == null) {
+				gen.writeNull();
+				continue;
+			}
+			if (item.getClass() != itemClass) {
+				itemClass = item.getClass();
+				itemWriter = getValueWriter(itemClass);
+			}
+			itemWriter.write(gen, item, column);
+		}
+		gen.writeEndArray();
+	}
+
+	/**
+	 * Streams the value from its temporary file - as Base64 for a binary value, as with a byte array.
+	 */
+	private void writeLargeObject(JsonGenerator gen, LargeObject largeObject) throws IOException {
+		if (largeObject.isBinary()) {
+			try (InputStream in = largeObject.openStream()) {
+				gen.writeBinary(in, (int) largeObject.getLength());
+			}
+		} else {
+			try (Reader reader = largeObject.openReader()) {
+				gen.writeString(reader, -1);
+			}
+		}
+	}
+
+	private void writeWithObjectMapper(JsonGenerator gen, Object value, ColumnWriter column) throws IOException {
+		fallbackWriter.writeValue(gen, value);
+	}
+
+	@FunctionalInterface
+	protected interface ValueWriter {
+		void write(JsonGenerator gen, Object value, ColumnWriter column) throws IOException;
+	}
+
+	/**
+	 * Writes column maps that are at the same position in a document - e.g. the top-level column map, or each row in
+	 * the "rentals" list of child rows - and so have the same columns.
+	 */
+	protected class RowWriter {
+
+		private final ConcurrentMap<String, ColumnWriter> columnWriters = new ConcurrentHashMap<>();
+
+		void write(JsonGenerator gen, Map<String, Object> columnMap) throws IOException {
+			gen.writeStartObject();
+			for (Map.Entry<String, Object> entry : columnMap.entrySet()) {
+				getColumnWriter(entry.getKey()).write(gen, entry.getValue());
+			}
+			gen.writeEndObject();
+		}
+
+		ColumnWriter getColumnWriter(String columnName) {
+			ColumnWriter columnWriter = columnWriters.get(columnName);
+			return columnWriter != null ? columnWriter : columnWriters.computeIfAbsent(columnName, ColumnWriter::new);
+		}
+	}
+
+	protected class ColumnWriter {
+
+		private final SerializedString fieldName;
+		private volatile Binding binding;
+		private volatile RowWriter childWriter;
+
+		ColumnWriter(String columnName) {
+			this.fieldName = new SerializedString(columnName);
+		}
+
+		void write(JsonGenerator gen, Object value) throws IOException {
+			gen.writeFieldName(fieldName);
+			if (value == null) {
+				gen.writeNull();
+				return;
+			}
+			Binding currentBinding = binding;
+			if (currentBinding == null || currentBinding.valueClass != value.getClass()) {
+				currentBinding = bind(value.getClass());
+			}
+			currentBinding.valueWriter.write(gen, value, this);
+		}
+
+		Binding bind(Class<?> valueClass) {
+			Binding newBinding = new Binding(valueClass, getValueWriter(valueClass));
+			binding = newBinding;
+			return newBinding;
+		}
+
+		RowWriter getChildWriter() {
+			RowWriter writer = childWriter;
+			if (writer == null) {
+				synchronized (this) {
+					if (childWriter == null) {
+						childWriter = new RowWriter();
+					}
+					writer = childWriter;
+				}
+			}
+			return writer;
+		}
+	}
+
+	/**
+	 * Immutable, so that a column's class and writer are always read together.
+	 */
+	private static class Binding {
+
+		private final Class<?> valueClass;
+		private final ValueWriter valueWriter;
+
+		Binding(Class<?> valueClass, ValueWriter valueWriter) {
+			this.valueClass = valueClass;
+			this.valueWriter = valueWriter;
+		}
+	}
+}
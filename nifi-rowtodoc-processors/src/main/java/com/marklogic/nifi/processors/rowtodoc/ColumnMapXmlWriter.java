@@ -0,0 +1,194 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.stream.io.StreamUtils;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes a column map as an XML document via a StAX XMLStreamWriter, directly to an OutputStream and without building
+ * a DOM or a String first. Each column becomes an element named after the column. A nested list of column maps - i.e.
+ * the child rows added by ChildQueryExecutor - becomes an element named after the property, containing one child
+ * element per child row.
+ * <p>
+ * Column names that aren't valid XML element names have each invalid character replaced with an underscore. As the
+ * same column names are written for every row, the element name for each column name is cached.
+ * <p>
+ * Null values are written as empty elements. Instances of java.sql.Date are formatted with the given pattern, the
+ * same way that SqlDateSerializer formats them for JSON; timestamps and other dates are written in ISO-8601 format,
+ * and binary values are Base64-encoded. A {@link LargeObject} is streamed from its temporary file.
+ */
+public class ColumnMapXmlWriter {
+
+	private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	private final Map<String, String> elementNames = new ConcurrentHashMap<>();
+
+	private final String rootElementName;
+	private final String childElementName;
+	private final String namespace;
+	private final DateTimeFormatter sqlDateFormatter;
+
+	/**
+	 * @param rootElementName
+	 * @param childElementName the name of the element for each row in a nested list of column maps
+	 * @param namespace        optional default namespace of the document
+	 * @param sqlDateFormat    optional pattern for formatting instances of java.sql.Date
+	 */
+	public ColumnMapXmlWriter(String rootElementName, String childElementName, String namespace, String sqlDateFormat) {
+		this.rootElementName = toElementName(rootElementName);
+		this.childElementName = toElementName(childElementName);
+		this.namespace = namespace;
+		this.sqlDateFormatter = sqlDateFormat != null ? DateTimeFormatter.ofPattern(sqlDateFormat) : null;
+	}
+
+	/**
+	 * Writes the given column map as a UTF-8 XML document to the given OutputStream, which is not closed.
+	 *
+	 * @param columnMap
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Map<String, Object> columnMap, OutputStream out) throws IOException {
+		BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+		try {
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(bufferedOut, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(rootElementName);
+			if (namespace != null) {
+				writer.writeDefaultNamespace(namespace);
+			}
+			writeColumns(writer, columnMap);
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			// Closing the writer does not close the underlying OutputStream
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to write column map to XML, cause: " + e.getMessage(), e);
+		}
+		bufferedOut.flush();
+	}
+
+	protected void writeColumns(XMLStreamWriter writer, Map<String, Object> columnMap) throws XMLStreamException {
+		for (Map.Entry<String, Object> entry : columnMap.entrySet()) {
+			writeValue(writer, getElementName(entry.getKey()), entry.getValue());
+		}
+	}
+
+	protected void writeValue(XMLStreamWriter writer, String elementName, Object value) throws XMLStreamException {
+		if (value == null) {
+			writer.writeEmptyElement(elementName);
+		} else if (value instanceof Map) {
+			writer.writeStartElement(elementName);
+			writeColumns(writer, (Map<String, Object>) value);
+			writer.writeEndElement();
+		} else if (value instanceof List) {
+			writer.writeStartElement(elementName);
+			for (Object item : (List<?>) value) {
+				writeValue(writer, childElementName, item);
+			}
+			writer.writeEndElement();
+		} else if (value instanceof LargeObject) {
+			writer.writeStartElement(elementName);
+			try {
+				writeLargeObject(writer, (LargeObject) value);
+			} catch (IOException e) {
+				throw new XMLStreamException("Unable to read large object, cause: " + e.getMessage(), e);
+			}
+			writer.writeEndElement();
+		} else {
+			writer.writeStartElement(elementName);
+			writer.writeCharacters(toText(value));
+			writer.writeEndElement();
+		}
+	}
+
+	/**
+	 * Streams the value from its temporary file in chunks - as Base64 for a binary value, as with a byte array. Each
+	 * binary chunk is a multiple of 3 bytes, so that the encoded chunks concatenate into a single Base64 string.
+	 */
+	protected void writeLargeObject(XMLStreamWriter writer, LargeObject largeObject) throws IOException, XMLStreamException {
+		if (largeObject.isBinary()) {
+			Base64.Encoder encoder = Base64.getEncoder();
+			byte[] buffer = new byte[3 * 4096];
+			try (InputStream in = largeObject.openStream()) {
+				int length;
+				while ((length = StreamUtils.fillBuffer(in, buffer, false)) > 0) {
+					byte[] chunk = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+					writer.writeCharacters(encoder.encodeToString(chunk));
+				}
+			}
+		} else {
+			char[] buffer = new char[8192];
+			try (Reader reader = largeObject.openReader()) {
+				int length;
+				while ((length = reader.read(buffer)) >= 0) {
+					writer.writeCharacters(buffer, 0, length);
+				}
+			}
+		}
+	}
+
+	protected String toText(Object value) {
+		if (value instanceof String) {
+			return (String) value;
+		} else if (value instanceof Date) {
+			Date date = (Date) value;
+			return sqlDateFormatter != null ? sqlDateFormatter.format(date.toLocalDate()) : date.toString();
+		} else if (value instanceof Timestamp) {
+			return ((Timestamp) value).toLocalDateTime().toString();
+		} else if (value instanceof Time) {
+			return value.toString();
+		} else if (value instanceof java.util.Date) {
+			return ((java.util.Date) value).toInstant().toString();
+		} else if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		} else if (value instanceof byte[]) {
+			return Base64.getEncoder().encodeToString((byte[]) value);
+		}
+		return value.toString();
+	}
+
+	protected String getElementName(String columnName) {
+		return elementNames.computeIfAbsent(columnName, ColumnMapXmlWriter::toElementName);
+	}
+
+	/**
+	 * @param name
+	 * @return the given name with each character that isn't allowed in an XML element name replaced with an
+	 * underscore
+	 */
+	protected static String toElementName(String name) {
+		if (name == null || name.isEmpty()) {
+			return "_";
+		}
+		StringBuilder sb = null;
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			final boolean valid = Character.isLetter(c) || c == '_' ||
+				(i > 0 && (Character.isDigit(c) || c == '-' || c == '.'));
+			if (!valid) {
+				if (sb == null) {
+					sb = new StringBuilder(name);
+				}
+				sb.setCharAt(i, '_');
+			}
+		}
+		return sb != null ? sb.toString() : name;
+	}
+}
@@ -0,0 +1,126 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Defines how a list of column maps is compressed when passed from one processor to another. Compression applies to
+ * either column maps format. The compression of a FlowFile is recorded in the ATTRIBUTE attribute, so that the next
+ * processor knows how to decompress it; a FlowFile without the attribute is not compressed.
+ * <p>
+ * Closing a stream returned by compress or decompress finishes it and releases its resources, but does not close the
+ * stream that it wraps.
+ */
+public enum ColumnMapsCompression {
+
+	NONE("None") {
+		@Override
+		public OutputStream compress(OutputStream out) {
+			return new NonClosingOutputStream(out);
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) {
+			return in;
+		}
+	},
+
+	DEFLATE("Deflate") {
+		@Override
+		public OutputStream compress(OutputStream out) {
+			return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION), BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					finish();
+					def.end();
+					out.flush();
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) {
+			return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+				@Override
+				public void close() {
+					inf.end();
+				}
+			};
+		}
+	},
+
+	LZ("LZ") {
+		@Override
+		public OutputStream compress(OutputStream out) {
+			return new LzOutputStream(out);
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) {
+			return new LzInputStream(in);
+		}
+	};
+
+	public static final String ATTRIBUTE = "rowtodoc.compression";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private String displayName;
+
+	ColumnMapsCompression(String displayName) {
+		this.displayName = displayName;
+	}
+
+	/**
+	 * @param out
+	 * @return a stream that compresses everything written to it into the given stream; the compressed content is only
+	 * complete once the returned stream is closed
+	 */
+	public abstract OutputStream compress(OutputStream out);
+
+	public abstract InputStream decompress(InputStream in);
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	public static ColumnMapsCompression fromDisplayName(String displayName) {
+		for (ColumnMapsCompression compression : values()) {
+			if (compression.displayName.equals(displayName)) {
+				return compression;
+			}
+		}
+		throw new IllegalArgumentException("Unrecognized column maps compression: " + displayName);
+	}
+
+	/**
+	 * @param attributeValue the value of the compression attribute of a FlowFile, which may be null
+	 * @return the compression that the FlowFile was written with
+	 */
+	public static ColumnMapsCompression fromAttribute(String attributeValue) {
+		return attributeValue != null ? fromDisplayName(attributeValue) : NONE;
+	}
+
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			out.write(bytes, offset, length);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.marklogic.nifi.processors.rowtodoc.ColumnMapsFormat.*;
+
+/**
+ * Reads a list of column maps that was written by {@link ColumnMapsEncoder}. Each column map is returned as a
+ * LinkedCaseInsensitiveMap, which is what Spring's ColumnMapRowMapper produces, so that column names can be looked up
+ * without regard to case. The given InputStream is not buffered by this class, so callers should pass in a buffered
+ * stream.
+ */
+public class ColumnMapsDecoder {
+
+	private InputStream in;
+	private ChildRowSpill spill;
+	private LargeObjectStore largeObjects;
+
+	public ColumnMapsDecoder(InputStream in) {
+		this(in, null);
+	}
+
+	/**
+	 * @param in
+	 * @param spill optional; if set, nested lists of column maps are read into lists created by the spill, so that
+	 *              large lists of child rows can be moved to disk while they're read
+	 */
+	public ColumnMapsDecoder(InputStream in, ChildRowSpill spill) {
+		this(in, spill, null);
+	}
+
+	/**
+	 * @param in
+	 * @param spill        optional
+	 * @param largeObjects optional; if set, byte array and String values larger than its threshold are copied into it
+	 *                     and read as LargeObjects, instead of being read into memory
+	 */
+	public ColumnMapsDecoder(InputStream in, ChildRowSpill spill, LargeObjectStore largeObjects) {
+		this.in = in;
+		this.spill = spill;
+		this.largeObjects = largeObjects;
+	}
+
+	public List<Map<String, Object>> readColumnMaps() throws IOException {
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		readColumnMaps(columnMaps::add);
+		return columnMaps;
+	}
+
+	/**
+	 * Reads each column map directly from the InputStream and passes it to the given consumer before reading the next
+	 * one. Nested lists of column maps are still fully read as part of the column map that contains them.
+	 *
+	 * @param consumer
+	 * @throws IOException
+	 */
+	public void readColumnMaps(ColumnMapConsumer consumer) throws IOException {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (readByte() != MAGIC[i]) {
+				throw new IOException("Content is not in the binary column maps format");
+			}
+		}
+		final int version = readByte();
+		if (version == VERSION_1) {
+			readBatch(consumer);
+		} else if (version == VERSION) {
+			// The maximum size only matters when writing; the decoder adds whatever the encoder added
+			readBatch(consumer, new ColumnDictionary(Integer.MAX_VALUE));
+		} else {
+			throw new IOException("Unsupported column maps format version: " + version);
+		}
+	}
+
+	protected List<Map<String, Object>> readBatch() throws IOException {
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		readBatch(columnMaps::add);
+		return columnMaps;
+	}
+
+	protected void readBatch(ColumnMapConsumer consumer) throws IOException {
+		readBatch(consumer, null);
+	}
+
+	/**
+	 * @param consumer
+	 * @param dictionary optional; its children are the dictionaries of the columns in the batch
+	 * @throws IOException
+	 */
+	protected void readBatch(ColumnMapConsumer consumer, ColumnDictionary dictionary) throws IOException {
+		final int columnCount = readVarInt();
+		final String[] columnNames = new String[columnCount];
+		final ColumnDictionary[] columnDictionaries = new ColumnDictionary[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			columnNames[i] = readString();
+			if (dictionary != null) {
+				columnDictionaries[i] = dictionary.getChild(columnNames[i]);
+			}
+		}
+
+		while (readByte() == ROW) {
+			final int entryCount = readVarInt();
+			Map<String, Object> columnMap = new LinkedCaseInsensitiveMap<>(entryCount);
+			for (int i = 0; i < entryCount; i++) {
+				final int columnIndex = readVarInt();
+				if (columnIndex >= columnCount) {
+					throw new IOException("Invalid column index: " + columnIndex + "; batch has " + columnCount + " columns");
+				}
+				columnMap.put(columnNames[columnIndex], readColumnValue(columnDictionaries[columnIndex]));
+			}
+			consumer.accept(columnMap);
+		}
+	}
+
+	/**
+	 * Reads a value of a column, which may be a new entry in, or a reference to, the column's dictionary. A reference
+	 * returns the same instance as every other reference to the entry, so a repeated value is held in memory once.
+	 *
+	 * @param dictionary null if the batch isn't written with dictionaries
+	 * @return
+	 * @throws IOException
+	 */
+	protected Object readColumnValue(ColumnDictionary dictionary) throws IOException {
+		final int tag = readByte();
+		if (dictionary == null) {
+			return readValue(tag);
+		}
+		switch (tag) {
+			case TAG_DICTIONARY_REF:
+				final int index = readVarInt();
+				if (index < 0 || index >= dictionary.size()) {
+					throw new IOException("Invalid dictionary index: " + index + "; dictionary has " + dictionary.size() + " values");
+				}
+				return dictionary.get(index);
+			case TAG_DICTIONARY_VALUE:
+				Object value = readInMemoryValue();
+				dictionary.append(value);
+				return value;
+			case TAG_COLUMN_MAPS:
+				return readColumnMapList(dictionary);
+			case TAG_COLUMN_MAP:
+				return readColumnMap(dictionary);
+			default:
+				return readValue(tag);
+		}
+	}
+
+	/**
+	 * Reads a value without the large object store, as a dictionary entry is shared by every later reference to it,
+	 * which may be in a document that's written after the files of the large object store were deleted. The encoder
+	 * only adds Strings, numbers, and dates to a dictionary anyway.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	protected Object readInMemoryValue() throws IOException {
+		final int tag = readByte();
+		switch (tag) {
+			case TAG_STRING:
+				return readString();
+			case TAG_BYTES:
+				return readBytes();
+			default:
+				return readValue(tag);
+		}
+	}
+
+	protected Object readValue() throws IOException {
+		return readValue(readByte());
+	}
+
+	protected Object readValue(int tag) throws IOException {
+		switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_STRING:
+				return largeObjects != null ? readLargeValue(false) : readString();
+			case TAG_INT:
+				return (int) unZigZag(readVarLong());
+			case TAG_LONG:
+				return unZigZag(readVarLong());
+			case TAG_SHORT:
+				return (short) unZigZag(readVarLong());
+			case TAG_BYTE:
+				return (byte) readByte();
+			case TAG_DOUBLE:
+				return Double.longBitsToDouble(readFixedLong());
+			case TAG_FLOAT:
+				return Float.intBitsToFloat(readFixedInt());
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_BIG_DECIMAL:
+				final int scale = (int) unZigZag(readVarLong());
+				return new BigDecimal(new BigInteger(readBytes()), scale);
+			case TAG_BIG_INTEGER:
+				return new BigInteger(readBytes());
+			case TAG_SQL_TIMESTAMP:
+				Timestamp timestamp = new Timestamp(unZigZag(readVarLong()));
+				timestamp.setNanos(readVarInt());
+				return timestamp;
+			case TAG_SQL_DATE:
+				return new java.sql.Date(unZigZag(readVarLong()));
+			case TAG_SQL_TIME:
+				return new Time(unZigZag(readVarLong()));
+			case TAG_DATE:
+				return new Date(unZigZag(readVarLong()));
+			case TAG_BYTES:
+				return largeObjects != null ? readLargeValue(true) : readBytes();
+			case TAG_COLUMN_MAPS:
+				return readColumnMapList(null);
+			case TAG_COLUMN_MAP:
+				return readColumnMap(null);
+			case TAG_LIST:
+				final int size = readVarInt();
+				List<Object> list = new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					list.add(readValue());
+				}
+				return list;
+			case TAG_SERIALIZED:
+				return readSerializedObject();
+			default:
+				throw new IOException("Unrecognized type tag: " + tag);
+		}
+	}
+
+	/**
+	 * @param dictionary optional; its children are the dictionaries of the columns in the nested batch
+	 * @return a list created by the spill if there is one, and otherwise an in-memory list
+	 * @throws IOException
+	 */
+	protected List<Map<String, Object>> readColumnMapList(ColumnDictionary dictionary) throws IOException {
+		List<Map<String, Object>> childRows = spill != null ? spill.newList() : new ArrayList<>();
+		readBatch(childRows::add, dictionary);
+		return childRows;
+	}
+
+	/**
+	 * @param dictionary optional; its children are the dictionaries of the columns in the nested batch
+	 * @return the single column map of a nested batch
+	 * @throws IOException
+	 */
+	protected Map<String, Object> readColumnMap(ColumnDictionary dictionary) throws IOException {
+		List<Map<String, Object>> columnMaps = new ArrayList<>(1);
+		readBatch(columnMaps::add, dictionary);
+		if (columnMaps.size() != 1) {
+			throw new IOException("Expected a single nested column map, but found " + columnMaps.size());
+		}
+		return columnMaps.get(0);
+	}
+
+	/**
+	 * @param binary
+	 * @return a byte array or String if the value is no larger than the threshold of the large object store, and
+	 * otherwise a LargeObject
+	 * @throws IOException
+	 */
+	protected Object readLargeValue(boolean binary) throws IOException {
+		final int length = readVarInt();
+		if (length > largeObjects.getThreshold()) {
+			return largeObjects.copy(in, length, binary);
+		}
+		byte[] bytes = readFully(length);
+		return binary ? bytes : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	protected Object readSerializedObject() throws IOException {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes()))) {
+			return ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to read serialized value, cause: " + e.getMessage(), e);
+		}
+	}
+
+	protected String readString() throws IOException {
+		return new String(readBytes(), StandardCharsets.UTF_8);
+	}
+
+	protected byte[] readBytes() throws IOException {
+		return readFully(readVarInt());
+	}
+
+	private byte[] readFully(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int count = in.read(bytes, offset, length - offset);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			offset += count;
+		}
+		return bytes;
+	}
+
+	protected int readVarInt() throws IOException {
+		return (int) readVarLong();
+	}
+
+	protected long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length number");
+	}
+
+	protected long readFixedLong() throws IOException {
+		return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+	}
+
+	protected int readFixedInt() throws IOException {
+		return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+	}
+
+	protected int readByte() throws IOException {
+		final int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
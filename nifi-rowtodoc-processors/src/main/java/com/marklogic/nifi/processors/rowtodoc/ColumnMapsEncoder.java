@@ -0,0 +1,372 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.marklogic.nifi.processors.rowtodoc.ColumnMapsFormat.*;
+
+/**
+ * Writes a list of column maps in the binary format described by {@link ColumnMapsFormat}. The given OutputStream is
+ * not buffered by this class, so callers should pass in a buffered stream.
+ */
+public class ColumnMapsEncoder {
+
+	private OutputStream out;
+	private int dictionarySize;
+	private boolean columnMapWritten;
+
+	public ColumnMapsEncoder(OutputStream out) {
+		this(out, 0);
+	}
+
+	/**
+	 * @param out
+	 * @param dictionarySize if greater than zero, repeated values in each column are written as references to their
+	 *                       first occurrence, until the column has this many distinct values
+	 */
+	public ColumnMapsEncoder(OutputStream out, int dictionarySize) {
+		this.out = out;
+		this.dictionarySize = dictionarySize;
+	}
+
+	public void writeColumnMaps(List<? extends Map<String, Object>> columnMaps) throws IOException {
+		out.write(MAGIC);
+		if (dictionarySize > 0) {
+			out.write(VERSION);
+			writeBatch(columnMaps, new ColumnDictionary(dictionarySize));
+		} else if (containsColumnMap(columnMaps)) {
+			// Version 1 has no tag for a single column map, so version 2 is written without dictionaries
+			out.write(VERSION);
+			writeBatch(columnMaps);
+		} else {
+			out.write(VERSION_1);
+			writeBatch(columnMaps);
+		}
+	}
+
+	/**
+	 * The header of each batch is the union of the column names across every row in the batch, in the order that they
+	 * are first encountered. Rows written by the child query executor won't all have the same columns - e.g. a parent
+	 * with no children won't have the child property - so each row lists the index of every column that it has.
+	 *
+	 * @param columnMaps
+	 * @throws IOException
+	 */
+	protected void writeBatch(List<? extends Map<String, Object>> columnMaps) throws IOException {
+		writeBatch(columnMaps, null);
+	}
+
+	/**
+	 * @param columnMaps
+	 * @param dictionary optional; its children are the dictionaries of the columns in the batch
+	 * @throws IOException
+	 */
+	protected void writeBatch(List<? extends Map<String, Object>> columnMaps, ColumnDictionary dictionary) throws IOException {
+		Map<String, Integer> columnIndexes = new LinkedHashMap<>();
+		for (Map<String, Object> columnMap : columnMaps) {
+			for (String columnName : columnMap.keySet()) {
+				if (!columnIndexes.containsKey(columnName)) {
+					columnIndexes.put(columnName, columnIndexes.size());
+				}
+			}
+		}
+
+		writeVarInt(columnIndexes.size());
+		ColumnDictionary[] columnDictionaries = dictionary != null ? new ColumnDictionary[columnIndexes.size()] : null;
+		for (String columnName : columnIndexes.keySet()) {
+			if (columnDictionaries != null) {
+				columnDictionaries[columnIndexes.get(columnName)] = dictionary.getChild(columnName);
+			}
+			writeString(columnName);
+		}
+
+		for (Map<String, Object> columnMap : columnMaps) {
+			out.write(ROW);
+			writeVarInt(columnMap.size());
+			for (Map.Entry<String, Object> entry : columnMap.entrySet()) {
+				final int columnIndex = columnIndexes.get(entry.getKey());
+				writeVarInt(columnIndex);
+				if (columnDictionaries != null) {
+					writeColumnValue(entry.getValue(), columnDictionaries[columnIndex]);
+				} else {
+					writeValue(entry.getValue());
+				}
+			}
+		}
+		out.write(END_OF_BATCH);
+	}
+
+	/**
+	 * Writes a value as a reference to the column's dictionary if the value has already been written, or as a new
+	 * dictionary entry if the value can be added to the dictionary. Nested lists of column maps are written with the
+	 * column's child dictionaries.
+	 *
+	 * @param value
+	 * @param dictionary
+	 * @throws IOException
+	 */
+	protected void writeColumnValue(Object value, ColumnDictionary dictionary) throws IOException {
+		if (value instanceof List) {
+			writeList((List<?>) value, dictionary);
+			return;
+		}
+		if (value instanceof Map) {
+			writeColumnMap((Map<String, Object>) value, dictionary);
+			return;
+		}
+		if (value != null) {
+			final int index = dictionary.indexOf(value);
+			if (index >= 0) {
+				out.write(TAG_DICTIONARY_REF);
+				writeVarInt(index);
+				return;
+			}
+			if (dictionary.add(value)) {
+				out.write(TAG_DICTIONARY_VALUE);
+			}
+		}
+		writeValue(value);
+	}
+
+	protected void writeValue(Object value) throws IOException {
+		if (value == null) {
+			out.write(TAG_NULL);
+		} else if (value instanceof String) {
+			out.write(TAG_STRING);
+			writeString((String) value);
+		} else if (value instanceof Integer) {
+			out.write(TAG_INT);
+			writeVarLong(zigZag((Integer) value));
+		} else if (value instanceof Long) {
+			out.write(TAG_LONG);
+			writeVarLong(zigZag((Long) value));
+		} else if (value instanceof Short) {
+			out.write(TAG_SHORT);
+			writeVarLong(zigZag((Short) value));
+		} else if (value instanceof Byte) {
+			out.write(TAG_BYTE);
+			out.write((Byte) value);
+		} else if (value instanceof Double) {
+			out.write(TAG_DOUBLE);
+			writeFixedLong(Double.doubleToLongBits((Double) value));
+		} else if (value instanceof Float) {
+			out.write(TAG_FLOAT);
+			writeFixedInt(Float.floatToIntBits((Float) value));
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			out.write(TAG_BIG_DECIMAL);
+			writeVarLong(zigZag(decimal.scale()));
+			writeBytes(decimal.unscaledValue().toByteArray());
+		} else if (value instanceof BigInteger) {
+			out.write(TAG_BIG_INTEGER);
+			writeBytes(((BigInteger) value).toByteArray());
+		} else if (value instanceof Timestamp) {
+			Timestamp timestamp = (Timestamp) value;
+			out.write(TAG_SQL_TIMESTAMP);
+			writeVarLong(zigZag(timestamp.getTime()));
+			writeVarInt(timestamp.getNanos());
+		} else if (value instanceof java.sql.Date) {
+			out.write(TAG_SQL_DATE);
+			writeVarLong(zigZag(((Date) value).getTime()));
+		} else if (value instanceof Time) {
+			out.write(TAG_SQL_TIME);
+			writeVarLong(zigZag(((Date) value).getTime()));
+		} else if (value.getClass() == Date.class) {
+			out.write(TAG_DATE);
+			writeVarLong(zigZag(((Date) value).getTime()));
+		} else if (value instanceof byte[]) {
+			out.write(TAG_BYTES);
+			writeBytes((byte[]) value);
+		} else if (value instanceof LargeObject) {
+			writeLargeObject((LargeObject) value);
+		} else if (value instanceof List) {
+			writeList((List<?>) value);
+		} else if (value instanceof Map) {
+			writeColumnMap((Map<String, Object>) value, null);
+		} else {
+			writeSerializedObject(value);
+		}
+	}
+
+	/**
+	 * A list of column maps - i.e. the rows from a child query - is written as a nested batch. Any other list is
+	 * written as a count followed by each value.
+	 *
+	 * @param list
+	 * @throws IOException
+	 */
+	protected void writeList(List<?> list) throws IOException {
+		writeList(list, null);
+	}
+
+	/**
+	 * @param list
+	 * @param dictionary optional; the dictionary of the column holding the list, whose children are used for a nested
+	 *                   batch
+	 * @throws IOException
+	 */
+	protected void writeList(List<?> list, ColumnDictionary dictionary) throws IOException {
+		// A spillable list only ever holds column maps, and checking would mean reading it back from disk
+		if (list instanceof SpillableColumnMapList || containsOnlyMaps(list)) {
+			out.write(TAG_COLUMN_MAPS);
+			writeBatch((List<Map<String, Object>>) list, dictionary);
+		} else {
+			out.write(TAG_LIST);
+			writeVarInt(list.size());
+			for (Object item : list) {
+				writeValue(item);
+			}
+		}
+	}
+
+	/**
+	 * @param columnMap
+	 * @param dictionary optional; the dictionary of the column holding the column map, whose children are used for
+	 *                   the nested batch
+	 * @throws IOException
+	 */
+	protected void writeColumnMap(Map<String, Object> columnMap, ColumnDictionary dictionary) throws IOException {
+		out.write(TAG_COLUMN_MAP);
+		columnMapWritten = true;
+		writeBatch(Collections.singletonList(columnMap), dictionary);
+	}
+
+	/**
+	 * @return true if a single column map has been written by this encoder, including within a list
+	 */
+	public boolean isColumnMapWritten() {
+		return columnMapWritten;
+	}
+
+	/**
+	 * @param columnMaps
+	 * @return true if a value of any of the column maps, including in their nested lists, is a single column map -
+	 * e.g. a lookup table row - which can only be written in version 2
+	 */
+	protected static boolean containsColumnMap(List<? extends Map<String, Object>> columnMaps) {
+		// The rows of a spillable list that were written to disk aren't read back just to check them
+		if (columnMaps instanceof SpillableColumnMapList) {
+			return ((SpillableColumnMapList) columnMaps).containsColumnMap();
+		}
+		for (Map<String, Object> columnMap : columnMaps) {
+			for (Object value : columnMap.values()) {
+				if (isOrContainsColumnMap(value)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isOrContainsColumnMap(Object value) {
+		if (value instanceof Map) {
+			return true;
+		}
+		if (value instanceof SpillableColumnMapList || (value instanceof List && containsOnlyMaps((List<?>) value))) {
+			return containsColumnMap((List<Map<String, Object>>) value);
+		}
+		if (value instanceof List) {
+			for (Object item : (List<?>) value) {
+				if (isOrContainsColumnMap(item)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsOnlyMaps(List<?> list) {
+		for (Object item : list) {
+			if (!(item instanceof Map)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A large object is written the same way as a byte array or String with the same content, so that any reader of
+	 * the format can read it, but its content is streamed from its temporary file.
+	 *
+	 * @param largeObject
+	 * @throws IOException
+	 */
+	protected void writeLargeObject(LargeObject largeObject) throws IOException {
+		final long length = largeObject.getLength();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Large object of " + length + " bytes exceeds the maximum length of a column maps value");
+		}
+		out.write(largeObject.isBinary() ? TAG_BYTES : TAG_STRING);
+		writeVarInt((int) length);
+		try (InputStream in = largeObject.openStream()) {
+			LargeObjectStore.copy(in, out, length);
+		}
+	}
+
+	/**
+	 * Fallback for any JDBC value that doesn't have a dedicated type tag.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	protected void writeSerializedObject(Object value) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(value);
+		}
+		out.write(TAG_SERIALIZED);
+		writeBytes(baos.toByteArray());
+	}
+
+	protected void writeString(String value) throws IOException {
+		writeBytes(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected void writeBytes(byte[] bytes) throws IOException {
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	protected void writeVarInt(int value) throws IOException {
+		writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	protected void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	protected void writeFixedLong(long value) throws IOException {
+		writeFixedInt((int) (value >>> 32));
+		writeFixedInt((int) value);
+	}
+
+	protected void writeFixedInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
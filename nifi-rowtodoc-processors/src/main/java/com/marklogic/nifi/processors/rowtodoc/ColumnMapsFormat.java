@@ -0,0 +1,98 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+/**
+ * Defines the formats that a list of column maps can be written in when passed from one processor to another.
+ * <p>
+ * The binary format starts with a magic number and a version byte, followed by a "batch". A batch consists of a header
+ * listing the column names, followed by each row. Each row only references columns by their index in the header, so
+ * column names are written once per batch instead of once per row. Each value is written with a one-byte type tag
+ * followed by a compact encoding of the value. Lists of column maps - i.e. the output of child queries - are written as
+ * nested batches with their own header, and a single column map - i.e. a row from a lookup table - as a nested batch
+ * with one row.
+ * <p>
+ * Version 2 adds optional per-column dictionaries: the first occurrence of a value in a column is tagged as a new
+ * dictionary entry, and each later occurrence is written as a reference to that entry's index. The dictionaries span
+ * the whole list, and the columns of nested batches have their own dictionaries, keyed by the path of column names.
+ * Version 1 is still written when dictionaries aren't used and no value is a single column map, so that earlier versions
+ * of these processors can read it.
+ * <p>
+ * The Java serialization format is what previous versions of these processors wrote; it is still supported so that
+ * FlowFiles queued before an upgrade can be read.
+ */
+public enum ColumnMapsFormat {
+
+	BINARY("Binary"),
+	JAVA_SERIALIZATION("Java serialization");
+
+	/**
+	 * "RTDC" - used to distinguish the binary format from Java serialization, which starts with 0xACED.
+	 */
+	static final byte[] MAGIC = {'R', 'T', 'D', 'C'};
+	static final int VERSION_1 = 1;
+	static final int VERSION = 2;
+
+	static final int ROW = 1;
+	static final int END_OF_BATCH = 0;
+
+	static final int TAG_NULL = 0;
+	static final int TAG_STRING = 1;
+	static final int TAG_INT = 2;
+	static final int TAG_LONG = 3;
+	static final int TAG_SHORT = 4;
+	static final int TAG_BYTE = 5;
+	static final int TAG_DOUBLE = 6;
+	static final int TAG_FLOAT = 7;
+	static final int TAG_TRUE = 8;
+	static final int TAG_FALSE = 9;
+	static final int TAG_BIG_DECIMAL = 10;
+	static final int TAG_BIG_INTEGER = 11;
+	static final int TAG_SQL_DATE = 12;
+	static final int TAG_SQL_TIME = 13;
+	static final int TAG_SQL_TIMESTAMP = 14;
+	static final int TAG_DATE = 15;
+	static final int TAG_BYTES = 16;
+	static final int TAG_COLUMN_MAPS = 17;
+	static final int TAG_LIST = 18;
+	static final int TAG_SERIALIZED = 19;
+	// Version 2 only; a new dictionary entry is followed by the tagged value
+	static final int TAG_DICTIONARY_VALUE = 20;
+	static final int TAG_DICTIONARY_REF = 21;
+	// Version 2 only; a single nested column map - e.g. a lookup table row - written as a nested batch with one row
+	static final int TAG_COLUMN_MAP = 22;
+
+	private String displayName;
+
+	ColumnMapsFormat(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	public static ColumnMapsFormat fromDisplayName(String displayName) {
+		for (ColumnMapsFormat format : values()) {
+			if (format.displayName.equals(displayName)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unrecognized column maps format: " + displayName);
+	}
+
+	/**
+	 * @param header the first bytes of a FlowFile's content
+	 * @param length the number of valid bytes in the header array
+	 * @return true if the bytes start with the magic number of the binary format
+	 */
+	static boolean isBinary(byte[] header, int length) {
+		if (length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -2,7 +2,7 @@ package com.marklogic.nifi.processors.rowtodoc;
 
 import org.apache.nifi.processor.io.OutputStreamCallback;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
@@ -12,16 +12,60 @@ import java.util.Map;
 public class ColumnMapsWriter implements OutputStreamCallback {
 
 	private List<Map<String, Object>> columnMaps;
+	private ColumnMapsFormat format;
+	private ColumnMapsCompression compression;
+	private int dictionarySize;
 
 	public ColumnMapsWriter(List<Map<String, Object>> columnMaps) {
+		this(columnMaps, ColumnMapsFormat.BINARY);
+	}
+
+	public ColumnMapsWriter(List<Map<String, Object>> columnMaps, ColumnMapsFormat format) {
+		this(columnMaps, format, ColumnMapsCompression.NONE);
+	}
+
+	public ColumnMapsWriter(List<Map<String, Object>> columnMaps, ColumnMapsFormat format, ColumnMapsCompression compression) {
+		this(columnMaps, format, compression, 0);
+	}
+
+	/**
+	 * @param columnMaps
+	 * @param format
+	 * @param compression
+	 * @param dictionarySize if greater than zero, the binary format writes repeated values in each column as
+	 *                       references to a per-column dictionary with at most this many values
+	 */
+	public ColumnMapsWriter(List<Map<String, Object>> columnMaps, ColumnMapsFormat format, ColumnMapsCompression compression,
+	                        int dictionarySize) {
 		this.columnMaps = columnMaps;
+		this.format = format;
+		this.compression = compression;
+		this.dictionarySize = dictionarySize;
 	}
 
+	/**
+	 * The column maps are buffered before they're compressed, as both encoders write many small values. Closing the
+	 * compressed stream completes it without closing the FlowFile's stream.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
 	@Override
 	public void process(OutputStream out) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ObjectOutputStream oos = new ObjectOutputStream(baos);
-		oos.writeObject(columnMaps);
-		out.write(baos.toByteArray());
+		try (OutputStream compressedOut = compression.compress(out)) {
+			BufferedOutputStream bufferedOut = new BufferedOutputStream(compressedOut);
+			if (ColumnMapsFormat.JAVA_SERIALIZATION.equals(format)) {
+				ObjectOutputStream oos = new ObjectOutputStream(bufferedOut);
+				oos.writeObject(columnMaps);
+				oos.flush();
+			} else {
+				new ColumnMapsEncoder(bufferedOut, dictionarySize).writeColumnMaps(columnMaps);
+				bufferedOut.flush();
+			}
+		}
+	}
+
+	public ColumnMapsCompression getCompression() {
+		return compression;
 	}
 }
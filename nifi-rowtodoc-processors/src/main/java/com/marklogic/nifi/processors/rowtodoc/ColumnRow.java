@@ -0,0 +1,209 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A column map whose column values are stored in a flat array, with column names resolved via a {@link ColumnIndex}
+ * that is shared by every row from the same ResultSet. Keys that are not in the index - e.g. the lists of child rows
+ * added by ChildQueryExecutor - are stored in a separate case-insensitive map that is only created when needed.
+ * <p>
+ * When serialized via Java serialization, a row is written as a LinkedCaseInsensitiveMap, which is what previous
+ * versions of these processors wrote.
+ */
+public class ColumnRow extends AbstractMap<String, Object> implements Serializable {
+
+	private static final Object REMOVED = new Object();
+
+	private final ColumnIndex columnIndex;
+	private final Object[] values;
+	private int removedCount;
+	private Map<String, Object> additionalValues;
+
+	public ColumnRow(ColumnIndex columnIndex, Object[] values) {
+		this.columnIndex = columnIndex;
+		this.values = values;
+	}
+
+	public ColumnIndex getColumnIndex() {
+		return columnIndex;
+	}
+
+	@Override
+	public Object get(Object key) {
+		final int index = columnIndex.indexOf(key);
+		if (index >= 0) {
+			final Object value = values[index];
+			return value == REMOVED ? null : value;
+		}
+		return additionalValues != null ? additionalValues.get(key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		final int index = columnIndex.indexOf(key);
+		if (index >= 0) {
+			return values[index] != REMOVED;
+		}
+		return additionalValues != null && additionalValues.containsKey(key);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		final int index = columnIndex.indexOf(key);
+		if (index >= 0) {
+			Object previous = values[index];
+			values[index] = value;
+			if (previous == REMOVED) {
+				removedCount--;
+				return null;
+			}
+			return previous;
+		}
+		if (additionalValues == null) {
+			additionalValues = new LinkedCaseInsensitiveMap<>();
+		}
+		return additionalValues.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		final int index = columnIndex.indexOf(key);
+		if (index >= 0) {
+			Object previous = values[index];
+			if (previous == REMOVED) {
+				return null;
+			}
+			values[index] = REMOVED;
+			removedCount++;
+			return previous;
+		}
+		return additionalValues != null ? additionalValues.remove(key) : null;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = REMOVED;
+		}
+		removedCount = values.length;
+		additionalValues = null;
+	}
+
+	@Override
+	public int size() {
+		return values.length - removedCount + (additionalValues != null ? additionalValues.size() : 0);
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new AbstractSet<Entry<String, Object>>() {
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return ColumnRow.this.size();
+			}
+		};
+	}
+
+	private Object writeReplace() {
+		Map<String, Object> map = new LinkedCaseInsensitiveMap<>(size());
+		map.putAll(this);
+		return map;
+	}
+
+	/**
+	 * Iterates over the columns in the index, in ResultSet order, and then over any additional values.
+	 */
+	private class EntryIterator implements Iterator<Entry<String, Object>> {
+
+		private int nextIndex = advance(0);
+		private Iterator<Entry<String, Object>> additionalIterator;
+
+		private int advance(int index) {
+			while (index < values.length && values[index] == REMOVED) {
+				index++;
+			}
+			return index;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (nextIndex < values.length) {
+				return true;
+			}
+			if (additionalIterator == null) {
+				if (additionalValues == null) {
+					return false;
+				}
+				additionalIterator = additionalValues.entrySet().iterator();
+			}
+			return additionalIterator.hasNext();
+		}
+
+		@Override
+		public Entry<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (nextIndex < values.length) {
+				final int index = nextIndex;
+				nextIndex = advance(index + 1);
+				return new ColumnEntry(index);
+			}
+			return additionalIterator.next();
+		}
+	}
+
+	private class ColumnEntry implements Entry<String, Object> {
+
+		private final int index;
+
+		ColumnEntry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return columnIndex.getColumnName(index);
+		}
+
+		@Override
+		public Object getValue() {
+			return values[index];
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry)) {
+				return false;
+			}
+			Entry<?, ?> other = (Entry<?, ?>) o;
+			return getKey().equals(other.getKey()) &&
+				(getValue() == null ? other.getValue() == null : getValue().equals(other.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+		}
+	}
+}
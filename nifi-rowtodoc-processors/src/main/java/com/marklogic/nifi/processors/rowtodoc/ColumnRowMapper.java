@@ -0,0 +1,184 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Alternative to Spring's ColumnMapRowMapper that reads the ResultSetMetaData once per ResultSet instead of once per
+ * row. The column names and a value accessor for each column are resolved from the metadata, and each row is then
+ * returned as a {@link ColumnRow} that shares a single {@link ColumnIndex} with every other row from the same
+ * ResultSet.
+ * <p>
+ * Values are read the same way that ColumnMapRowMapper reads them - via JdbcUtils.getResultSetValue - except for
+ * character, binary, and LOB columns, which are read directly via getString and getBytes. If the mapper has a
+ * {@link LargeObjectStore}, BLOB, CLOB, and LONGVAR* columns are instead streamed via getBinaryStream and
+ * getCharacterStream, so that values larger than the store's threshold go to a temporary file instead of memory.
+ * <p>
+ * If the mapper has a dictionary size, each column's values are interned via a {@link ColumnDictionary}, so that rows
+ * from the same ResultSet that repeat a String, BigDecimal, or date value share a single instance of it. Such values
+ * must then be treated as immutable - e.g. setting the nanos of a Timestamp would change it in every row.
+ */
+public class ColumnRowMapper implements RowMapper<Map<String, Object>> {
+
+	/**
+	 * Cached state for the ResultSet that was most recently mapped. This is replaced as a single object so that a
+	 * mapper can safely be shared by threads that are each mapping rows from a different ResultSet - though each
+	 * thread would then keep replacing it, so threads that map rows at the same time should each have a mapper.
+	 */
+	private volatile ResultSetMapping currentMapping;
+
+	private final LargeObjectStore largeObjects;
+	private final int dictionarySize;
+
+	public ColumnRowMapper() {
+		this(null);
+	}
+
+	/**
+	 * @param largeObjects optional; if set, large LOB values are streamed into it
+	 */
+	public ColumnRowMapper(LargeObjectStore largeObjects) {
+		this(largeObjects, 0);
+	}
+
+	/**
+	 * @param largeObjects   optional; if set, large LOB values are streamed into it
+	 * @param dictionarySize if greater than zero, repeated values in each column are interned, until the column has
+	 *                       this many distinct values
+	 */
+	public ColumnRowMapper(LargeObjectStore largeObjects, int dictionarySize) {
+		this.largeObjects = largeObjects;
+		this.dictionarySize = dictionarySize;
+	}
+
+	@Override
+	public Map<String, Object> mapRow(ResultSet resultSet, int rowNum) throws SQLException {
+		ResultSetMapping mapping = currentMapping;
+		if (mapping == null || mapping.resultSet != resultSet) {
+			mapping = new ResultSetMapping(resultSet, largeObjects, dictionarySize);
+			currentMapping = mapping;
+		}
+		return mapping.mapRow();
+	}
+
+	private static class ResultSetMapping {
+
+		private final ResultSet resultSet;
+		private final ColumnIndex columnIndex;
+		private final ColumnAccessor[] accessors;
+		// Position in the ColumnRow value array for each ResultSet column; differs only when column labels are repeated
+		private final int[] valuePositions;
+		// Only set when values are interned; a mapping is only ever used by the thread that's reading its ResultSet
+		private final ColumnDictionary[] dictionaries;
+
+		ResultSetMapping(ResultSet resultSet, LargeObjectStore largeObjects, int dictionarySize) throws SQLException {
+			this.resultSet = resultSet;
+			ResultSetMetaData metaData = resultSet.getMetaData();
+			final int columnCount = metaData.getColumnCount();
+
+			// As with a LinkedCaseInsensitiveMap, a repeated column label keeps its first position and its last value
+			Map<String, Integer> positions = new LinkedHashMap<>();
+			String[] columnNames = new String[columnCount];
+			this.valuePositions = new int[columnCount];
+			this.accessors = new ColumnAccessor[columnCount];
+			this.dictionaries = dictionarySize > 0 ? new ColumnDictionary[columnCount] : null;
+			for (int i = 0; i < columnCount; i++) {
+				String columnName = JdbcUtils.lookupColumnName(metaData, i + 1);
+				String key = columnName.toLowerCase(Locale.getDefault());
+				Integer position = positions.get(key);
+				if (position == null) {
+					position = positions.size();
+					positions.put(key, position);
+				}
+				columnNames[position] = columnName;
+				valuePositions[i] = position;
+				final int sqlType = metaData.getColumnType(i + 1);
+				accessors[i] = largeObjects != null ? largeObjectAccessorFor(sqlType, largeObjects) : accessorFor(sqlType);
+				if (dictionaries != null) {
+					dictionaries[i] = new ColumnDictionary(dictionarySize);
+				}
+			}
+
+			String[] uniqueColumnNames = new String[positions.size()];
+			System.arraycopy(columnNames, 0, uniqueColumnNames, 0, uniqueColumnNames.length);
+			this.columnIndex = new ColumnIndex(uniqueColumnNames);
+		}
+
+		Map<String, Object> mapRow() throws SQLException {
+			Object[] values = new Object[columnIndex.size()];
+			for (int i = 0; i < accessors.length; i++) {
+				Object value = accessors[i].getValue(resultSet, i + 1);
+				values[valuePositions[i]] = dictionaries != null ? dictionaries[i].intern(value) : value;
+			}
+			return new ColumnRow(columnIndex, values);
+		}
+	}
+
+	@FunctionalInterface
+	private interface ColumnAccessor {
+		Object getValue(ResultSet resultSet, int columnIndex) throws SQLException;
+	}
+
+	private static final ColumnAccessor STRING_ACCESSOR = ResultSet::getString;
+	private static final ColumnAccessor BYTES_ACCESSOR = ResultSet::getBytes;
+	private static final ColumnAccessor DEFAULT_ACCESSOR = JdbcUtils::getResultSetValue;
+
+	private static ColumnAccessor accessorFor(int sqlType) {
+		switch (sqlType) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+			case Types.CLOB:
+			case Types.NCLOB:
+				return STRING_ACCESSOR;
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.LONGVARBINARY:
+			case Types.BLOB:
+				return BYTES_ACCESSOR;
+			default:
+				return DEFAULT_ACCESSOR;
+		}
+	}
+
+	private static ColumnAccessor largeObjectAccessorFor(int sqlType, LargeObjectStore largeObjects) {
+		switch (sqlType) {
+			case Types.LONGVARCHAR:
+			case Types.LONGNVARCHAR:
+			case Types.CLOB:
+			case Types.NCLOB:
+				return (resultSet, columnIndex) -> {
+					try (Reader reader = resultSet.getCharacterStream(columnIndex)) {
+						return reader != null ? largeObjects.readCharacters(reader) : null;
+					} catch (IOException e) {
+						throw new SQLException("Unable to read character stream, cause: " + e.getMessage(), e);
+					}
+				};
+			case Types.LONGVARBINARY:
+			case Types.BLOB:
+				return (resultSet, columnIndex) -> {
+					try (InputStream in = resultSet.getBinaryStream(columnIndex)) {
+						return in != null ? largeObjects.readBinary(in) : null;
+					} catch (IOException e) {
+						throw new SQLException("Unable to read binary stream, cause: " + e.getMessage(), e);
+					}
+				};
+			default:
+				return accessorFor(sqlType);
+		}
+	}
+}
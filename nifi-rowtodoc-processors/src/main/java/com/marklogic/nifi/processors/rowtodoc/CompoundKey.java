@@ -0,0 +1,70 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.util.Arrays;
+
+/**
+ * The values of a key that consists of multiple columns. Integral values are compared by value regardless of their
+ * type, so that e.g. an Integer primary key matches a Long foreign key.
+ */
+public class CompoundKey implements Comparable<CompoundKey> {
+
+	private final Object[] values;
+	private final int hashCode;
+
+	public CompoundKey(Object[] values) {
+		this.values = values;
+		int hash = 1;
+		for (Object value : values) {
+			hash = 31 * hash + hashValue(value);
+		}
+		this.hashCode = hash;
+	}
+
+	public Object[] getValues() {
+		return values;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof CompoundKey)) {
+			return false;
+		}
+		CompoundKey other = (CompoundKey) o;
+		return hashCode == other.hashCode && compareTo(other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public int compareTo(CompoundKey other) {
+		final int length = Math.min(values.length, other.values.length);
+		for (int i = 0; i < length; i++) {
+			final int comparison = KeyComparator.INSTANCE.compare(values[i], other.values[i]);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(values.length, other.values.length);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(values);
+	}
+
+	private static int hashValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (KeyComparator.isIntegral(value)) {
+			return Long.hashCode(((Number) value).longValue());
+		}
+		return value.hashCode();
+	}
+}
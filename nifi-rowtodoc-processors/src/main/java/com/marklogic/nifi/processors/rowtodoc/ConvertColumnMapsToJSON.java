@@ -1,11 +1,15 @@
 package com.marklogic.nifi.processors.rowtodoc;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.components.Validator;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
@@ -13,23 +17,107 @@ import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Date;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 @CapabilityDescription("Given a FlowFile containing a list of column maps, converts each column map into a JSON document that is sent to the CONTENT relationship")
+@WritesAttributes({
+	@WritesAttribute(attribute = ConvertColumnMapsToJSON.ID_ATTRIBUTE, description = "The value of the document ID column, when each document is written to its own FlowFile"),
+	@WritesAttribute(attribute = ConvertColumnMapsToJSON.IDS_ATTRIBUTE, description = "The value of the document ID column for each document in the FlowFile, in order and separated by newlines"),
+	@WritesAttribute(attribute = ConvertColumnMapsToJSON.COUNT_ATTRIBUTE, description = "The number of documents in the FlowFile"),
+	@WritesAttribute(attribute = "rowtodoc.metrics.*", description = "On the FlowFile sent to SUCCESS, the time in milliseconds, documents, and bytes of writing the JSON documents")
+})
 public class ConvertColumnMapsToJSON extends AbstractColumnMapProcessor {
 
 	protected List<PropertyDescriptor> properties;
 	protected Set<Relationship> relationships;
 
 	private ObjectMapper objectMapper;
+	private ColumnMapJsonWriter jsonWriter;
+
+	public static final String ONE_DOCUMENT_PER_FLOWFILE = "One document per FlowFile";
+	public static final String JSON_LINES = "JSON Lines";
+	public static final String JSON_ARRAY = "JSON array";
+
+	public static final String ID_ATTRIBUTE = "rowtodoc.id";
+	public static final String IDS_ATTRIBUTE = "rowtodoc.ids";
+	public static final String COUNT_ATTRIBUTE = "rowtodoc.count";
+
+	private static final Validator DATE_TIME_PATTERN_VALIDATOR = (subject, input, context) -> {
+		String explanation = null;
+		try {
+			DateTimeFormatter.ofPattern(input);
+		} catch (IllegalArgumentException e) {
+			explanation = e.getMessage();
+		}
+		return new ValidationResult.Builder().subject(subject).input(input).valid(explanation == null).explanation(explanation).build();
+	};
 
 	public static final PropertyDescriptor SQL_DATE_FORMAT = new PropertyDescriptor.Builder()
 		.name("java.sql.Date format")
 		.defaultValue("yyyy-MM-dd")
 		.description("Date format for serializing instances of java.sql.Date")
-		.addValidator(Validator.VALID)
+		.addValidator(DATE_TIME_PATTERN_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor TIMESTAMP_FORMAT = new PropertyDescriptor.Builder()
+		.name("java.sql.Timestamp format")
+		.description("Optional date format - e.g. \"yyyy-MM-dd'T'HH:mm:ss.SSS\" - for serializing instances of " +
+			"java.sql.Timestamp; if not set, timestamps are serialized as milliseconds since the epoch")
+		.required(false)
+		.addValidator(DATE_TIME_PATTERN_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor TIME_FORMAT = new PropertyDescriptor.Builder()
+		.name("java.sql.Time format")
+		.description("Optional time format for serializing instances of java.sql.Time; if not set, times are " +
+			"serialized as \"HH:mm:ss\"")
+		.required(false)
+		.addValidator(DATE_TIME_PATTERN_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor OUTPUT_MODE = new PropertyDescriptor.Builder()
+		.name("Output mode")
+		.description("\"" + ONE_DOCUMENT_PER_FLOWFILE + "\" writes each JSON document to its own FlowFile; \"" +
+			JSON_LINES + "\" writes multiple documents per FlowFile, one per line; \"" + JSON_ARRAY + "\" writes " +
+			"multiple documents per FlowFile as a JSON array. Writing multiple documents per FlowFile greatly reduces " +
+			"the per-FlowFile overhead in NiFi when there are many documents.")
+		.required(true)
+		.allowableValues(ONE_DOCUMENT_PER_FLOWFILE, JSON_LINES, JSON_ARRAY)
+		.defaultValue(ONE_DOCUMENT_PER_FLOWFILE)
+		.build();
+
+	public static final PropertyDescriptor DOCUMENTS_PER_FLOWFILE = new PropertyDescriptor.Builder()
+		.name("Documents per FlowFile")
+		.description("For the multiple document output modes, the maximum number of documents to write to a FlowFile")
+		.required(true)
+		.defaultValue("100")
+		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor MAX_FLOWFILE_SIZE = new PropertyDescriptor.Builder()
+		.name("Max FlowFile size")
+		.description("For the multiple document output modes, a FlowFile is sent once its content reaches this size, " +
+			"even if it has fewer documents than the documents per FlowFile. A FlowFile is only held in memory until " +
+			"it's sent, so this also limits how much memory the documents for each FlowFile use.")
+		.required(true)
+		.defaultValue("1 MB")
+		.addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor DOCUMENT_ID_COLUMN = new PropertyDescriptor.Builder()
+		.name("Document ID column")
+		.description("Optional column whose value identifies each document - e.g. for constructing its URI downstream. " +
+			"The value is written to the \"" + ID_ATTRIBUTE + "\" attribute when each document has its own FlowFile; " +
+			"otherwise, the value for each document is written to the \"" + IDS_ATTRIBUTE + "\" attribute, in order " +
+			"and separated by newlines.")
+		.required(false)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
 		.build();
 
 	protected static final Relationship SUCCESS = new Relationship.Builder()
@@ -46,6 +134,18 @@ public class ConvertColumnMapsToJSON extends AbstractColumnMapProcessor {
 	public void init(final ProcessorInitializationContext context) {
 		List<PropertyDescriptor> list = new ArrayList<>();
 		list.add(SQL_DATE_FORMAT);
+		list.add(TIMESTAMP_FORMAT);
+		list.add(TIME_FORMAT);
+		list.add(SUCCESS_CONTENT);
+		list.add(ChildRowSpill.MEMORY_BUDGET);
+		list.add(LargeObjectStore.THRESHOLD);
+		list.add(OUTPUT_MODE);
+		list.add(DOCUMENTS_PER_FLOWFILE);
+		list.add(MAX_FLOWFILE_SIZE);
+		list.add(DOCUMENT_ID_COLUMN);
+		list.add(COLUMN_MAPS_FORMAT);
+		list.add(COLUMN_MAPS_COMPRESSION);
+		list.add(COLUMN_DICTIONARY_SIZE);
 		properties = Collections.unmodifiableList(list);
 
 		Set<Relationship> set = new LinkedHashSet<>();
@@ -55,9 +155,10 @@ public class ConvertColumnMapsToJSON extends AbstractColumnMapProcessor {
 	}
 
 	/**
-	 * Iterates over each column map in the incoming list, serializes it to JSON, and creates a new FlowFile for it
-	 * that is sent to the CONTENT relationship. The incoming list of column maps is then sent to the SUCCESS
-	 * relationship.
+	 * Iterates over each column map in the incoming list, serializes it to JSON, and writes it either to a new FlowFile
+	 * of its own or to a batch of documents, depending on the output mode; each FlowFile is sent to the CONTENT
+	 * relationship. The incoming FlowFile is then sent to the SUCCESS relationship,
+	 * either unchanged or with its list of column maps rewritten.
 	 *
 	 * @param context
 	 * @param session
@@ -67,49 +168,114 @@ public class ConvertColumnMapsToJSON extends AbstractColumnMapProcessor {
 	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
 		FlowFile flowFile = session.get();
 		if (flowFile != null) {
-			List<Map<String, Object>> columnMapList = deserializeColumnMapList(session, flowFile);
-			getLogger().info("Number of column maps received: " + columnMapList.size());
+			// The column maps only need to be kept when they're going to be rewritten
+			final boolean rewrite = REWRITE.equals(context.getProperty(SUCCESS_CONTENT).getValue());
+			final List<Map<String, Object>> columnMapList = new ArrayList<>();
+			final JsonDocumentEmitter emitter = JsonDocumentEmitter.fromContext(context, session, CONTENT, this::writeColumnMap);
+			final ChildRowSpill spill = ChildRowSpill.fromContext(context);
+			final LargeObjectStore largeObjects = LargeObjectStore.fromContext(context);
+			final long start = System.nanoTime();
 
-			for (Map<String, Object> columnMap : columnMapList) {
-				createNewFlowFileForColumnMap(session, columnMap);
-			}
+			try {
+				// Each column map is converted as soon as it's read, rather than after the whole list has been read
+				readColumnMaps(session, flowFile, spill, largeObjects, columnMap -> {
+					emitter.emit(columnMap);
+					if (rewrite) {
+						columnMapList.add(columnMap);
+					} else {
+						// The document has been written, so any of its child rows that spilled and any of its large
+						// objects are no longer needed
+						if (spill != null) {
+							spill.close();
+						}
+						if (largeObjects != null) {
+							largeObjects.close();
+						}
+					}
+				});
+				emitter.finish();
+				getLogger().info("Number of column maps received: " + emitter.getCount());
 
-			flowFile = session.write(flowFile, new ColumnMapsWriter(columnMapList));
-			session.transfer(flowFile, SUCCESS);
+				// Reading the column maps is included, as each one is written as soon as it's read
+				RowToDocMetrics metrics = new RowToDocMetrics();
+				metrics.record(RowToDocMetrics.JSON, start, emitter.getCount(), emitter.getBytes());
+
+				if (rewrite) {
+					final long writeStart = System.nanoTime();
+					flowFile = writeColumnMaps(context, session, flowFile, columnMapList);
+					metrics.record(RowToDocMetrics.WRITE, writeStart, columnMapList.size(), flowFile.getSize());
+				}
+				flowFile = recordMetrics(session, flowFile, metrics);
+				session.transfer(flowFile, SUCCESS);
+			} finally {
+				if (spill != null) {
+					spill.close();
+				}
+				if (largeObjects != null) {
+					largeObjects.close();
+				}
+			}
 		}
 	}
 
 	@OnScheduled
 	public void initializeObjectMapper(ProcessContext context) {
 		getLogger().info("Initializing Jackson ObjectMapper");
-		objectMapper = new ObjectMapper();
-
 		final String sqlDateFormat = context.getProperty(SQL_DATE_FORMAT).getValue();
 		if (sqlDateFormat != null) {
 			getLogger().info("Using format for serializing instances of java.sql.Date: " + sqlDateFormat);
+		}
+		objectMapper = newObjectMapper(sqlDateFormat);
+		jsonWriter = newJsonWriter(context, objectMapper);
+	}
+
+	/**
+	 * @param context
+	 * @param objectMapper from newObjectMapper, for values that the writer doesn't write itself
+	 * @return a writer for the date, timestamp, and time formats in the given context
+	 */
+	public static ColumnMapJsonWriter newJsonWriter(ProcessContext context, ObjectMapper objectMapper) {
+		return new ColumnMapJsonWriter(objectMapper,
+			context.getProperty(SQL_DATE_FORMAT).getValue(),
+			context.getProperty(TIMESTAMP_FORMAT).getValue(),
+			context.getProperty(TIME_FORMAT).getValue());
+	}
+
+	/**
+	 * @param sqlDateFormat optional format for serializing instances of java.sql.Date
+	 * @return an ObjectMapper for writing column maps as JSON documents
+	 */
+	public static ObjectMapper newObjectMapper(String sqlDateFormat) {
+		ObjectMapper objectMapper = new ObjectMapper();
+		// The FlowFile OutputStream is closed by the session, not by Jackson
+		objectMapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		if (sqlDateFormat != null) {
 			SimpleModule simpleModule = new SimpleModule();
 			simpleModule.addSerializer(Date.class, new SqlDateSerializer(sqlDateFormat));
 			objectMapper.registerModule(simpleModule);
 		}
+		return objectMapper;
 	}
 
 	/**
-	 * Serialize the given column map to JSON and write it to a new FlowFile.
+	 * Writes the given column map as UTF-8 JSON to the given OutputStream, which is not closed.
 	 *
-	 * @param session
 	 * @param columnMap
+	 * @param out
+	 * @throws IOException
 	 */
-	protected void createNewFlowFileForColumnMap(ProcessSession session, Map<String, Object> columnMap) {
-		final String jsonToWrite = serializeColumnMap(columnMap);
-		FlowFile newFlowFile = session.create();
-		session.write(newFlowFile, out -> out.write(jsonToWrite.getBytes()));
-		session.transfer(newFlowFile, CONTENT);
+	protected void writeColumnMap(Map<String, Object> columnMap, OutputStream out) throws IOException {
+		try {
+			jsonWriter.write(columnMap, out);
+		} catch (JsonProcessingException e) {
+			throw new ProcessException("Unable to write column map to JSON, cause: " + e.getMessage(), e);
+		}
 	}
 
 	protected String serializeColumnMap(Map<String, Object> columnMap) {
 		try {
-			return objectMapper.writeValueAsString(columnMap);
-		} catch (JsonProcessingException e) {
+			return jsonWriter.writeValueAsString(columnMap);
+		} catch (IOException e) {
 			throw new ProcessException("Unable to write column map to JSON, cause: " + e.getMessage(), e);
 		}
 	}
@@ -0,0 +1,180 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.util.*;
+
+@CapabilityDescription("Given a FlowFile containing a list of column maps, converts each column map into an XML document that is sent to the CONTENT relationship")
+@WritesAttribute(attribute = "rowtodoc.metrics.*", description = "On the FlowFile sent to SUCCESS, the time in milliseconds, documents, and bytes of writing the XML documents")
+public class ConvertColumnMapsToXML extends AbstractColumnMapProcessor {
+
+	protected List<PropertyDescriptor> properties;
+	protected Set<Relationship> relationships;
+
+	private ColumnMapXmlWriter xmlWriter;
+
+	public static final PropertyDescriptor ROOT_ELEMENT_NAME = new PropertyDescriptor.Builder()
+		.name("Root element name")
+		.description("Name of the root element of each XML document")
+		.required(true)
+		.defaultValue("document")
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor CHILD_ELEMENT_NAME = new PropertyDescriptor.Builder()
+		.name("Child element name")
+		.description("Name of the element for each child row. The child rows are contained by an element named after " +
+			"the property name of their child query - e.g. <rentals><rental>...</rental></rentals> when this is " +
+			"\"rental\".")
+		.required(true)
+		.defaultValue("item")
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor NAMESPACE = new PropertyDescriptor.Builder()
+		.name("Namespace")
+		.description("Optional namespace URI of every element in each XML document")
+		.required(false)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	protected static final Relationship SUCCESS = new Relationship.Builder()
+		.name("SUCCESS")
+		.description("The incoming list of column maps is written to this relationship")
+		.build();
+
+	protected static final Relationship CONTENT = new Relationship.Builder()
+		.name("CONTENT")
+		.description("Each XML document is written to this relationship")
+		.build();
+
+	@Override
+	public void init(final ProcessorInitializationContext context) {
+		List<PropertyDescriptor> list = new ArrayList<>();
+		list.add(ROOT_ELEMENT_NAME);
+		list.add(CHILD_ELEMENT_NAME);
+		list.add(NAMESPACE);
+		list.add(ConvertColumnMapsToJSON.SQL_DATE_FORMAT);
+		list.add(SUCCESS_CONTENT);
+		list.add(ChildRowSpill.MEMORY_BUDGET);
+		list.add(LargeObjectStore.THRESHOLD);
+		list.add(COLUMN_MAPS_FORMAT);
+		list.add(COLUMN_MAPS_COMPRESSION);
+		list.add(COLUMN_DICTIONARY_SIZE);
+		properties = Collections.unmodifiableList(list);
+
+		Set<Relationship> set = new LinkedHashSet<>();
+		set.add(SUCCESS);
+		set.add(CONTENT);
+		relationships = Collections.unmodifiableSet(set);
+	}
+
+	@OnScheduled
+	public void initializeXmlWriter(ProcessContext context) {
+		final String sqlDateFormat = context.getProperty(ConvertColumnMapsToJSON.SQL_DATE_FORMAT).getValue();
+		getLogger().info("Using format for serializing instances of java.sql.Date: " + sqlDateFormat);
+		xmlWriter = new ColumnMapXmlWriter(
+			context.getProperty(ROOT_ELEMENT_NAME).getValue(),
+			context.getProperty(CHILD_ELEMENT_NAME).getValue(),
+			context.getProperty(NAMESPACE).getValue(),
+			sqlDateFormat
+		);
+	}
+
+	/**
+	 * Iterates over each column map in the incoming list, writes it as XML to a new FlowFile that is sent to the
+	 * CONTENT relationship. The incoming FlowFile is then sent to the SUCCESS relationship, either unchanged or with
+	 * its list of column maps rewritten.
+	 *
+	 * @param context
+	 * @param session
+	 * @throws ProcessException
+	 */
+	@Override
+	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+		FlowFile flowFile = session.get();
+		if (flowFile != null) {
+			// The column maps only need to be kept when they're going to be rewritten
+			final boolean rewrite = REWRITE.equals(context.getProperty(SUCCESS_CONTENT).getValue());
+			final List<Map<String, Object>> columnMapList = new ArrayList<>();
+			final long[] countAndBytes = {0, 0};
+			final ChildRowSpill spill = ChildRowSpill.fromContext(context);
+			final LargeObjectStore largeObjects = LargeObjectStore.fromContext(context);
+			final long start = System.nanoTime();
+
+			try {
+				// Each column map is converted as soon as it's read, rather than after the whole list has been read
+				readColumnMaps(session, flowFile, spill, largeObjects, columnMap -> {
+					countAndBytes[1] += createNewFlowFileForColumnMap(session, columnMap);
+					countAndBytes[0]++;
+					if (rewrite) {
+						columnMapList.add(columnMap);
+					} else {
+						// The document has been written, so any of its child rows that spilled and any of its large
+						// objects are no longer needed
+						if (spill != null) {
+							spill.close();
+						}
+						if (largeObjects != null) {
+							largeObjects.close();
+						}
+					}
+				});
+				getLogger().info("Number of column maps received: " + countAndBytes[0]);
+
+				RowToDocMetrics metrics = new RowToDocMetrics();
+				metrics.record(RowToDocMetrics.XML, start, countAndBytes[0], countAndBytes[1]);
+				if (rewrite) {
+					final long writeStart = System.nanoTime();
+					flowFile = writeColumnMaps(context, session, flowFile, columnMapList);
+					metrics.record(RowToDocMetrics.WRITE, writeStart, columnMapList.size(), flowFile.getSize());
+				}
+				flowFile = recordMetrics(session, flowFile, metrics);
+				session.transfer(flowFile, SUCCESS);
+			} finally {
+				if (spill != null) {
+					spill.close();
+				}
+				if (largeObjects != null) {
+					largeObjects.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the given column map as XML directly to the OutputStream of a new FlowFile.
+	 *
+	 * @param session
+	 * @param columnMap
+	 * @return the size of the new FlowFile
+	 */
+	protected long createNewFlowFileForColumnMap(ProcessSession session, Map<String, Object> columnMap) {
+		FlowFile newFlowFile = session.create();
+		newFlowFile = session.write(newFlowFile, out -> xmlWriter.write(columnMap, out));
+		newFlowFile = session.putAttribute(newFlowFile, CoreAttributes.MIME_TYPE.key(), "application/xml");
+		session.transfer(newFlowFile, CONTENT);
+		return newFlowFile.getSize();
+	}
+
+	@Override
+	public Set<Relationship> getRelationships() {
+		return relationships;
+	}
+
+	@Override
+	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+		return properties;
+	}
+}
@@ -0,0 +1,63 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.function.Function;
+
+/**
+ * Formats dates with a DateTimeFormatter, remembering the most recently formatted dates in a small direct-mapped cache
+ * keyed by their epoch milliseconds and nanoseconds. Query results tend to repeat the same dates - e.g. a create date
+ * shared by every row loaded in the same batch - and formatting is far more expensive than a cache lookup.
+ * <p>
+ * This is thread-safe without locking: each cache slot holds an immutable entry, and a slot that's overwritten by
+ * another thread just costs another format.
+ */
+public class DateFormatMemo {
+
+	private static final int SIZE = 64;
+
+	private final DateTimeFormatter formatter;
+	private final Function<Date, TemporalAccessor> toTemporal;
+	private final Entry[] entries = new Entry[SIZE];
+
+	/**
+	 * @param pattern
+	 * @param toTemporal converts a date to the temporal - e.g. a LocalDate - that the pattern formats
+	 */
+	public DateFormatMemo(String pattern, Function<Date, TemporalAccessor> toTemporal) {
+		this.formatter = DateTimeFormatter.ofPattern(pattern);
+		this.toTemporal = toTemporal;
+	}
+
+	/**
+	 * @param date
+	 * @param nanos the nanoseconds of a java.sql.Timestamp, which aren't included in its epoch milliseconds; 0 for
+	 *              any other date
+	 * @return
+	 */
+	public String format(Date date, int nanos) {
+		final long millis = date.getTime();
+		final int slot = (Long.hashCode(millis * 31 + nanos) * 0x9E3779B9) >>> 26;
+		Entry entry = entries[slot];
+		if (entry != null && entry.millis == millis && entry.nanos == nanos) {
+			return entry.text;
+		}
+		final String text = formatter.format(toTemporal.apply(date));
+		entries[slot] = new Entry(millis, nanos, text);
+		return text;
+	}
+
+	private static class Entry {
+
+		private final long millis;
+		private final int nanos;
+		private final String text;
+
+		Entry(long millis, int nanos, String text) {
+			this.millis = millis;
+			this.nanos = nanos;
+			this.text = text;
+		}
+	}
+}
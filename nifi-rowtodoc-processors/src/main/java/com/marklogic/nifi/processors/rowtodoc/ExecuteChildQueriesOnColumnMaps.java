@@ -1,8 +1,12 @@
 package com.marklogic.nifi.processors.rowtodoc;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.dbcp.DBCPService;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
@@ -12,21 +16,18 @@ import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
 
 @CapabilityDescription("Given a FlowFile containing a list of column maps, executes child queries to populate child data on each column map")
+@WritesAttribute(attribute = "rowtodoc.metrics.*", description = "The time in milliseconds and rows of each child query - e.g. rowtodoc.metrics.child.rentals.millis - and of writing the column maps")
 public class ExecuteChildQueriesOnColumnMaps extends AbstractColumnMapProcessor {
 
 	protected List<PropertyDescriptor> properties;
 	protected Set<Relationship> relationships;
 
-	// TODO Pull this from a controller service?
-	private ObjectMapper objectMapper = new ObjectMapper();
-
-	private ChildQueryExecutor childQueryExecutor = new ChildQueryExecutor();
+	private final ScheduledChildQueries childQueries = new ScheduledChildQueries(DBCP_SERVICE, CHILD_QUERY_JSON);
 
 	public static final PropertyDescriptor DBCP_SERVICE = new PropertyDescriptor.Builder()
 		.name("Database Connection Pooling Service")
@@ -42,6 +43,35 @@ public class ExecuteChildQueriesOnColumnMaps extends AbstractColumnMapProcessor
 		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
 		.build();
 
+	public static final PropertyDescriptor IN_CLAUSE_SIZE = new PropertyDescriptor.Builder()
+		.name("IN clause size")
+		.description("Maximum number of parameters to bind in the IN clause of a single child query; a parent ID is " +
+			"bound as one parameter, or as one parameter per column for a compound key. If a batch has more parents than " +
+			"fit in this, the child query is executed once per chunk of parent IDs")
+		.required(true)
+		.defaultValue("1000")
+		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor MAX_CONCURRENT_CHILD_QUERIES = new PropertyDescriptor.Builder()
+		.name("Max concurrent child queries")
+		.description("Maximum number of sibling child queries - i.e. child queries with the same parent query - that " +
+			"can run at the same time, each with its own connection. The limit is shared by all concurrent tasks of " +
+			"this processor. The default of 1 runs every child query sequentially on a single connection.")
+		.required(true)
+		.defaultValue("1")
+		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor LOOKUP_TABLE_CACHE = new PropertyDescriptor.Builder()
+		.name("Lookup table cache")
+		.description("The Controller Service that holds the lookup tables in memory; required if any child query has " +
+			"a \"lookupTable\", in which case the lookup table's row is embedded in each parent row as a single " +
+			"object, keyed by the child query's foreign key columns, instead of executing a query")
+		.required(false)
+		.identifiesControllerService(LookupTableCache.class)
+		.build();
+
 	protected static final Relationship SUCCESS = new Relationship.Builder()
 		.name("SUCCESS")
 		.description("Success relationship")
@@ -57,6 +87,16 @@ public class ExecuteChildQueriesOnColumnMaps extends AbstractColumnMapProcessor
 		List<PropertyDescriptor> list = new ArrayList<>();
 		list.add(DBCP_SERVICE);
 		list.add(CHILD_QUERY_JSON);
+		list.add(IN_CLAUSE_SIZE);
+		list.add(MAX_CONCURRENT_CHILD_QUERIES);
+		list.add(LOOKUP_TABLE_CACHE);
+		list.add(ChildRowSpill.MEMORY_BUDGET);
+		list.add(LargeObjectStore.THRESHOLD);
+		list.add(JdbcStreamingOptions.FETCH_SIZE);
+		list.add(JdbcStreamingOptions.STREAMING_MODE);
+		list.add(COLUMN_MAPS_FORMAT);
+		list.add(COLUMN_MAPS_COMPRESSION);
+		list.add(COLUMN_DICTIONARY_SIZE);
 		properties = Collections.unmodifiableList(list);
 
 		Set<Relationship> set = new LinkedHashSet<>();
@@ -64,41 +104,108 @@ public class ExecuteChildQueriesOnColumnMaps extends AbstractColumnMapProcessor
 		relationships = Collections.unmodifiableSet(set);
 	}
 
+	/**
+	 * Verifies that the child query JSON can be compiled into a plan, so that a processor with invalid child queries
+	 * cannot be started.
+	 *
+	 * @param validationContext
+	 * @return
+	 */
+	@Override
+	protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+		List<ValidationResult> results = new ArrayList<>();
+		ValidationResult result = childQueries.validate(validationContext);
+		if (result != null) {
+			results.add(result);
+		}
+		return results;
+	}
+
+	@OnScheduled
+	public void initializeChildQueryExecutor(ProcessContext context) {
+		childQueries.schedule(context, getLogger());
+	}
+
+	@OnStopped
+	public void shutdownChildQueryExecutorService() {
+		childQueries.stop();
+	}
+
 	@Override
 	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
 		FlowFile flowFile = session.get();
 		if (flowFile != null) {
-			List<Map<String, Object>> columnMapList = deserializeColumnMapList(session, flowFile);
-			getLogger().info("Number of column maps received: " + columnMapList.size());
-			if (!columnMapList.isEmpty()) {
-				executeChildQueries(context, columnMapList);
-				flowFile = session.write(flowFile, new ColumnMapsWriter(columnMapList));
-				session.transfer(flowFile, SUCCESS);
+			// Any child rows that spill to disk are read back while the column maps are written
+			final ChildRowSpill spill = ChildRowSpill.fromContext(context);
+			// As are any large objects, whether read from the FlowFile or from the child queries
+			final LargeObjectStore largeObjects = LargeObjectStore.fromContext(context);
+			try {
+				List<Map<String, Object>> columnMapList = deserializeColumnMapList(session, flowFile, spill, largeObjects);
+				getLogger().info("Number of column maps received: " + columnMapList.size());
+				if (!columnMapList.isEmpty()) {
+					RowToDocMetrics metrics = new RowToDocMetrics();
+					executeChildQueries(context, columnMapList, metrics, spill, largeObjects);
+					final long writeStart = System.nanoTime();
+					flowFile = writeColumnMaps(context, session, flowFile, columnMapList);
+					metrics.record(RowToDocMetrics.WRITE, writeStart, columnMapList.size(), flowFile.getSize());
+					flowFile = recordMetrics(session, flowFile, metrics);
+					session.transfer(flowFile, SUCCESS);
+				}
+			} finally {
+				if (spill != null) {
+					spill.close();
+				}
+				if (largeObjects != null) {
+					largeObjects.close();
+				}
 			}
 		}
 	}
 
 	/**
-	 * Execute the child queries defined by the child query JSON property against the given list of column maps.
+	 * Execute the child queries defined by the child query JSON property against the given list of column maps, using
+	 * the plan that was compiled when the processor was scheduled.
 	 *
 	 * @param context
 	 * @param columnMapList
+	 * @param metrics       records the time and rows of each child query
 	 */
-	protected void executeChildQueries(ProcessContext context, List<Map<String, Object>> columnMapList) {
-		final String childQueryJson = context.getProperty(CHILD_QUERY_JSON).getValue();
-		TableQuery tableQuery;
-		try {
-			tableQuery = objectMapper.readerFor(TableQuery.class).readValue(childQueryJson);
-		} catch (IOException e) {
-			throw new ProcessException("Unable to read JSON for child queries: " + childQueryJson, e);
-		}
+	protected void executeChildQueries(ProcessContext context, List<Map<String, Object>> columnMapList, RowToDocMetrics metrics) {
+		executeChildQueries(context, columnMapList, metrics, null);
+	}
+
+	/**
+	 * @param context
+	 * @param columnMapList
+	 * @param metrics       records the time and rows of each child query
+	 * @param spill         optional; bounds the memory used by the child rows
+	 */
+	protected void executeChildQueries(ProcessContext context, List<Map<String, Object>> columnMapList, RowToDocMetrics metrics,
+	                                   ChildRowSpill spill) {
+		executeChildQueries(context, columnMapList, metrics, spill, null);
+	}
 
+	/**
+	 * @param context
+	 * @param columnMapList
+	 * @param metrics       records the time and rows of each child query
+	 * @param spill         optional; bounds the memory used by the child rows
+	 * @param largeObjects  optional; large LOB values in the child rows are streamed into it
+	 */
+	protected void executeChildQueries(ProcessContext context, List<Map<String, Object>> columnMapList, RowToDocMetrics metrics,
+	                                   ChildRowSpill spill, LargeObjectStore largeObjects) {
 		DBCPService dbcpService = context.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+		final JdbcStreamingOptions streamingOptions = JdbcStreamingOptions.fromContext(context);
 		Connection connection = dbcpService.getConnection();
+		boolean originalAutoCommit = true;
 		try {
-			childQueryExecutor.executeChildQueries(connection, tableQuery, columnMapList);
+			originalAutoCommit = streamingOptions.prepareConnection(connection);
+			childQueries.getExecutor().withRowMapper(largeObjects, getColumnDictionarySize(context)).executeChildQueries(connection, childQueries.getPlan(), columnMapList, metrics, spill);
+		} catch (SQLException ex) {
+			throw new ProcessException(ex);
 		} finally {
 			if (connection != null) {
+				streamingOptions.restoreConnection(connection, originalAutoCommit);
 				try {
 					connection.close();
 				} catch (SQLException e) {
@@ -1,28 +1,55 @@
 package com.marklogic.nifi.processors.rowtodoc;
 
-import org.apache.nifi.annotation.behavior.TriggerSerially;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.state.Scope;
 import org.apache.nifi.dbcp.DBCPService;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.*;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
-import org.springframework.jdbc.core.ColumnMapRowMapper;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 @CapabilityDescription("Executes a SQL query and returns each batch of rows as a list of column maps - i.e. a List<Map<String, Object>>")
-@TriggerSerially
-public class ExecuteSQLToColumnMaps extends AbstractProcessor {
+@Stateful(scopes = Scope.CLUSTER, description = "In the partitioned extraction mode, the partitions of the current run " +
+	"that have been claimed or completed by each concurrent task on each node in the cluster. In the incremental " +
+	"extraction mode, the largest value of the max-value column that has been read by a successful run. In the keyset " +
+	"extraction mode, the last key of the last page that was committed.")
+@WritesAttributes({
+	@WritesAttribute(attribute = ExecuteSQLToColumnMaps.PARTITION_ATTRIBUTE, description = "In the partitioned extraction mode, the partition that the rows were read from - e.g. \"3 of 16\""),
+	@WritesAttribute(attribute = "rowtodoc.metrics.*", description = "The time in milliseconds, rows, and bytes of reading the batch from the query and of writing it as column maps")
+})
+public class ExecuteSQLToColumnMaps extends AbstractColumnMapProcessor {
+
+	public static final String FULL = "Full";
+	public static final String PARTITIONED = "Partitioned";
+	public static final String INCREMENTAL = "Incremental";
+	public static final String KEYSET = "Keyset";
+
+	public static final String PARTITION_ATTRIBUTE = "rowtodoc.partition";
 
 	protected List<PropertyDescriptor> properties;
 	protected Set<Relationship> relationships;
 
+	private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+	// Ensures that concurrent tasks on this node don't each run the full or incremental query at the same time
+	private final AtomicBoolean extractionInProgress = new AtomicBoolean(false);
+
 	public static final PropertyDescriptor DBCP_SERVICE = new PropertyDescriptor.Builder()
 		.name("Database Connection Pooling Service")
 		.description("The Controller Service that is used to obtain connection to database")
@@ -45,6 +72,105 @@ public class ExecuteSQLToColumnMaps extends AbstractProcessor {
 		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
 		.build();
 
+	public static final PropertyDescriptor MERGE_JOIN_CHILD_QUERY_JSON = new PropertyDescriptor.Builder()
+		.name("Merge join child query JSON")
+		.description("Optional JSON specifying child queries, in the same format as ExecuteChildQueriesOnColumnMaps, " +
+			"to populate on each row of the main query. Instead of running each child query once per batch, the main " +
+			"query is ordered by the primary key, each first-level child query is run once ordered by its foreign key, " +
+			"and the child rows are merged into each batch as both ResultSets are read. Deeper child queries are run " +
+			"once per batch. Each first-level child query uses its own connection. Keys must sort the same way in the " +
+			"database as in Java, which is always true for numeric keys. The main query is wrapped in a derived table " +
+			"that is ordered by the primary key, so it cannot end with an ORDER BY clause. Lookup tables are not " +
+			"supported. Cannot be used with the \"" + PARTITIONED + "\" or \"" + KEYSET + "\" extraction modes.")
+		.required(false)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor EXTRACTION_MODE = new PropertyDescriptor.Builder()
+		.name("Extraction mode")
+		.description("\"" + FULL + "\" runs the entire query on one task at a time; to avoid every node running it, " +
+			"run the processor on the primary node only. \"" + PARTITIONED + "\" splits the query into partitions on " +
+			"the partition column, and each concurrent task on each node in the cluster claims and runs one partition at " +
+			"a time until every partition of the run has been completed; the next run then starts. \"" + INCREMENTAL +
+			"\" runs the query on one task at a time like \"" + FULL + "\", but only reads rows whose value in the " +
+			"max-value column is greater than the largest value read by the last successful run. \"" + KEYSET +
+			"\" reads a bounded number of pages of rows on each trigger, ordered by the keyset column, and saves the " +
+			"last key after each page is committed, so that an export resumes where it stopped.")
+		.required(true)
+		.allowableValues(FULL, PARTITIONED, INCREMENTAL, KEYSET)
+		.defaultValue(FULL)
+		.build();
+
+	public static final PropertyDescriptor PARTITION_COLUMN = new PropertyDescriptor.Builder()
+		.name("Partition column")
+		.description("For the partitioned extraction mode, an integer column returned by the query - ideally one that " +
+			"is indexed, such as the primary key - that the query is partitioned on. The query is wrapped in a derived " +
+			"table that is constrained to each partition, so it cannot end with an ORDER BY clause.")
+		.required(false)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor PARTITION_STRATEGY = new PropertyDescriptor.Builder()
+		.name("Partition strategy")
+		.description("\"" + QueryPartition.MODULO + "\" assigns each row to a partition based on the partition column " +
+			"modulo the partition count, which balances partitions well but requires the database to scan the entire " +
+			"table for each partition. \"" + QueryPartition.RANGE + "\" splits the values between the smallest and " +
+			"largest value of the partition column into equal ranges, which an index can be used for, but which is " +
+			"only balanced when the values are evenly distributed.")
+		.required(true)
+		.allowableValues(QueryPartition.MODULO, QueryPartition.RANGE)
+		.defaultValue(QueryPartition.RANGE)
+		.build();
+
+	public static final PropertyDescriptor PARTITION_COUNT = new PropertyDescriptor.Builder()
+		.name("Partition count")
+		.description("For the partitioned extraction mode, the number of partitions to split the query into; this " +
+			"should be at least the total number of concurrent tasks across the cluster")
+		.required(true)
+		.defaultValue("16")
+		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor PARTITION_CLAIM_TIMEOUT = new PropertyDescriptor.Builder()
+		.name("Partition claim timeout")
+		.description("For the partitioned extraction mode, how long a partition can be claimed without being " +
+			"completed before another task may claim it - e.g. because the node that claimed it went down")
+		.required(true)
+		.defaultValue("1 hour")
+		.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor MAX_VALUE_COLUMN = new PropertyDescriptor.Builder()
+		.name("Max-value column")
+		.description("For the incremental extraction mode, a column returned by the query whose value increases " +
+			"whenever a row is inserted or updated - e.g. a last_update timestamp, or an ascending ID if rows are " +
+			"never updated. The largest value is saved in state after each successful run. Changing the query or " +
+			"this column causes the next run to read every row again. The query is wrapped in a derived table that " +
+			"is constrained to the rows after the saved value, so it cannot end with an ORDER BY clause.")
+		.required(false)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor KEYSET_COLUMN = new PropertyDescriptor.Builder()
+		.name("Keyset column")
+		.description("For the keyset extraction mode, a unique column returned by the query - ideally the indexed " +
+			"primary key - that the query is ordered and paginated by. Each page has as many rows as the batch size. " +
+			"The query is wrapped in a derived table that is ordered by this column, so it cannot end with an ORDER BY " +
+			"clause.")
+		.required(false)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor PAGES_PER_TRIGGER = new PropertyDescriptor.Builder()
+		.name("Pages per trigger")
+		.description("For the keyset extraction mode, the maximum number of pages to read each time the processor is " +
+			"triggered. Fewer pages are read if the SUCCESS relationship is full - i.e. backpressure is applied - or " +
+			"the last page of the query is read, in which case the next trigger starts from the first page again.")
+		.required(true)
+		.defaultValue("10")
+		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+		.build();
+
 	protected static final Relationship SUCCESS = new Relationship.Builder()
 		.name("SUCCESS")
 		.description("Success relationship")
@@ -56,6 +182,21 @@ public class ExecuteSQLToColumnMaps extends AbstractProcessor {
 		list.add(DBCP_SERVICE);
 		list.add(QUERY);
 		list.add(BATCH_SIZE);
+		list.add(MERGE_JOIN_CHILD_QUERY_JSON);
+		list.add(EXTRACTION_MODE);
+		list.add(PARTITION_COLUMN);
+		list.add(PARTITION_STRATEGY);
+		list.add(PARTITION_COUNT);
+		list.add(PARTITION_CLAIM_TIMEOUT);
+		list.add(MAX_VALUE_COLUMN);
+		list.add(KEYSET_COLUMN);
+		list.add(PAGES_PER_TRIGGER);
+		list.add(JdbcStreamingOptions.FETCH_SIZE);
+		list.add(JdbcStreamingOptions.STREAMING_MODE);
+		list.add(LargeObjectStore.THRESHOLD);
+		list.add(COLUMN_MAPS_FORMAT);
+		list.add(COLUMN_MAPS_COMPRESSION);
+		list.add(COLUMN_DICTIONARY_SIZE);
 		properties = Collections.unmodifiableList(list);
 
 		Set<Relationship> set = new HashSet<>();
@@ -63,47 +204,364 @@ public class ExecuteSQLToColumnMaps extends AbstractProcessor {
 		relationships = Collections.unmodifiableSet(set);
 	}
 
+	@Override
+	protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+		List<ValidationResult> results = new ArrayList<>();
+		final String extractionMode = validationContext.getProperty(EXTRACTION_MODE).getValue();
+		final String query = validationContext.getProperty(QUERY).getValue();
+		final String mergeJoinChildQueryJson = validationContext.getProperty(MERGE_JOIN_CHILD_QUERY_JSON).getValue();
+
+		if (PARTITIONED.equals(extractionMode) && validationContext.getProperty(PARTITION_COLUMN).getValue() == null) {
+			results.add(invalid(PARTITION_COLUMN, null, "A partition column is required for the " + PARTITIONED + " extraction mode"));
+		}
+		if (INCREMENTAL.equals(extractionMode) && validationContext.getProperty(MAX_VALUE_COLUMN).getValue() == null) {
+			results.add(invalid(MAX_VALUE_COLUMN, null, "A max-value column is required for the " + INCREMENTAL + " extraction mode"));
+		}
+		if (KEYSET.equals(extractionMode) && validationContext.getProperty(KEYSET_COLUMN).getValue() == null) {
+			results.add(invalid(KEYSET_COLUMN, null, "A keyset column is required for the " + KEYSET + " extraction mode"));
+		}
+
+		// The Partitioned and Incremental modes select from the query as a derived table, in which most databases don't
+		// allow ORDER BY; the Keyset mode and merge join child queries order the query outside of a derived table
+		if (query != null && hasOrderBy(query)) {
+			if (PARTITIONED.equals(extractionMode) || INCREMENTAL.equals(extractionMode) || KEYSET.equals(extractionMode)) {
+				results.add(invalid(QUERY, query, "The query cannot end with an ORDER BY clause in the " + extractionMode + " extraction mode"));
+			} else if (mergeJoinChildQueryJson != null) {
+				results.add(invalid(QUERY, query, "The query cannot end with an ORDER BY clause when merge join child queries are used"));
+			}
+		}
+
+		if (mergeJoinChildQueryJson != null) {
+			// Each partition or page would run every merge join child query against its entire table
+			if (PARTITIONED.equals(extractionMode) || KEYSET.equals(extractionMode)) {
+				results.add(invalid(MERGE_JOIN_CHILD_QUERY_JSON, null, "Merge join child queries cannot be used with the " + extractionMode + " extraction mode"));
+			}
+			try {
+				// The IN clause size only determines which queries are built up front, so it doesn't matter here
+				ChildQueryPlan plan = ChildQueryPlan.compile(ScheduledChildQueries.readTableQuery(mergeJoinChildQueryJson), 1);
+				// This processor has no lookup table cache to resolve them with
+				if (plan.usesLookupTables()) {
+					throw new IllegalArgumentException("Merge join child queries cannot have a lookup table");
+				}
+			} catch (IllegalArgumentException | ProcessException e) {
+				results.add(invalid(MERGE_JOIN_CHILD_QUERY_JSON, mergeJoinChildQueryJson, e.getMessage()));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param property
+	 * @param input       optional
+	 * @param explanation
+	 * @return an invalid result for the given property
+	 */
+	private static ValidationResult invalid(PropertyDescriptor property, String input, String explanation) {
+		return new ValidationResult.Builder()
+			.subject(property.getName())
+			.input(input)
+			.valid(false)
+			.explanation(explanation)
+			.build();
+	}
+
+	/**
+	 * @param query
+	 * @return true if the query has an ORDER BY clause that isn't within parentheses or quotes - i.e. one that orders
+	 * the query itself rather than a subquery
+	 */
+	protected static boolean hasOrderBy(String query) {
+		StringBuilder topLevel = new StringBuilder(query.length());
+		int depth = 0;
+		char quote = 0;
+		for (char c : query.toCharArray()) {
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+				c = ' ';
+			} else if (c == '\'' || c == '"' || c == '`') {
+				quote = c;
+				c = ' ';
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (depth > 0) {
+				c = ' ';
+			}
+			topLevel.append(c);
+		}
+		return ORDER_BY.matcher(topLevel).find();
+	}
+
 	@Override
 	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
-		final DBCPService dbcpService = context.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+		final String extractionMode = context.getProperty(EXTRACTION_MODE).getValue();
+		if (PARTITIONED.equals(extractionMode)) {
+			executePartition(context, session);
+			return;
+		}
+
+		// Only one task at a time may run the query, as concurrent tasks would each return the same rows
+		if (!extractionInProgress.compareAndSet(false, true)) {
+			context.yield();
+			return;
+		}
+		try {
+			if (INCREMENTAL.equals(extractionMode)) {
+				executeIncremental(context, session);
+			} else if (KEYSET.equals(extractionMode)) {
+				executeKeysetPages(context, session);
+			} else {
+				executeQuery(context, session, context.getProperty(QUERY).getValue(), Collections.emptyMap(), null);
+			}
+		} finally {
+			extractionInProgress.set(false);
+		}
+	}
+
+	/**
+	 * Runs the query for the rows whose max-value column is greater than the largest value read by the last successful
+	 * run, and then saves the largest value read by this run. The value is only saved once every FlowFile has been
+	 * committed, so a failed run is simply repeated from the last saved value.
+	 *
+	 * @param context
+	 * @param session
+	 */
+	protected void executeIncremental(ProcessContext context, ProcessSession session) {
+		final MaxValueTracker tracker = new MaxValueTracker(context.getStateManager(),
+			context.getProperty(QUERY).getValue(), context.getProperty(MAX_VALUE_COLUMN).getValue());
+		try {
+			tracker.loadState();
+		} catch (IOException e) {
+			throw new ProcessException("Unable to read max value from state, cause: " + e.getMessage(), e);
+		}
+		getLogger().info("Reading rows with a max value greater than: " + tracker.getLastMaxValue());
+
+		final long rowCount = executeQuery(context, session, tracker.getQuery(), Collections.emptyMap(), tracker);
+		session.commit();
+
+		try {
+			tracker.saveState();
+		} catch (IOException e) {
+			throw new ProcessException("Unable to save max value to state, cause: " + e.getMessage(), e);
+		}
+		getLogger().info("Read " + rowCount + " rows; max value is now: " + tracker.getMaxValue());
+	}
+
+	/**
+	 * Reads up to the configured number of pages, each via its own query for the rows after the last key. Each page is
+	 * committed before its last key is saved, so if anything fails, the next trigger resumes with the page that
+	 * failed. Stops early and yields if the SUCCESS relationship is full, so that a long export doesn't flood the
+	 * downstream queue.
+	 *
+	 * @param context
+	 * @param session
+	 */
+	protected void executeKeysetPages(ProcessContext context, ProcessSession session) {
+		if (context.getAvailableRelationships().isEmpty()) {
+			context.yield();
+			return;
+		}
+
+		final KeysetCursor cursor = new KeysetCursor(context.getStateManager(), context.getProperty(QUERY).getValue(),
+			context.getProperty(KEYSET_COLUMN).getValue(), context.getProperty(BATCH_SIZE).asInteger());
+		final int pagesPerTrigger = context.getProperty(PAGES_PER_TRIGGER).asInteger();
+		try {
+			cursor.loadState();
+			getLogger().info("Reading up to " + pagesPerTrigger + " pages after key: " + cursor.getLastKey());
+			for (int page = 0; page < pagesPerTrigger; page++) {
+				final long rowCount = executeQuery(context, session, cursor.getQuery(), Collections.emptyMap(), cursor);
+				session.commit();
+				cursor.saveState();
+
+				if (rowCount < cursor.getPageSize()) {
+					getLogger().info("Read last page; the next page will start from the beginning of the query");
+					cursor.reset();
+					return;
+				}
+				if (context.getAvailableRelationships().isEmpty()) {
+					getLogger().debug("SUCCESS relationship is full; yielding after key: " + cursor.getLastKey());
+					context.yield();
+					return;
+				}
+			}
+		} catch (IOException e) {
+			throw new ProcessException("Unable to read or save last key in state, cause: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Claims the next available partition of the current run, runs the query constrained to that partition, and then
+	 * marks the partition as done. If every partition is claimed by another task, the processor yields.
+	 *
+	 * @param context
+	 * @param session
+	 */
+	protected void executePartition(ProcessContext context, ProcessSession session) {
 		final String query = context.getProperty(QUERY).getValue();
+		final String partitionColumn = context.getProperty(PARTITION_COLUMN).getValue();
+		final PartitionClaims claims = new PartitionClaims(context.getStateManager(),
+			context.getProperty(PARTITION_COUNT).asInteger(),
+			context.getProperty(PARTITION_STRATEGY).getValue(),
+			context.getProperty(PARTITION_CLAIM_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS));
+
+		QueryPartition partition;
+		try {
+			partition = claims.claim(() -> loadPartitionBounds(context, query, partitionColumn));
+		} catch (IOException | SQLException e) {
+			throw new ProcessException("Unable to claim partition, cause: " + e.getMessage(), e);
+		}
+		if (partition == null) {
+			getLogger().debug("Every partition of the current run has been claimed");
+			context.yield();
+			return;
+		}
+
+		getLogger().info("Claimed partition " + partition);
+		final long rowCount;
+		try {
+			rowCount = executeQuery(context, session, partition.wrap(query, partitionColumn),
+				Collections.singletonMap(PARTITION_ATTRIBUTE, partition.toString()), null);
+			// The partition must not be marked as done until every FlowFile for it has been committed
+			session.commit();
+		} catch (RuntimeException e) {
+			try {
+				claims.release(partition);
+			} catch (IOException ex) {
+				getLogger().warn("Unable to release partition " + partition + "; it can be claimed again after the claim timeout", ex);
+			}
+			throw e;
+		}
+
+		try {
+			claims.complete(partition, rowCount);
+			getLogger().info("Completed partition " + partition + " with " + rowCount + " rows; " +
+				claims.getDoneCount() + " of " + partition.getCount() + " partitions of the current run are done");
+		} catch (IOException e) {
+			throw new ProcessException("Unable to mark partition " + partition + " as done, cause: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the smallest and largest values of the partition column, which are 0 when the query returns no rows
+	 */
+	protected long[] loadPartitionBounds(ProcessContext context, String query, String partitionColumn) throws SQLException {
+		final DBCPService dbcpService = context.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+		final String boundsQuery = "SELECT MIN(rowtodoc_bounds." + partitionColumn + "), MAX(rowtodoc_bounds." + partitionColumn + ") " +
+			"FROM (" + query + ") rowtodoc_bounds";
+		getLogger().info("Loading partition bounds: " + boundsQuery);
+		try (Connection connection = dbcpService.getConnection();
+		     PreparedStatement preparedStatement = connection.prepareStatement(boundsQuery);
+		     ResultSet resultSet = preparedStatement.executeQuery()) {
+			resultSet.next();
+			return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+		}
+	}
+
+	/**
+	 * Runs the given query and sends each batch of rows as a FlowFile with the given attributes, committing the
+	 * session after each full batch.
+	 *
+	 * @param context
+	 * @param session
+	 * @param query
+	 * @param attributes
+	 * @param cursor optional; if set, binds the query parameters and observes every row that is read
+	 * @return the number of rows read
+	 */
+	protected long executeQuery(ProcessContext context, ProcessSession session, String query, Map<String, String> attributes,
+	                            QueryCursor cursor) {
+		final DBCPService dbcpService = context.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
 		final int batchSize = context.getProperty(BATCH_SIZE).asInteger();
+		final JdbcStreamingOptions streamingOptions = JdbcStreamingOptions.fromContext(context);
+
+		// Large objects are copied into each FlowFile as it's written, so their files are deleted after each batch
+		final LargeObjectStore largeObjects = LargeObjectStore.fromContext(context);
+		final int dictionarySize = getColumnDictionarySize(context);
+		final ColumnRowMapper rowMapper = new ColumnRowMapper(largeObjects, dictionarySize);
 
-		final ColumnMapRowMapper rowMapper = new ColumnMapRowMapper();
+		SortedMergeJoiner mergeJoiner = null;
+		final String mergeJoinChildQueryJson = context.getProperty(MERGE_JOIN_CHILD_QUERY_JSON).getValue();
+		if (mergeJoinChildQueryJson != null) {
+			ChildQueryExecutor childQueryExecutor = new ChildQueryExecutor();
+			childQueryExecutor.setStreamingOptions(streamingOptions);
+			ChildQueryPlan plan;
+			try {
+				plan = childQueryExecutor.compile(ScheduledChildQueries.readTableQuery(mergeJoinChildQueryJson));
+			} catch (IllegalArgumentException e) {
+				throw new ProcessException("Invalid merge join child query JSON: " + e.getMessage(), e);
+			}
+			query = SortedMergeJoiner.wrapWithOrderBy(query, plan.getPrimaryKeyColumns());
+			// The merged child rows get a store of their own, as each cursor holds a row for the next batch; the rows
+			// of the child queries below them belong to the current batch, so they share the batch's store
+			mergeJoiner = new SortedMergeJoiner(plan, childQueryExecutor.withRowMapper(largeObjects, dictionarySize), streamingOptions,
+				LargeObjectStore.fromContext(context), dictionarySize);
+		}
 
 		Connection connection = dbcpService.getConnection();
 		PreparedStatement preparedStatement = null;
 		ResultSet resultSet = null;
+		boolean originalAutoCommit = true;
+		long rowCount = 0;
 		try {
-			getLogger().info("Executing query: " + query);
-			preparedStatement = connection.prepareStatement(query);
+			originalAutoCommit = streamingOptions.prepareConnection(connection);
+			if (mergeJoiner != null) {
+				getLogger().info("Executing merge join child queries");
+				mergeJoiner.open(dbcpService::getConnection);
+			}
+			getLogger().info("Executing query: " + query + "; " + streamingOptions);
+			// The time of the first batch includes executing the query
+			long batchStart = System.nanoTime();
+			preparedStatement = streamingOptions.prepareStatement(connection, query);
+			if (cursor != null) {
+				cursor.bind(preparedStatement);
+			}
 			resultSet = preparedStatement.executeQuery();
 			int rowNumber = 0;
 			List<Map<String, Object>> columnMaps = new ArrayList<>();
 			while (resultSet.next()) {
-				columnMaps.add(rowMapper.mapRow(resultSet, rowNumber));
+				Map<String, Object> columnMap = rowMapper.mapRow(resultSet, rowNumber);
+				if (cursor != null) {
+					cursor.observe(columnMap);
+				}
+				columnMaps.add(columnMap);
 				rowNumber++;
+				rowCount++;
 				if (rowNumber >= batchSize) {
 					getLogger().info("Row number: " + rowNumber + "; sending batch of size: " + columnMaps.size());
-					FlowFile flowFile = session.create();
-					flowFile = session.write(flowFile, new ColumnMapsWriter(columnMaps));
-					session.transfer(flowFile, SUCCESS);
+					if (mergeJoiner != null) {
+						mergeJoiner.attachChildRows(columnMaps);
+					}
+					sendBatch(context, session, columnMaps, attributes, batchStart);
+					if (largeObjects != null) {
+						largeObjects.close();
+					}
 					session.commit();
 					rowNumber = 0;
 					columnMaps = new ArrayList<>();
+					batchStart = System.nanoTime();
 				}
 			}
 
 			// ResultSet is complete, so send one more FlowFile
 			if (!columnMaps.isEmpty()) {
 				getLogger().info("Sending final batch of size: " + columnMaps.size());
-				FlowFile flowFile = session.create();
-				flowFile = session.write(flowFile, new ColumnMapsWriter(columnMaps));
-				session.transfer(flowFile, SUCCESS);
+				if (mergeJoiner != null) {
+					mergeJoiner.attachChildRows(columnMaps);
+				}
+				sendBatch(context, session, columnMaps, attributes, batchStart);
 			}
 		} catch (SQLException ex) {
 			throw new ProcessException(ex);
 		} finally {
+			if (mergeJoiner != null) {
+				mergeJoiner.close();
+			}
+			if (largeObjects != null) {
+				largeObjects.close();
+			}
 			if (resultSet != null) {
 				try {
 					resultSet.close();
@@ -119,6 +577,7 @@ public class ExecuteSQLToColumnMaps extends AbstractProcessor {
 				}
 			}
 			if (connection != null) {
+				streamingOptions.restoreConnection(connection, originalAutoCommit);
 				try {
 					connection.close();
 				} catch (SQLException e) {
@@ -126,6 +585,33 @@ public class ExecuteSQLToColumnMaps extends AbstractProcessor {
 				}
 			}
 		}
+		return rowCount;
+	}
+
+	/**
+	 * Writes the given batch of rows to a new FlowFile that is transferred to SUCCESS. The time spent reading the batch
+	 * is recorded as the "query" stage, and the time spent writing it as the "write" stage; both are written as
+	 * attributes on the FlowFile, added to the NiFi counters, and added to the cumulative metrics of this processor.
+	 *
+	 * @param context
+	 * @param session
+	 * @param columnMaps
+	 * @param attributes
+	 * @param batchStart the value of System.nanoTime when reading the batch started
+	 */
+	protected void sendBatch(ProcessContext context, ProcessSession session, List<Map<String, Object>> columnMaps,
+	                         Map<String, String> attributes, long batchStart) {
+		RowToDocMetrics metrics = new RowToDocMetrics();
+		metrics.record(RowToDocMetrics.QUERY, batchStart, columnMaps.size(), 0);
+
+		final long writeStart = System.nanoTime();
+		FlowFile flowFile = session.create();
+		flowFile = session.putAllAttributes(flowFile, attributes);
+		flowFile = writeColumnMaps(context, session, flowFile, columnMaps);
+		metrics.record(RowToDocMetrics.WRITE, writeStart, columnMaps.size(), flowFile.getSize());
+
+		flowFile = recordMetrics(session, flowFile, metrics);
+		session.transfer(flowFile, SUCCESS);
 	}
 
 	@Override
@@ -0,0 +1,287 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.nifi.annotation.behavior.TriggerSerially;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Combines ExecuteSQLToColumnMaps, ExecuteChildQueriesOnColumnMaps, and ConvertColumnMapsToJSON into a single
+ * processor. Each batch of rows from the main query has its child queries executed and is then written directly as
+ * JSON documents, so the rows are never written to or read from an intermediate FlowFile. The three separate
+ * processors remain available for flows that need to do something else with the column maps between those steps.
+ * <p>
+ * The metrics of each batch - the main query, each child query, and writing the JSON documents - are added to the NiFi
+ * counters and to the cumulative metrics of this processor when the batch is committed. They're not written as
+ * attributes, as a FlowFile of documents can span batches.
+ */
+@CapabilityDescription("Executes a SQL query, executes child queries to populate child data on each row, and writes each row as a JSON document that is sent to the CONTENT relationship")
+@TriggerSerially
+public class ExecuteSQLToDocuments extends AbstractColumnMapProcessor {
+
+	protected List<PropertyDescriptor> properties;
+	protected Set<Relationship> relationships;
+
+	private final ScheduledChildQueries childQueries = new ScheduledChildQueries(ExecuteSQLToColumnMaps.DBCP_SERVICE, CHILD_QUERY_JSON);
+	private volatile ColumnMapJsonWriter jsonWriter;
+
+	public static final PropertyDescriptor CHILD_QUERY_JSON = new PropertyDescriptor.Builder()
+		.name("Child query JSON")
+		.required(false)
+		.description("Optional JSON specifying the child queries to run, in the same format as ExecuteChildQueriesOnColumnMaps")
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	protected static final Relationship CONTENT = new Relationship.Builder()
+		.name("CONTENT")
+		.description("Each JSON document is written to this relationship")
+		.build();
+
+	@Override
+	public void init(final ProcessorInitializationContext context) {
+		List<PropertyDescriptor> list = new ArrayList<>();
+		list.add(ExecuteSQLToColumnMaps.DBCP_SERVICE);
+		list.add(ExecuteSQLToColumnMaps.QUERY);
+		list.add(ExecuteSQLToColumnMaps.BATCH_SIZE);
+		list.add(CHILD_QUERY_JSON);
+		list.add(ExecuteChildQueriesOnColumnMaps.IN_CLAUSE_SIZE);
+		list.add(ExecuteChildQueriesOnColumnMaps.MAX_CONCURRENT_CHILD_QUERIES);
+		list.add(ExecuteChildQueriesOnColumnMaps.LOOKUP_TABLE_CACHE);
+		list.add(ChildRowSpill.MEMORY_BUDGET);
+		list.add(LargeObjectStore.THRESHOLD);
+		list.add(AbstractColumnMapProcessor.COLUMN_DICTIONARY_SIZE);
+		list.add(JdbcStreamingOptions.FETCH_SIZE);
+		list.add(JdbcStreamingOptions.STREAMING_MODE);
+		list.add(ConvertColumnMapsToJSON.SQL_DATE_FORMAT);
+		list.add(ConvertColumnMapsToJSON.TIMESTAMP_FORMAT);
+		list.add(ConvertColumnMapsToJSON.TIME_FORMAT);
+		list.add(ConvertColumnMapsToJSON.OUTPUT_MODE);
+		list.add(ConvertColumnMapsToJSON.DOCUMENTS_PER_FLOWFILE);
+		list.add(ConvertColumnMapsToJSON.MAX_FLOWFILE_SIZE);
+		list.add(ConvertColumnMapsToJSON.DOCUMENT_ID_COLUMN);
+		properties = Collections.unmodifiableList(list);
+
+		Set<Relationship> set = new LinkedHashSet<>();
+		set.add(CONTENT);
+		relationships = Collections.unmodifiableSet(set);
+	}
+
+	@Override
+	protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+		List<ValidationResult> results = new ArrayList<>();
+		ValidationResult result = childQueries.validate(validationContext);
+		if (result != null) {
+			results.add(result);
+		}
+		return results;
+	}
+
+	@OnScheduled
+	public void initialize(ProcessContext context) {
+		childQueries.schedule(context, getLogger());
+		ObjectMapper documentMapper = ConvertColumnMapsToJSON.newObjectMapper(context.getProperty(ConvertColumnMapsToJSON.SQL_DATE_FORMAT).getValue());
+		jsonWriter = ConvertColumnMapsToJSON.newJsonWriter(context, documentMapper);
+	}
+
+	@OnStopped
+	public void shutdownChildQueryExecutorService() {
+		childQueries.stop();
+	}
+
+	/**
+	 * Reads the rows of the main query in batches. For each batch, the child queries are executed, each row is written
+	 * as a JSON document, and the session is committed along with the metrics of the batch, so that only one batch of
+	 * rows is held in memory at a time.
+	 * <p>
+	 * The child queries use a second connection, as some drivers - e.g. MySQL when streaming - only allow one open
+	 * ResultSet per connection.
+	 *
+	 * @param context
+	 * @param session
+	 * @throws ProcessException
+	 */
+	@Override
+	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+		final DBCPService dbcpService = context.getProperty(ExecuteSQLToColumnMaps.DBCP_SERVICE).asControllerService(DBCPService.class);
+		final String query = context.getProperty(ExecuteSQLToColumnMaps.QUERY).getValue();
+		final int batchSize = context.getProperty(ExecuteSQLToColumnMaps.BATCH_SIZE).asInteger();
+		final JdbcStreamingOptions streamingOptions = JdbcStreamingOptions.fromContext(context);
+		final ChildQueryPlan plan = childQueries.getPlan();
+
+		final LargeObjectStore largeObjects = LargeObjectStore.fromContext(context);
+		final int dictionarySize = getColumnDictionarySize(context);
+		final ColumnRowMapper rowMapper = new ColumnRowMapper(largeObjects, dictionarySize);
+		final ChildQueryExecutor executor = childQueries.getExecutor().withRowMapper(largeObjects, dictionarySize);
+		final JsonDocumentEmitter emitter = JsonDocumentEmitter.fromContext(context, session, CONTENT, this::writeColumnMap);
+		final ChildRowSpill spill = ChildRowSpill.fromContext(context);
+
+		Connection connection = dbcpService.getConnection();
+		Connection childConnection = null;
+		PreparedStatement preparedStatement = null;
+		ResultSet resultSet = null;
+		boolean originalAutoCommit = true;
+		boolean originalChildAutoCommit = true;
+		try {
+			originalAutoCommit = streamingOptions.prepareConnection(connection);
+			if (plan != null) {
+				childConnection = dbcpService.getConnection();
+				originalChildAutoCommit = streamingOptions.prepareConnection(childConnection);
+			}
+
+			getLogger().info("Executing query: " + query + "; " + streamingOptions);
+			preparedStatement = streamingOptions.prepareStatement(connection, query);
+			resultSet = preparedStatement.executeQuery();
+			jsonWriter.bind(resultSet.getMetaData());
+			int rowNumber = 0;
+			List<Map<String, Object>> columnMaps = new ArrayList<>();
+			long batchStart = System.nanoTime();
+			while (resultSet.next()) {
+				columnMaps.add(rowMapper.mapRow(resultSet, rowNumber));
+				rowNumber++;
+				if (rowNumber >= batchSize) {
+					RowToDocMetrics metrics = new RowToDocMetrics();
+					metrics.record(RowToDocMetrics.QUERY, batchStart, columnMaps.size(), 0);
+					writeDocuments(executor, childConnection, plan, columnMaps, emitter, false, metrics, spill, largeObjects);
+					recordMetrics(session, metrics);
+					session.commit();
+					rowNumber = 0;
+					columnMaps = new ArrayList<>();
+					batchStart = System.nanoTime();
+				}
+			}
+
+			// ResultSet is complete, so write the last batch, along with any documents that haven't been sent yet
+			RowToDocMetrics metrics = new RowToDocMetrics();
+			if (!columnMaps.isEmpty()) {
+				metrics.record(RowToDocMetrics.QUERY, batchStart, columnMaps.size(), 0);
+			}
+			writeDocuments(executor, childConnection, plan, columnMaps, emitter, true, metrics, spill, largeObjects);
+			recordMetrics(session, metrics);
+			getLogger().info("Number of documents written: " + emitter.getCount());
+		} catch (SQLException | IOException ex) {
+			throw new ProcessException(ex);
+		} finally {
+			if (resultSet != null) {
+				try {
+					resultSet.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+			if (preparedStatement != null) {
+				try {
+					preparedStatement.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+			if (spill != null) {
+				spill.close();
+			}
+			if (largeObjects != null) {
+				largeObjects.close();
+			}
+			closeConnection(childConnection, streamingOptions, originalChildAutoCommit);
+			closeConnection(connection, streamingOptions, originalAutoCommit);
+		}
+	}
+
+	/**
+	 * Executes the child queries for the given batch of rows and then emits each row as a JSON document. The time and
+	 * rows of each child query are recorded in the given metrics, as is the time, documents, and bytes of the JSON
+	 * documents; the bytes are those of the FlowFiles that were sent while the batch was written.
+	 *
+	 * @param executor        the child query executor, with the row mapper configured for this trigger
+	 * @param childConnection
+	 * @param plan
+	 * @param columnMaps      may be empty for the last batch
+	 * @param emitter
+	 * @param lastBatch       if true, any documents that haven't been sent yet are sent as well
+	 * @param metrics
+	 * @param spill           optional; bounds the memory used by the child rows, and is closed once the batch has
+	 *                        been written
+	 * @param largeObjects    optional; holds the large LOB values of the batch, and is closed once the batch has been
+	 *                        written
+	 * @throws IOException
+	 */
+	protected void writeDocuments(ChildQueryExecutor executor, Connection childConnection, ChildQueryPlan plan,
+	                              List<Map<String, Object>> columnMaps, JsonDocumentEmitter emitter, boolean lastBatch,
+	                              RowToDocMetrics metrics, ChildRowSpill spill, LargeObjectStore largeObjects) throws IOException {
+		if (plan != null && !columnMaps.isEmpty()) {
+			executor.executeChildQueries(childConnection, plan, columnMaps, metrics, spill);
+		}
+		final long jsonStart = System.nanoTime();
+		final long bytesBefore = emitter.getBytes();
+		for (Map<String, Object> columnMap : columnMaps) {
+			emitter.emit(columnMap);
+		}
+		if (lastBatch) {
+			emitter.finish();
+		}
+		if (!columnMaps.isEmpty() || emitter.getBytes() > bytesBefore) {
+			metrics.record(RowToDocMetrics.JSON, jsonStart, columnMaps.size(), emitter.getBytes() - bytesBefore);
+		}
+		if (spill != null) {
+			spill.close();
+		}
+		if (largeObjects != null) {
+			largeObjects.close();
+		}
+	}
+
+	/**
+	 * Writes the given column map as UTF-8 JSON to the given OutputStream, which is not closed.
+	 *
+	 * @param columnMap
+	 * @param out
+	 * @throws IOException
+	 */
+	protected void writeColumnMap(Map<String, Object> columnMap, OutputStream out) throws IOException {
+		try {
+			jsonWriter.write(columnMap, out);
+		} catch (JsonProcessingException e) {
+			throw new ProcessException("Unable to write column map to JSON, cause: " + e.getMessage(), e);
+		}
+	}
+
+	private void closeConnection(Connection connection, JdbcStreamingOptions streamingOptions, boolean originalAutoCommit) {
+		if (connection != null) {
+			streamingOptions.restoreConnection(connection, originalAutoCommit);
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public Set<Relationship> getRelationships() {
+		return relationships;
+	}
+
+	@Override
+	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+		return properties;
+	}
+}
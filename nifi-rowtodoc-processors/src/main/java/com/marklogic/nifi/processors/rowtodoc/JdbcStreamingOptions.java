@@ -0,0 +1,121 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Controls how statements are prepared so that a JDBC driver streams rows from the database instead of buffering the
+ * entire ResultSet in memory before the first row is returned. Statements are always prepared as forward-only and
+ * read-only, which every driver needs in order to stream.
+ */
+public class JdbcStreamingOptions {
+
+	public static final AllowableValue STANDARD = new AllowableValue("Standard", "Standard",
+		"Only the fetch size is passed to the driver; whether the driver honors it depends on the driver");
+
+	public static final AllowableValue MYSQL_STREAMING = new AllowableValue("MySQL streaming", "MySQL streaming",
+		"Sets the fetch size to Integer.MIN_VALUE, which causes the MySQL driver to stream rows one at a time; the " +
+			"fetch size property is ignored");
+
+	public static final AllowableValue POSTGRESQL_CURSOR = new AllowableValue("PostgreSQL cursor", "PostgreSQL cursor",
+		"Disables autocommit while the query runs, which the PostgreSQL driver requires in order to use a cursor to " +
+			"fetch rows in batches of the configured fetch size");
+
+	public static final PropertyDescriptor FETCH_SIZE = new PropertyDescriptor.Builder()
+		.name("Fetch size")
+		.description("Number of rows the JDBC driver should fetch from the database at a time; 0 uses the driver's default")
+		.required(true)
+		.defaultValue("0")
+		.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor STREAMING_MODE = new PropertyDescriptor.Builder()
+		.name("Result set streaming mode")
+		.description("Driver-specific settings for streaming rows from the database instead of reading the entire " +
+			"result set into memory")
+		.required(true)
+		.allowableValues(STANDARD, MYSQL_STREAMING, POSTGRESQL_CURSOR)
+		.defaultValue(STANDARD.getValue())
+		.build();
+
+	public static final JdbcStreamingOptions DEFAULT = new JdbcStreamingOptions(STANDARD.getValue(), 0);
+
+	/**
+	 * PostgreSQL ignores the fetch size when it's 0, so a cursor needs some fetch size to be of any use.
+	 */
+	private static final int DEFAULT_POSTGRESQL_FETCH_SIZE = 1000;
+
+	private final String streamingMode;
+	private final int fetchSize;
+
+	public JdbcStreamingOptions(String streamingMode, int fetchSize) {
+		this.streamingMode = streamingMode;
+		this.fetchSize = fetchSize;
+	}
+
+	public static JdbcStreamingOptions fromContext(ProcessContext context) {
+		return new JdbcStreamingOptions(
+			context.getProperty(STREAMING_MODE).getValue(),
+			context.getProperty(FETCH_SIZE).asInteger()
+		);
+	}
+
+	/**
+	 * Must be called before any statements are prepared on the given connection, and must be paired with a call to
+	 * restoreConnection.
+	 *
+	 * @param connection
+	 * @return the original autocommit setting of the connection
+	 * @throws SQLException
+	 */
+	public boolean prepareConnection(Connection connection) throws SQLException {
+		final boolean autoCommit = connection.getAutoCommit();
+		if (POSTGRESQL_CURSOR.getValue().equals(streamingMode) && autoCommit) {
+			connection.setAutoCommit(false);
+		}
+		return autoCommit;
+	}
+
+	/**
+	 * Restores the connection to how it was before prepareConnection was called, so that it can be returned to the
+	 * connection pool. Any exception is ignored, as the connection is about to be closed anyway.
+	 *
+	 * @param connection
+	 * @param originalAutoCommit
+	 */
+	public void restoreConnection(Connection connection, boolean originalAutoCommit) {
+		try {
+			if (connection.getAutoCommit() != originalAutoCommit) {
+				// Only queries were run, so there's nothing to commit
+				connection.rollback();
+				connection.setAutoCommit(originalAutoCommit);
+			}
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	public PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		if (MYSQL_STREAMING.getValue().equals(streamingMode)) {
+			preparedStatement.setFetchSize(Integer.MIN_VALUE);
+		} else if (POSTGRESQL_CURSOR.getValue().equals(streamingMode)) {
+			preparedStatement.setFetchSize(fetchSize > 0 ? fetchSize : DEFAULT_POSTGRESQL_FETCH_SIZE);
+		} else if (fetchSize > 0) {
+			preparedStatement.setFetchSize(fetchSize);
+		}
+		return preparedStatement;
+	}
+
+	@Override
+	public String toString() {
+		return "streaming mode: " + streamingMode + "; fetch size: " + fetchSize;
+	}
+}
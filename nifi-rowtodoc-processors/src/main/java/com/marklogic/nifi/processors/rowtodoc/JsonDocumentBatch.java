@@ -0,0 +1,99 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffers a batch of JSON documents that are written to a single FlowFile, either as newline-delimited JSON - one
+ * document per line - or as the elements of a JSON array. The batch is reused after it's been cleared, so its buffer
+ * only grows to the size of the largest batch.
+ */
+public class JsonDocumentBatch {
+
+	private final boolean jsonArray;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+	private final StringBuilder ids = new StringBuilder();
+	private int count;
+
+	/**
+	 * @param jsonArray true to write the documents as a JSON array, false to write them as JSON Lines
+	 */
+	public JsonDocumentBatch(boolean jsonArray) {
+		this.jsonArray = jsonArray;
+	}
+
+	/**
+	 * Must be called before each document is written, and followed by a call to endDocument.
+	 *
+	 * @return the OutputStream to write the document to
+	 */
+	public OutputStream startDocument() {
+		if (jsonArray) {
+			buffer.write(count == 0 ? '[' : ',');
+		}
+		return buffer;
+	}
+
+	/**
+	 * @param id the ID of the document that was just written, or null if documents don't have IDs; a null ID is
+	 *           recorded as an empty line so that each line of getIds still lines up with its document
+	 */
+	public void endDocument(Object id) {
+		if (!jsonArray) {
+			buffer.write('\n');
+		}
+		if (count > 0) {
+			ids.append('\n');
+		}
+		if (id != null) {
+			ids.append(id);
+		}
+		count++;
+	}
+
+	/**
+	 * Writes the batch, terminating the JSON array if necessary, to the given OutputStream.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		buffer.writeTo(out);
+		if (jsonArray) {
+			out.write(count == 0 ? new byte[]{'[', ']'} : new byte[]{']'});
+		}
+	}
+
+	public void clear() {
+		buffer.reset();
+		ids.setLength(0);
+		count = 0;
+	}
+
+	public boolean isJsonArray() {
+		return jsonArray;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of bytes written to the batch so far
+	 */
+	public long getSize() {
+		return buffer.size();
+	}
+
+	/**
+	 * @return the ID of each document in the batch, in order and separated by newlines
+	 */
+	public String getIds() {
+		return ids.toString();
+	}
+}
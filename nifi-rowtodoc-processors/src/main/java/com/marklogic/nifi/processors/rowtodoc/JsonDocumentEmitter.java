@@ -0,0 +1,139 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.marklogic.nifi.processors.rowtodoc.ConvertColumnMapsToJSON.*;
+
+/**
+ * Writes each column map it's given as a JSON document to FlowFiles that are transferred to a relationship, based on
+ * the output mode properties of ConvertColumnMapsToJSON - i.e. either one FlowFile per document, or batches of
+ * documents as JSON Lines or as a JSON array. finish must be called after the last column map so that a partial
+ * batch is transferred.
+ */
+public class JsonDocumentEmitter {
+
+	/**
+	 * Writes a column map as a JSON document to an OutputStream, which must not be closed.
+	 */
+	@FunctionalInterface
+	public interface DocumentWriter {
+		void write(Map<String, Object> columnMap, OutputStream out) throws IOException;
+	}
+
+	private final ProcessSession session;
+	private final Relationship relationship;
+	private final DocumentWriter documentWriter;
+	private final int documentsPerFlowFile;
+	private final long maxFlowFileSize;
+	private final String documentIdColumn;
+
+	// Null when each document is written to its own FlowFile
+	private final JsonDocumentBatch batch;
+	private long count;
+	private long bytes;
+
+	public JsonDocumentEmitter(ProcessSession session, Relationship relationship, DocumentWriter documentWriter,
+	                           String outputMode, int documentsPerFlowFile, long maxFlowFileSize, String documentIdColumn) {
+		this.session = session;
+		this.relationship = relationship;
+		this.documentWriter = documentWriter;
+		this.documentsPerFlowFile = documentsPerFlowFile;
+		this.maxFlowFileSize = maxFlowFileSize;
+		this.documentIdColumn = documentIdColumn;
+		this.batch = ONE_DOCUMENT_PER_FLOWFILE.equals(outputMode) ? null : new JsonDocumentBatch(JSON_ARRAY.equals(outputMode));
+	}
+
+	public static JsonDocumentEmitter fromContext(ProcessContext context, ProcessSession session, Relationship relationship, DocumentWriter documentWriter) {
+		return new JsonDocumentEmitter(session, relationship, documentWriter,
+			context.getProperty(OUTPUT_MODE).getValue(),
+			context.getProperty(DOCUMENTS_PER_FLOWFILE).asInteger(),
+			context.getProperty(MAX_FLOWFILE_SIZE).asDataSize(DataUnit.B).longValue(),
+			context.getProperty(DOCUMENT_ID_COLUMN).getValue()
+		);
+	}
+
+	public void emit(Map<String, Object> columnMap) throws IOException {
+		if (batch == null) {
+			createNewFlowFileForColumnMap(columnMap);
+		} else {
+			documentWriter.write(columnMap, batch.startDocument());
+			batch.endDocument(documentIdColumn != null ? columnMap.get(documentIdColumn) : null);
+			if (batch.getCount() >= documentsPerFlowFile || batch.getSize() >= maxFlowFileSize) {
+				createNewFlowFileForBatch();
+			}
+		}
+		count++;
+	}
+
+	/**
+	 * Transfers the current batch of documents, if there is one.
+	 */
+	public void finish() {
+		if (batch != null && !batch.isEmpty()) {
+			createNewFlowFileForBatch();
+		}
+	}
+
+	/**
+	 * @return the number of documents emitted so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of bytes written to FlowFiles so far; documents in a batch that hasn't been transferred yet
+	 * are not included
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Serialize the given column map to JSON and write it to a new FlowFile. The JSON is generated directly into the
+	 * FlowFile's OutputStream as UTF-8, so it's never held in memory as a String or byte array.
+	 *
+	 * @param columnMap
+	 */
+	protected void createNewFlowFileForColumnMap(Map<String, Object> columnMap) {
+		FlowFile newFlowFile = session.create();
+		newFlowFile = session.write(newFlowFile, out -> documentWriter.write(columnMap, out));
+		bytes += newFlowFile.getSize();
+		newFlowFile = session.putAttribute(newFlowFile, CoreAttributes.MIME_TYPE.key(), "application/json");
+		if (documentIdColumn != null) {
+			Object id = columnMap.get(documentIdColumn);
+			if (id != null) {
+				newFlowFile = session.putAttribute(newFlowFile, ID_ATTRIBUTE, id.toString());
+			}
+		}
+		session.transfer(newFlowFile, relationship);
+	}
+
+	/**
+	 * Write the current batch of documents to a new FlowFile, and then clear the batch so it can be reused.
+	 */
+	protected void createNewFlowFileForBatch() {
+		FlowFile newFlowFile = session.create();
+		newFlowFile = session.write(newFlowFile, batch::writeTo);
+		bytes += newFlowFile.getSize();
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put(CoreAttributes.MIME_TYPE.key(), batch.isJsonArray() ? "application/json" : "application/x-ndjson");
+		attributes.put(COUNT_ATTRIBUTE, String.valueOf(batch.getCount()));
+		if (documentIdColumn != null) {
+			attributes.put(IDS_ATTRIBUTE, batch.getIds());
+		}
+		newFlowFile = session.putAllAttributes(newFlowFile, attributes);
+		session.transfer(newFlowFile, relationship);
+		batch.clear();
+	}
+}
@@ -0,0 +1,63 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Comparator;
+
+/**
+ * Compares key values read from different ResultSets, which may be of different Java types for the same logical value
+ * - e.g. an Integer primary key and a Long foreign key. Numbers are compared by value; any other values must be
+ * Comparable with each other.
+ * <p>
+ * When used to merge rows that were sorted by the database, the keys must sort the same way in the database as they
+ * do here - which is true for numeric keys, but for strings depends on the collation of the column.
+ */
+public class KeyComparator implements Comparator<Object> {
+
+	public static final KeyComparator INSTANCE = new KeyComparator();
+
+	@Override
+	public int compare(Object left, Object right) {
+		if (left == right) {
+			return 0;
+		}
+		// Nulls sort first, consistent with most databases' default for ascending order
+		if (left == null) {
+			return -1;
+		}
+		if (right == null) {
+			return 1;
+		}
+		if (left instanceof Number && right instanceof Number) {
+			return compareNumbers((Number) left, (Number) right);
+		}
+		if (left.getClass().equals(right.getClass()) && left instanceof Comparable) {
+			return ((Comparable<Object>) left).compareTo(right);
+		}
+		return left.toString().compareTo(right.toString());
+	}
+
+	private static int compareNumbers(Number left, Number right) {
+		if (isIntegral(left) && isIntegral(right)) {
+			return Long.compare(left.longValue(), right.longValue());
+		}
+		return toBigDecimal(left).compareTo(toBigDecimal(right));
+	}
+
+	static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	private static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		}
+		if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		}
+		if (isIntegral(number)) {
+			return BigDecimal.valueOf(number.longValue());
+		}
+		return BigDecimal.valueOf(number.doubleValue());
+	}
+}
@@ -0,0 +1,156 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Supports keyset pagination, where each page of rows is read by a separate query for the rows whose key is greater
+ * than the last key of the previous page, ordered by the key. Unlike an offset, this lets the database use an index on
+ * the key to find the start of each page, and it isn't affected by rows being inserted or deleted before the cursor.
+ * <p>
+ * The last key is saved in cluster-scoped state after each page is committed, along with the query and key column it
+ * applies to, so that an export that stops - e.g. because the processor was stopped, or the node went down - resumes
+ * with the next page. The key column must be unique, or rows that share a key at the end of a page would be skipped.
+ */
+public class KeysetCursor implements QueryCursor {
+
+	public static final String COLUMN_KEY = "keyset.column";
+	public static final String QUERY_KEY = "keyset.query";
+	public static final String LAST_KEY = "keyset.last";
+	public static final String TYPE_KEY = "keyset.type";
+
+	private static final int MAX_ATTEMPTS = 100;
+
+	private final StateManager stateManager;
+	private final String query;
+	private final String column;
+	private final int pageSize;
+
+	private Object savedKey;
+	private Object lastKey;
+
+	public KeysetCursor(StateManager stateManager, String query, String column, int pageSize) {
+		this.stateManager = stateManager;
+		this.query = query;
+		this.column = column;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Reads the last key saved by the last page, if there is one for the same query and column.
+	 *
+	 * @throws IOException
+	 */
+	public void loadState() throws IOException {
+		Map<String, String> state = stateManager.getState(Scope.CLUSTER).toMap();
+		if (column.equals(state.get(COLUMN_KEY)) && query.equals(state.get(QUERY_KEY)) && state.get(LAST_KEY) != null) {
+			savedKey = MaxValueTracker.parseValue(state.get(LAST_KEY), state.get(TYPE_KEY));
+		} else {
+			savedKey = null;
+		}
+		lastKey = savedKey;
+	}
+
+	/**
+	 * @return the query for the next page, which starts after the last key
+	 */
+	public String getQuery() {
+		final String key = "rowtodoc_keyset." + column;
+		StringBuilder sb = new StringBuilder("SELECT * FROM (").append(query).append(") rowtodoc_keyset");
+		if (savedKey != null) {
+			sb.append(" WHERE ").append(key).append(" > ?");
+		}
+		return sb.append(" ORDER BY ").append(key).toString();
+	}
+
+	/**
+	 * Binds the last key, if there is one, and limits the query to one page via setMaxRows, which unlike a LIMIT
+	 * clause doesn't depend on the database.
+	 *
+	 * @param preparedStatement
+	 * @throws SQLException
+	 */
+	@Override
+	public void bind(PreparedStatement preparedStatement) throws SQLException {
+		preparedStatement.setMaxRows(pageSize);
+		if (savedKey != null) {
+			preparedStatement.setObject(1, savedKey);
+		}
+	}
+
+	@Override
+	public void observe(Map<String, Object> columnMap) {
+		Object key = columnMap.get(column);
+		if (key != null) {
+			lastKey = key;
+		}
+	}
+
+	/**
+	 * Saves the last key that was read, so that the next page starts after it. This must only be called once every
+	 * row of the page has been committed.
+	 *
+	 * @throws IOException
+	 */
+	public void saveState() throws IOException {
+		if (lastKey == null || lastKey == savedKey) {
+			return;
+		}
+		Map<String, String> values = new HashMap<>();
+		values.put(COLUMN_KEY, column);
+		values.put(QUERY_KEY, query);
+		values.put(LAST_KEY, MaxValueTracker.formatValue(lastKey));
+		values.put(TYPE_KEY, MaxValueTracker.getType(lastKey));
+		updateState(values);
+		savedKey = lastKey;
+	}
+
+	/**
+	 * Removes the last key from the state, so that the next page starts from the beginning of the query again.
+	 *
+	 * @throws IOException
+	 */
+	public void reset() throws IOException {
+		Map<String, String> values = new HashMap<>();
+		values.put(COLUMN_KEY, null);
+		values.put(QUERY_KEY, null);
+		values.put(LAST_KEY, null);
+		values.put(TYPE_KEY, null);
+		updateState(values);
+		savedKey = null;
+		lastKey = null;
+	}
+
+	private void updateState(Map<String, String> values) throws IOException {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			final StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+			Map<String, String> state = new HashMap<>(stateMap.toMap());
+			for (Map.Entry<String, String> entry : values.entrySet()) {
+				if (entry.getValue() != null) {
+					state.put(entry.getKey(), entry.getValue());
+				} else {
+					state.remove(entry.getKey());
+				}
+			}
+			if (ClusterState.save(stateManager, stateMap, state)) {
+				return;
+			}
+		}
+		throw new IOException("Unable to save last key of column " + column + " after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	public Object getLastKey() {
+		return lastKey;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+}
@@ -0,0 +1,85 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectStreamException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reference to the value of a large BLOB or CLOB column that has been written to a temporary file by
+ * {@link LargeObjectStore}, so that the value is never held in memory as a whole. Binary values are stored as is, and
+ * character values as UTF-8.
+ * <p>
+ * The column maps encoder and the JSON and XML writers stream the value from the file. When a column map is written
+ * via Java serialization, the value is instead replaced by a byte array or String, so that the output can still be
+ * read by any processor. The file is deleted when the store that created it is closed.
+ */
+public class LargeObject implements Serializable {
+
+	private final transient File file;
+	private final long length;
+	private final boolean binary;
+
+	protected LargeObject(File file, long length, boolean binary) {
+		this.file = file;
+		this.length = length;
+		this.binary = binary;
+	}
+
+	/**
+	 * @return a new buffered stream of the bytes of the value; for a character value, this is its UTF-8 encoding
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	/**
+	 * @return a new reader of the characters of a character value
+	 * @throws IOException
+	 */
+	public Reader openReader() throws IOException {
+		return new InputStreamReader(openStream(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the number of bytes in the file
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	protected File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads the whole value into memory; only used when a column map is written via Java serialization.
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(length, Integer.MAX_VALUE));
+		try (InputStream in = openStream()) {
+			LargeObjectStore.copy(in, bytes, length);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to read large object from temporary file, cause: " + e.getMessage(), e);
+		}
+		return binary ? bytes.toByteArray() : new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return "LargeObject[" + (binary ? "binary" : "character") + ", " + length + " bytes, " + file + "]";
+	}
+}
@@ -0,0 +1,240 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps large BLOB and CLOB values out of memory. A value that is no larger than the threshold is read into a byte
+ * array or String as usual; a larger value is streamed into a temporary file and returned as a {@link LargeObject}
+ * that refers to the file. This applies both to values read from a ResultSet by {@link ColumnRowMapper} and to values
+ * read from the binary column maps format by {@link ColumnMapsDecoder}, so a large value is streamed from the
+ * database, into the content repository, and into a document without ever being fully materialized.
+ * <p>
+ * The temporary files are deleted by close, which must be called once the column maps holding the values have been
+ * written. This is thread-safe, so that sibling child queries running in parallel can share one store.
+ */
+public class LargeObjectStore implements Closeable {
+
+	public static final PropertyDescriptor THRESHOLD = new PropertyDescriptor.Builder()
+		.name("Large object threshold")
+		.description("Size - e.g. \"1 MB\" - above which a BLOB or CLOB value is streamed to a temporary file instead " +
+			"of being read into memory, and then streamed again as the column maps or documents are written. The size " +
+			"of a CLOB is measured in characters. If not set, every value is read into memory.")
+		.required(false)
+		.addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+		.build();
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final long threshold;
+	private final File directory;
+	private final List<File> files = new ArrayList<>();
+
+	/**
+	 * @param threshold the largest value, in bytes or characters, that is held in memory
+	 * @param directory optional directory for the temporary files; defaults to java.io.tmpdir
+	 */
+	public LargeObjectStore(long threshold, File directory) {
+		this.threshold = threshold;
+		this.directory = directory;
+	}
+
+	/**
+	 * @param context
+	 * @return a store with the configured threshold, or null if no threshold is configured
+	 */
+	public static LargeObjectStore fromContext(ProcessContext context) {
+		final Double threshold = context.getProperty(THRESHOLD).asDataSize(DataUnit.B);
+		return threshold != null ? new LargeObjectStore(threshold.longValue(), null) : null;
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Reads the given stream, which is not closed.
+	 *
+	 * @param in
+	 * @return a byte array if the stream has no more than threshold bytes, and otherwise a LargeObject
+	 * @throws IOException
+	 */
+	public Object readBinary(InputStream in) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(threshold + 1, BUFFER_SIZE)];
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int count;
+		while ((count = in.read(buffer)) >= 0) {
+			head.write(buffer, 0, count);
+			if (head.size() > threshold) {
+				File file = createTempFile();
+				long length = head.size();
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+					head.writeTo(out);
+					while ((count = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, count);
+						length += count;
+					}
+				}
+				return new LargeObject(file, length, true);
+			}
+		}
+		return head.toByteArray();
+	}
+
+	/**
+	 * Reads the given reader, which is not closed.
+	 *
+	 * @param reader
+	 * @return a String if the reader has no more than threshold characters, and otherwise a LargeObject
+	 * @throws IOException
+	 */
+	public Object readCharacters(Reader reader) throws IOException {
+		char[] buffer = new char[(int) Math.min(threshold + 1, BUFFER_SIZE)];
+		StringBuilder head = new StringBuilder();
+		int count;
+		while ((count = reader.read(buffer)) >= 0) {
+			head.append(buffer, 0, count);
+			if (head.length() > threshold) {
+				File file = createTempFile();
+				CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(file));
+				try (Writer writer = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8))) {
+					writer.append(head);
+					while ((count = reader.read(buffer)) >= 0) {
+						writer.write(buffer, 0, count);
+					}
+				}
+				return new LargeObject(file, counter.count, false);
+			}
+		}
+		return head.toString();
+	}
+
+	/**
+	 * Copies exactly length bytes of a value from the given stream, which is not closed, into a temporary file.
+	 *
+	 * @param in
+	 * @param length
+	 * @param binary false if the bytes are the UTF-8 encoding of a character value
+	 * @return
+	 * @throws IOException
+	 */
+	public LargeObject copy(InputStream in, long length, boolean binary) throws IOException {
+		File file = createTempFile();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			copy(in, out, length);
+		}
+		return new LargeObject(file, length, binary);
+	}
+
+	/**
+	 * Copies exactly length bytes from the given stream to the given stream.
+	 *
+	 * @throws EOFException if the input stream ends first
+	 */
+	protected static void copy(InputStream in, OutputStream out, long length) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(length, BUFFER_SIZE)];
+		long remaining = length;
+		while (remaining > 0) {
+			final int count = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+			if (count < 0) {
+				throw new EOFException();
+			}
+			out.write(buffer, 0, count);
+			remaining -= count;
+		}
+	}
+
+	protected File createTempFile() throws IOException {
+		File file = File.createTempFile("rowtodoc-lob-", ".tmp", directory);
+		synchronized (this) {
+			files.add(file);
+		}
+		return file;
+	}
+
+	/**
+	 * @return the number of temporary files that have been created and not deleted yet
+	 */
+	public synchronized int getFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Deletes every temporary file, so that this can be reused for the next set of column maps. LargeObjects created
+	 * by this store can no longer be read afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		for (File file : files) {
+			file.delete();
+		}
+		files.clear();
+	}
+
+	/**
+	 * Deletes every temporary file except those of the LargeObjects among the given values, which can still be read
+	 * afterwards.
+	 *
+	 * @param values e.g. the values of column maps that haven't been written yet
+	 */
+	public synchronized void closeExcept(Collection<?> values) {
+		Set<File> retainedFiles = new HashSet<>();
+		for (Object value : values) {
+			if (value instanceof LargeObject) {
+				retainedFiles.add(((LargeObject) value).getFile());
+			}
+		}
+		for (Iterator<File> iterator = files.iterator(); iterator.hasNext(); ) {
+			File file = iterator.next();
+			if (!retainedFiles.contains(file)) {
+				file.delete();
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			out.write(bytes, offset, length);
+			count += length;
+		}
+	}
+}
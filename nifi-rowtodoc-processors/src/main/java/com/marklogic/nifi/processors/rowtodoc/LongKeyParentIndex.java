@@ -0,0 +1,138 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Open-addressing hash index for parent rows whose key is a single integral column. Keys are stored as primitive
+ * longs, so neither adding a parent row nor looking up the parent of a child row boxes the key, and an Integer
+ * primary key matches a Long foreign key with the same value.
+ */
+public class LongKeyParentIndex extends ParentIndex {
+
+	private final String primaryKeyColumnName;
+
+	private long[] keys;
+	private Map<String, Object>[] rows;
+	private int mask;
+	private int size;
+
+	// Distinct keys in the order in which they were added
+	private long[] orderedKeys;
+
+	public LongKeyParentIndex(String primaryKeyColumnName, int expectedSize) {
+		this.primaryKeyColumnName = primaryKeyColumnName;
+		allocate(tableSizeFor(expectedSize));
+		this.orderedKeys = new long[Math.max(8, expectedSize)];
+	}
+
+	@Override
+	public void put(Map<String, Object> parentRow) {
+		Object key = parentRow.get(primaryKeyColumnName);
+		if (key instanceof Number) {
+			put(((Number) key).longValue(), parentRow);
+		}
+	}
+
+	public void put(long key, Map<String, Object> parentRow) {
+		int slot = slot(key);
+		while (rows[slot] != null) {
+			if (keys[slot] == key) {
+				rows[slot] = parentRow;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		rows[slot] = parentRow;
+
+		if (size == orderedKeys.length) {
+			long[] newOrderedKeys = new long[size * 2];
+			System.arraycopy(orderedKeys, 0, newOrderedKeys, 0, size);
+			orderedKeys = newOrderedKeys;
+		}
+		orderedKeys[size++] = key;
+
+		// Keep the table at most half full so that probe sequences stay short
+		if (size * 2 > rows.length) {
+			rehash();
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the parent row with the given key, or null if there is none
+	 */
+	public Map<String, Object> get(long key) {
+		int slot = slot(key);
+		while (rows[slot] != null) {
+			if (keys[slot] == key) {
+				return rows[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	@Override
+	public Map<String, Object> findParent(Map<String, Object> childRow, String[] foreignKeyColumnNames) {
+		if (foreignKeyColumnNames.length != 1) {
+			return null;
+		}
+		Object key = childRow.get(foreignKeyColumnNames[0]);
+		if (KeyComparator.isIntegral(key)) {
+			return get(((Number) key).longValue());
+		}
+		return null;
+	}
+
+	@Override
+	public List<Object> getKeys() {
+		List<Object> keyList = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			keyList.add(orderedKeys[i]);
+		}
+		return keyList;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int slot(long key) {
+		// Spread the bits of sequential IDs across the table
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		rows = new Map[capacity];
+		mask = capacity - 1;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		Map<String, Object>[] oldRows = rows;
+		allocate(oldRows.length * 2);
+		for (int i = 0; i < oldRows.length; i++) {
+			if (oldRows[i] != null) {
+				int slot = slot(oldKeys[i]);
+				while (rows[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				rows[slot] = oldRows[i];
+			}
+		}
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
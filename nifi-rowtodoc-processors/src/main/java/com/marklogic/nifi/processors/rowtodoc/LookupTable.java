@@ -0,0 +1,78 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.List;
+
+/**
+ * Defines a small, rarely changing table - e.g. language, category, or store - that is loaded into memory by
+ * {@link StandardLookupTableCache}, so that a many-to-one relationship can be embedded in each parent row without
+ * querying the database. Lookup tables are defined in JSON, e.g.
+ * {"name": "language", "query": "select * from language", "primaryKeyColumnName": "language_id"}.
+ */
+public class LookupTable {
+
+	private String name;
+	private String query;
+	private String primaryKeyColumnName;
+
+	// Optional - for compound keys, in which case these are used instead of the single column name above
+	private List<String> primaryKeyColumnNames;
+
+	public LookupTable() {
+		// Needed for JSON deserialization
+	}
+
+	public LookupTable(String name, String query, String primaryKeyColumnName) {
+		this.name = name;
+		this.query = query;
+		this.primaryKeyColumnName = primaryKeyColumnName;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the name, query, or primary key is missing
+	 */
+	public void validate() {
+		if (name == null || name.trim().isEmpty()) {
+			throw new IllegalArgumentException("A name must be defined for every lookup table");
+		}
+		if (query == null || query.trim().isEmpty()) {
+			throw new IllegalArgumentException("A query must be defined for lookup table: " + name);
+		}
+		if (getPrimaryKeyColumns().length == 0) {
+			throw new IllegalArgumentException("A primary key column must be defined for lookup table: " + name);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public String getPrimaryKeyColumnName() {
+		return primaryKeyColumnName;
+	}
+
+	public List<String> getPrimaryKeyColumnNames() {
+		return primaryKeyColumnNames;
+	}
+
+	public void setPrimaryKeyColumnNames(List<String> primaryKeyColumnNames) {
+		this.primaryKeyColumnNames = primaryKeyColumnNames;
+	}
+
+	/**
+	 * @return the columns of the primary key, whether it was defined via primaryKeyColumnName or
+	 * primaryKeyColumnNames
+	 */
+	@JsonIgnore
+	public String[] getPrimaryKeyColumns() {
+		if (primaryKeyColumnNames != null && !primaryKeyColumnNames.isEmpty()) {
+			return primaryKeyColumnNames.toArray(new String[0]);
+		}
+		return primaryKeyColumnName != null ? new String[]{primaryKeyColumnName} : new String[0];
+	}
+}
@@ -0,0 +1,27 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.controller.ControllerService;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the rows of lookup tables in memory, so that a child query with a lookup table - i.e. a many-to-one
+ * relationship - can be resolved without a query per batch. A single instance can be shared by every processor that
+ * needs the same lookup tables, so that only one copy of each table is held in memory.
+ */
+public interface LookupTableCache extends ControllerService {
+
+	/**
+	 * Looks up the row of the given table for each of the given keys. The returned rows are shared by every caller, and
+	 * thus must not be modified.
+	 *
+	 * @param tableName
+	 * @param keys      the value of the primary key for each row to look up; a {@link CompoundKey} for a compound key,
+	 *                  and null for a row that has no key
+	 * @return a list with the same size as the keys, containing the row for each key, or null if the table has no row
+	 * with the key
+	 * @throws IllegalArgumentException if no lookup table has the given name
+	 */
+	List<Map<String, Object>> lookup(String tableName, List<Object> keys);
+}
@@ -0,0 +1,179 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads bytes that were written by {@link LzOutputStream}, decompressing one block at a time. Closing this stream does
+ * not close the underlying stream.
+ */
+public class LzInputStream extends FilterInputStream {
+
+	private final byte[] block = new byte[LzOutputStream.BLOCK_SIZE];
+	private final byte[] compressed = new byte[LzOutputStream.maxCompressedLength(LzOutputStream.BLOCK_SIZE)];
+	private int blockLength;
+	private int position;
+	private boolean endOfStream;
+
+	public LzInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == blockLength && !readBlock()) {
+			return -1;
+		}
+		return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (position == blockLength && !readBlock()) {
+			return -1;
+		}
+		final int count = Math.min(length, blockLength - position);
+		System.arraycopy(block, position, bytes, offset, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long count) throws IOException {
+		long skipped = 0;
+		while (skipped < count && (position < blockLength || readBlock())) {
+			final int step = (int) Math.min(count - skipped, blockLength - position);
+			position += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return blockLength - position;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+		endOfStream = true;
+		blockLength = 0;
+		position = 0;
+	}
+
+	private boolean readBlock() throws IOException {
+		if (endOfStream) {
+			return false;
+		}
+		final int uncompressedLength = readVarInt();
+		if (uncompressedLength == 0) {
+			endOfStream = true;
+			return false;
+		}
+		final int compressedLength = readVarInt();
+		if (uncompressedLength > block.length || compressedLength > compressed.length) {
+			throw new IOException("Invalid LZ block lengths: " + uncompressedLength + ", " + compressedLength);
+		}
+		if (compressedLength == uncompressedLength) {
+			readFully(block, uncompressedLength);
+		} else {
+			readFully(compressed, compressedLength);
+			if (decompress(compressed, compressedLength, block) != uncompressedLength) {
+				throw new IOException("Corrupt LZ block; expected " + uncompressedLength + " bytes");
+			}
+		}
+		blockLength = uncompressedLength;
+		position = 0;
+		return true;
+	}
+
+	/**
+	 * @param src
+	 * @param srcLength
+	 * @param dest
+	 * @return the number of bytes written to dest
+	 * @throws IOException if the block is malformed
+	 */
+	static int decompress(byte[] src, int srcLength, byte[] dest) throws IOException {
+		int srcIndex = 0;
+		int destIndex = 0;
+		try {
+			while (srcIndex < srcLength) {
+				final int token = src[srcIndex++] & 0xFF;
+				int literalLength = token >>> 4;
+				if (literalLength == 15) {
+					int b;
+					do {
+						b = src[srcIndex++] & 0xFF;
+						literalLength += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, srcIndex, dest, destIndex, literalLength);
+				srcIndex += literalLength;
+				destIndex += literalLength;
+				if (srcIndex == srcLength) {
+					break;
+				}
+
+				final int matchOffset = (src[srcIndex] & 0xFF) | (src[srcIndex + 1] & 0xFF) << 8;
+				srcIndex += 2;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[srcIndex++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += LzOutputStream.MIN_MATCH;
+				int matchIndex = destIndex - matchOffset;
+				if (matchOffset == 0 || matchIndex < 0) {
+					throw new IOException("Invalid LZ match offset: " + matchOffset);
+				}
+				// The match may overlap the bytes it produces, so it's copied one byte at a time
+				for (int i = 0; i < matchLength; i++) {
+					dest[destIndex++] = dest[matchIndex++];
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt LZ block", e);
+		}
+		return destIndex;
+	}
+
+	private void readFully(byte[] bytes, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			final int count = in.read(bytes, offset, length - offset);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			offset += count;
+		}
+	}
+
+	private int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length number");
+	}
+}
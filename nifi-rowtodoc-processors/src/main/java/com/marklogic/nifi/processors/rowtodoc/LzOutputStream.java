@@ -0,0 +1,192 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Compresses bytes with a simple LZ77 codec that trades compression ratio for speed, in the same spirit as LZ4. This
+ * suits the binary column maps format, which repeats the same values and row structure over and over; there's no
+ * entropy coding, so it compresses less than Deflate but costs far less CPU.
+ * <p>
+ * Bytes are buffered into blocks of up to BLOCK_SIZE bytes. Each block is written as its uncompressed length, its
+ * compressed length, and the compressed bytes - or the uncompressed bytes if compressing didn't make the block smaller,
+ * in which case both lengths are the same. An uncompressed length of 0 marks the end of the stream.
+ * <p>
+ * A compressed block is a sequence of literal runs, each followed by a match: a token byte holds the literal length in
+ * its high 4 bits and the match length minus MIN_MATCH in its low 4 bits, with 15 in either meaning that more length
+ * bytes follow; then the literals; then the match offset as 2 little-endian bytes. The last literal run of a block has
+ * no match.
+ * <p>
+ * Closing this stream writes the end marker but does not close the underlying stream.
+ */
+public class LzOutputStream extends FilterOutputStream {
+
+	static final int BLOCK_SIZE = 64 * 1024;
+	static final int MIN_MATCH = 4;
+
+	private static final int HASH_BITS = 14;
+	private static final int MAX_OFFSET = 65535;
+
+	private final byte[] block = new byte[BLOCK_SIZE];
+	private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+	private final int[] hashTable = new int[1 << HASH_BITS];
+	private int blockLength;
+	private boolean finished;
+
+	public LzOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLength == BLOCK_SIZE) {
+			writeBlock();
+		}
+		block[blockLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (blockLength == BLOCK_SIZE) {
+				writeBlock();
+			}
+			final int count = Math.min(length, BLOCK_SIZE - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, count);
+			blockLength += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Writes the current block, even if it isn't full, and flushes the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeBlock();
+		out.flush();
+	}
+
+	/**
+	 * Writes the remaining bytes and the end marker, without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (!finished) {
+			writeBlock();
+			writeVarInt(0);
+			finished = true;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		out.flush();
+	}
+
+	private void writeBlock() throws IOException {
+		if (blockLength == 0) {
+			return;
+		}
+		final int compressedLength = compress(block, blockLength, compressed, hashTable);
+		writeVarInt(blockLength);
+		if (compressedLength < blockLength) {
+			writeVarInt(compressedLength);
+			out.write(compressed, 0, compressedLength);
+		} else {
+			writeVarInt(blockLength);
+			out.write(block, 0, blockLength);
+		}
+		blockLength = 0;
+	}
+
+	private void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Greedily replaces each run of at least MIN_MATCH bytes that occurred earlier in the block with a match, finding
+	 * earlier occurrences via a hash table of the positions of 4-byte sequences.
+	 *
+	 * @param src
+	 * @param srcLength
+	 * @param dest      must hold at least maxCompressedLength(srcLength) bytes
+	 * @param hashTable
+	 * @return the number of bytes written to dest
+	 */
+	static int compress(byte[] src, int srcLength, byte[] dest, int[] hashTable) {
+		Arrays.fill(hashTable, -1);
+		int destIndex = 0;
+		int anchor = 0;
+		int index = 0;
+		while (index <= srcLength - MIN_MATCH) {
+			final int sequence = readInt(src, index);
+			final int hash = (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+			final int candidate = hashTable[hash];
+			hashTable[hash] = index;
+			if (candidate < 0 || index - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+				index++;
+				continue;
+			}
+
+			int matchLength = MIN_MATCH;
+			while (index + matchLength < srcLength && src[candidate + matchLength] == src[index + matchLength]) {
+				matchLength++;
+			}
+			destIndex = writeSequence(src, anchor, index - anchor, dest, destIndex, index - candidate, matchLength);
+			index += matchLength;
+			anchor = index;
+		}
+		return writeSequence(src, anchor, srcLength - anchor, dest, destIndex, 0, 0);
+	}
+
+	/**
+	 * @param matchLength 0 for the last literal run of a block, which has no match
+	 */
+	private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dest, int destIndex,
+	                                 int matchOffset, int matchLength) {
+		final int extraMatchLength = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+		final int tokenIndex = destIndex++;
+		int token = Math.min(literalLength, 15) << 4;
+		if (literalLength >= 15) {
+			destIndex = writeLength(literalLength - 15, dest, destIndex);
+		}
+		System.arraycopy(src, literalStart, dest, destIndex, literalLength);
+		destIndex += literalLength;
+
+		if (matchLength > 0) {
+			dest[destIndex++] = (byte) matchOffset;
+			dest[destIndex++] = (byte) (matchOffset >>> 8);
+			token |= Math.min(extraMatchLength, 15);
+			if (extraMatchLength >= 15) {
+				destIndex = writeLength(extraMatchLength - 15, dest, destIndex);
+			}
+		}
+		dest[tokenIndex] = (byte) token;
+		return destIndex;
+	}
+
+	private static int writeLength(int length, byte[] dest, int destIndex) {
+		while (length >= 255) {
+			dest[destIndex++] = (byte) 255;
+			length -= 255;
+		}
+		dest[destIndex++] = (byte) length;
+		return destIndex;
+	}
+
+	private static int readInt(byte[] bytes, int index) {
+		return (bytes[index] & 0xFF) | (bytes[index + 1] & 0xFF) << 8 | (bytes[index + 2] & 0xFF) << 16 | (bytes[index + 3] & 0xFF) << 24;
+	}
+}
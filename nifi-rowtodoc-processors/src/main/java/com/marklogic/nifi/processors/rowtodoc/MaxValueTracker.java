@@ -0,0 +1,201 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Supports incremental extraction by tracking the largest value of a column - e.g. a last_update timestamp or an
+ * ascending ID - across every row that a run reads. When the run succeeds, the largest value is saved in cluster-scoped
+ * state, and the next run only reads rows whose value is greater than it.
+ * <p>
+ * The value is saved along with its type, so that it can be bound as the same JDBC type in the next run, and along
+ * with the column and the query it was read by; if either of those changes, the saved value is ignored and the next
+ * run reads every row.
+ */
+public class MaxValueTracker implements QueryCursor {
+
+	public static final String COLUMN_KEY = "incremental.column";
+	public static final String QUERY_KEY = "incremental.query";
+	public static final String MAX_VALUE_KEY = "incremental.max";
+	public static final String TYPE_KEY = "incremental.type";
+
+	private static final String TIMESTAMP = "timestamp";
+	private static final String DATE = "date";
+	private static final String LONG = "long";
+	private static final String DECIMAL = "decimal";
+	private static final String STRING = "string";
+
+	private static final int MAX_ATTEMPTS = 100;
+
+	private final StateManager stateManager;
+	private final String query;
+	private final String column;
+
+	private Object lastMaxValue;
+	private Object maxValue;
+
+	public MaxValueTracker(StateManager stateManager, String query, String column) {
+		this.stateManager = stateManager;
+		this.query = query;
+		this.column = column;
+	}
+
+	/**
+	 * Reads the largest value saved by the last successful run, if there is one for the same query and column.
+	 *
+	 * @throws IOException
+	 */
+	public void loadState() throws IOException {
+		Map<String, String> state = stateManager.getState(Scope.CLUSTER).toMap();
+		if (column.equals(state.get(COLUMN_KEY)) && query.equals(state.get(QUERY_KEY)) && state.get(MAX_VALUE_KEY) != null) {
+			lastMaxValue = parseValue(state.get(MAX_VALUE_KEY), state.get(TYPE_KEY));
+		} else {
+			lastMaxValue = null;
+		}
+		maxValue = lastMaxValue;
+	}
+
+	/**
+	 * @return the query to run - which is the original query when no value has been saved yet, and otherwise the
+	 * original query constrained to rows whose value is greater than the saved value
+	 */
+	public String getQuery() {
+		if (lastMaxValue == null) {
+			return query;
+		}
+		return "SELECT * FROM (" + query + ") rowtodoc_incremental WHERE rowtodoc_incremental." + column + " > ?";
+	}
+
+	/**
+	 * Binds the saved value to the parameter of the query returned by getQuery, if it has one.
+	 *
+	 * @param preparedStatement
+	 * @throws SQLException
+	 */
+	@Override
+	public void bind(PreparedStatement preparedStatement) throws SQLException {
+		if (lastMaxValue != null) {
+			preparedStatement.setObject(1, lastMaxValue);
+		}
+	}
+
+	/**
+	 * Called for each row that is read.
+	 *
+	 * @param columnMap
+	 */
+	@Override
+	public void observe(Map<String, Object> columnMap) {
+		Object value = columnMap.get(column);
+		if (value != null && (maxValue == null || compare(value, maxValue) > 0)) {
+			maxValue = value;
+		}
+	}
+
+	/**
+	 * Saves the largest value that has been observed, while leaving any other entries in the state untouched. This
+	 * must only be called once every row of the run has been committed.
+	 *
+	 * @throws IOException
+	 */
+	public void saveState() throws IOException {
+		if (maxValue == null || maxValue == lastMaxValue) {
+			return;
+		}
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			final StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+			Map<String, String> state = new HashMap<>(stateMap.toMap());
+			state.put(COLUMN_KEY, column);
+			state.put(QUERY_KEY, query);
+			state.put(MAX_VALUE_KEY, formatValue(maxValue));
+			state.put(TYPE_KEY, getType(maxValue));
+			if (ClusterState.save(stateManager, stateMap, state)) {
+				lastMaxValue = maxValue;
+				return;
+			}
+		}
+		throw new IOException("Unable to save max value of column " + column + " after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	public Object getLastMaxValue() {
+		return lastMaxValue;
+	}
+
+	public Object getMaxValue() {
+		return maxValue;
+	}
+
+	protected static int compare(Object value, Object otherValue) {
+		if (value instanceof Number && otherValue instanceof Number) {
+			return toBigDecimal((Number) value).compareTo(toBigDecimal((Number) otherValue));
+		}
+		if (value instanceof java.util.Date && otherValue instanceof java.util.Date) {
+			// Timestamps are compared as such so that nanos are accounted for
+			return toTimestamp((java.util.Date) value).compareTo(toTimestamp((java.util.Date) otherValue));
+		}
+		return value.toString().compareTo(otherValue.toString());
+	}
+
+	private static Timestamp toTimestamp(java.util.Date date) {
+		return date instanceof Timestamp ? (Timestamp) date : new Timestamp(date.getTime());
+	}
+
+	private static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		} else if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		} else if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+			return BigDecimal.valueOf(number.longValue());
+		}
+		return new BigDecimal(number.toString());
+	}
+
+	protected static String getType(Object value) {
+		if (value instanceof Timestamp) {
+			return TIMESTAMP;
+		} else if (value instanceof Date) {
+			return DATE;
+		} else if (value instanceof java.util.Date) {
+			return TIMESTAMP;
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return LONG;
+		} else if (value instanceof Number) {
+			return DECIMAL;
+		}
+		return STRING;
+	}
+
+	protected static String formatValue(Object value) {
+		if (value instanceof java.util.Date && !(value instanceof Date)) {
+			return toTimestamp((java.util.Date) value).toString();
+		} else if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		}
+		return value.toString();
+	}
+
+	protected static Object parseValue(String value, String type) {
+		if (TIMESTAMP.equals(type)) {
+			return Timestamp.valueOf(value);
+		} else if (DATE.equals(type)) {
+			return Date.valueOf(value);
+		} else if (LONG.equals(type)) {
+			return Long.valueOf(value);
+		} else if (DECIMAL.equals(type)) {
+			return new BigDecimal(value);
+		}
+		return value;
+	}
+}
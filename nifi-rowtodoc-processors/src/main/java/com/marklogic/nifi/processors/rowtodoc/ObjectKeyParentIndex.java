@@ -0,0 +1,39 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash-based index for keys that aren't a single integral column - e.g. string keys, decimal keys, or compound keys.
+ */
+public class ObjectKeyParentIndex extends ParentIndex {
+
+	private final String[] primaryKeyColumnNames;
+	private final Map<Object, Map<String, Object>> parentRows;
+
+	public ObjectKeyParentIndex(String[] primaryKeyColumnNames, int expectedSize) {
+		this.primaryKeyColumnNames = primaryKeyColumnNames;
+		this.parentRows = new LinkedHashMap<>(Math.max(16, expectedSize * 2));
+	}
+
+	@Override
+	public void put(Map<String, Object> parentRow) {
+		Object key = getKey(parentRow, primaryKeyColumnNames);
+		if (key != null) {
+			parentRows.put(key, parentRow);
+		}
+	}
+
+	@Override
+	public Map<String, Object> findParent(Map<String, Object> childRow, String[] foreignKeyColumnNames) {
+		Object key = getKey(childRow, foreignKeyColumnNames);
+		return key != null ? parentRows.get(key) : null;
+	}
+
+	@Override
+	public List<Object> getKeys() {
+		return new ArrayList<>(parentRows.keySet());
+	}
+}
@@ -0,0 +1,83 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes a batch of parent rows by their key so that each child row can be added to its parent. The keys of the
+ * index are also the values that child queries are constrained to.
+ */
+public abstract class ParentIndex {
+
+	/**
+	 * Builds the most efficient index for the keys of the given parent rows - an index of primitive longs when every
+	 * key is a single integral column, and a hash-based index otherwise. Rows with a null key - or with a null value
+	 * in any column of a compound key - are not indexed, as they cannot have children.
+	 *
+	 * @param parentRows
+	 * @param primaryKeyColumnNames
+	 * @return
+	 */
+	public static ParentIndex build(List<? extends Map<String, Object>> parentRows, String[] primaryKeyColumnNames) {
+		ParentIndex index;
+		if (primaryKeyColumnNames.length == 1 && hasOnlyIntegralKeys(parentRows, primaryKeyColumnNames[0])) {
+			index = new LongKeyParentIndex(primaryKeyColumnNames[0], parentRows.size());
+		} else {
+			index = new ObjectKeyParentIndex(primaryKeyColumnNames, parentRows.size());
+		}
+		for (Map<String, Object> parentRow : parentRows) {
+			index.put(parentRow);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds the given parent row to the index; a parent row with the same key as an existing one replaces it.
+	 *
+	 * @param parentRow
+	 */
+	public abstract void put(Map<String, Object> parentRow);
+
+	/**
+	 * @param childRow
+	 * @param foreignKeyColumnNames
+	 * @return the parent row whose key matches the given columns of the child row, or null if there is none
+	 */
+	public abstract Map<String, Object> findParent(Map<String, Object> childRow, String[] foreignKeyColumnNames);
+
+	/**
+	 * @return the distinct keys in the order in which they were first added; for a compound key, each key is a
+	 * {@link CompoundKey}
+	 */
+	public abstract List<Object> getKeys();
+
+	/**
+	 * @param row
+	 * @param columnNames
+	 * @return the key of the given row, which is a {@link CompoundKey} when there are multiple columns, or null if any
+	 * column of the key is null
+	 */
+	public static Object getKey(Map<String, Object> row, String[] columnNames) {
+		if (columnNames.length == 1) {
+			return row.get(columnNames[0]);
+		}
+		Object[] values = new Object[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++) {
+			values[i] = row.get(columnNames[i]);
+			if (values[i] == null) {
+				return null;
+			}
+		}
+		return new CompoundKey(values);
+	}
+
+	private static boolean hasOnlyIntegralKeys(List<? extends Map<String, Object>> parentRows, String columnName) {
+		for (Map<String, Object> parentRow : parentRows) {
+			Object key = parentRow.get(columnName);
+			if (key != null && !KeyComparator.isIntegral(key)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
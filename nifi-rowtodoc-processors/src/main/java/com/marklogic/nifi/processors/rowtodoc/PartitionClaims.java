@@ -0,0 +1,178 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out the partitions of a run to concurrent tasks and to every node in a cluster by recording each claim in
+ * cluster-scoped state. Every claim is made via StateManager.replace, so two tasks can never claim the same partition;
+ * a task that loses a race simply reads the state again and tries the next partition. State that has never been set
+ * can't be replaced, so the first task to run only sets the state of the first run, and then claims a partition.
+ * <p>
+ * The state holds the start time and bounds of the current run, and one entry per claimed partition, which is either
+ * "claimed:(time of claim)" or "done:(row count)". Once every partition of a run is done, the next claim starts a new
+ * run. A partition whose claim is older than the claim timeout - e.g. because the node that claimed it went down - can
+ * be claimed again.
+ */
+public class PartitionClaims {
+
+	public static final String RUN_KEY = "partition.run";
+	public static final String COUNT_KEY = "partition.count";
+	public static final String MIN_KEY = "partition.min";
+	public static final String MAX_KEY = "partition.max";
+	public static final String PARTITION_KEY_PREFIX = "partition.";
+
+	private static final String CLAIMED = "claimed:";
+	private static final String DONE = "done:";
+
+	private static final int MAX_ATTEMPTS = 100;
+
+	/**
+	 * Supplies the smallest and largest values of the partition column when a new run starts.
+	 */
+	@FunctionalInterface
+	public interface BoundsLoader {
+		long[] loadBounds() throws SQLException;
+	}
+
+	private final StateManager stateManager;
+	private final int partitionCount;
+	private final String strategy;
+	private final long claimTimeoutMillis;
+
+	public PartitionClaims(StateManager stateManager, int partitionCount, String strategy, long claimTimeoutMillis) {
+		this.stateManager = stateManager;
+		this.partitionCount = partitionCount;
+		this.strategy = strategy;
+		this.claimTimeoutMillis = claimTimeoutMillis;
+	}
+
+	/**
+	 * @param boundsLoader only called when a new run is started with the RANGE strategy
+	 * @return the partition that was claimed, or null if every partition of the current run is claimed by another task
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public QueryPartition claim(BoundsLoader boundsLoader) throws IOException, SQLException {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			final StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+			Map<String, String> state = new HashMap<>(stateMap.toMap());
+			final long now = System.currentTimeMillis();
+
+			if (isNewRunNeeded(state)) {
+				state.clear();
+				state.put(RUN_KEY, String.valueOf(now));
+				state.put(COUNT_KEY, String.valueOf(partitionCount));
+				long[] bounds = QueryPartition.RANGE.equals(strategy) ? boundsLoader.loadBounds() : new long[]{0, 0};
+				state.put(MIN_KEY, String.valueOf(bounds[0]));
+				state.put(MAX_KEY, String.valueOf(bounds[1]));
+			}
+
+			if (stateMap.getVersion() == -1) {
+				// State that has never been set can't be replaced, so only the first run is set, without a claim
+				ClusterState.save(stateManager, stateMap, state);
+				continue;
+			}
+
+			final int index = findAvailablePartition(state, now);
+			if (index < 0) {
+				return null;
+			}
+			state.put(PARTITION_KEY_PREFIX + index, CLAIMED + now);
+			if (stateManager.replace(stateMap, state, Scope.CLUSTER)) {
+				return new QueryPartition(state.get(RUN_KEY), index, partitionCount, strategy,
+					Long.parseLong(state.get(MIN_KEY)), Long.parseLong(state.get(MAX_KEY)));
+			}
+		}
+		throw new IOException("Unable to claim a partition after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	/**
+	 * Marks the given partition as done. Nothing is updated if a new run has started since the partition was claimed.
+	 *
+	 * @param partition
+	 * @param rowCount
+	 * @throws IOException
+	 */
+	public void complete(QueryPartition partition, long rowCount) throws IOException {
+		update(partition, DONE + rowCount);
+	}
+
+	/**
+	 * Removes the claim on the given partition so that another task can claim it - e.g. after the query for the
+	 * partition failed.
+	 *
+	 * @param partition
+	 * @throws IOException
+	 */
+	public void release(QueryPartition partition) throws IOException {
+		update(partition, null);
+	}
+
+	private void update(QueryPartition partition, String value) throws IOException {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			final StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+			Map<String, String> state = new HashMap<>(stateMap.toMap());
+			if (!partition.getRunId().equals(state.get(RUN_KEY))) {
+				return;
+			}
+			if (value != null) {
+				state.put(PARTITION_KEY_PREFIX + partition.getIndex(), value);
+			} else {
+				state.remove(PARTITION_KEY_PREFIX + partition.getIndex());
+			}
+			if (ClusterState.save(stateManager, stateMap, state)) {
+				return;
+			}
+		}
+		throw new IOException("Unable to update partition " + partition + " after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	private boolean isNewRunNeeded(Map<String, String> state) {
+		if (!state.containsKey(RUN_KEY) || !String.valueOf(partitionCount).equals(state.get(COUNT_KEY))) {
+			return true;
+		}
+		for (int i = 0; i < partitionCount; i++) {
+			String value = state.get(PARTITION_KEY_PREFIX + i);
+			if (value == null || !value.startsWith(DONE)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int findAvailablePartition(Map<String, String> state, long now) {
+		for (int i = 0; i < partitionCount; i++) {
+			String value = state.get(PARTITION_KEY_PREFIX + i);
+			if (value == null) {
+				return i;
+			}
+			if (value.startsWith(CLAIMED) && now - Long.parseLong(value.substring(CLAIMED.length())) > claimTimeoutMillis) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of partitions of the current run that are done, for reporting progress
+	 * @throws IOException
+	 */
+	public int getDoneCount() throws IOException {
+		Map<String, String> state = stateManager.getState(Scope.CLUSTER).toMap();
+		int done = 0;
+		for (int i = 0; i < partitionCount; i++) {
+			String value = state.get(PARTITION_KEY_PREFIX + i);
+			if (value != null && value.startsWith(DONE)) {
+				done++;
+			}
+		}
+		return done;
+	}
+}
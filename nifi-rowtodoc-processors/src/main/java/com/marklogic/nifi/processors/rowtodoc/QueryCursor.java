@@ -0,0 +1,27 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Tracks the position of an extraction that spans more than one execution of a query - i.e. it binds the position
+ * saved by the last execution to the query, and observes each row that is read to determine the new position.
+ */
+public interface QueryCursor {
+
+	/**
+	 * Binds the parameters of the query, and may set other options such as the max rows.
+	 *
+	 * @param preparedStatement
+	 * @throws SQLException
+	 */
+	void bind(PreparedStatement preparedStatement) throws SQLException;
+
+	/**
+	 * Called for each row that is read, in the order the rows are returned.
+	 *
+	 * @param columnMap
+	 */
+	void observe(Map<String, Object> columnMap);
+}
@@ -0,0 +1,88 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+/**
+ * One partition of a query, defined on a numeric partition column either by modulo or by a range of values. Every row
+ * belongs to exactly one partition of a run, including rows with a null partition column, which belong to the first
+ * partition.
+ */
+public class QueryPartition {
+
+	public static final String MODULO = "Modulo";
+	public static final String RANGE = "Range";
+
+	private final String runId;
+	private final int index;
+	private final int count;
+	private final String strategy;
+	private final long minValue;
+	private final long maxValue;
+
+	/**
+	 * @param runId    identifies the run that this partition belongs to
+	 * @param index    zero-based index of this partition
+	 * @param count    the number of partitions
+	 * @param strategy either MODULO or RANGE
+	 * @param minValue for RANGE, the smallest value of the partition column when the run started
+	 * @param maxValue for RANGE, the largest value of the partition column when the run started
+	 */
+	public QueryPartition(String runId, int index, int count, String strategy, long minValue, long maxValue) {
+		this.runId = runId;
+		this.index = index;
+		this.count = count;
+		this.strategy = strategy;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+	}
+
+	/**
+	 * Wraps the given query so that it only returns the rows in this partition.
+	 *
+	 * @param query
+	 * @param partitionColumn
+	 * @return
+	 */
+	public String wrap(String query, String partitionColumn) {
+		final String column = "rowtodoc_partition." + partitionColumn;
+		return "SELECT * FROM (" + query + ") rowtodoc_partition WHERE " + getCondition(column);
+	}
+
+	protected String getCondition(String column) {
+		String condition;
+		if (RANGE.equals(strategy)) {
+			// The first and last ranges are open-ended, so rows outside of the bounds are still included
+			final long width = (maxValue - minValue) / count + 1;
+			final long lowerBound = minValue + width * index;
+			final long upperBound = lowerBound + width;
+			if (count == 1) {
+				condition = "1 = 1";
+			} else if (index == 0) {
+				condition = column + " < " + upperBound;
+			} else if (index == count - 1) {
+				condition = column + " >= " + lowerBound;
+			} else {
+				condition = column + " >= " + lowerBound + " AND " + column + " < " + upperBound;
+			}
+		} else {
+			// ABS ensures that negative values, for which MOD is negative in most databases, still have a partition
+			condition = "ABS(MOD(" + column + ", " + count + ")) = " + index;
+		}
+		return index == 0 ? "(" + condition + " OR " + column + " IS NULL)" : condition;
+	}
+
+	public String getRunId() {
+		return runId;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return (index + 1) + " of " + count;
+	}
+}
@@ -0,0 +1,124 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.processor.ProcessSession;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe set of StageMetrics, keyed by stage name. Stage names are "query" for the main query, "child." plus
+ * the property name for each child query - e.g. "child.rentals" - "write" for writing column maps, and "json" or
+ * "xml" for writing documents.
+ * <p>
+ * A processor records the metrics of each FlowFile in a new instance, so that they can be written as attributes on
+ * that FlowFile and added to the NiFi counters, and then adds them to its cumulative instance. The cumulative
+ * instance of every processor is registered by the processor's identifier, so that a reporting task - or anything else
+ * in the same NAR - can query a snapshot of them via getSnapshots.
+ */
+public class RowToDocMetrics {
+
+	public static final String QUERY = "query";
+	public static final String CHILD_PREFIX = "child.";
+	public static final String WRITE = "write";
+	public static final String JSON = "json";
+	public static final String XML = "xml";
+
+	public static final String ATTRIBUTE_PREFIX = "rowtodoc.metrics.";
+
+	private static final ConcurrentMap<String, RowToDocMetrics> REGISTRY = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, StageMetrics> stages = new ConcurrentHashMap<>();
+
+	/**
+	 * @param componentId the identifier of the processor
+	 * @return the cumulative metrics of the given processor, which are created the first time they're requested
+	 */
+	public static RowToDocMetrics forComponent(String componentId) {
+		return REGISTRY.computeIfAbsent(componentId, id -> new RowToDocMetrics());
+	}
+
+	/**
+	 * Removes the cumulative metrics of the given processor, e.g. when it's removed from the flow.
+	 *
+	 * @param componentId
+	 */
+	public static void unregister(String componentId) {
+		REGISTRY.remove(componentId);
+	}
+
+	/**
+	 * @return a snapshot of the cumulative metrics of every processor, keyed by processor identifier and then by
+	 * stage name
+	 */
+	public static Map<String, Map<String, StageMetrics.Snapshot>> getSnapshots() {
+		Map<String, Map<String, StageMetrics.Snapshot>> snapshots = new HashMap<>();
+		REGISTRY.forEach((componentId, metrics) -> snapshots.put(componentId, metrics.snapshot()));
+		return snapshots;
+	}
+
+	public StageMetrics stage(String name) {
+		return stages.computeIfAbsent(name, StageMetrics::new);
+	}
+
+	public void record(String stageName, long startNanos, long rows, long bytes) {
+		stage(stageName).record(System.nanoTime() - startNanos, rows, bytes);
+	}
+
+	/**
+	 * Adds every stage recorded in these metrics to the given metrics.
+	 *
+	 * @param metrics
+	 */
+	public void addTo(RowToDocMetrics metrics) {
+		stages.forEach((name, stageMetrics) -> metrics.stage(name).add(stageMetrics));
+	}
+
+	/**
+	 * @return a snapshot of each stage, sorted by stage name
+	 */
+	public Map<String, StageMetrics.Snapshot> snapshot() {
+		Map<String, StageMetrics.Snapshot> snapshot = new TreeMap<>();
+		stages.forEach((name, stageMetrics) -> snapshot.put(name, stageMetrics.snapshot()));
+		return Collections.unmodifiableMap(snapshot);
+	}
+
+	/**
+	 * @return an attribute for the total time, rows, and bytes of each stage - e.g. "rowtodoc.metrics.query.millis"
+	 */
+	public Map<String, String> toAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		for (StageMetrics.Snapshot snapshot : snapshot().values()) {
+			final String prefix = ATTRIBUTE_PREFIX + snapshot.getName();
+			attributes.put(prefix + ".millis", String.valueOf(snapshot.getTotalMillis()));
+			attributes.put(prefix + ".rows", String.valueOf(snapshot.getRows()));
+			if (snapshot.getBytes() > 0) {
+				attributes.put(prefix + ".bytes", String.valueOf(snapshot.getBytes()));
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Adds the total time, rows, and bytes of each stage to the NiFi counters of the given session - e.g. "query rows".
+	 *
+	 * @param session
+	 */
+	public void adjustCounters(ProcessSession session) {
+		for (StageMetrics.Snapshot snapshot : snapshot().values()) {
+			session.adjustCounter(snapshot.getName() + " millis", snapshot.getTotalMillis(), false);
+			session.adjustCounter(snapshot.getName() + " rows", snapshot.getRows(), false);
+			if (snapshot.getBytes() > 0) {
+				session.adjustCounter(snapshot.getName() + " bytes", snapshot.getBytes(), false);
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return stages.isEmpty();
+	}
+}
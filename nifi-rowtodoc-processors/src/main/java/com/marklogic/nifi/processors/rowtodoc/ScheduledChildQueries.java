@@ -0,0 +1,144 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The child query executor and compiled child query plan of a processor that executes child queries - i.e.
+ * ExecuteChildQueriesOnColumnMaps and ExecuteSQLToDocuments. Both processors validate their child query JSON, set up
+ * the executor when they're scheduled, and shut it down when they're stopped via this class, so that the child queries
+ * behave the same in either processor.
+ * <p>
+ * The IN clause size, max concurrent child queries, and lookup table cache are read from the properties of
+ * ExecuteChildQueriesOnColumnMaps, which both processors support.
+ */
+public class ScheduledChildQueries {
+
+	private static final ObjectReader TABLE_QUERY_READER = new ObjectMapper().readerFor(TableQuery.class);
+
+	private final PropertyDescriptor dbcpServiceProperty;
+	private final PropertyDescriptor childQueryJsonProperty;
+
+	private volatile ChildQueryExecutor executor = new ChildQueryExecutor();
+	private ExecutorService executorService;
+	private volatile ChildQueryPlan plan;
+
+	/**
+	 * @param dbcpServiceProperty    the processor's property for the connection pool that parallel child queries
+	 *                               obtain their connections from
+	 * @param childQueryJsonProperty the processor's property for the child query JSON; if it's optional and not set,
+	 *                               there is no plan
+	 */
+	public ScheduledChildQueries(PropertyDescriptor dbcpServiceProperty, PropertyDescriptor childQueryJsonProperty) {
+		this.dbcpServiceProperty = dbcpServiceProperty;
+		this.childQueryJsonProperty = childQueryJsonProperty;
+	}
+
+	/**
+	 * Verifies that the child query JSON can be compiled into a plan, and that a lookup table cache is configured if the
+	 * plan has a lookup table, so that a processor with invalid child queries cannot be started.
+	 *
+	 * @param validationContext
+	 * @return an invalid result, or null if the child query JSON is valid or not set
+	 */
+	public ValidationResult validate(ValidationContext validationContext) {
+		final String childQueryJson = validationContext.getProperty(childQueryJsonProperty).getValue();
+		if (childQueryJson == null) {
+			return null;
+		}
+		try {
+			// The IN clause size only determines which queries are built up front, so it doesn't matter here
+			ChildQueryPlan plan = ChildQueryPlan.compile(readTableQuery(childQueryJson), 1);
+			if (plan.usesLookupTables() && !validationContext.getProperty(ExecuteChildQueriesOnColumnMaps.LOOKUP_TABLE_CACHE).isSet()) {
+				throw new IllegalArgumentException("A lookup table cache must be configured for child queries with a lookup table");
+			}
+			return null;
+		} catch (IllegalArgumentException | ProcessException e) {
+			return new ValidationResult.Builder()
+				.subject(childQueryJsonProperty.getName())
+				.input(childQueryJson)
+				.valid(false)
+				.explanation(e.getMessage())
+				.build();
+		}
+	}
+
+	/**
+	 * Builds the child query executor from the processor's properties - including the thread pool for running sibling
+	 * child queries in parallel - and compiles the child query JSON, if it's set.
+	 *
+	 * @param context
+	 * @param logger
+	 */
+	public void schedule(ProcessContext context, ComponentLog logger) {
+		JdbcStreamingOptions streamingOptions = JdbcStreamingOptions.fromContext(context);
+		logger.info("Initializing child query executor; " + streamingOptions);
+		ChildQueryExecutor executor = new ChildQueryExecutor();
+		executor.setStreamingOptions(streamingOptions);
+		executor.setInClauseSize(context.getProperty(ExecuteChildQueriesOnColumnMaps.IN_CLAUSE_SIZE).asInteger());
+
+		final int maxConcurrentChildQueries = context.getProperty(ExecuteChildQueriesOnColumnMaps.MAX_CONCURRENT_CHILD_QUERIES).asInteger();
+		if (maxConcurrentChildQueries > 1) {
+			logger.info("Max concurrent child queries: " + maxConcurrentChildQueries);
+			DBCPService dbcpService = context.getProperty(dbcpServiceProperty).asControllerService(DBCPService.class);
+			// The calling thread runs one of the child queries, so the pool needs one less thread than the max
+			executorService = Executors.newFixedThreadPool(maxConcurrentChildQueries - 1);
+			executor.enableParallelExecution(executorService, maxConcurrentChildQueries, dbcpService::getConnection);
+		}
+		executor.setLookupTableCache(context.getProperty(ExecuteChildQueriesOnColumnMaps.LOOKUP_TABLE_CACHE).asControllerService(LookupTableCache.class));
+		this.executor = executor;
+
+		final String childQueryJson = context.getProperty(childQueryJsonProperty).getValue();
+		if (childQueryJson != null) {
+			plan = executor.compile(readTableQuery(childQueryJson));
+			logger.info("Compiled child query plan:\n" + plan.describe());
+		} else {
+			plan = null;
+		}
+	}
+
+	/**
+	 * Shuts down the thread pool for parallel child queries, if there is one.
+	 */
+	public void stop() {
+		if (executorService != null) {
+			executorService.shutdown();
+			executorService = null;
+		}
+	}
+
+	public ChildQueryExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the plan compiled when the processor was scheduled, or null if no child query JSON is set
+	 */
+	public ChildQueryPlan getPlan() {
+		return plan;
+	}
+
+	/**
+	 * @param json
+	 * @return the child queries defined by the given JSON
+	 * @throws ProcessException if the JSON can't be read
+	 */
+	public static TableQuery readTableQuery(String json) {
+		try {
+			return TABLE_QUERY_READER.readValue(json);
+		} catch (IOException e) {
+			throw new ProcessException("Unable to read JSON for child queries: " + json, e);
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Populates child rows on a stream of parent rows without running a child query per batch of parents. Each child query
+ * is executed once, ordered by its foreign key, and its ResultSet is then read in step with the parent rows, which
+ * must be ordered by their primary key - see wrapWithOrderBy. Only the child rows for the current batch of parents
+ * are held in memory.
+ * <p>
+ * Only the first level of child queries is merged this way. A child row ordered by its foreign key is not ordered by
+ * its own primary key, so child queries below the first level are executed once per batch via ChildQueryExecutor.
+ * <p>
+ * Each merged child query has its own connection, as some drivers - e.g. MySQL when streaming - only allow one open
+ * ResultSet per connection. For the same reason, the child queries below the first level are executed on one more
+ * connection, as the ResultSet of every merged child query is still open while they run.
+ * <p>
+ * Child rows whose foreign key isn't in the same order as the parent rows' primary key - e.g. because the database
+ * sorts strings with a different collation - can't be merged, so they cause an IllegalStateException rather than
+ * being skipped.
+ */
+public class SortedMergeJoiner implements Closeable {
+
+	private final ChildQueryPlan parentPlan;
+	private final ChildQueryExecutor childQueryExecutor;
+	private final JdbcStreamingOptions streamingOptions;
+	private final LargeObjectStore largeObjects;
+	private final int dictionarySize;
+	private final List<ChildRowCursor> cursors = new ArrayList<>();
+
+	private Supplier<Connection> connectionSupplier;
+	// Only opened once a batch has child rows with child queries of their own
+	private Connection nestedConnection;
+	private boolean nestedOriginalAutoCommit = true;
+	private Object previousParentId;
+
+	public SortedMergeJoiner(ChildQueryPlan parentPlan, ChildQueryExecutor childQueryExecutor, JdbcStreamingOptions streamingOptions) {
+		this(parentPlan, childQueryExecutor, streamingOptions, null);
+	}
+
+	/**
+	 * @param parentPlan
+	 * @param childQueryExecutor
+	 * @param streamingOptions
+	 * @param largeObjects       optional; large LOB values in the merged child rows are streamed into it, and it's
+	 *                           then closed by this joiner - see the other constructor
+	 */
+	public SortedMergeJoiner(ChildQueryPlan parentPlan, ChildQueryExecutor childQueryExecutor, JdbcStreamingOptions streamingOptions,
+	                         LargeObjectStore largeObjects) {
+		this(parentPlan, childQueryExecutor, streamingOptions, largeObjects, 0);
+	}
+
+	/**
+	 * @param parentPlan
+	 * @param childQueryExecutor
+	 * @param streamingOptions
+	 * @param largeObjects       optional; large LOB values in the merged child rows are streamed into it. This must
+	 *                           be a store of its own rather than the one for the parent rows, as each cursor reads
+	 *                           one child row ahead, and that row belongs to a parent in the next batch. So the files
+	 *                           of the previous batch are deleted by attachChildRows, except for those rows, and every
+	 *                           file is deleted by close.
+	 * @param dictionarySize     if greater than zero, repeated values in the merged child rows are interned
+	 */
+	public SortedMergeJoiner(ChildQueryPlan parentPlan, ChildQueryExecutor childQueryExecutor, JdbcStreamingOptions streamingOptions,
+	                         LargeObjectStore largeObjects, int dictionarySize) {
+		this.parentPlan = parentPlan;
+		this.childQueryExecutor = childQueryExecutor;
+		this.streamingOptions = streamingOptions;
+		this.largeObjects = largeObjects;
+		this.dictionarySize = dictionarySize;
+		for (ChildQueryPlan childPlan : parentPlan.getChildPlans()) {
+			if (childPlan.getLookupTable() != null) {
+				throw new IllegalArgumentException("A merge join child query cannot be a lookup table; lookup table: " + childPlan.getLookupTable());
+			}
+		}
+	}
+
+	/**
+	 * Executes each first-level child query. Must be called before attachChildRows.
+	 *
+	 * @param connectionSupplier provides a connection for each first-level child query, and one for the child queries
+	 *                           below them
+	 * @throws SQLException
+	 */
+	public void open(Supplier<Connection> connectionSupplier) throws SQLException {
+		this.connectionSupplier = connectionSupplier;
+		for (ChildQueryPlan childPlan : parentPlan.getChildPlans()) {
+			ChildRowCursor cursor = new ChildRowCursor(childPlan);
+			cursors.add(cursor);
+			cursor.open(connectionSupplier.get());
+		}
+	}
+
+	/**
+	 * Wraps the given query so that its rows are ordered by the given columns.
+	 *
+	 * @param query
+	 * @param columnNames
+	 * @return
+	 */
+	public static String wrapWithOrderBy(String query, String... columnNames) {
+		StringBuilder sb = new StringBuilder("SELECT * FROM (").append(query).append(") rowtodoc_sorted ORDER BY ");
+		for (int i = 0; i < columnNames.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append("rowtodoc_sorted.").append(columnNames[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Adds the child rows to each of the given parent rows, which must continue in primary key order from the
+	 * previous call. The parent rows from the previous call must have been written by now, as the large objects in
+	 * their merged child rows are deleted.
+	 *
+	 * @param parentRows
+	 * @throws SQLException
+	 */
+	public void attachChildRows(List<Map<String, Object>> parentRows) throws SQLException {
+		if (largeObjects != null) {
+			// Only the row that each cursor has read ahead still needs its files
+			List<Object> pendingValues = new ArrayList<>();
+			for (ChildRowCursor cursor : cursors) {
+				if (cursor.nextRow != null) {
+					pendingValues.addAll(cursor.nextRow.values());
+				}
+			}
+			largeObjects.closeExcept(pendingValues);
+		}
+
+		List<List<Map<String, Object>>> batchChildRows = new ArrayList<>();
+		for (int i = 0; i < cursors.size(); i++) {
+			batchChildRows.add(new ArrayList<>());
+		}
+
+		final String[] primaryKeyColumns = parentPlan.getPrimaryKeyColumns();
+		for (Map<String, Object> parentRow : parentRows) {
+			final Object parentId = ParentIndex.getKey(parentRow, primaryKeyColumns);
+			if (parentId == null) {
+				// Databases differ on whether nulls sort first or last, and a null key can't have children anyway
+				continue;
+			}
+			if (previousParentId != null && KeyComparator.INSTANCE.compare(previousParentId, parentId) > 0) {
+				throw new IllegalStateException("Parent rows are not sorted by " + String.join(", ", primaryKeyColumns) + "; " +
+					parentId + " follows " + previousParentId);
+			}
+			previousParentId = parentId;
+
+			for (int i = 0; i < cursors.size(); i++) {
+				ChildRowCursor cursor = cursors.get(i);
+				List<Map<String, Object>> kids = cursor.nextChildRows(parentId);
+				if (!kids.isEmpty()) {
+					parentRow.put(cursor.childPlan.getPropertyName(), kids);
+					batchChildRows.get(i).addAll(kids);
+				}
+			}
+		}
+
+		for (int i = 0; i < cursors.size(); i++) {
+			ChildRowCursor cursor = cursors.get(i);
+			if (!cursor.childPlan.getChildPlans().isEmpty() && !batchChildRows.get(i).isEmpty()) {
+				childQueryExecutor.executeChildQueries(getNestedConnection(), cursor.childPlan, batchChildRows.get(i));
+			}
+		}
+	}
+
+	private Connection getNestedConnection() throws SQLException {
+		if (nestedConnection == null) {
+			nestedConnection = connectionSupplier.get();
+			nestedOriginalAutoCommit = streamingOptions.prepareConnection(nestedConnection);
+		}
+		return nestedConnection;
+	}
+
+	@Override
+	public void close() {
+		for (ChildRowCursor cursor : cursors) {
+			cursor.close();
+		}
+		cursors.clear();
+		if (nestedConnection != null) {
+			closeConnection(nestedConnection, nestedOriginalAutoCommit);
+			nestedConnection = null;
+		}
+		if (largeObjects != null) {
+			largeObjects.close();
+		}
+	}
+
+	private void closeConnection(Connection connection, boolean originalAutoCommit) {
+		streamingOptions.restoreConnection(connection, originalAutoCommit);
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	private class ChildRowCursor {
+
+		private final ChildQueryPlan childPlan;
+		private final RowMapper<Map<String, Object>> rowMapper = new ColumnRowMapper(largeObjects, dictionarySize);
+
+		private Connection connection;
+		private boolean originalAutoCommit = true;
+		private PreparedStatement preparedStatement;
+		private ResultSet resultSet;
+		private Map<String, Object> nextRow;
+		private Object previousChildKey;
+
+		ChildRowCursor(ChildQueryPlan childPlan) {
+			this.childPlan = childPlan;
+		}
+
+		void open(Connection connection) throws SQLException {
+			this.connection = connection;
+			this.originalAutoCommit = streamingOptions.prepareConnection(connection);
+			final String query = wrapWithOrderBy(childPlan.getQuery(), childPlan.getForeignKeyColumns());
+			preparedStatement = streamingOptions.prepareStatement(connection, query);
+			resultSet = preparedStatement.executeQuery();
+			advance();
+		}
+
+		/**
+		 * Skips any child rows whose foreign key precedes the given parent ID - i.e. child rows with no parent - and
+		 * then returns every child row whose foreign key equals the parent ID.
+		 *
+		 * @throws IllegalStateException if a child row's foreign key precedes the foreign key of the row before it
+		 */
+		List<Map<String, Object>> nextChildRows(Object parentId) throws SQLException {
+			List<Map<String, Object>> kids = new ArrayList<>();
+			final String[] foreignKeyColumns = childPlan.getForeignKeyColumns();
+			while (nextRow != null) {
+				final Object childKey = ParentIndex.getKey(nextRow, foreignKeyColumns);
+				if (childKey == null) {
+					// Databases differ on whether nulls sort first or last, and a null key has no parent anyway
+					advance();
+					continue;
+				}
+				if (previousChildKey != null && KeyComparator.INSTANCE.compare(previousChildKey, childKey) > 0) {
+					throw new IllegalStateException("Child rows of " + childPlan.getPropertyName() + " are not sorted by " +
+						String.join(", ", foreignKeyColumns) + "; " + childKey + " follows " + previousChildKey);
+				}
+				previousChildKey = childKey;
+				final int comparison = KeyComparator.INSTANCE.compare(childKey, parentId);
+				if (comparison > 0) {
+					break;
+				}
+				if (comparison == 0) {
+					kids.add(nextRow);
+				}
+				advance();
+			}
+			return kids;
+		}
+
+		private void advance() throws SQLException {
+			nextRow = resultSet.next() ? rowMapper.mapRow(resultSet, 0) : null;
+		}
+
+		void close() {
+			if (resultSet != null) {
+				try {
+					resultSet.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+			if (preparedStatement != null) {
+				try {
+					preparedStatement.close();
+				} catch (SQLException e) {
+					// ignore
+				}
+			}
+			if (connection != null) {
+				closeConnection(connection, originalAutoCommit);
+			}
+		}
+	}
+}
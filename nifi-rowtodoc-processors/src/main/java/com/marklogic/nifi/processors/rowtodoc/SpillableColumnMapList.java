@@ -0,0 +1,283 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of column maps, created by {@link ChildRowSpill}, that moves its rows to a temporary file once the spill
+ * decides that it's using too much memory. The file is a sequence of batches in the binary column maps format, each
+ * holding up to CHUNK_SIZE rows - or fewer if the rows are large - so that only one batch is in memory at a time when
+ * the rows are read back.
+ * <p>
+ * Rows can only be appended and then iterated; get is supported but has to read the spilled rows from the start of
+ * the file up to the requested row, unless the row hasn't been written yet. This intentionally does not
+ * implement RandomAccess, so that Jackson and the column maps encoder iterate it rather than calling get.
+ */
+public class SpillableColumnMapList extends AbstractList<Map<String, Object>> implements Closeable {
+
+	protected static final int CHUNK_SIZE = 256;
+
+	private final ChildRowSpill spill;
+
+	// Rows held in memory; after spilling, these are only the rows not yet written to the file
+	private List<Map<String, Object>> rows = new ArrayList<>();
+	private long memoryBytes;
+
+	private File file;
+	private OutputStream fileOutput;
+	private ColumnMapsEncoder encoder;
+	private int spilledChunkCount;
+	private int spilledRowCount;
+
+	protected SpillableColumnMapList(ChildRowSpill spill) {
+		this.spill = spill;
+	}
+
+	@Override
+	public boolean add(Map<String, Object> row) {
+		final long rowBytes = estimateSize(row);
+		rows.add(row);
+		memoryBytes += rowBytes;
+		spill.allocate(rowBytes);
+		try {
+			if (file == null) {
+				if (spill.shouldSpill(memoryBytes)) {
+					spillToFile();
+				}
+			} else if (rows.size() >= CHUNK_SIZE || memoryBytes >= spill.getChunkBytes()) {
+				writeChunk();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to write child rows to temporary file, cause: " + e.getMessage(), e);
+		}
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public void add(int index, Map<String, Object> row) {
+		if (index != size()) {
+			throw new UnsupportedOperationException("Rows can only be added to the end of a spillable list");
+		}
+		add(row);
+	}
+
+	private void spillToFile() throws IOException {
+		file = spill.createTempFile();
+		// Registered before the file is opened, so that closing the spill deletes it even if opening it fails
+		spill.registerSpilledList(this);
+		fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+		encoder = new ColumnMapsEncoder(fileOutput);
+		List<Map<String, Object>> inMemory = rows;
+		rows = new ArrayList<>();
+		for (int start = 0; start < inMemory.size(); start += CHUNK_SIZE) {
+			rows.addAll(inMemory.subList(start, Math.min(start + CHUNK_SIZE, inMemory.size())));
+			writeChunk();
+		}
+	}
+
+	private void writeChunk() throws IOException {
+		if (rows.isEmpty()) {
+			return;
+		}
+		encoder.writeBatch(rows);
+		spilledChunkCount++;
+		spilledRowCount += rows.size();
+		rows = new ArrayList<>();
+		spill.release(memoryBytes);
+		memoryBytes = 0;
+	}
+
+	/**
+	 * Estimates the number of bytes that the given row uses on the heap. This only has to be close enough to decide
+	 * when to spill. Nested lists of column maps are not counted, as they're accounted for by their own lists.
+	 *
+	 * @param row
+	 * @return
+	 */
+	protected static long estimateSize(Map<String, Object> row) {
+		long size = 64;
+		for (Map.Entry<String, Object> entry : row.entrySet()) {
+			size += 48 + 2L * entry.getKey().length();
+			final Object value = entry.getValue();
+			if (value instanceof String) {
+				size += 40 + 2L * ((String) value).length();
+			} else if (value instanceof byte[]) {
+				size += 16 + ((byte[]) value).length;
+			} else if (value instanceof BigDecimal) {
+				size += 64;
+			} else if (value != null) {
+				size += 24;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public int size() {
+		return spilledRowCount + rows.size();
+	}
+
+	@Override
+	public Map<String, Object> get(int index) {
+		if (file == null) {
+			return rows.get(index);
+		}
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+		}
+		if (index >= spilledRowCount) {
+			return rows.get(index - spilledRowCount);
+		}
+		flushFile();
+		// Unlike an iteration, which closes the file once it has been read, this stops partway through it
+		try (SpilledRowIterator iterator = new SpilledRowIterator()) {
+			for (int i = 0; i < index; i++) {
+				iterator.next();
+			}
+			return iterator.next();
+		}
+	}
+
+	@Override
+	public Iterator<Map<String, Object>> iterator() {
+		if (file == null) {
+			return rows.iterator();
+		}
+		flushFile();
+		return new SpilledRowIterator();
+	}
+
+	private void flushFile() {
+		try {
+			fileOutput.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to flush child rows to temporary file, cause: " + e.getMessage(), e);
+		}
+	}
+
+	public boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * @return true if any row has a single column map as a value, including in its nested lists; the rows that were
+	 * written to disk are not read back to check
+	 */
+	public boolean containsColumnMap() {
+		return (encoder != null && encoder.isColumnMapWritten()) || ColumnMapsEncoder.containsColumnMap(rows);
+	}
+
+	/**
+	 * Releases the memory accounted for by this list and deletes its temporary file, if it has one. The list is empty
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		spill.release(memoryBytes);
+		memoryBytes = 0;
+		rows = new ArrayList<>();
+		spilledRowCount = 0;
+		spilledChunkCount = 0;
+		if (fileOutput != null) {
+			try {
+				fileOutput.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			fileOutput = null;
+		}
+		if (file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+
+	/**
+	 * Reads the spilled rows back one chunk at a time, followed by the rows that haven't been written yet. Nested lists
+	 * of column maps are read into memory along with the chunk that contains them; they're not read into lists of the
+	 * spill, as a list is read back each time it's iterated and the spill would keep accounting for every copy.
+	 * <p>
+	 * The file is closed once the unwritten rows are reached; close must be called if the iteration stops before that.
+	 */
+	private class SpilledRowIterator implements Iterator<Map<String, Object>>, Closeable {
+
+		private final int chunkCount = spilledChunkCount;
+		private final List<Map<String, Object>> unwrittenRows = rows;
+		private int chunksRead;
+		private boolean readUnwrittenRows;
+		private InputStream fileInput;
+		private ColumnMapsDecoder decoder;
+		private Iterator<Map<String, Object>> current;
+
+		@Override
+		public boolean hasNext() {
+			while (current == null || !current.hasNext()) {
+				if (chunksRead < chunkCount) {
+					current = readChunk().iterator();
+				} else if (!readUnwrittenRows) {
+					closeInput();
+					readUnwrittenRows = true;
+					current = unwrittenRows.iterator();
+				} else {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Map<String, Object> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		private List<Map<String, Object>> readChunk() {
+			try {
+				if (fileInput == null) {
+					fileInput = new BufferedInputStream(new FileInputStream(file));
+					decoder = new ColumnMapsDecoder(fileInput);
+				}
+				List<Map<String, Object>> chunk = decoder.readBatch();
+				chunksRead++;
+				return chunk;
+			} catch (IOException e) {
+				closeInput();
+				throw new UncheckedIOException("Unable to read child rows from temporary file, cause: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void close() {
+			closeInput();
+		}
+
+		private void closeInput() {
+			if (fileInput != null) {
+				try {
+					fileInput.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				fileInput = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe metrics for one stage of converting rows to documents - e.g. the main query, a single child query, or
+ * writing JSON. Each call to record adds one execution of the stage, with its duration, the number of rows it
+ * produced, and the number of bytes it wrote.
+ * <p>
+ * Durations are also counted in a histogram with one bucket per power of two microseconds, so percentiles can be
+ * estimated - to within a factor of two - without keeping every duration.
+ */
+public class StageMetrics {
+
+	private static final int BUCKET_COUNT = 40;
+
+	private final String name;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_COUNT);
+
+	public StageMetrics(String name) {
+		this.name = name;
+	}
+
+	public void record(long nanos, long rowCount, long byteCount) {
+		count.increment();
+		rows.add(rowCount);
+		bytes.add(byteCount);
+		totalNanos.add(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+		histogram.incrementAndGet(bucketOf(nanos));
+	}
+
+	/**
+	 * Adds everything recorded by the given metrics to these metrics.
+	 *
+	 * @param other
+	 */
+	public void add(StageMetrics other) {
+		count.add(other.count.sum());
+		rows.add(other.rows.sum());
+		bytes.add(other.bytes.sum());
+		totalNanos.add(other.totalNanos.sum());
+		maxNanos.accumulateAndGet(other.maxNanos.get(), Math::max);
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			histogram.addAndGet(i, other.histogram.get(i));
+		}
+	}
+
+	protected static int bucketOf(long nanos) {
+		final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		final int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+
+	public Snapshot snapshot() {
+		long[] buckets = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = histogram.get(i);
+		}
+		return new Snapshot(name, count.sum(), rows.sum(), bytes.sum(), totalNanos.sum(), maxNanos.get(), buckets);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Immutable copy of the metrics of a stage at a point in time.
+	 */
+	public static class Snapshot {
+
+		private final String name;
+		private final long count;
+		private final long rows;
+		private final long bytes;
+		private final long totalNanos;
+		private final long maxNanos;
+		private final long[] buckets;
+
+		Snapshot(String name, long count, long rows, long bytes, long totalNanos, long maxNanos, long[] buckets) {
+			this.name = name;
+			this.count = count;
+			this.rows = rows;
+			this.bytes = bytes;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.buckets = buckets;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the upper bound of the histogram bucket containing the given percentile of durations, in
+		 * milliseconds
+		 */
+		public double getPercentileMillis(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			final long target = (long) Math.ceil(count * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= Math.max(target, 1)) {
+					// Bucket i holds durations below 2^i microseconds
+					return Math.min((1L << i) / 1000.0, getMaxMillis());
+				}
+			}
+			return getMaxMillis();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getTotalMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+		}
+
+		public double getMaxMillis() {
+			return maxNanos / 1000000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: count=%d, rows=%d, bytes=%d, total=%dms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+				name, count, rows, bytes, getTotalMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+		}
+	}
+}
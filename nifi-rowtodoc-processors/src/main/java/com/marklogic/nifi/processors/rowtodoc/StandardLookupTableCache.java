@@ -0,0 +1,164 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@Tags({"rowtodoc", "lookup", "cache", "database"})
+@CapabilityDescription("Loads lookup tables - small, rarely changing tables such as language, category, or store - into " +
+	"memory when enabled, so that a child query with a lookup table can embed a many-to-one relationship in each " +
+	"parent row without querying the database. Processors that use the same instance share one copy of each table.")
+public class StandardLookupTableCache extends AbstractControllerService implements LookupTableCache {
+
+	public static final PropertyDescriptor DBCP_SERVICE = new PropertyDescriptor.Builder()
+		.name("Database Connection Pooling Service")
+		.description("The Controller Service that is used to obtain connection to database")
+		.required(true)
+		.identifiesControllerService(DBCPService.class)
+		.build();
+
+	public static final PropertyDescriptor LOOKUP_TABLES_JSON = new PropertyDescriptor.Builder()
+		.name("Lookup tables JSON")
+		.description("JSON array of the lookup tables to load, each with a name, a query, and a primaryKeyColumnName - " +
+			"or primaryKeyColumnNames for a compound key - e.g. [{\"name\": \"language\", \"query\": \"select * from " +
+			"language\", \"primaryKeyColumnName\": \"language_id\"}]. A child query refers to a lookup table by its name.")
+		.required(true)
+		.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor MAX_ROWS_PER_TABLE = new PropertyDescriptor.Builder()
+		.name("Max rows per table")
+		.description("Maximum number of rows to hold for each lookup table. If a table has more rows, the least " +
+			"recently used rows are evicted as others are needed, and rows that aren't held are queried by key.")
+		.required(true)
+		.defaultValue("10000")
+		.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+		.build();
+
+	public static final PropertyDescriptor REFRESH_INTERVAL = new PropertyDescriptor.Builder()
+		.name("Refresh interval")
+		.description("Time - e.g. \"1 hour\" - after which a lookup table is reloaded from the database, so that " +
+			"changes to it are picked up. The table is reloaded by the first lookup after the interval has passed; if " +
+			"that fails, a warning is logged and the previous rows are used until the next interval has passed. If " +
+			"not set, each table is only loaded when this service is enabled.")
+		.required(false)
+		.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+		.build();
+
+	private static final List<PropertyDescriptor> PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+		DBCP_SERVICE, LOOKUP_TABLES_JSON, MAX_ROWS_PER_TABLE, REFRESH_INTERVAL));
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private volatile Map<String, CachedLookupTable> tables = Collections.emptyMap();
+
+	@Override
+	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+		return PROPERTIES;
+	}
+
+	/**
+	 * Verifies that every lookup table is defined, so that a service with invalid lookup tables cannot be enabled.
+	 *
+	 * @param validationContext
+	 * @return
+	 */
+	@Override
+	protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+		List<ValidationResult> results = new ArrayList<>();
+		final String lookupTablesJson = validationContext.getProperty(LOOKUP_TABLES_JSON).getValue();
+		if (lookupTablesJson != null) {
+			try {
+				readLookupTables(lookupTablesJson);
+			} catch (IllegalArgumentException e) {
+				results.add(new ValidationResult.Builder()
+					.subject(LOOKUP_TABLES_JSON.getName())
+					.input(lookupTablesJson)
+					.valid(false)
+					.explanation(e.getMessage())
+					.build());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Loads every lookup table, so that the first lookups don't have to wait for them.
+	 *
+	 * @param context
+	 */
+	@OnEnabled
+	public void loadLookupTables(ConfigurationContext context) {
+		final DBCPService dbcpService = context.getProperty(DBCP_SERVICE).asControllerService(DBCPService.class);
+		final int maxRows = context.getProperty(MAX_ROWS_PER_TABLE).asInteger();
+		final Long refreshInterval = context.getProperty(REFRESH_INTERVAL).asTimePeriod(TimeUnit.NANOSECONDS);
+
+		Map<String, CachedLookupTable> newTables = new LinkedHashMap<>();
+		for (LookupTable lookupTable : readLookupTables(context.getProperty(LOOKUP_TABLES_JSON).getValue())) {
+			CachedLookupTable table = new CachedLookupTable(lookupTable, maxRows, refreshInterval != null ? refreshInterval : 0,
+				dbcpService::getConnection, getLogger());
+			table.load();
+			getLogger().info("Loaded " + table.getRowCount() + " rows of lookup table " + lookupTable.getName() +
+				(table.isComplete() ? "" : "; table has more rows than can be held, so rows will be queried as needed"));
+			newTables.put(lookupTable.getName(), table);
+		}
+		tables = newTables;
+	}
+
+	@OnDisabled
+	public void clearLookupTables() {
+		tables = Collections.emptyMap();
+	}
+
+	@Override
+	public List<Map<String, Object>> lookup(String tableName, List<Object> keys) {
+		CachedLookupTable table = tables.get(tableName);
+		if (table == null) {
+			throw new IllegalArgumentException("No lookup table is named: " + tableName);
+		}
+		return table.lookup(keys);
+	}
+
+	/**
+	 * @param lookupTablesJson
+	 * @return
+	 * @throws IllegalArgumentException if the JSON can't be read, if any lookup table is invalid, or if two lookup
+	 *                                  tables have the same name
+	 */
+	protected static List<LookupTable> readLookupTables(String lookupTablesJson) {
+		LookupTable[] lookupTables;
+		try {
+			lookupTables = OBJECT_MAPPER.readerFor(LookupTable[].class).readValue(lookupTablesJson);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to read JSON for lookup tables, cause: " + e.getMessage(), e);
+		}
+		List<String> names = new ArrayList<>();
+		for (LookupTable lookupTable : lookupTables) {
+			lookupTable.validate();
+			if (names.contains(lookupTable.getName())) {
+				throw new IllegalArgumentException("More than one lookup table is named: " + lookupTable.getName());
+			}
+			names.add(lookupTable.getName());
+		}
+		return Arrays.asList(lookupTables);
+	}
+}
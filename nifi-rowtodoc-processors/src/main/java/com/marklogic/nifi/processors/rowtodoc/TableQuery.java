@@ -1,20 +1,36 @@
 package com.marklogic.nifi.processors.rowtodoc;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.ArrayList;
 import java.util.List;
 
 public class TableQuery {
 
 	private String query;
-	// TODO Support compound keys
 	private String primaryKeyColumnName;
 	private String propertyName;
 
 	// Optional - for child table
 	private String foreignKeyColumnName;
 
+	// Optional - for compound keys, in which case these are used instead of the single column names above
+	private List<String> primaryKeyColumnNames;
+	private List<String> foreignKeyColumnNames;
+
 	private List<TableQuery> childQueries = new ArrayList<>();
 
+	// Optional - defaults to an IN clause
+	private ChildJoinStrategy joinStrategy = ChildJoinStrategy.IN_CLAUSE;
+
+	// Optional - for the TEMP_TABLE and ARRAY join strategies
+	private String keyTable = "rowtodoc_parent_keys";
+	private String keyTableDdl;
+	private String keyType = "BIGINT";
+
+	// Optional - for a many-to-one relationship resolved from a LookupTableCache instead of a query
+	private String lookupTable;
+
 	public TableQuery() {
 		// Needed for JSON deserialization
 	}
@@ -49,4 +65,100 @@ public class TableQuery {
 	public List<TableQuery> getChildQueries() {
 		return childQueries;
 	}
+
+	public List<String> getPrimaryKeyColumnNames() {
+		return primaryKeyColumnNames;
+	}
+
+	public void setPrimaryKeyColumnNames(List<String> primaryKeyColumnNames) {
+		this.primaryKeyColumnNames = primaryKeyColumnNames;
+	}
+
+	public List<String> getForeignKeyColumnNames() {
+		return foreignKeyColumnNames;
+	}
+
+	public void setForeignKeyColumnNames(List<String> foreignKeyColumnNames) {
+		this.foreignKeyColumnNames = foreignKeyColumnNames;
+	}
+
+	/**
+	 * @return the columns of the primary key, whether it was defined via primaryKeyColumnName or
+	 * primaryKeyColumnNames
+	 */
+	@JsonIgnore
+	public String[] getPrimaryKeyColumns() {
+		return toColumnArray(primaryKeyColumnNames, primaryKeyColumnName);
+	}
+
+	/**
+	 * @return the columns of the foreign key, whether it was defined via foreignKeyColumnName or
+	 * foreignKeyColumnNames
+	 */
+	@JsonIgnore
+	public String[] getForeignKeyColumns() {
+		return toColumnArray(foreignKeyColumnNames, foreignKeyColumnName);
+	}
+
+	private static String[] toColumnArray(List<String> columnNames, String columnName) {
+		if (columnNames != null && !columnNames.isEmpty()) {
+			return columnNames.toArray(new String[0]);
+		}
+		return columnName != null ? new String[]{columnName} : new String[0];
+	}
+
+	public ChildJoinStrategy getJoinStrategy() {
+		return joinStrategy;
+	}
+
+	public void setJoinStrategy(ChildJoinStrategy joinStrategy) {
+		this.joinStrategy = joinStrategy;
+	}
+
+	public String getKeyTable() {
+		return keyTable;
+	}
+
+	public void setKeyTable(String keyTable) {
+		this.keyTable = keyTable;
+	}
+
+	/**
+	 * @return the DDL for creating the temporary table that parent keys are inserted into; the table must have a
+	 * column named "parent_key"
+	 */
+	public String getKeyTableDdl() {
+		if (keyTableDdl != null) {
+			return keyTableDdl;
+		}
+		return "CREATE TEMPORARY TABLE " + keyTable + " (parent_key " + keyType + ")";
+	}
+
+	public void setKeyTableDdl(String keyTableDdl) {
+		this.keyTableDdl = keyTableDdl;
+	}
+
+	/**
+	 * @return the SQL type of the parent keys, used for the temporary table column and for the array parameter
+	 */
+	public String getKeyType() {
+		return keyType;
+	}
+
+	public void setKeyType(String keyType) {
+		this.keyType = keyType;
+	}
+
+	/**
+	 * @return the name of a table in the lookup table cache; if set, this defines a many-to-one relationship in which
+	 * the foreign key columns are columns of the parent row, and the lookup table's row with that key is added to the
+	 * parent row as a single column map, without executing a query
+	 */
+	public String getLookupTable() {
+		return lookupTable;
+	}
+
+	public void setLookupTable(String lookupTable) {
+		this.lookupTable = lookupTable;
+	}
 }
@@ -0,0 +1,163 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachedLookupTableTest {
+
+	private List<Integer> tableQueryLimits = new ArrayList<>();
+	private List<List<Object>> keyQueries = new ArrayList<>();
+	private List<String> warnings = new ArrayList<>();
+	private boolean tableQueryFails;
+
+	@Test
+	public void wholeTableIsHeld() {
+		CachedLookupTable table = newTable(3, 10, 0);
+		table.load();
+		assertTrue(table.isComplete());
+		assertEquals(3, table.getRowCount());
+		assertEquals(Arrays.asList(11), tableQueryLimits);
+
+		// Integral keys match regardless of their type
+		List<Map<String, Object>> rows = table.lookup(Arrays.asList(1, 2L, null, 4, (short) 1));
+		assertEquals("English", rows.get(0).get("name"));
+		assertEquals("Italian", rows.get(1).get("name"));
+		assertNull(rows.get(2));
+		assertNull("A complete table has no row for a key that isn't found", rows.get(3));
+		assertSame(rows.get(0), rows.get(4));
+		assertTrue(keyQueries.isEmpty());
+	}
+
+	@Test
+	public void leastRecentlyUsedRowsAreEvicted() {
+		CachedLookupTable table = newTable(5, 2, 0);
+		table.load();
+		assertFalse(table.isComplete());
+		assertEquals(2, table.getRowCount());
+
+		List<Map<String, Object>> rows = table.lookup(Arrays.asList(1, 4, 5, 4));
+		assertEquals("English", rows.get(0).get("name"));
+		assertEquals("Language 4", rows.get(1).get("name"));
+		assertEquals("Language 5", rows.get(2).get("name"));
+		assertSame(rows.get(1), rows.get(3));
+		// The missing keys are queried once, together
+		assertEquals(Arrays.asList(Arrays.asList(4L, 5L)), keyQueries);
+		assertEquals(2, table.getRowCount());
+
+		// 4 and 5 were added last, so 1 was evicted
+		table.lookup(Arrays.asList(5, 1));
+		assertEquals(Arrays.asList(1L), keyQueries.get(1));
+	}
+
+	@Test
+	public void tableIsReloadedAfterRefreshInterval() throws Exception {
+		CachedLookupTable table = newTable(3, 10, 50000000);
+		table.load();
+		table.lookup(Arrays.asList(1));
+		assertEquals(1, tableQueryLimits.size());
+		Thread.sleep(100);
+		table.lookup(Arrays.asList(1));
+		assertEquals(2, tableQueryLimits.size());
+	}
+
+	@Test
+	public void failedReloadKeepsPreviousRows() throws Exception {
+		CachedLookupTable table = newTable(3, 10, 50000000);
+		table.load();
+		Thread.sleep(100);
+		tableQueryFails = true;
+		assertEquals("English", table.lookup(Arrays.asList(1)).get(0).get("name"));
+		assertEquals(2, tableQueryLimits.size());
+		assertEquals(1, warnings.size());
+		assertTrue(warnings.get(0), warnings.get(0).startsWith("Unable to reload lookup table language"));
+
+		// The reload isn't attempted again until the next interval has passed
+		assertEquals("Italian", table.lookup(Arrays.asList(2)).get(0).get("name"));
+		assertEquals(2, tableQueryLimits.size());
+		assertEquals(3, table.getRowCount());
+	}
+
+	@Test
+	public void invalidLookupTables() {
+		assertInvalid("[{\"name\": \"language\", \"primaryKeyColumnName\": \"language_id\"}]",
+			"A query must be defined for lookup table: language");
+		assertInvalid("[{\"name\": \"language\", \"query\": \"select * from language\"}]",
+			"A primary key column must be defined for lookup table: language");
+		String language = "{\"name\": \"language\", \"query\": \"select * from language\", \"primaryKeyColumnName\": \"language_id\"}";
+		assertInvalid("[" + language + ", " + language + "]", "More than one lookup table is named: language");
+
+		List<LookupTable> lookupTables = StandardLookupTableCache.readLookupTables("[" + language + "]");
+		assertEquals("language_id", lookupTables.get(0).getPrimaryKeyColumns()[0]);
+	}
+
+	private void assertInvalid(String json, String expectedMessage) {
+		try {
+			StandardLookupTableCache.readLookupTables(json);
+			fail("Expected the lookup tables to be invalid");
+		} catch (IllegalArgumentException ex) {
+			assertEquals(expectedMessage, ex.getMessage());
+		}
+	}
+
+	/**
+	 * @param rowCount     the number of rows in the table, the first two of which are English and Italian
+	 * @param maxRows
+	 * @param refreshNanos
+	 * @return
+	 */
+	private CachedLookupTable newTable(int rowCount, int maxRows, long refreshNanos) {
+		LookupTable lookupTable = new LookupTable("language", "select * from language", "language_id");
+		ComponentLog logger = (ComponentLog) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ComponentLog.class},
+			(proxy, method, args) -> {
+				if ("warn".equals(method.getName())) {
+					warnings.add((String) args[0]);
+				}
+				return null;
+			});
+		return new CachedLookupTable(lookupTable, maxRows, refreshNanos, () -> null, logger) {
+			@Override
+			protected List<Map<String, Object>> queryTable(int limit) {
+				tableQueryLimits.add(limit);
+				if (tableQueryFails) {
+					throw new RuntimeException("Unable to load lookup table language, cause: Connection refused");
+				}
+				List<Map<String, Object>> rows = new ArrayList<>();
+				for (int id = 1; id <= Math.min(rowCount, limit); id++) {
+					rows.add(newLanguage(id));
+				}
+				return rows;
+			}
+
+			@Override
+			protected List<Map<String, Object>> queryKeys(List<Object> keys) {
+				keyQueries.add(keys);
+				List<Map<String, Object>> rows = new ArrayList<>();
+				for (Object key : keys) {
+					rows.add(newLanguage(((Number) key).intValue()));
+				}
+				return rows;
+			}
+		};
+	}
+
+	private static Map<String, Object> newLanguage(int id) {
+		Map<String, Object> language = new LinkedCaseInsensitiveMap<>();
+		language.put("language_id", id);
+		language.put("name", id == 1 ? "English" : id == 2 ? "Italian" : "Language " + id);
+		return language;
+	}
+}
@@ -0,0 +1,382 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.controller.AbstractControllerService;
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.row;
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.rows;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChildQueryExecutorTest {
+
+	private ChildQueryExecutor executor = new ChildQueryExecutor();
+
+	@Test
+	public void constructQueryWithoutWhereClause() {
+		TableQuery query = new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals");
+		assertEquals("select * from Rental WHERE customer_id IN (?,?,?)", compileChildPlan(query).getInClauseQuery(3));
+	}
+
+	@Test
+	public void constructQueryWithWhereClause() {
+		TableQuery query = new TableQuery("select * from Rental where staff_id = 1", "rental_id", "customer_id", "rentals");
+		assertEquals("select * from Rental where staff_id = 1 AND customer_id IN (?)", compileChildPlan(query).getInClauseQuery(1));
+	}
+
+	@Test
+	public void constructQueryWithCompoundKey() {
+		TableQuery query = new TableQuery("select * from Line", null, null, "lines");
+		query.setForeignKeyColumnNames(Arrays.asList("order_id", "store_id"));
+		TableQuery orderQuery = new TableQuery(null, null, null, null);
+		orderQuery.setPrimaryKeyColumnNames(Arrays.asList("order_id", "store_id"));
+		orderQuery.addChildQuery(query);
+		assertEquals("select * from Line WHERE ((order_id = ? AND store_id = ?) OR (order_id = ? AND store_id = ?))",
+			executor.compile(orderQuery).getChildPlans().get(0).getInClauseQuery(2));
+	}
+
+	@Test
+	public void compoundKeyChunksAreLimitedByParameters() {
+		TableQuery query = new TableQuery("select * from Line", null, null, "lines");
+		query.setForeignKeyColumnNames(Arrays.asList("order_id", "store_id"));
+		TableQuery orderQuery = new TableQuery(null, null, null, null);
+		orderQuery.setPrimaryKeyColumnNames(Arrays.asList("order_id", "store_id"));
+		orderQuery.addChildQuery(query);
+		executor.setInClauseSize(5);
+		ChildQueryPlan plan = executor.compile(orderQuery).getChildPlans().get(0);
+		assertEquals(2, plan.getMaxKeyCount(5));
+
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> rows());
+		List<Object> orderKeys = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			orderKeys.add(new CompoundKey(new Object[]{i, 1}));
+		}
+		executor.executeChildQuery(database.newConnection(), plan, orderKeys);
+		assertEquals(3, database.getExecutedStatements().size());
+		for (List<Object> parameters : database.getExecutedParameters()) {
+			assertTrue(parameters.size() <= 5);
+		}
+		assertEquals(Arrays.asList(5, 1), database.getExecutedParameters().get(2));
+	}
+
+	@Test
+	public void invalidPlans() {
+		TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+		customerQuery.addChildQuery(new TableQuery("select * from Rental", null, null, "rentals"));
+		assertInvalid(customerQuery, "A foreign key column must be defined for child query: select * from Rental");
+
+		customerQuery = new TableQuery(null, null, null, null);
+		customerQuery.addChildQuery(new TableQuery("select * from Rental", null, "customer_id", "rentals"));
+		assertInvalid(customerQuery, "A primary key column must be defined for a query with child queries; query: null");
+
+		customerQuery = new TableQuery(null, "customer_id", null, null);
+		TableQuery rentalQuery = new TableQuery("select * from Rental", null, null, "rentals");
+		rentalQuery.setForeignKeyColumnNames(Arrays.asList("customer_id", "store_id"));
+		customerQuery.addChildQuery(rentalQuery);
+		assertInvalid(customerQuery, "The number of foreign key columns does not match the number of primary key " +
+			"columns of the parent query; child query: select * from Rental");
+	}
+
+	@Test
+	public void describePlan() {
+		TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+		TableQuery rentalQuery = new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals");
+		rentalQuery.addChildQuery(new TableQuery("select * from Payment", null, "rental_id", "payments"));
+		customerQuery.addChildQuery(rentalQuery);
+		assertEquals("Parent key: customer_id\n" +
+			"  rentals: select * from Rental [IN_CLAUSE on customer_id]\n" +
+			"    payments: select * from Payment [IN_CLAUSE on rental_id]", executor.compile(customerQuery).describe());
+	}
+
+	@Test
+	public void paddedParameterCounts() {
+		executor.setInClauseSize(100);
+		assertEquals(1, executor.getPaddedParameterCount(1));
+		assertEquals(4, executor.getPaddedParameterCount(3));
+		assertEquals(64, executor.getPaddedParameterCount(50));
+		assertEquals(100, executor.getPaddedParameterCount(65));
+		assertEquals(100, executor.getPaddedParameterCount(100));
+	}
+
+	@Test
+	public void parallelSiblingQueries() {
+		ChildQueryExecutor parallelExecutor = new ChildQueryExecutor() {
+			@Override
+			protected List<Map<String, Object>> executeChildQuery(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds) {
+				List<Map<String, Object>> childRows = new ArrayList<>();
+				for (Object parentId : parentIds) {
+					Map<String, Object> childRow = new LinkedCaseInsensitiveMap<>();
+					childRow.put("customer_id", parentId);
+					childRow.put("type", childPlan.getPropertyName());
+					childRows.add(childRow);
+				}
+				return childRows;
+			}
+		};
+
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			parallelExecutor.enableParallelExecution(executorService, 3, ChildQueryExecutorTest::newConnection);
+
+			TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+			for (String propertyName : new String[]{"rentals", "addresses", "notes", "loyalty"}) {
+				customerQuery.addChildQuery(new TableQuery("select * from " + propertyName, null, "customer_id", propertyName));
+			}
+
+			List<Map<String, Object>> customers = new ArrayList<>();
+			for (int i = 1; i <= 3; i++) {
+				Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+				customer.put("customer_id", i);
+				customers.add(customer);
+			}
+
+			parallelExecutor.executeChildQueries(null, customerQuery, customers);
+
+			for (Map<String, Object> customer : customers) {
+				for (String propertyName : new String[]{"rentals", "addresses", "notes", "loyalty"}) {
+					List<Map<String, Object>> kids = (List<Map<String, Object>>) customer.get(propertyName);
+					assertEquals(1, kids.size());
+					assertEquals(((Number) customer.get("customer_id")).longValue(), ((Number) kids.get(0).get("customer_id")).longValue());
+					assertEquals(propertyName, kids.get(0).get("type"));
+				}
+			}
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void parallelSiblingQueriesEachMapTheirResultSet() {
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> {
+			List<Map<String, Object>> childRows = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				childRows.add(row("id", i, "customer_id", parameters.get(0)));
+			}
+			return childRows;
+		});
+		// Both ResultSets advance in step, so a mapper shared by the two threads would lose its mapping on every row
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		database.withNextListener(sql -> barrier.await(10, TimeUnit.SECONDS));
+
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			ChildQueryExecutor parallelExecutor = new ChildQueryExecutor().withRowMapper(null, 10);
+			parallelExecutor.enableParallelExecution(executorService, 2, database::newConnection);
+			TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+			customerQuery.addChildQuery(new TableQuery("select * from Rental", null, "customer_id", "rentals"));
+			customerQuery.addChildQuery(new TableQuery("select * from Address", null, "customer_id", "addresses"));
+
+			List<Map<String, Object>> customers = rows(row("customer_id", 1));
+			parallelExecutor.executeChildQueries(database.newConnection(), customerQuery, customers);
+			assertEquals(10, ((List<?>) customers.get(0).get("rentals")).size());
+			assertEquals(10, ((List<?>) customers.get(0).get("addresses")).size());
+			assertEquals("The metadata of each ResultSet is read once", 2, database.getMetaDataCount());
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	@Test
+	public void rejectedChildQueryReleasesPermit() throws Exception {
+		ChildQueryExecutor parallelExecutor = new ChildQueryExecutor() {
+			@Override
+			protected List<Map<String, Object>> executeChildQuery(Connection connection, ChildQueryPlan childPlan, List<Object> parentIds) {
+				List<Map<String, Object>> childRows = new ArrayList<>();
+				for (Object parentId : parentIds) {
+					childRows.add(row("customer_id", parentId));
+				}
+				return childRows;
+			}
+		};
+
+		// Rejects the first task, like a pool that's being shut down, and then runs every other task
+		final ExecutorService pool = Executors.newSingleThreadExecutor();
+		final AtomicInteger submitCount = new AtomicInteger();
+		ExecutorService executorService = (ExecutorService) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class[]{ExecutorService.class}, (proxy, method, args) -> {
+				if ("submit".equals(method.getName()) && submitCount.incrementAndGet() == 1) {
+					throw new RejectedExecutionException("Rejected");
+				}
+				try {
+					return method.invoke(pool, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			});
+		try {
+			parallelExecutor.enableParallelExecution(executorService, 2, ChildQueryExecutorTest::newConnection);
+			TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+			customerQuery.addChildQuery(new TableQuery("select * from Rental", null, "customer_id", "rentals"));
+			customerQuery.addChildQuery(new TableQuery("select * from Address", null, "customer_id", "addresses"));
+
+			List<Map<String, Object>> customers = rows(row("customer_id", 1));
+			parallelExecutor.executeChildQueries(null, customerQuery, customers);
+			assertEquals(1, ((List<?>) customers.get(0).get("rentals")).size());
+
+			// The only permit was released, so the next batch can run a query in parallel again
+			customers = rows(row("customer_id", 2));
+			parallelExecutor.executeChildQueries(null, customerQuery, customers);
+			assertEquals(2, submitCount.get());
+			assertEquals(1, ((List<?>) customers.get(0).get("rentals")).size());
+			assertEquals(1, ((List<?>) customers.get(0).get("addresses")).size());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void lookupTable() {
+		TableQuery filmQuery = new TableQuery(null, null, null, null);
+		TableQuery languageQuery = new TableQuery(null, null, "language_id", "language");
+		languageQuery.setLookupTable("language");
+		filmQuery.addChildQuery(languageQuery);
+
+		// A query with only lookup tables doesn't need a primary key
+		ChildQueryPlan plan = executor.compile(filmQuery);
+		assertTrue(plan.usesLookupTables());
+		assertEquals("Parent key: \n  language: lookup table language [on language_id]", plan.describe());
+
+		Map<String, Object> english = new LinkedCaseInsensitiveMap<>();
+		english.put("language_id", 1);
+		english.put("name", "English");
+		executor.setLookupTableCache(new LookupTableCacheStub(english));
+
+		List<Map<String, Object>> films = new ArrayList<>();
+		for (int languageId = 1; languageId <= 2; languageId++) {
+			Map<String, Object> film = new LinkedCaseInsensitiveMap<>();
+			film.put("film_id", languageId);
+			film.put("language_id", languageId);
+			films.add(film);
+		}
+		executor.executeChildQueries(null, plan, films);
+		assertSame(english, films.get(0).get("language"));
+		assertFalse(films.get(1).containsKey("language"));
+
+		languageQuery.addChildQuery(new TableQuery("select * from Country", null, "language_id", "countries"));
+		assertInvalid(filmQuery, "A lookup table cannot have child queries; lookup table: language");
+	}
+
+	@Test
+	public void tempTableJoin() {
+		TableQuery query = new TableQuery("select * from Rental where rental_date > '2005-01-01'", "rental_id", "customer_id", "rentals");
+		query.setJoinStrategy(ChildJoinStrategy.TEMP_TABLE);
+		ChildQueryPlan plan = compileChildPlan(query);
+		assertEquals("select * from Rental where rental_date > '2005-01-01' AND customer_id IN (SELECT parent_key FROM rowtodoc_parent_keys)",
+			plan.getKeyQuery());
+		assertEquals("CREATE TEMPORARY TABLE rowtodoc_parent_keys (parent_key BIGINT)", plan.getKeyTableDdl());
+
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> rows(row("rental_id", 10, "customer_id", 1)));
+		executor.setInClauseSize(2);
+		List<Map<String, Object>> rentals = executor.executeChildQuery(database.newConnection(), plan, new ArrayList<>(Arrays.asList(1, 2, null, 3)));
+		assertEquals(1, rentals.size());
+		assertEquals(Arrays.asList(plan.getKeyTableDdl(),
+			"INSERT INTO rowtodoc_parent_keys (parent_key) VALUES (?)",
+			"INSERT INTO rowtodoc_parent_keys (parent_key) VALUES (?)",
+			"INSERT INTO rowtodoc_parent_keys (parent_key) VALUES (?)",
+			plan.getKeyQuery(),
+			"DROP TABLE rowtodoc_parent_keys"), database.getExecutedStatements());
+		assertEquals(Arrays.asList(3), database.getExecutedParameters().get(3));
+	}
+
+	@Test
+	public void tempTableDropFails() {
+		TableQuery query = new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals");
+		query.setJoinStrategy(ChildJoinStrategy.TEMP_TABLE);
+		ChildQueryPlan plan = compileChildPlan(query);
+
+		// The next batch on the same pooled connection couldn't create the table again, so the batch fails
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> rows()).failOn("DROP TABLE");
+		try {
+			executor.executeChildQuery(database.newConnection(), plan, new ArrayList<>(Arrays.asList(1, 2)));
+			fail("Expected the key table to not be dropped");
+		} catch (RuntimeException ex) {
+			assertEquals("Unable to drop key table rowtodoc_parent_keys, cause: Failed: DROP TABLE rowtodoc_parent_keys",
+				ex.getCause().getMessage());
+		}
+
+		// A failed child query is what's thrown, with the failed drop suppressed
+		database = new FakeDatabase((sql, parameters) -> rows()).failOn("select").failOn("DROP TABLE");
+		try {
+			executor.executeChildQuery(database.newConnection(), plan, new ArrayList<>(Arrays.asList(1, 2)));
+			fail("Expected the child query to fail");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getCause().getMessage().startsWith("Failed: select * from Rental"));
+			assertEquals(1, ex.getCause().getSuppressed().length);
+		}
+	}
+
+	@Test
+	public void arrayJoin() {
+		TableQuery query = new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals");
+		query.setJoinStrategy(ChildJoinStrategy.ARRAY);
+		query.setKeyType("INTEGER");
+		ChildQueryPlan plan = compileChildPlan(query);
+		assertEquals("select * from Rental WHERE customer_id = ANY (?)", plan.getKeyQuery());
+		assertEquals("INTEGER", plan.getKeyType());
+
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> rows(row("rental_id", 10, "customer_id", 1)));
+		executor.setInClauseSize(2);
+		executor.executeChildQuery(database.newConnection(), plan, new ArrayList<>(Arrays.asList(1, 2, null, 3)));
+		assertEquals(Arrays.asList(plan.getKeyQuery()), database.getExecutedStatements());
+		assertArrayEquals("Every key is bound as one array, regardless of the IN clause size",
+			new Object[]{1, 2, 3}, (Object[]) database.getExecutedParameters().get(0).get(0));
+	}
+
+	private ChildQueryPlan compileChildPlan(TableQuery childTableQuery) {
+		TableQuery parentTableQuery = new TableQuery(null, childTableQuery.getForeignKeyColumnName(), null, null);
+		parentTableQuery.addChildQuery(childTableQuery);
+		return executor.compile(parentTableQuery).getChildPlans().get(0);
+	}
+
+	private void assertInvalid(TableQuery tableQuery, String expectedMessage) {
+		try {
+			executor.compile(tableQuery);
+			fail("Expected the plan to be invalid");
+		} catch (IllegalArgumentException ex) {
+			assertEquals(expectedMessage, ex.getMessage());
+		}
+	}
+
+	private static Connection newConnection() {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+			(proxy, method, args) -> "getAutoCommit".equals(method.getName()) ? Boolean.TRUE : null);
+	}
+
+	private static class LookupTableCacheStub extends AbstractControllerService implements LookupTableCache {
+
+		private final Map<String, Object> english;
+
+		LookupTableCacheStub(Map<String, Object> english) {
+			this.english = english;
+		}
+
+		@Override
+		public List<Map<String, Object>> lookup(String tableName, List<Object> keys) {
+			assertEquals("language", tableName);
+			List<Map<String, Object>> rows = new ArrayList<>();
+			for (Object key : keys) {
+				rows.add(Integer.valueOf(1).equals(key) ? english : null);
+			}
+			return rows;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnMapJsonWriterTest {
+
+	@Test
+	public void sameOutputAsObjectMapper() throws Exception {
+		ObjectMapper objectMapper = ConvertColumnMapsToJSON.newObjectMapper("yyyy-MM-dd");
+		ColumnMapJsonWriter writer = new ColumnMapJsonWriter(objectMapper, "yyyy-MM-dd", null, null);
+
+		Map<String, Object> customer = newCustomer(1);
+		Map<String, Object> otherCustomer = newCustomer(2);
+		// A value of a different class than the column's first value
+		otherCustomer.put("store_id", 2L);
+		otherCustomer.put("email", null);
+
+		for (Map<String, Object> columnMap : Arrays.asList(customer, otherCustomer, customer)) {
+			assertEquals(objectMapper.writeValueAsString(columnMap), writer.writeValueAsString(columnMap));
+		}
+	}
+
+	@Test
+	public void timestampAndTimeFormats() throws Exception {
+		ObjectMapper objectMapper = ConvertColumnMapsToJSON.newObjectMapper(null);
+		ColumnMapJsonWriter writer = new ColumnMapJsonWriter(objectMapper, null, "yyyy-MM-dd'T'HH:mm:ss.SSSSSS", "HH:mm");
+
+		Map<String, Object> columnMap = new LinkedCaseInsensitiveMap<>();
+		for (int i = 0; i < 2; i++) {
+			Timestamp timestamp = Timestamp.valueOf(LocalDateTime.of(2018, 9, 1, 14, 30, 15, 123456000 + i * 1000));
+			columnMap.put("last_update", timestamp);
+			columnMap.put("opens_at", Time.valueOf(LocalTime.of(9, 15)));
+			// The memo is keyed by nanoseconds as well as milliseconds, so timestamps within the same millisecond differ
+			assertEquals("{\"last_update\":\"2018-09-01T14:30:15.12345" + (6 + i) + "\",\"opens_at\":\"09:15\"}",
+				writer.writeValueAsString(columnMap));
+		}
+	}
+
+	private Map<String, Object> newCustomer(int id) {
+		Map<String, Object> payment = new LinkedCaseInsensitiveMap<>();
+		payment.put("payment_id", (long) id);
+		payment.put("amount", new BigDecimal("2.99"));
+		payment.put("payment_date", new Timestamp(1535836481720L));
+
+		List<Map<String, Object>> payments = new ArrayList<>();
+		payments.add(payment);
+		payments.add(payment);
+
+		Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+		customer.put("customer_id", id);
+		customer.put("store_id", (short) 1);
+		customer.put("first_name", "MARY");
+		customer.put("email", "mary@example.org");
+		customer.put("active", true);
+		customer.put("score", 4.5d);
+		customer.put("rank", 2.5f);
+		customer.put("balance", new BigInteger("12345678901234567890"));
+		customer.put("create_date", new Date(1535836481720L));
+		customer.put("opens_at", new Time(1535836481720L));
+		customer.put("updated", new java.util.Date(1535836481720L));
+		customer.put("picture", new byte[]{1, 2, 3});
+		customer.put("external_id", new UUID(1, 2));
+		customer.put("tags", Arrays.asList("a", 1, null));
+		customer.put("payments", payments);
+		return customer;
+	}
+}
@@ -0,0 +1,56 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnMapXmlWriterTest {
+
+	@Test
+	public void nestedChildRows() throws Exception {
+		Map<String, Object> payment = new LinkedHashMap<>();
+		payment.put("amount", new BigDecimal("2.99"));
+
+		Map<String, Object> rental = new LinkedHashMap<>();
+		rental.put("rental_id", 76);
+		rental.put("payments", new ArrayList<>(Arrays.asList(payment)));
+
+		Map<String, Object> customer = new LinkedHashMap<>();
+		customer.put("customer_id", 1);
+		customer.put("first name", "MARY & <co");
+		customer.put("email", null);
+		customer.put("create_date", new Date(1535836481720L));
+		customer.put("rentals", new ArrayList<>(Arrays.asList(rental)));
+
+		ColumnMapXmlWriter writer = new ColumnMapXmlWriter("customer", "item", null, "MM/dd/yyyy");
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><customer><customer_id>1</customer_id>" +
+				"<first_name>MARY &amp; &lt;co</first_name><email/><create_date>09/01/2018</create_date>" +
+				"<rentals><item><rental_id>76</rental_id><payments><item><amount>2.99</amount></item></payments></item></rentals>" +
+				"</customer>",
+			write(writer, customer));
+	}
+
+	@Test
+	public void namespace() throws Exception {
+		Map<String, Object> columnMap = new LinkedHashMap<>();
+		columnMap.put("1st", "a");
+		ColumnMapXmlWriter writer = new ColumnMapXmlWriter("row", "item", "org:example", null);
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><row xmlns=\"org:example\"><_st>a</_st></row>",
+			write(writer, columnMap));
+	}
+
+	private String write(ColumnMapXmlWriter writer, Map<String, Object> columnMap) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(columnMap, out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,247 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnMapsCodecTest {
+
+	@Test
+	public void roundTrip() throws Exception {
+		Timestamp lastUpdate = new Timestamp(1535836481720L);
+		lastUpdate.setNanos(123456789);
+
+		Map<String, Object> payment = new LinkedCaseInsensitiveMap<>();
+		payment.put("payment_id", 1L);
+		payment.put("amount", new BigDecimal("2.99"));
+
+		Map<String, Object> rental = new LinkedCaseInsensitiveMap<>();
+		rental.put("rental_id", 76);
+		rental.put("payments", new ArrayList<>(Arrays.asList(payment)));
+
+		Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+		customer.put("customer_id", 1);
+		customer.put("first_name", "MARY");
+		customer.put("email", null);
+		customer.put("active", true);
+		customer.put("store_id", (short) 1);
+		customer.put("create_date", new Date(1535836481720L));
+		customer.put("last_update", lastUpdate);
+		customer.put("picture", new byte[]{1, 2, 3});
+		customer.put("rentals", new ArrayList<>(Arrays.asList(rental)));
+
+		Map<String, Object> customerWithoutRentals = new LinkedCaseInsensitiveMap<>();
+		customerWithoutRentals.put("customer_id", -2);
+		customerWithoutRentals.put("first_name", "PATRICIA");
+
+		List<Map<String, Object>> columnMaps = roundTrip(Arrays.asList(customer, customerWithoutRentals));
+		assertEquals(2, columnMaps.size());
+
+		Map<String, Object> result = columnMaps.get(0);
+		assertEquals(1, result.get("CUSTOMER_ID"));
+		assertEquals("MARY", result.get("first_name"));
+		assertTrue(result.containsKey("email"));
+		assertNull(result.get("email"));
+		assertEquals(true, result.get("active"));
+		assertEquals((short) 1, result.get("store_id"));
+		assertEquals(new Date(1535836481720L), result.get("create_date"));
+		assertEquals(lastUpdate, result.get("last_update"));
+		assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) result.get("picture"));
+
+		List<Map<String, Object>> rentals = (List<Map<String, Object>>) result.get("rentals");
+		assertEquals(76, rentals.get(0).get("rental_id"));
+		List<Map<String, Object>> payments = (List<Map<String, Object>>) rentals.get(0).get("payments");
+		assertEquals(1L, payments.get(0).get("payment_id"));
+		assertEquals(new BigDecimal("2.99"), payments.get(0).get("amount"));
+
+		result = columnMaps.get(1);
+		assertEquals(2, result.size());
+		assertEquals(-2, result.get("customer_id"));
+		assertFalse(result.containsKey("rentals"));
+	}
+
+	@Test
+	public void emptyList() throws Exception {
+		assertTrue(roundTrip(new ArrayList<>()).isEmpty());
+	}
+
+	@Test
+	public void readIncrementally() throws Exception {
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Map<String, Object> columnMap = new LinkedCaseInsensitiveMap<>();
+			columnMap.put("id", i);
+			columnMaps.add(columnMap);
+		}
+
+		List<Object> ids = new ArrayList<>();
+		new ColumnMapsDecoder(new ByteArrayInputStream(encode(columnMaps))).readColumnMaps(columnMap -> ids.add(columnMap.get("id")));
+		assertEquals(Arrays.asList(0, 1, 2), ids);
+	}
+
+	@Test
+	public void magicNumber() throws Exception {
+		byte[] bytes = encode(new ArrayList<>());
+		assertTrue(ColumnMapsFormat.isBinary(bytes, bytes.length));
+		byte[] javaSerialized = {(byte) 0xAC, (byte) 0xED, 0, 5};
+		assertFalse(ColumnMapsFormat.isBinary(javaSerialized, javaSerialized.length));
+	}
+
+	@Test
+	public void dictionaryEncoding() throws Exception {
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			List<Map<String, Object>> payments = new ArrayList<>();
+			for (int j = 0; j < 10; j++) {
+				Map<String, Object> payment = new LinkedCaseInsensitiveMap<>();
+				payment.put("payment_id", i * 10 + j);
+				payment.put("amount", new BigDecimal(j % 2 == 0 ? "2.99" : "4.99"));
+				payment.put("status", j % 3 == 0 ? "REFUNDED" : "PAID");
+				payment.put("reference", "REF-" + i + "-" + j);
+				payments.add(payment);
+			}
+			Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+			customer.put("customer_id", i);
+			customer.put("country", "Brazil");
+			// A column whose values aren't all of the same class
+			customer.put("code", i % 2 == 0 ? "A" : new BigDecimal("1"));
+			customer.put("last_update", new Timestamp(1535836481720L));
+			customer.put("payments", payments);
+			columnMaps.add(customer);
+		}
+
+		byte[] plain = encode(columnMaps);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnMapsWriter(columnMaps, ColumnMapsFormat.BINARY, ColumnMapsCompression.NONE, 100).process(out);
+		byte[] encoded = out.toByteArray();
+		assertEquals(ColumnMapsFormat.VERSION_1, plain[ColumnMapsFormat.MAGIC.length]);
+		assertEquals(ColumnMapsFormat.VERSION, encoded[ColumnMapsFormat.MAGIC.length]);
+		assertTrue("Dictionary encoding should be smaller: " + encoded.length + " vs " + plain.length, encoded.length < plain.length);
+
+		List<Map<String, Object>> results = new ColumnMapsDecoder(new ByteArrayInputStream(encoded)).readColumnMaps();
+		assertEquals(roundTrip(columnMaps).toString(), results.toString());
+
+		// Repeated values are read as a single instance, including in the child rows of different parents
+		Map<String, Object> first = results.get(0);
+		Map<String, Object> last = results.get(19);
+		assertSame(first.get("country"), last.get("country"));
+		assertSame(first.get("last_update"), last.get("last_update"));
+		assertEquals("A", results.get(18).get("code"));
+		assertEquals(new BigDecimal("1"), last.get("code"));
+		Map<String, Object> firstPayment = ((List<Map<String, Object>>) first.get("payments")).get(0);
+		Map<String, Object> lastPayment = ((List<Map<String, Object>>) last.get("payments")).get(6);
+		assertSame(firstPayment.get("status"), lastPayment.get("status"));
+		assertSame(firstPayment.get("amount"), lastPayment.get("amount"));
+		assertEquals("REF-19-6", lastPayment.get("reference"));
+	}
+
+	@Test
+	public void dictionaryWithLargeObjectStoreClosedPerDocument() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			sb.append("Repeated description ");
+		}
+		final String description = sb.toString();
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Map<String, Object> film = new LinkedCaseInsensitiveMap<>();
+			film.put("film_id", i);
+			film.put("description", description);
+			columnMaps.add(film);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnMapsWriter(columnMaps, ColumnMapsFormat.BINARY, ColumnMapsCompression.NONE, 100).process(out);
+
+		// As when converting each column map to a document, the store is closed once each column map is consumed
+		List<Object> descriptions = new ArrayList<>();
+		try (LargeObjectStore largeObjects = new LargeObjectStore(100, null)) {
+			new ColumnMapsDecoder(new ByteArrayInputStream(out.toByteArray()), null, largeObjects).readColumnMaps(columnMap -> {
+				descriptions.add(columnMap.get("description"));
+				largeObjects.close();
+			});
+			assertEquals(0, largeObjects.getFileCount());
+		}
+		assertEquals(Arrays.asList(description, description, description), descriptions);
+	}
+
+	@Test
+	public void singleColumnMap() throws Exception {
+		Map<String, Object> language = new LinkedCaseInsensitiveMap<>();
+		language.put("language_id", 1);
+		language.put("name", "English");
+
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Map<String, Object> film = new LinkedCaseInsensitiveMap<>();
+			film.put("film_id", i);
+			film.put("language", language);
+			columnMaps.add(film);
+		}
+
+		// Version 1 has no tag for a single column map, so version 2 is written even without dictionaries
+		byte[] bytes = encode(columnMaps);
+		assertEquals(ColumnMapsFormat.VERSION, bytes[ColumnMapsFormat.MAGIC.length]);
+		assertEquals(language, roundTrip(columnMaps).get(1).get("language"));
+
+		Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+		customer.put("customer_id", 1);
+		customer.put("films", columnMaps);
+		assertEquals(ColumnMapsFormat.VERSION, encode(Arrays.asList(customer))[ColumnMapsFormat.MAGIC.length]);
+		customer.put("films", Arrays.asList(Collections.singletonMap("film_id", 1)));
+		assertEquals(ColumnMapsFormat.VERSION_1, encode(Arrays.asList(customer))[ColumnMapsFormat.MAGIC.length]);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnMapsWriter(columnMaps, ColumnMapsFormat.BINARY, ColumnMapsCompression.NONE, 100).process(out);
+		List<Map<String, Object>> results = new ColumnMapsDecoder(new ByteArrayInputStream(out.toByteArray())).readColumnMaps();
+		Map<String, Object> result = (Map<String, Object>) results.get(1).get("language");
+		assertEquals(language, result);
+		assertSame(((Map<String, Object>) results.get(0).get("language")).get("name"), result.get("name"));
+	}
+
+	@Test
+	public void dictionaryStopsAtMaxSize() {
+		ColumnDictionary dictionary = new ColumnDictionary(2);
+		assertTrue(dictionary.add("a"));
+		assertFalse("Only values of the first value's class are added", dictionary.add(new BigDecimal("1")));
+		assertFalse("Integers aren't eligible", dictionary.add(1));
+		assertTrue(dictionary.add("b"));
+		assertEquals(1, dictionary.indexOf("b"));
+
+		String a = new String("a");
+		assertNotSame(a, dictionary.intern(a));
+		assertFalse(dictionary.isFull());
+		assertSame("c", dictionary.intern("c"));
+		assertTrue(dictionary.isFull());
+		assertEquals("A full dictionary is no longer used", -1, dictionary.indexOf("a"));
+		assertSame(a, dictionary.intern(a));
+	}
+
+	private List<Map<String, Object>> roundTrip(List<Map<String, Object>> columnMaps) throws Exception {
+		return new ColumnMapsDecoder(new ByteArrayInputStream(encode(columnMaps))).readColumnMaps();
+	}
+
+	private byte[] encode(List<Map<String, Object>> columnMaps) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnMapsWriter(columnMaps).process(out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,102 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnMapsCompressionTest {
+
+	@Test
+	public void columnMapsRoundTrip() throws Exception {
+		List<Map<String, Object>> columnMaps = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			Map<String, Object> columnMap = new LinkedCaseInsensitiveMap<>();
+			columnMap.put("payment_id", i);
+			columnMap.put("customer_id", i % 50);
+			columnMap.put("amount", new BigDecimal("2.99"));
+			columnMap.put("status", i % 3 == 0 ? "RETURNED" : "RENTED");
+			columnMaps.add(columnMap);
+		}
+
+		final int uncompressedSize = write(columnMaps, ColumnMapsCompression.NONE).length;
+		for (ColumnMapsCompression compression : new ColumnMapsCompression[]{ColumnMapsCompression.LZ, ColumnMapsCompression.DEFLATE}) {
+			byte[] bytes = write(columnMaps, compression);
+			assertTrue(compression + " should at least halve the size", bytes.length * 2 < uncompressedSize);
+
+			List<Map<String, Object>> result;
+			try (InputStream in = compression.decompress(new ByteArrayInputStream(bytes))) {
+				result = new ColumnMapsDecoder(in).readColumnMaps();
+			}
+			assertEquals(5000, result.size());
+			assertEquals(4999, result.get(4999).get("PAYMENT_ID"));
+			assertEquals("RENTED", result.get(4999).get("status"));
+		}
+	}
+
+	@Test
+	public void lzRoundTrip() throws Exception {
+		Random random = new Random(42);
+		byte[] randomBytes = new byte[100 * 1024];
+		random.nextBytes(randomBytes);
+		assertLzRoundTrip(randomBytes);
+
+		// Long runs exercise overlapping matches and multi-byte lengths, and span more than one block
+		byte[] repetitive = new byte[200 * 1024];
+		for (int i = 0; i < repetitive.length; i++) {
+			repetitive[i] = (byte) (i % 1000 < 700 ? 'a' : i % 7);
+		}
+		assertTrue(assertLzRoundTrip(repetitive) < repetitive.length / 10);
+
+		assertLzRoundTrip(new byte[0]);
+		assertLzRoundTrip(new byte[]{1, 2, 3});
+	}
+
+	@Test
+	public void fromAttribute() {
+		assertEquals(ColumnMapsCompression.NONE, ColumnMapsCompression.fromAttribute(null));
+		assertEquals(ColumnMapsCompression.LZ, ColumnMapsCompression.fromAttribute("LZ"));
+	}
+
+	/**
+	 * @return the compressed size
+	 */
+	private int assertLzRoundTrip(byte[] bytes) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (OutputStream out = ColumnMapsCompression.LZ.compress(baos)) {
+			// Write in uneven pieces to cross block boundaries mid-write
+			for (int offset = 0; offset < bytes.length; offset += 3001) {
+				out.write(bytes, offset, Math.min(3001, bytes.length - offset));
+			}
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = ColumnMapsCompression.LZ.decompress(new ByteArrayInputStream(baos.toByteArray()))) {
+			byte[] buffer = new byte[5000];
+			int count;
+			while ((count = in.read(buffer)) >= 0) {
+				result.write(buffer, 0, count);
+			}
+		}
+		assertArrayEquals(bytes, result.toByteArray());
+		return baos.size();
+	}
+
+	private byte[] write(List<Map<String, Object>> columnMaps, ColumnMapsCompression compression) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ColumnMapsWriter(columnMaps, ColumnMapsFormat.BINARY, compression).process(out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,78 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnRowTest {
+
+	private ColumnIndex columnIndex = new ColumnIndex(new String[]{"customer_id", "FIRST_NAME", "email"});
+
+	@Test
+	public void caseInsensitiveLookup() {
+		ColumnRow row = new ColumnRow(columnIndex, new Object[]{1, "MARY", null});
+		assertEquals(1, row.get("CUSTOMER_ID"));
+		assertEquals("MARY", row.get("first_name"));
+		assertTrue(row.containsKey("Email"));
+		assertNull(row.get("email"));
+		assertFalse(row.containsKey("rentals"));
+		assertEquals(3, row.size());
+	}
+
+	@Test
+	public void additionalValuesAndRemoval() {
+		ColumnRow row = new ColumnRow(columnIndex, new Object[]{1, "MARY", null});
+		row.put("rentals", new ArrayList<>());
+		row.remove("email");
+
+		assertEquals(3, row.size());
+		assertFalse(row.containsKey("email"));
+		assertTrue(row.containsKey("RENTALS"));
+		assertEquals(Arrays.asList("customer_id", "FIRST_NAME", "rentals"), new ArrayList<>(row.keySet()));
+
+		row.put("EMAIL", "mary@example.org");
+		assertEquals(4, row.size());
+		assertEquals("mary@example.org", row.get("email"));
+	}
+
+	@Test
+	public void equalToEquivalentMap() {
+		ColumnRow row = new ColumnRow(columnIndex, new Object[]{1, "MARY", null});
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("customer_id", 1);
+		map.put("FIRST_NAME", "MARY");
+		map.put("email", null);
+		assertEquals(map, row);
+	}
+
+	@Test
+	public void javaSerializationWritesLinkedCaseInsensitiveMap() throws Exception {
+		ColumnRow row = new ColumnRow(columnIndex, new Object[]{1, "MARY", null});
+		List<Map<String, Object>> rows = new ArrayList<>();
+		rows.add(row);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(rows);
+		}
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+			Map<String, Object> result = ((List<Map<String, Object>>) ois.readObject()).get(0);
+			assertTrue(result instanceof LinkedCaseInsensitiveMap);
+			assertEquals("MARY", result.get("first_name"));
+		}
+	}
+}
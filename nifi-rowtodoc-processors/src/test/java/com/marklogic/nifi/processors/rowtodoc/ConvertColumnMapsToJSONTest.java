@@ -0,0 +1,94 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.util.MockProcessContext;
+import org.apache.nifi.util.MockProcessorInitializationContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConvertColumnMapsToJSONTest {
+
+	private ConvertColumnMapsToJSON processor;
+
+	@Before
+	public void setup() {
+		processor = new ConvertColumnMapsToJSON();
+		MockProcessContext processContext = new MockProcessContext(processor);
+		processor.initialize(new MockProcessorInitializationContext(processor, processContext));
+		processor.initializeObjectMapper(processContext);
+	}
+
+	@Test
+	public void writeColumnMapAsUtf8() throws Exception {
+		Map<String, Object> columnMap = new LinkedHashMap<>();
+		columnMap.put("first_name", "Zo\u00eb");
+		columnMap.put("city", "Krak\u00f3w");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		processor.writeColumnMap(columnMap, out);
+		processor.writeColumnMap(columnMap, out);
+
+		String json = "{\"first_name\":\"Zo\u00eb\",\"city\":\"Krak\u00f3w\"}";
+		assertArrayEquals((json + json).getBytes(StandardCharsets.UTF_8), out.toByteArray());
+	}
+
+	@Test
+	public void sqlDateFormat() throws Exception {
+		MockProcessContext processContext = new MockProcessContext(processor);
+		assertFalse(processContext.setProperty(ConvertColumnMapsToJSON.SQL_DATE_FORMAT, "yyyy-MM-dd'T").isValid());
+		assertTrue(processContext.setProperty(ConvertColumnMapsToJSON.SQL_DATE_FORMAT, "dd/MM/yyyy").isValid());
+		processor.initializeObjectMapper(processContext);
+
+		Map<String, Object> columnMap = new LinkedHashMap<>();
+		columnMap.put("rental_date", Date.valueOf("2005-05-24"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		processor.writeColumnMap(columnMap, out);
+		assertEquals("{\"rental_date\":\"24/05/2005\"}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void jsonLinesBatch() throws Exception {
+		JsonDocumentBatch batch = new JsonDocumentBatch(false);
+		addDocuments(batch);
+		assertEquals("{\"id\":1}\n{\"id\":2}\n", write(batch));
+		assertEquals("1\n2", batch.getIds());
+		assertEquals(2, batch.getCount());
+
+		batch.clear();
+		assertTrue(batch.isEmpty());
+		assertEquals("", write(batch));
+	}
+
+	@Test
+	public void jsonArrayBatch() throws Exception {
+		JsonDocumentBatch batch = new JsonDocumentBatch(true);
+		assertEquals("[]", write(batch));
+		addDocuments(batch);
+		assertEquals("[{\"id\":1},{\"id\":2}]", write(batch));
+	}
+
+	private void addDocuments(JsonDocumentBatch batch) throws Exception {
+		for (int id = 1; id <= 2; id++) {
+			Map<String, Object> columnMap = new LinkedHashMap<>();
+			columnMap.put("id", id);
+			processor.writeColumnMap(columnMap, batch.startDocument());
+			batch.endDocument(id);
+		}
+	}
+
+	private String write(JsonDocumentBatch batch) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		batch.writeTo(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,155 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.row;
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.rows;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExecuteSQLToColumnMapsTest {
+
+	private static final String RENTALS_JSON = "{\"primaryKeyColumnName\": \"customer_id\", \"childQueries\": [" +
+		"{\"query\": \"select * from Rental\", \"primaryKeyColumnName\": \"rental_id\", " +
+		"\"foreignKeyColumnName\": \"customer_id\", \"propertyName\": \"rentals\"}]}";
+
+	private TestRunner runner;
+
+	@Before
+	public void setup() throws InitializationException {
+		runner = TestRunners.newTestRunner(ExecuteSQLToColumnMaps.class);
+		FakeDBCPService dbcpService = new FakeDBCPService(new FakeDatabase((sql, parameters) -> rows()));
+		runner.addControllerService("dbcp", dbcpService);
+		runner.enableControllerService(dbcpService);
+		runner.setProperty(ExecuteSQLToColumnMaps.DBCP_SERVICE, "dbcp");
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer order by customer_id");
+	}
+
+	@Test
+	public void orderByInFullMode() {
+		runner.assertValid();
+	}
+
+	@Test
+	public void partitionedQueryWithOrderBy() {
+		runner.setProperty(ExecuteSQLToColumnMaps.EXTRACTION_MODE, ExecuteSQLToColumnMaps.PARTITIONED);
+		runner.setProperty(ExecuteSQLToColumnMaps.PARTITION_COLUMN, "customer_id");
+		runner.assertNotValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer where store_id = " +
+			"(select max(store_id) from Store order by 1) and last_name <> 'order by'");
+		runner.assertValid();
+	}
+
+	@Test
+	public void incrementalQueryWithOrderBy() {
+		runner.setProperty(ExecuteSQLToColumnMaps.EXTRACTION_MODE, ExecuteSQLToColumnMaps.INCREMENTAL);
+		runner.setProperty(ExecuteSQLToColumnMaps.MAX_VALUE_COLUMN, "last_update");
+		runner.assertNotValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+		runner.assertValid();
+	}
+
+	@Test
+	public void keysetQueryWithOrderBy() {
+		runner.setProperty(ExecuteSQLToColumnMaps.EXTRACTION_MODE, ExecuteSQLToColumnMaps.KEYSET);
+		runner.setProperty(ExecuteSQLToColumnMaps.KEYSET_COLUMN, "customer_id");
+		runner.assertNotValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+		runner.assertValid();
+	}
+
+	@Test
+	public void partitionedWithMergeJoin() {
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+		runner.setProperty(ExecuteSQLToColumnMaps.EXTRACTION_MODE, ExecuteSQLToColumnMaps.PARTITIONED);
+		runner.setProperty(ExecuteSQLToColumnMaps.PARTITION_COLUMN, "customer_id");
+		runner.assertValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.MERGE_JOIN_CHILD_QUERY_JSON, RENTALS_JSON);
+		runner.assertNotValid();
+	}
+
+	@Test
+	public void mergeJoinQueryWithOrderBy() {
+		runner.setProperty(ExecuteSQLToColumnMaps.MERGE_JOIN_CHILD_QUERY_JSON, RENTALS_JSON);
+		runner.assertNotValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+		runner.assertValid();
+	}
+
+	@Test
+	public void invalidMergeJoinChildQueries() {
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+		runner.setProperty(ExecuteSQLToColumnMaps.MERGE_JOIN_CHILD_QUERY_JSON, RENTALS_JSON);
+		runner.assertValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.MERGE_JOIN_CHILD_QUERY_JSON, "{\"childQueries\": [");
+		runner.assertNotValid();
+
+		runner.setProperty(ExecuteSQLToColumnMaps.MERGE_JOIN_CHILD_QUERY_JSON, "{\"primaryKeyColumnName\": \"customer_id\", " +
+			"\"childQueries\": [{\"lookupTable\": \"store\", \"foreignKeyColumnName\": \"store_id\", \"propertyName\": \"store\"}]}");
+		runner.assertNotValid();
+	}
+
+	@Test
+	public void mergeJoinLargeObjectsAcrossBatches() throws Exception {
+		final byte[] firstReceipt = newReceipt(1);
+		final byte[] secondReceipt = newReceipt(2);
+		FakeDBCPService dbcpService = new FakeDBCPService(new FakeDatabase((sql, parameters) -> sql.contains("from Rental") ?
+			rows(row("rental_id", 11, "customer_id", 1, "receipt", firstReceipt), row("rental_id", 12, "customer_id", 2, "receipt", secondReceipt)) :
+			rows(row("customer_id", 1), row("customer_id", 2))));
+		runner.addControllerService("lobs", dbcpService);
+		runner.enableControllerService(dbcpService);
+		runner.setProperty(ExecuteSQLToColumnMaps.DBCP_SERVICE, "lobs");
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+		runner.setProperty(ExecuteSQLToColumnMaps.MERGE_JOIN_CHILD_QUERY_JSON, RENTALS_JSON);
+		runner.setProperty(ExecuteSQLToColumnMaps.BATCH_SIZE, "1");
+		runner.setProperty(LargeObjectStore.THRESHOLD, "10 B");
+		runner.run();
+
+		// The rental of the second customer is read ahead while the first batch is merged, and written with the second
+		runner.assertAllFlowFilesTransferred(ExecuteSQLToColumnMaps.SUCCESS, 2);
+		List<MockFlowFile> flowFiles = runner.getFlowFilesForRelationship(ExecuteSQLToColumnMaps.SUCCESS);
+		assertArrayEquals(firstReceipt, readReceipt(flowFiles.get(0)));
+		assertArrayEquals(secondReceipt, readReceipt(flowFiles.get(1)));
+	}
+
+	private byte[] newReceipt(int rentalNumber) {
+		byte[] receipt = new byte[100];
+		Arrays.fill(receipt, (byte) rentalNumber);
+		return receipt;
+	}
+
+	private byte[] readReceipt(MockFlowFile flowFile) throws IOException {
+		Map<String, Object> customer = new ColumnMapsDecoder(new ByteArrayInputStream(flowFile.toByteArray())).readColumnMaps().get(0);
+		return (byte[]) ((List<Map<String, Object>>) customer.get("rentals")).get(0).get("receipt");
+	}
+
+	@Test
+	public void hasOrderBy() {
+		assertTrue(ExecuteSQLToColumnMaps.hasOrderBy("select * from Customer ORDER  BY customer_id"));
+		assertTrue(ExecuteSQLToColumnMaps.hasOrderBy("select * from Customer\norder\nby customer_id"));
+		assertTrue(ExecuteSQLToColumnMaps.hasOrderBy("select (select 1) as one, 'it''s' from Customer order by 1"));
+		assertFalse(ExecuteSQLToColumnMaps.hasOrderBy("select * from Customer"));
+		assertFalse(ExecuteSQLToColumnMaps.hasOrderBy("select row_number() over (order by customer_id) from Customer"));
+		assertFalse(ExecuteSQLToColumnMaps.hasOrderBy("select * from Customer where note = 'order by'"));
+		assertFalse(ExecuteSQLToColumnMaps.hasOrderBy("select `order by` from Customer"));
+		assertFalse(ExecuteSQLToColumnMaps.hasOrderBy("select * from Customer_order by_name"));
+	}
+}
@@ -0,0 +1,162 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.row;
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.rows;
+import static org.junit.Assert.assertEquals;
+
+public class ExecuteSQLToDocumentsTest {
+
+	private static final String RENTALS_JSON = "{\"primaryKeyColumnName\": \"customer_id\", \"childQueries\": [" +
+		"{\"query\": \"select * from Rental\", \"primaryKeyColumnName\": \"rental_id\", " +
+		"\"foreignKeyColumnName\": \"customer_id\", \"propertyName\": \"rentals\"}]}";
+
+	private CommitCountingProcessor processor = new CommitCountingProcessor();
+	private FakeDatabase database;
+	private TestRunner runner;
+
+	@Before
+	public void setup() throws InitializationException {
+		database = new FakeDatabase((sql, parameters) -> {
+			if (sql.contains("from Rental")) {
+				List<Map<String, Object>> rentals = new ArrayList<>();
+				for (Object customerId : parameters) {
+					rentals.add(row("rental_id", 100 + ((Number) customerId).intValue(), "customer_id", customerId));
+				}
+				return rentals;
+			}
+			return rows(row("customer_id", 1, "first_name", "Mary"), row("customer_id", 2, "first_name", "Patricia"),
+				row("customer_id", 3, "first_name", "Linda"));
+		});
+
+		runner = TestRunners.newTestRunner(processor);
+		FakeDBCPService dbcpService = new FakeDBCPService(database);
+		runner.addControllerService("dbcp", dbcpService);
+		runner.enableControllerService(dbcpService);
+		runner.setProperty(ExecuteSQLToColumnMaps.DBCP_SERVICE, "dbcp");
+		runner.setProperty(ExecuteSQLToColumnMaps.QUERY, "select * from Customer");
+	}
+
+	@Test
+	public void oneDocumentPerRow() {
+		runner.run();
+
+		runner.assertAllFlowFilesTransferred(ExecuteSQLToDocuments.CONTENT, 3);
+		List<MockFlowFile> flowFiles = runner.getFlowFilesForRelationship(ExecuteSQLToDocuments.CONTENT);
+		flowFiles.get(0).assertContentEquals("{\"customer_id\":1,\"first_name\":\"Mary\"}");
+		flowFiles.get(2).assertContentEquals("{\"customer_id\":3,\"first_name\":\"Linda\"}");
+		assertEquals(1, database.getExecutedStatements().size());
+		assertEquals(0, database.getOpenConnectionCount());
+	}
+
+	@Test
+	public void commitAfterEachFullBatch() {
+		runner.setProperty(ExecuteSQLToColumnMaps.BATCH_SIZE, "2");
+		runner.setProperty(ConvertColumnMapsToJSON.OUTPUT_MODE, ConvertColumnMapsToJSON.JSON_LINES);
+		runner.run();
+
+		// The first batch is committed by the processor, and the partial batch by the framework
+		assertEquals(1, processor.commitCount);
+		runner.assertAllFlowFilesTransferred(ExecuteSQLToDocuments.CONTENT, 1);
+		runner.getFlowFilesForRelationship(ExecuteSQLToDocuments.CONTENT).get(0).assertContentEquals(
+			"{\"customer_id\":1,\"first_name\":\"Mary\"}\n" +
+				"{\"customer_id\":2,\"first_name\":\"Patricia\"}\n" +
+				"{\"customer_id\":3,\"first_name\":\"Linda\"}\n");
+	}
+
+	@Test
+	public void childQueries() {
+		runner.setProperty(ExecuteSQLToColumnMaps.BATCH_SIZE, "2");
+		runner.setProperty(ExecuteSQLToDocuments.CHILD_QUERY_JSON, RENTALS_JSON);
+		runner.run();
+
+		runner.assertAllFlowFilesTransferred(ExecuteSQLToDocuments.CONTENT, 3);
+		List<MockFlowFile> flowFiles = runner.getFlowFilesForRelationship(ExecuteSQLToDocuments.CONTENT);
+		flowFiles.get(0).assertContentEquals("{\"customer_id\":1,\"first_name\":\"Mary\"," +
+			"\"rentals\":[{\"rental_id\":101,\"customer_id\":1}]}");
+		flowFiles.get(2).assertContentEquals("{\"customer_id\":3,\"first_name\":\"Linda\"," +
+			"\"rentals\":[{\"rental_id\":103,\"customer_id\":3}]}");
+
+		// The main query, and then one child query per batch
+		assertEquals(3, database.getExecutedStatements().size());
+		assertEquals(2, database.getExecutedParameters().get(1).size());
+		assertEquals(1, database.getExecutedParameters().get(2).size());
+		assertEquals(0, database.getOpenConnectionCount());
+	}
+
+	@Test
+	public void metricsOfEachBatch() {
+		runner.setProperty(ExecuteSQLToColumnMaps.BATCH_SIZE, "2");
+		runner.setProperty(ExecuteSQLToDocuments.CHILD_QUERY_JSON, RENTALS_JSON);
+		runner.run();
+
+		Map<String, StageMetrics.Snapshot> snapshot = processor.getMetricsSnapshot();
+		for (String stage : new String[]{RowToDocMetrics.QUERY, "child.rentals", RowToDocMetrics.JSON}) {
+			assertEquals(stage, 2, snapshot.get(stage).getCount());
+			assertEquals(stage, 3, snapshot.get(stage).getRows());
+			assertEquals(stage, Long.valueOf(3), runner.getCounterValue(stage + " rows"));
+		}
+
+		long contentBytes = 0;
+		for (MockFlowFile flowFile : runner.getFlowFilesForRelationship(ExecuteSQLToDocuments.CONTENT)) {
+			contentBytes += flowFile.getSize();
+		}
+		assertEquals(contentBytes, snapshot.get(RowToDocMetrics.JSON).getBytes());
+	}
+
+	@Test
+	public void metricsIncludeDocumentsSentWhenFinished() {
+		runner.setProperty(ExecuteSQLToColumnMaps.BATCH_SIZE, "2");
+		runner.setProperty(ConvertColumnMapsToJSON.OUTPUT_MODE, ConvertColumnMapsToJSON.JSON_LINES);
+		runner.run();
+
+		MockFlowFile flowFile = runner.getFlowFilesForRelationship(ExecuteSQLToDocuments.CONTENT).get(0);
+		assertEquals(flowFile.getSize(), processor.getMetricsSnapshot().get(RowToDocMetrics.JSON).getBytes());
+	}
+
+	@Test
+	public void invalidChildQueryJson() {
+		runner.setProperty(ExecuteSQLToDocuments.CHILD_QUERY_JSON, "{\"childQueries\": [{\"query\": \"select * from Rental\"}]}");
+		runner.assertNotValid();
+	}
+
+	/**
+	 * Counts the commits of the session that onTrigger is given, which doesn't include the framework's commit after
+	 * onTrigger returns.
+	 */
+	private static class CommitCountingProcessor extends ExecuteSQLToDocuments {
+
+		private int commitCount;
+
+		@Override
+		public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+			ProcessSession countingSession = (ProcessSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[]{ProcessSession.class}, (proxy, method, args) -> {
+					if ("commit".equals(method.getName())) {
+						commitCount++;
+					}
+					try {
+						return method.invoke(session, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+			super.onTrigger(context, countingSession);
+		}
+	}
+}
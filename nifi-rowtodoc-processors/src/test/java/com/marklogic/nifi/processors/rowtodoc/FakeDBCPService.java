@@ -0,0 +1,25 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.dbcp.DBCPService;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.sql.Connection;
+
+/**
+ * Connection pool that returns a new connection to a {@link FakeDatabase} each time, for testing processors via a
+ * TestRunner.
+ */
+public class FakeDBCPService extends AbstractControllerService implements DBCPService {
+
+	private final FakeDatabase database;
+
+	public FakeDBCPService(FakeDatabase database) {
+		this.database = database;
+	}
+
+	@Override
+	public Connection getConnection() throws ProcessException {
+		return database.newConnection();
+	}
+}
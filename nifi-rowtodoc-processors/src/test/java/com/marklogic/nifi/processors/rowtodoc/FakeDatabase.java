@@ -0,0 +1,331 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simple stand-in for a JDBC database in tests. Every query is answered by a {@link QueryHandler}, and every statement
+ * that is executed - queries, updates, and batches - is recorded along with its parameters. Connections, statements,
+ * and ResultSets are dynamic proxies that implement only what the processors use.
+ * <p>
+ * Like MySQL when streaming, a connection can be limited to one open ResultSet at a time, so that tests can verify
+ * that a query isn't executed on a connection whose ResultSet is still being read.
+ */
+public class FakeDatabase {
+
+	@FunctionalInterface
+	public interface QueryHandler {
+		/**
+		 * @param sql
+		 * @param parameters the bound parameters, in order; an array parameter is bound as an Object[]
+		 * @return the rows of the query, each with the same columns in the same order
+		 * @throws SQLException
+		 */
+		List<Map<String, Object>> query(String sql, List<Object> parameters) throws SQLException;
+	}
+
+	/**
+	 * Called before each call to ResultSet.next, e.g. to make the ResultSets of parallel queries advance in step.
+	 */
+	@FunctionalInterface
+	public interface NextListener {
+		void beforeNext(String sql) throws Exception;
+	}
+
+	private final QueryHandler queryHandler;
+	private final List<String> executedStatements = Collections.synchronizedList(new ArrayList<>());
+	private final List<List<Object>> executedParameters = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> failingStatements = new ArrayList<>();
+	private final AtomicInteger metaDataCount = new AtomicInteger();
+	private NextListener nextListener;
+	private boolean singleOpenResultSet;
+	private int openConnectionCount;
+	private int connectionCount;
+
+	public FakeDatabase(QueryHandler queryHandler) {
+		this.queryHandler = queryHandler;
+	}
+
+	/**
+	 * Limits each connection to one open ResultSet at a time; executing a query while another is open fails.
+	 */
+	public FakeDatabase withSingleOpenResultSet() {
+		this.singleOpenResultSet = true;
+		return this;
+	}
+
+	/**
+	 * @param sqlPrefix every statement whose SQL starts with this - e.g. "DROP TABLE" - fails with a SQLException
+	 */
+	public FakeDatabase failOn(String sqlPrefix) {
+		failingStatements.add(sqlPrefix);
+		return this;
+	}
+
+	public FakeDatabase withNextListener(NextListener nextListener) {
+		this.nextListener = nextListener;
+		return this;
+	}
+
+	public synchronized Connection newConnection() {
+		connectionCount++;
+		openConnectionCount++;
+		return proxy(Connection.class, new FakeConnection());
+	}
+
+	public List<String> getExecutedStatements() {
+		return executedStatements;
+	}
+
+	public List<List<Object>> getExecutedParameters() {
+		return executedParameters;
+	}
+
+	/**
+	 * @return the number of times that the metadata of a ResultSet has been requested
+	 */
+	public int getMetaDataCount() {
+		return metaDataCount.get();
+	}
+
+	public synchronized int getConnectionCount() {
+		return connectionCount;
+	}
+
+	public synchronized int getOpenConnectionCount() {
+		return openConnectionCount;
+	}
+
+	private void execute(String sql, List<Object> parameters) throws SQLException {
+		executedStatements.add(sql);
+		executedParameters.add(parameters);
+		for (String prefix : failingStatements) {
+			if (sql.startsWith(prefix)) {
+				throw new SQLException("Failed: " + sql);
+			}
+		}
+	}
+
+	private class FakeConnection implements InvocationHandler {
+
+		private boolean closed;
+		private boolean autoCommit = true;
+		private FakeResultSet openResultSet;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "prepareStatement":
+					return proxy(PreparedStatement.class, new FakeStatement(this, (String) args[0]));
+				case "createStatement":
+					return proxy(PreparedStatement.class, new FakeStatement(this, null));
+				case "createArrayOf":
+					final Object[] elements = (Object[]) args[1];
+					return proxy(Array.class, (p, m, a) -> "getArray".equals(m.getName()) ? elements : null);
+				case "getAutoCommit":
+					return autoCommit;
+				case "setAutoCommit":
+					autoCommit = (Boolean) args[0];
+					return null;
+				case "isClosed":
+					return closed;
+				case "close":
+					if (!closed) {
+						closed = true;
+						synchronized (FakeDatabase.this) {
+							openConnectionCount--;
+						}
+					}
+					return null;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					return null;
+			}
+		}
+
+		FakeResultSet openResultSet(String sql, List<Map<String, Object>> rows) throws SQLException {
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+			if (singleOpenResultSet && openResultSet != null && !openResultSet.closed) {
+				throw new SQLException("Streaming result set is still active on this connection");
+			}
+			openResultSet = new FakeResultSet(sql, rows);
+			return openResultSet;
+		}
+	}
+
+	private class FakeStatement implements InvocationHandler {
+
+		private final FakeConnection connection;
+		private final String sql;
+		private final Map<Integer, Object> parameters = new TreeMap<>();
+		private final List<List<Object>> batches = new ArrayList<>();
+
+		FakeStatement(FakeConnection connection, String sql) {
+			this.connection = connection;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "setObject":
+					parameters.put((Integer) args[0], args[1]);
+					return null;
+				case "setArray":
+					parameters.put((Integer) args[0], ((Array) args[1]).getArray());
+					return null;
+				case "executeQuery":
+					final List<Object> values = new ArrayList<>(parameters.values());
+					execute(sql, values);
+					return proxy(ResultSet.class, connection.openResultSet(sql, queryHandler.query(sql, values)));
+				case "executeUpdate":
+					execute(args != null ? (String) args[0] : sql, new ArrayList<>(parameters.values()));
+					return 0;
+				case "addBatch":
+					batches.add(new ArrayList<>(parameters.values()));
+					parameters.clear();
+					return null;
+				case "executeBatch":
+					for (List<Object> batch : batches) {
+						execute(sql, batch);
+					}
+					int[] counts = new int[batches.size()];
+					batches.clear();
+					return counts;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					return defaultValue(method);
+			}
+		}
+	}
+
+	private class FakeResultSet implements InvocationHandler {
+
+		private final String sql;
+		private final List<Map<String, Object>> rows;
+		private final List<String> columnNames;
+		private int index = -1;
+		private boolean closed;
+
+		FakeResultSet(String sql, List<Map<String, Object>> rows) {
+			this.sql = sql;
+			this.rows = rows;
+			this.columnNames = rows.isEmpty() ? Collections.emptyList() : new ArrayList<>(rows.get(0).keySet());
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "next":
+					if (closed) {
+						throw new SQLException("ResultSet is closed");
+					}
+					if (nextListener != null) {
+						nextListener.beforeNext(sql);
+					}
+					return ++index < rows.size();
+				case "getMetaData":
+					metaDataCount.incrementAndGet();
+					return proxy(ResultSetMetaData.class, this::invokeMetaData);
+				case "getObject":
+				case "getString":
+					Object value = rows.get(index).get(columnNames.get((Integer) args[0] - 1));
+					return "getString".equals(method.getName()) && value != null ? value.toString() : value;
+				case "getBytes":
+					return rows.get(index).get(columnNames.get((Integer) args[0] - 1));
+				case "getBinaryStream":
+					byte[] bytes = (byte[]) rows.get(index).get(columnNames.get((Integer) args[0] - 1));
+					return bytes != null ? new ByteArrayInputStream(bytes) : null;
+				case "close":
+					closed = true;
+					return null;
+				case "isClosed":
+					return closed;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					return defaultValue(method);
+			}
+		}
+
+		private Object invokeMetaData(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+				case "getColumnCount":
+					return columnNames.size();
+				case "getColumnLabel":
+				case "getColumnName":
+					return columnNames.get((Integer) args[0] - 1);
+				case "getColumnType":
+					Object value = rows.get(0).get(columnNames.get((Integer) args[0] - 1));
+					return value instanceof String ? Types.VARCHAR : value instanceof byte[] ? Types.BLOB : Types.OTHER;
+				default:
+					return null;
+			}
+		}
+	}
+
+	private static Object defaultValue(Method method) {
+		if (method.getReturnType() == boolean.class) {
+			return Boolean.FALSE;
+		}
+		return method.getReturnType() == int.class ? (Object) 0 : null;
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+			try {
+				return handler.invoke(proxy, method, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}));
+	}
+
+	/**
+	 * @param columnsAndValues alternating column names and values
+	 * @return a row with the given columns, in the given order
+	 */
+	public static Map<String, Object> row(Object... columnsAndValues) {
+		Map<String, Object> row = new LinkedHashMap<>();
+		for (int i = 0; i < columnsAndValues.length; i += 2) {
+			row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+		}
+		return row;
+	}
+
+	/**
+	 * @return the given rows as a list, for returning from a QueryHandler
+	 */
+	@SafeVarargs
+	public static List<Map<String, Object>> rows(Map<String, Object>... rows) {
+		return new ArrayList<>(Arrays.asList(rows));
+	}
+}
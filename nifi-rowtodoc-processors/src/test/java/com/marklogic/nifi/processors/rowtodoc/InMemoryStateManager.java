@@ -0,0 +1,60 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simple StateManager for tests, which implements replace the same way as NiFi - i.e. only if the version of the
+ * given StateMap is still current, and never for state that has not been set yet, whose version is -1.
+ */
+public class InMemoryStateManager implements StateManager {
+
+	private Map<String, String> state = new HashMap<>();
+	private long version = -1;
+
+	@Override
+	public synchronized void setState(Map<String, String> state, Scope scope) {
+		this.state = new HashMap<>(state);
+		version++;
+	}
+
+	@Override
+	public synchronized StateMap getState(Scope scope) {
+		final Map<String, String> copy = new HashMap<>(state);
+		final long currentVersion = version;
+		return new StateMap() {
+			@Override
+			public long getVersion() {
+				return currentVersion;
+			}
+
+			@Override
+			public String get(String key) {
+				return copy.get(key);
+			}
+
+			@Override
+			public Map<String, String> toMap() {
+				return copy;
+			}
+		};
+	}
+
+	@Override
+	public synchronized boolean replace(StateMap oldValue, Map<String, String> newValue, Scope scope) {
+		if (oldValue.getVersion() == -1 || oldValue.getVersion() != version) {
+			return false;
+		}
+		setState(newValue, scope);
+		return true;
+	}
+
+	@Override
+	public synchronized void clear(Scope scope) {
+		setState(new HashMap<>(), scope);
+	}
+}
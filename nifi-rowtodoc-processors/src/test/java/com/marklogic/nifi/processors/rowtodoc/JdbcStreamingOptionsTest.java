@@ -0,0 +1,121 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcStreamingOptionsTest {
+
+	private List<String> calls = new ArrayList<>();
+	private boolean autoCommit = true;
+	private Integer fetchSize;
+
+	@Test
+	public void standardModePassesFetchSize() throws Exception {
+		JdbcStreamingOptions options = new JdbcStreamingOptions(JdbcStreamingOptions.STANDARD.getValue(), 500);
+		Connection connection = newConnection();
+
+		assertTrue(options.prepareConnection(connection));
+		options.prepareStatement(connection, "select * from Customer");
+		options.restoreConnection(connection, true);
+
+		assertEquals(Integer.valueOf(500), fetchSize);
+		assertEquals(Arrays.asList("getAutoCommit", "prepareStatement", "getAutoCommit"), calls);
+	}
+
+	@Test
+	public void standardModeWithoutFetchSizeUsesDriverDefault() throws Exception {
+		new JdbcStreamingOptions(JdbcStreamingOptions.STANDARD.getValue(), 0).prepareStatement(newConnection(), "select * from Customer");
+		assertNull(fetchSize);
+	}
+
+	@Test
+	public void mysqlStreamingIgnoresFetchSize() throws Exception {
+		JdbcStreamingOptions options = new JdbcStreamingOptions(JdbcStreamingOptions.MYSQL_STREAMING.getValue(), 500);
+		Connection connection = newConnection();
+
+		options.prepareConnection(connection);
+		options.prepareStatement(connection, "select * from Customer");
+
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE), fetchSize);
+		assertTrue("Autocommit is left as is", autoCommit);
+	}
+
+	@Test
+	public void postgresqlCursorDisablesAndRestoresAutoCommit() throws Exception {
+		JdbcStreamingOptions options = new JdbcStreamingOptions(JdbcStreamingOptions.POSTGRESQL_CURSOR.getValue(), 0);
+		Connection connection = newConnection();
+
+		final boolean originalAutoCommit = options.prepareConnection(connection);
+		assertTrue(originalAutoCommit);
+		assertFalse(autoCommit);
+
+		options.prepareStatement(connection, "select * from Customer");
+		assertEquals("A cursor needs a fetch size, so the default is used", Integer.valueOf(1000), fetchSize);
+
+		calls.clear();
+		options.restoreConnection(connection, originalAutoCommit);
+		assertTrue(autoCommit);
+		assertEquals(Arrays.asList("getAutoCommit", "rollback", "setAutoCommit"), calls);
+	}
+
+	@Test
+	public void postgresqlCursorLeavesManualCommitConnectionAsIs() throws Exception {
+		autoCommit = false;
+		JdbcStreamingOptions options = new JdbcStreamingOptions(JdbcStreamingOptions.POSTGRESQL_CURSOR.getValue(), 200);
+		Connection connection = newConnection();
+
+		final boolean originalAutoCommit = options.prepareConnection(connection);
+		assertFalse(originalAutoCommit);
+		options.prepareStatement(connection, "select * from Customer");
+		assertEquals(Integer.valueOf(200), fetchSize);
+
+		calls.clear();
+		options.restoreConnection(connection, originalAutoCommit);
+		assertFalse(autoCommit);
+		assertEquals("Nothing is rolled back on a connection the caller manages", Arrays.asList("getAutoCommit"), calls);
+	}
+
+	/**
+	 * @return a Connection that records the name of each method called on it, and whose statements record the fetch
+	 * size; every statement must be prepared as forward-only and read-only
+	 */
+	private Connection newConnection() {
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+			calls.add(method.getName());
+			switch (method.getName()) {
+				case "getAutoCommit":
+					return autoCommit;
+				case "setAutoCommit":
+					autoCommit = (Boolean) args[0];
+					return null;
+				case "prepareStatement":
+					assertEquals(ResultSet.TYPE_FORWARD_ONLY, args[1]);
+					assertEquals(ResultSet.CONCUR_READ_ONLY, args[2]);
+					return newStatement();
+				default:
+					return null;
+			}
+		});
+	}
+
+	private PreparedStatement newStatement() {
+		return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, (proxy, method, args) -> {
+			if ("setFetchSize".equals(method.getName())) {
+				fetchSize = (Integer) args[0];
+			}
+			return null;
+		});
+	}
+}
@@ -0,0 +1,48 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyComparatorTest {
+
+	private final KeyComparator comparator = KeyComparator.INSTANCE;
+
+	@Test
+	public void numbersOfDifferentTypes() {
+		assertEquals(0, comparator.compare(1, 1L));
+		assertEquals(0, comparator.compare((short) 7, new BigDecimal("7.00")));
+		assertEquals(0, comparator.compare(BigInteger.TEN, 10));
+		assertTrue(comparator.compare(2, 10L) < 0);
+		assertTrue(comparator.compare(new BigDecimal("2.5"), 2) > 0);
+		assertTrue("Longs beyond the precision of a double are compared exactly",
+			comparator.compare(Long.MAX_VALUE - 1, Long.MAX_VALUE) < 0);
+	}
+
+	@Test
+	public void nullsSortFirst() {
+		assertEquals(0, comparator.compare(null, null));
+		assertTrue(comparator.compare(null, 1) < 0);
+		assertTrue(comparator.compare("a", null) > 0);
+	}
+
+	@Test
+	public void comparablesAndOtherValues() {
+		assertTrue(comparator.compare("apple", "banana") < 0);
+		assertTrue(comparator.compare(Date.valueOf("2018-01-02"), Date.valueOf("2018-01-01")) > 0);
+		assertTrue("Values of different types are compared as strings", comparator.compare("10", 9L) < 0);
+	}
+
+	@Test
+	public void compoundKeys() {
+		CompoundKey key = new CompoundKey(new Object[]{1, "b"});
+		assertEquals(0, comparator.compare(key, new CompoundKey(new Object[]{1L, "b"})));
+		assertTrue(comparator.compare(key, new CompoundKey(new Object[]{1, "c"})) < 0);
+		assertTrue(comparator.compare(key, new CompoundKey(new Object[]{0L, "z"})) > 0);
+	}
+}
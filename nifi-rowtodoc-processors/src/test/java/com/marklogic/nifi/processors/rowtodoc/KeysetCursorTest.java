@@ -0,0 +1,65 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KeysetCursorTest {
+
+	private final static String QUERY = "select * from Customer";
+
+	@Test
+	public void pages() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		stateManager.setState(Collections.singletonMap("other", "value"), null);
+
+		KeysetCursor cursor = new KeysetCursor(stateManager, QUERY, "customer_id", 100);
+		cursor.loadState();
+		assertEquals("SELECT * FROM (select * from Customer) rowtodoc_keyset ORDER BY rowtodoc_keyset.customer_id",
+			cursor.getQuery());
+
+		cursor.observe(row(1));
+		cursor.observe(row(100));
+		cursor.saveState();
+		assertEquals("SELECT * FROM (select * from Customer) rowtodoc_keyset WHERE rowtodoc_keyset.customer_id > ? " +
+			"ORDER BY rowtodoc_keyset.customer_id", cursor.getQuery());
+
+		cursor = new KeysetCursor(stateManager, QUERY, "customer_id", 100);
+		cursor.loadState();
+		assertEquals("An export should resume after the last key that was saved", 100L, cursor.getLastKey());
+
+		cursor.reset();
+		Map<String, String> state = stateManager.getState(null).toMap();
+		assertNull(state.get(KeysetCursor.LAST_KEY));
+		assertEquals("Other entries in the state should be kept", "value", state.get("other"));
+
+		cursor = new KeysetCursor(stateManager, QUERY, "customer_id", 100);
+		cursor.loadState();
+		assertNull(cursor.getLastKey());
+	}
+
+	@Test
+	public void firstPageFromEmptyState() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		KeysetCursor cursor = new KeysetCursor(stateManager, QUERY, "customer_id", 100);
+		cursor.loadState();
+		cursor.observe(row(50));
+		cursor.saveState();
+		assertEquals("50", stateManager.getState(null).get(KeysetCursor.LAST_KEY));
+
+		cursor = new KeysetCursor(stateManager, QUERY, "customer_id", 100);
+		cursor.loadState();
+		assertEquals(50L, cursor.getLastKey());
+	}
+
+	private Map<String, Object> row(Object key) {
+		Map<String, Object> row = new HashMap<>();
+		row.put("customer_id", key);
+		return row;
+	}
+}
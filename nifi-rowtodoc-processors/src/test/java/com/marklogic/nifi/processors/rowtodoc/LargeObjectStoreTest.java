@@ -0,0 +1,143 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LargeObjectStoreTest {
+
+	@Test
+	public void valuesOverThresholdGoToFiles() throws Exception {
+		try (LargeObjectStore store = new LargeObjectStore(100, null)) {
+			byte[] small = newBytes(100);
+			assertArrayEquals(small, (byte[]) store.readBinary(new ByteArrayInputStream(small)));
+			assertEquals("Hello", store.readCharacters(new StringReader("Hello")));
+			assertEquals(0, store.getFileCount());
+
+			byte[] large = newBytes(20000);
+			LargeObject binary = (LargeObject) store.readBinary(new ByteArrayInputStream(large));
+			assertTrue(binary.isBinary());
+			assertEquals(20000, binary.getLength());
+
+			String text = newText(5000);
+			LargeObject characters = (LargeObject) store.readCharacters(new StringReader(text));
+			assertEquals(text.getBytes(StandardCharsets.UTF_8).length, characters.getLength());
+			assertEquals(2, store.getFileCount());
+
+			// Java serialization materializes the values, so that any reader can read them
+			List<Object> list = new ArrayList<>();
+			list.add(binary);
+			list.add(characters);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+				oos.writeObject(list);
+			}
+			List<?> values = (List<?>) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+			assertArrayEquals(large, (byte[]) values.get(0));
+			assertEquals(text, values.get(1));
+		}
+	}
+
+	@Test
+	public void codecAndWritersStreamLargeObjects() throws Exception {
+		byte[] bytes = newBytes(20000);
+		String text = newText(5000);
+
+		try (LargeObjectStore store = new LargeObjectStore(1000, null)) {
+			Map<String, Object> columnMap = new LinkedCaseInsensitiveMap<>();
+			columnMap.put("id", 1);
+			columnMap.put("scan", store.readBinary(new ByteArrayInputStream(bytes)));
+			columnMap.put("notes", store.readCharacters(new StringReader(text)));
+
+			// Same as the column map with its values in memory
+			Map<String, Object> expected = new LinkedCaseInsensitiveMap<>();
+			expected.put("id", 1);
+			expected.put("scan", bytes);
+			expected.put("notes", text);
+
+			ObjectMapper objectMapper = ConvertColumnMapsToJSON.newObjectMapper(null);
+			ColumnMapJsonWriter jsonWriter = new ColumnMapJsonWriter(objectMapper, null, null, null);
+			assertEquals(objectMapper.writeValueAsString(expected), jsonWriter.writeValueAsString(columnMap));
+
+			ColumnMapXmlWriter xmlWriter = new ColumnMapXmlWriter("doc", "item", null, null);
+			ByteArrayOutputStream expectedXml = new ByteArrayOutputStream();
+			xmlWriter.write(expected, expectedXml);
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			xmlWriter.write(columnMap, xml);
+			assertEquals(expectedXml.toString("UTF-8"), xml.toString("UTF-8"));
+
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			try (BufferedOutputStream out = new BufferedOutputStream(encoded)) {
+				new ColumnMapsEncoder(out).writeColumnMaps(Collections.singletonList(columnMap));
+			}
+
+			// Without a store, the values are read into memory, as they would be by an earlier version
+			Map<String, Object> decoded = new ColumnMapsDecoder(new ByteArrayInputStream(encoded.toByteArray())).readColumnMaps().get(0);
+			assertArrayEquals(bytes, (byte[]) decoded.get("scan"));
+			assertEquals(text, decoded.get("notes"));
+
+			// With a store, they're copied into it
+			decoded = new ColumnMapsDecoder(new ByteArrayInputStream(encoded.toByteArray()), null, store).readColumnMaps().get(0);
+			assertEquals(1, decoded.get("id"));
+			assertTrue(decoded.get("scan") instanceof LargeObject);
+			assertTrue(decoded.get("notes") instanceof LargeObject);
+			assertEquals(objectMapper.writeValueAsString(expected), jsonWriter.writeValueAsString(decoded));
+			assertEquals(4, store.getFileCount());
+		}
+	}
+
+	@Test
+	public void closeExceptRetainedValues() throws Exception {
+		try (LargeObjectStore store = new LargeObjectStore(10, null)) {
+			byte[] bytes = newBytes(100);
+			store.readBinary(new ByteArrayInputStream(bytes));
+			LargeObject retained = (LargeObject) store.readBinary(new ByteArrayInputStream(bytes));
+			assertEquals(2, store.getFileCount());
+
+			store.closeExcept(Arrays.asList(1, retained, "text"));
+			assertEquals(1, store.getFileCount());
+			try (InputStream in = retained.openStream()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				LargeObjectStore.copy(in, out, retained.getLength());
+				assertArrayEquals(bytes, out.toByteArray());
+			}
+		}
+	}
+
+	private byte[] newBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Includes multi-byte characters, so that the UTF-8 length differs from the number of characters.
+	 */
+	private String newText(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(i % 10 == 0 ? '\u00e9' : (char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,68 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MaxValueTrackerTest {
+
+	private final static String QUERY = "select * from Customer";
+
+	@Test
+	public void timestampMaxValue() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		MaxValueTracker tracker = new MaxValueTracker(stateManager, QUERY, "last_update");
+		tracker.loadState();
+		assertNull(tracker.getLastMaxValue());
+		assertEquals("The first run should read every row", QUERY, tracker.getQuery());
+
+		tracker.observe(row("last_update", Timestamp.valueOf("2018-01-02 10:00:00.123456789")));
+		tracker.observe(row("last_update", Timestamp.valueOf("2018-01-02 10:00:00.123")));
+		tracker.observe(row("last_update", null));
+		tracker.saveState();
+
+		tracker = new MaxValueTracker(stateManager, QUERY, "last_update");
+		tracker.loadState();
+		assertEquals(Timestamp.valueOf("2018-01-02 10:00:00.123456789"), tracker.getLastMaxValue());
+		assertEquals("SELECT * FROM (select * from Customer) rowtodoc_incremental WHERE rowtodoc_incremental.last_update > ?",
+			tracker.getQuery());
+	}
+
+	@Test
+	public void numericMaxValue() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		stateManager.setState(Collections.singletonMap("other", "value"), null);
+
+		MaxValueTracker tracker = new MaxValueTracker(stateManager, QUERY, "id");
+		tracker.loadState();
+		tracker.observe(row("id", 5));
+		tracker.observe(row("id", 12L));
+		tracker.observe(row("id", new BigDecimal("7.5")));
+		tracker.saveState();
+
+		Map<String, String> state = stateManager.getState(null).toMap();
+		assertEquals("12", state.get(MaxValueTracker.MAX_VALUE_KEY));
+		assertEquals("Other entries in the state should be kept", "value", state.get("other"));
+
+		tracker = new MaxValueTracker(stateManager, QUERY, "id");
+		tracker.loadState();
+		assertEquals(12L, tracker.getLastMaxValue());
+
+		tracker = new MaxValueTracker(stateManager, "select * from Rental", "id");
+		tracker.loadState();
+		assertNull("A different query should ignore the saved value", tracker.getLastMaxValue());
+	}
+
+	private Map<String, Object> row(String column, Object value) {
+		Map<String, Object> row = new HashMap<>();
+		row.put(column, value);
+		return row;
+	}
+}
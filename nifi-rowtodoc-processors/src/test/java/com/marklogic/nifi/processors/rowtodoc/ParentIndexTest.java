@@ -0,0 +1,68 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParentIndexTest {
+
+	@Test
+	public void integralKeys() {
+		List<Map<String, Object>> parents = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			parents.add(row("customer_id", i * 7));
+		}
+		parents.add(row("customer_id", null));
+
+		ParentIndex index = ParentIndex.build(parents, new String[]{"customer_id"});
+		assertTrue(index instanceof LongKeyParentIndex);
+		assertEquals(1000, index.getKeys().size());
+		assertEquals(0L, index.getKeys().get(0));
+		assertEquals(6993L, index.getKeys().get(999));
+
+		// A Long or Short foreign key finds an Integer primary key
+		assertSame(parents.get(3), index.findParent(row("customer_id", 21L), new String[]{"customer_id"}));
+		assertSame(parents.get(2), index.findParent(row("customer_id", (short) 14), new String[]{"customer_id"}));
+		assertNull(index.findParent(row("customer_id", 22), new String[]{"customer_id"}));
+		assertNull(index.findParent(row("customer_id", null), new String[]{"customer_id"}));
+	}
+
+	@Test
+	public void stringKeys() {
+		List<Map<String, Object>> parents = Arrays.asList(row("code", "A"), row("code", "B"));
+		ParentIndex index = ParentIndex.build(parents, new String[]{"code"});
+		assertTrue(index instanceof ObjectKeyParentIndex);
+		assertEquals(Arrays.asList("A", "B"), index.getKeys());
+		assertSame(parents.get(1), index.findParent(row("parent_code", "B"), new String[]{"parent_code"}));
+	}
+
+	@Test
+	public void compoundKeys() {
+		Map<String, Object> parent = row("order_id", 1);
+		parent.put("store_id", 2);
+		ParentIndex index = ParentIndex.build(Arrays.asList(parent), new String[]{"order_id", "store_id"});
+
+		Map<String, Object> child = row("order_id", 1L);
+		child.put("store_id", 2);
+		assertSame(parent, index.findParent(child, new String[]{"order_id", "store_id"}));
+
+		child.put("store_id", 3);
+		assertNull(index.findParent(child, new String[]{"order_id", "store_id"}));
+		assertEquals(new CompoundKey(new Object[]{1, 2}), index.getKeys().get(0));
+	}
+
+	private static Map<String, Object> row(String columnName, Object value) {
+		Map<String, Object> row = new LinkedCaseInsensitiveMap<>();
+		row.put(columnName, value);
+		return row;
+	}
+}
@@ -0,0 +1,89 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.apache.nifi.components.state.Scope;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionClaimsTest {
+
+	@Test
+	public void moduloCondition() {
+		QueryPartition partition = new QueryPartition("1", 0, 4, QueryPartition.MODULO, 0, 0);
+		assertEquals("(ABS(MOD(id, 4)) = 0 OR id IS NULL)", partition.getCondition("id"));
+
+		partition = new QueryPartition("1", 3, 4, QueryPartition.MODULO, 0, 0);
+		assertEquals("SELECT * FROM (select * from Customer) rowtodoc_partition WHERE ABS(MOD(rowtodoc_partition.id, 4)) = 3",
+			partition.wrap("select * from Customer", "id"));
+	}
+
+	@Test
+	public void rangeConditions() {
+		assertEquals("(id < 26 OR id IS NULL)", new QueryPartition("1", 0, 4, QueryPartition.RANGE, 1, 100).getCondition("id"));
+		assertEquals("id >= 26 AND id < 51", new QueryPartition("1", 1, 4, QueryPartition.RANGE, 1, 100).getCondition("id"));
+		assertEquals("id >= 76", new QueryPartition("1", 3, 4, QueryPartition.RANGE, 1, 100).getCondition("id"));
+		assertEquals("(1 = 1 OR id IS NULL)", new QueryPartition("1", 0, 1, QueryPartition.RANGE, 1, 100).getCondition("id"));
+	}
+
+	@Test
+	public void claimEveryPartitionThenStartNewRun() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		PartitionClaims claims = new PartitionClaims(stateManager, 3, QueryPartition.RANGE, 60000);
+
+		Set<Integer> indexes = new HashSet<>();
+		QueryPartition first = null;
+		for (int i = 0; i < 3; i++) {
+			QueryPartition partition = claims.claim(() -> new long[]{1, 300});
+			assertNotNull(partition);
+			indexes.add(partition.getIndex());
+			if (first == null) {
+				first = partition;
+			}
+		}
+		assertEquals(3, indexes.size());
+		assertNull("Every partition is claimed, so none should be available", claims.claim(() -> new long[]{1, 300}));
+
+		claims.release(first);
+		QueryPartition reclaimed = claims.claim(() -> new long[]{1, 300});
+		assertEquals(first.getIndex(), reclaimed.getIndex());
+		assertEquals(first.getRunId(), reclaimed.getRunId());
+
+		for (int i = 0; i < 3; i++) {
+			claims.complete(new QueryPartition(first.getRunId(), i, 3, QueryPartition.RANGE, 1, 300), 10);
+		}
+		assertEquals(3, claims.getDoneCount());
+
+		Thread.sleep(2);
+		QueryPartition next = claims.claim(() -> new long[]{1, 300});
+		assertEquals(0, next.getIndex());
+		assertNotEquals("A new run should start once every partition is done", first.getRunId(), next.getRunId());
+		assertEquals(0, claims.getDoneCount());
+	}
+
+	@Test
+	public void claimFromEmptyState() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		assertEquals(-1, stateManager.getState(Scope.CLUSTER).getVersion());
+
+		PartitionClaims claims = new PartitionClaims(stateManager, 2, QueryPartition.MODULO, 60000);
+		assertEquals(0, claims.claim(null).getIndex());
+		assertEquals(1, claims.claim(null).getIndex());
+		assertTrue(stateManager.getState(Scope.CLUSTER).get(PartitionClaims.PARTITION_KEY_PREFIX + 0).startsWith("claimed:"));
+	}
+
+	@Test
+	public void staleClaimCanBeClaimedAgain() throws Exception {
+		InMemoryStateManager stateManager = new InMemoryStateManager();
+		PartitionClaims claims = new PartitionClaims(stateManager, 1, QueryPartition.MODULO, 0);
+		QueryPartition partition = claims.claim(null);
+		Thread.sleep(2);
+		assertEquals(partition.getIndex(), claims.claim(null).getIndex());
+	}
+}
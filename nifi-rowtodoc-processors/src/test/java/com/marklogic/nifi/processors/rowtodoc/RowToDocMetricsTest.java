@@ -0,0 +1,57 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RowToDocMetricsTest {
+
+	@Test
+	public void stagePercentiles() {
+		StageMetrics stage = new StageMetrics("query");
+		for (int i = 0; i < 99; i++) {
+			stage.record(TimeUnit.MICROSECONDS.toNanos(100), 10, 0);
+		}
+		stage.record(TimeUnit.MILLISECONDS.toNanos(50), 10, 0);
+
+		StageMetrics.Snapshot snapshot = stage.snapshot();
+		assertEquals(100, snapshot.getCount());
+		assertEquals(1000, snapshot.getRows());
+		assertEquals(50.0, snapshot.getMaxMillis(), 0.001);
+		// 100 microseconds falls in the bucket below 128 microseconds
+		assertEquals(0.128, snapshot.getPercentileMillis(50), 0.001);
+		assertEquals(0.128, snapshot.getPercentileMillis(99), 0.001);
+		assertEquals(50.0, snapshot.getPercentileMillis(100), 0.001);
+	}
+
+	@Test
+	public void attributesAndCumulativeMetrics() {
+		RowToDocMetrics metrics = new RowToDocMetrics();
+		metrics.stage(RowToDocMetrics.CHILD_PREFIX + "rentals").record(TimeUnit.MILLISECONDS.toNanos(12), 250, 0);
+		metrics.stage(RowToDocMetrics.WRITE).record(TimeUnit.MILLISECONDS.toNanos(3), 10, 4096);
+
+		Map<String, String> attributes = metrics.toAttributes();
+		assertEquals("12", attributes.get("rowtodoc.metrics.child.rentals.millis"));
+		assertEquals("250", attributes.get("rowtodoc.metrics.child.rentals.rows"));
+		assertFalse("Bytes are only included for stages that write bytes", attributes.containsKey("rowtodoc.metrics.child.rentals.bytes"));
+		assertEquals("4096", attributes.get("rowtodoc.metrics.write.bytes"));
+
+		final String componentId = "metrics-test";
+		try {
+			metrics.addTo(RowToDocMetrics.forComponent(componentId));
+			metrics.addTo(RowToDocMetrics.forComponent(componentId));
+			StageMetrics.Snapshot snapshot = RowToDocMetrics.getSnapshots().get(componentId).get("child.rentals");
+			assertEquals(2, snapshot.getCount());
+			assertEquals(500, snapshot.getRows());
+		} finally {
+			RowToDocMetrics.unregister(componentId);
+		}
+		assertTrue(RowToDocMetrics.forComponent(componentId).isEmpty());
+		RowToDocMetrics.unregister(componentId);
+	}
+}
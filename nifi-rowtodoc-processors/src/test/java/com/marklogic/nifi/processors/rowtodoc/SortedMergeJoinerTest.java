@@ -0,0 +1,112 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.row;
+import static com.marklogic.nifi.processors.rowtodoc.FakeDatabase.rows;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SortedMergeJoinerTest {
+
+	private ChildQueryExecutor executor = new ChildQueryExecutor();
+
+	@Test
+	public void wrapWithOrderBy() {
+		assertEquals("SELECT * FROM (select * from Line) rowtodoc_sorted ORDER BY rowtodoc_sorted.order_id, rowtodoc_sorted.store_id",
+			SortedMergeJoiner.wrapWithOrderBy("select * from Line", "order_id", "store_id"));
+	}
+
+	@Test
+	public void mergeChildRowsAcrossBatches() throws Exception {
+		// Like MySQL when streaming, each connection only allows one open ResultSet
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> {
+			if (sql.contains("from Rental")) {
+				// Rental 10 has no parent in the batches below, and a null key can't have one
+				return rows(row("rental_id", 10, "customer_id", 0), row("rental_id", 99, "customer_id", null),
+					row("rental_id", 11, "customer_id", 1L), row("rental_id", 12, "customer_id", 1L),
+					row("rental_id", 13, "customer_id", 3L));
+			}
+			List<Map<String, Object>> payments = new ArrayList<>();
+			for (Object rentalId : parameters) {
+				payments.add(row("payment_id", 100 + ((Number) rentalId).intValue(), "rental_id", rentalId));
+			}
+			return payments;
+		}).withSingleOpenResultSet();
+
+		SortedMergeJoiner joiner = new SortedMergeJoiner(executor.compile(newCustomerQuery()), executor, JdbcStreamingOptions.DEFAULT);
+		try {
+			joiner.open(database::newConnection);
+			List<Map<String, Object>> firstBatch = rows(row("customer_id", 1), row("customer_id", 2));
+			joiner.attachChildRows(firstBatch);
+			List<Map<String, Object>> secondBatch = rows(row("customer_id", 3));
+			joiner.attachChildRows(secondBatch);
+
+			List<Map<String, Object>> rentals = (List<Map<String, Object>>) firstBatch.get(0).get("rentals");
+			assertEquals(2, rentals.size());
+			assertEquals(11, rentals.get(0).get("rental_id"));
+			assertEquals(111, ((List<Map<String, Object>>) rentals.get(0).get("payments")).get(0).get("payment_id"));
+			assertFalse(firstBatch.get(1).containsKey("rentals"));
+			rentals = (List<Map<String, Object>>) secondBatch.get(0).get("rentals");
+			assertEquals(13, rentals.get(0).get("rental_id"));
+			assertEquals(113, ((List<Map<String, Object>>) rentals.get(0).get("payments")).get(0).get("payment_id"));
+
+			// One connection for the merged rentals, and one for the payments under them
+			assertEquals(2, database.getConnectionCount());
+		} finally {
+			joiner.close();
+		}
+		assertEquals(0, database.getOpenConnectionCount());
+	}
+
+	@Test
+	public void childRowsOutOfOrder() throws Exception {
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> rows(row("rental_id", 11, "customer_id", 2),
+			row("rental_id", 12, "customer_id", 1)));
+		TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+		customerQuery.addChildQuery(new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals"));
+
+		SortedMergeJoiner joiner = new SortedMergeJoiner(executor.compile(customerQuery), executor, JdbcStreamingOptions.DEFAULT);
+		try {
+			joiner.open(database::newConnection);
+			joiner.attachChildRows(rows(row("customer_id", 1), row("customer_id", 2), row("customer_id", 3)));
+			fail("Expected the child rows to be out of order");
+		} catch (IllegalStateException ex) {
+			assertEquals("Child rows of rentals are not sorted by customer_id; 1 follows 2", ex.getMessage());
+		} finally {
+			joiner.close();
+		}
+	}
+
+	@Test
+	public void parentRowsOutOfOrder() throws Exception {
+		FakeDatabase database = new FakeDatabase((sql, parameters) -> rows());
+		TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+		customerQuery.addChildQuery(new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals"));
+
+		SortedMergeJoiner joiner = new SortedMergeJoiner(executor.compile(customerQuery), executor, JdbcStreamingOptions.DEFAULT);
+		try {
+			joiner.open(database::newConnection);
+			joiner.attachChildRows(rows(row("customer_id", 2)));
+			joiner.attachChildRows(rows(row("customer_id", 1)));
+			fail("Expected the parent rows to be out of order");
+		} catch (IllegalStateException ex) {
+			assertEquals("Parent rows are not sorted by customer_id; 1 follows 2", ex.getMessage());
+		} finally {
+			joiner.close();
+		}
+	}
+
+	private TableQuery newCustomerQuery() {
+		TableQuery customerQuery = new TableQuery(null, "customer_id", null, null);
+		TableQuery rentalQuery = new TableQuery("select * from Rental", "rental_id", "customer_id", "rentals");
+		rentalQuery.addChildQuery(new TableQuery("select * from Payment", "payment_id", "rental_id", "payments"));
+		customerQuery.addChildQuery(rentalQuery);
+		return customerQuery;
+	}
+}
@@ -0,0 +1,164 @@
+package com.marklogic.nifi.processors.rowtodoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillableColumnMapListTest {
+
+	@Test
+	public void smallListsStayInMemory() {
+		try (ChildRowSpill spill = new ChildRowSpill(1024 * 1024, null)) {
+			SpillableColumnMapList list = spill.newList();
+			for (int i = 0; i < 10; i++) {
+				list.add(newPayment(i));
+			}
+			assertFalse(list.isSpilled());
+			assertEquals(10, list.size());
+			assertEquals(0, spill.getSpilledListCount());
+		}
+	}
+
+	@Test
+	public void largeListSpillsAndIsReadBack() throws Exception {
+		ChildRowSpill spill = new ChildRowSpill(16 * 1024, null);
+		SpillableColumnMapList smallList = spill.newList();
+		smallList.add(newPayment(-1));
+
+		final int rowCount = SpillableColumnMapList.CHUNK_SIZE * 3 + 10;
+		SpillableColumnMapList largeList = spill.newList();
+		for (int i = 0; i < rowCount; i++) {
+			largeList.add(newPayment(i));
+		}
+
+		assertTrue(largeList.isSpilled());
+		assertFalse(smallList.isSpilled());
+		assertEquals(1, spill.getSpilledListCount());
+		assertTrue("Only the rows that haven't been written to disk should be held in memory",
+			spill.getMemoryBytes() < 16 * 1024);
+
+		assertEquals(rowCount, largeList.size());
+		int expectedId = 0;
+		for (Map<String, Object> row : largeList) {
+			assertEquals(expectedId++, row.get("PAYMENT_ID"));
+		}
+		assertEquals(rowCount, expectedId);
+		assertEquals(300, largeList.get(300).get("payment_id"));
+
+		// A spilled list is written as a nested batch and read back like any other list of child rows
+		Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+		customer.put("customer_id", 1);
+		customer.put("payments", largeList);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new ColumnMapsEncoder(baos).writeColumnMaps(Arrays.asList(customer));
+		List<Map<String, Object>> payments = (List<Map<String, Object>>) new ColumnMapsDecoder(
+			new ByteArrayInputStream(baos.toByteArray())).readColumnMaps().get(0).get("payments");
+		assertEquals(rowCount, payments.size());
+		assertEquals(rowCount - 1, payments.get(rowCount - 1).get("payment_id"));
+
+		// Jackson iterates the list rather than calling get for each row
+		String json = new ObjectMapper().writeValueAsString(customer);
+		assertTrue(json.contains("{\"payment_id\":0,"));
+		assertTrue(json.contains("{\"payment_id\":" + (rowCount - 1) + ","));
+
+		spill.close();
+		assertEquals(0, spill.getSpilledListCount());
+		assertEquals(0, spill.getMemoryBytes());
+		assertEquals(0, largeList.size());
+	}
+
+	@Test
+	public void getClosesTheSpilledFile() {
+		// Counts the open file descriptors of this process, which is only possible on Linux
+		final File fileDescriptors = new File("/proc/self/fd");
+		Assume.assumeTrue(fileDescriptors.isDirectory());
+
+		try (ChildRowSpill spill = new ChildRowSpill(16 * 1024, null)) {
+			final int rowCount = SpillableColumnMapList.CHUNK_SIZE * 2 + 10;
+			SpillableColumnMapList list = spill.newList();
+			for (int i = 0; i < rowCount; i++) {
+				list.add(newPayment(i));
+			}
+			assertTrue(list.isSpilled());
+
+			final int openFiles = fileDescriptors.list().length;
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, list.get(i).get("payment_id"));
+			}
+			assertEquals(rowCount - 1, list.get(rowCount - 1).get("payment_id"));
+			assertEquals(openFiles, fileDescriptors.list().length);
+		}
+	}
+
+	@Test
+	public void decoderReadsNestedListsIntoSpill() throws Exception {
+		List<Map<String, Object>> rentals = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			rentals.add(newPayment(i));
+		}
+		Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+		customer.put("customer_id", 1);
+		customer.put("rentals", rentals);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new ColumnMapsEncoder(baos).writeColumnMaps(Arrays.asList(customer));
+
+		try (ChildRowSpill spill = new ChildRowSpill(16 * 1024, null)) {
+			List<Map<String, Object>> columnMaps = new ColumnMapsDecoder(new ByteArrayInputStream(baos.toByteArray()), spill).readColumnMaps();
+			SpillableColumnMapList list = (SpillableColumnMapList) columnMaps.get(0).get("rentals");
+			assertTrue(list.isSpilled());
+			Iterator<Map<String, Object>> iterator = list.iterator();
+			for (int i = 0; i < 1000; i++) {
+				assertEquals("Note " + i, iterator.next().get("note"));
+			}
+			assertFalse(iterator.hasNext());
+		}
+	}
+
+	@Test
+	public void spilledColumnMapsAreWrittenInVersion2() throws Exception {
+		try (ChildRowSpill spill = new ChildRowSpill(16 * 1024, null)) {
+			SpillableColumnMapList rentals = spill.newList();
+			Map<String, Object> rental = newPayment(0);
+			rental.put("staff", Collections.singletonMap("staff_id", 1));
+			rentals.add(rental);
+			for (int i = 1; i < SpillableColumnMapList.CHUNK_SIZE * 2; i++) {
+				rentals.add(newPayment(i));
+			}
+			assertTrue(rentals.isSpilled());
+			assertTrue("The row with the column map was written to disk", rentals.containsColumnMap());
+
+			Map<String, Object> customer = new LinkedCaseInsensitiveMap<>();
+			customer.put("customer_id", 1);
+			customer.put("rentals", rentals);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			new ColumnMapsEncoder(baos).writeColumnMaps(Arrays.asList(customer));
+			byte[] bytes = baos.toByteArray();
+			assertEquals(ColumnMapsFormat.VERSION, bytes[ColumnMapsFormat.MAGIC.length]);
+			List<Map<String, Object>> columnMaps = new ColumnMapsDecoder(new ByteArrayInputStream(bytes)).readColumnMaps();
+			Map<String, Object> staff = (Map<String, Object>) ((List<Map<String, Object>>) columnMaps.get(0).get("rentals")).get(0).get("staff");
+			assertEquals(1, staff.get("staff_id"));
+		}
+	}
+
+	private Map<String, Object> newPayment(int id) {
+		Map<String, Object> payment = new LinkedCaseInsensitiveMap<>();
+		payment.put("payment_id", id);
+		payment.put("note", "Note " + id);
+		return payment;
+	}
+}